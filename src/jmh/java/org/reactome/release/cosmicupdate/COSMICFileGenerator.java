@@ -0,0 +1,232 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates synthetic COSMIC Mutant Export, Mutation Tracking and Fusion Export files for benchmarking.
+ * The files have the same layout as the real files (tab-separated, with a header, and roughly the same columns and row widths), but the
+ * values are random. The generator is seeded, so the same arguments always produce the same files.
+ * <br/>
+ * It can also be run on its own to generate files at a realistic scale:
+ * <pre>java -cp cosmic-update-jar-with-dependencies.jar org.reactome.release.cosmicupdate.COSMICFileGenerator outputDir mutationRows fusionRows</pre>
+ */
+class COSMICFileGenerator
+{
+	static final String MUTANT_EXPORT_FILE_NAME = "CosmicMutantExport.tsv";
+	static final String MUTATION_TRACKING_FILE_NAME = "CosmicMutationTracking.tsv";
+	static final String FUSION_EXPORT_FILE_NAME = "CosmicFusionExport.tsv";
+
+	// The number of rows is divided by these to get the largest mutation ID and fusion ID that will be generated, so each mutation appears
+	// in about four rows (one for each sample it was found in), and each fusion in about three.
+	private static final int MUTATIONS_PER_ROW_DIVISOR = 4;
+	private static final int FUSIONS_PER_ROW_DIVISOR = 3;
+	private static final String[] GENES = { "BRAF", "KRAS", "TP53", "EGFR", "PIK3CA", "NRAS", "APC", "PTEN", "IDH1", "ALK" };
+	private static final String[] SITES = { "lung", "large_intestine", "skin", "breast", "thyroid", "haematopoietic_and_lymphoid_tissue" };
+	private static final String[] MUTATION_COLUMNS = { "GENE_NAME", "ACCESSION_NUMBER", "GENE_CDS_LENGTH", "HGNC_ID", "SAMPLE_NAME", "ID_SAMPLE",
+		"ID_TUMOUR", "PRIMARY_SITE", "GENOMIC_MUTATION_ID", "LEGACY_MUTATION_ID", "MUTATION_ID", "MUTATION_CDS", "MUTATION_AA",
+		"MUTATION_DESCRIPTION", "MUTATION_ZYGOSITY", "GRCH", "MUTATION_GENOME_POSITION", "MUTATION_STRAND", "FATHMM_PREDICTION" };
+	private static final String[] FUSION_COLUMNS = { "SAMPLE_ID", "SAMPLE_NAME", "PRIMARY_SITE", "PRIMARY_HISTOLOGY", "FUSION_ID",
+		"TRANSLOCATION_NAME", "5'_CHROMOSOME", "5'_STRAND", "5'_GENE_ID", "5'_GENE_NAME", "3'_CHROMOSOME", "3'_STRAND", "3'_GENE_ID",
+		"3'_GENE_NAME", "FUSION_TYPE", "PUBMED_PMID" };
+
+	private final Random random;
+	private final long mutationRows;
+	private final long fusionRows;
+
+	/**
+	 * @param seed The seed for the random values.
+	 * @param mutationRows The number of rows to generate in each of the mutation files.
+	 * @param fusionRows The number of rows to generate in the Fusion Export file.
+	 */
+	COSMICFileGenerator(long seed, long mutationRows, long fusionRows)
+	{
+		this.random = new Random(seed);
+		this.mutationRows = mutationRows;
+		this.fusionRows = fusionRows;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		Path outputDirectory = Paths.get(args.length > 0 ? args[0] : ".");
+		long mutationRows = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+		long fusionRows = args.length > 2 ? Long.parseLong(args[2]) : 100_000L;
+		Files.createDirectories(outputDirectory);
+		new COSMICFileGenerator(1L, mutationRows, fusionRows).writeFiles(outputDirectory, false);
+	}
+
+	/**
+	 * @return The largest legacy mutation ID that can appear in the mutation files.
+	 */
+	long getMaxMutationID()
+	{
+		return Math.max(1, this.mutationRows / MUTATIONS_PER_ROW_DIVISOR);
+	}
+
+	/**
+	 * @return The largest fusion ID that can appear in the Fusion Export file.
+	 */
+	long getMaxFusionID()
+	{
+		return Math.max(1, this.fusionRows / FUSIONS_PER_ROW_DIVISOR);
+	}
+
+	/**
+	 * Writes all three files.
+	 * @param outputDirectory Where to write the files.
+	 * @param gzip If true, the files are gzipped and named with a ".gz" extension.
+	 * @return The paths of the Mutant Export, Mutation Tracking and Fusion Export files, keyed by file name (without ".gz").
+	 * @throws IOException
+	 */
+	Map<String, Path> writeFiles(Path outputDirectory, boolean gzip) throws IOException
+	{
+		Map<String, Path> files = new HashMap<>();
+		String extension = gzip ? COSMICUpdateUtil.GZIP_EXTENSION : "";
+		for (String fileName : new String[] { MUTANT_EXPORT_FILE_NAME, MUTATION_TRACKING_FILE_NAME })
+		{
+			Path file = outputDirectory.resolve(fileName + extension);
+			try(Writer writer = createWriter(file, gzip))
+			{
+				writeMutationFile(writer);
+			}
+			files.put(fileName, file);
+		}
+		Path fusionFile = outputDirectory.resolve(FUSION_EXPORT_FILE_NAME + extension);
+		try(Writer writer = createWriter(fusionFile, gzip))
+		{
+			writeFusionFile(writer);
+		}
+		files.put(FUSION_EXPORT_FILE_NAME, fusionFile);
+		return files;
+	}
+
+	/**
+	 * Chooses the COSMIC identifiers that would be in the database: a mix of legacy IDs (with and without the COSM prefix) and fusion IDs.
+	 * About half of them are in the generated files.
+	 * @param count The number of identifiers.
+	 * @return The identifiers.
+	 */
+	List<String> generateDatabaseIdentifiers(int count)
+	{
+		List<String> identifiers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			// Half of the identifiers are beyond the IDs in the files, so they won't be found.
+			boolean inFiles = this.random.nextBoolean();
+			int kind = this.random.nextInt(10);
+			if (kind == 0)
+			{
+				long fusionID = 1 + (long) (this.random.nextDouble() * getMaxFusionID()) + (inFiles ? 0 : getMaxFusionID());
+				identifiers.add(COSMICUpdateUtil.COSMIC_FUSION_PREFIX + fusionID);
+			}
+			else
+			{
+				long mutationID = 1 + (long) (this.random.nextDouble() * getMaxMutationID()) + (inFiles ? 0 : getMaxMutationID());
+				identifiers.add(kind < 5 ? String.valueOf(mutationID) : COSMICUpdateUtil.COSMIC_LEGACY_PREFIX + mutationID);
+			}
+		}
+		return identifiers;
+	}
+
+	private static Writer createWriter(Path file, boolean gzip) throws IOException
+	{
+		OutputStream out = Files.newOutputStream(file);
+		if (gzip)
+		{
+			out = new GZIPOutputStream(out, 1 << 16);
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private void writeMutationFile(Writer writer) throws IOException
+	{
+		writer.write(String.join("\t", MUTATION_COLUMNS));
+		writer.write('\n');
+		for (long row = 0; row < this.mutationRows; row++)
+		{
+			long mutationID = 1 + (long) (this.random.nextDouble() * getMaxMutationID());
+			String gene = GENES[this.random.nextInt(GENES.length)];
+			int sampleID = 1_000_000 + this.random.nextInt(1_000_000);
+			int position = 1 + this.random.nextInt(200_000_000);
+			writer.write(gene);
+			writer.write("\tENST0000");
+			writer.write(String.valueOf(this.random.nextInt(10_000_000)));
+			writer.write('\t');
+			writer.write(String.valueOf(this.random.nextInt(10_000)));
+			writer.write('\t');
+			writer.write(String.valueOf(this.random.nextInt(50_000)));
+			writer.write("\tTCGA-");
+			writer.write(String.valueOf(sampleID));
+			writer.write('\t');
+			writer.write(String.valueOf(sampleID));
+			writer.write('\t');
+			writer.write(String.valueOf(sampleID + 7));
+			writer.write('\t');
+			writer.write(SITES[this.random.nextInt(SITES.length)]);
+			// The same mutation always has the same COSV identifier.
+			writer.write("\tCOSV");
+			writer.write(String.valueOf(50_000_000 + mutationID));
+			writer.write("\tCOSM");
+			writer.write(String.valueOf(mutationID));
+			writer.write('\t');
+			writer.write(String.valueOf(mutationID));
+			writer.write("\tc.");
+			writer.write(String.valueOf(position % 10_000));
+			writer.write("T>A\tp.V");
+			writer.write(String.valueOf(position % 1_000));
+			writer.write("E\tSubstitution - Missense\thet\t38\t7:");
+			writer.write(String.valueOf(position));
+			writer.write('-');
+			writer.write(String.valueOf(position));
+			writer.write("\t-\tPATHOGENIC\n");
+		}
+	}
+
+	private void writeFusionFile(Writer writer) throws IOException
+	{
+		writer.write(String.join("\t", FUSION_COLUMNS));
+		writer.write('\n');
+		for (long row = 0; row < this.fusionRows; row++)
+		{
+			long fusionID = 1 + (long) (this.random.nextDouble() * getMaxFusionID());
+			String fivePrimeGene = GENES[this.random.nextInt(GENES.length)];
+			String threePrimeGene = GENES[this.random.nextInt(GENES.length)];
+			int sampleID = 1_000_000 + this.random.nextInt(1_000_000);
+			writer.write(String.valueOf(sampleID));
+			writer.write("\tTCGA-");
+			writer.write(String.valueOf(sampleID));
+			writer.write('\t');
+			writer.write(SITES[this.random.nextInt(SITES.length)]);
+			writer.write("\tcarcinoma\t");
+			writer.write(String.valueOf(fusionID));
+			writer.write('\t');
+			writer.write(fivePrimeGene);
+			writer.write("{ENST00000288602}:r.1_1396_");
+			writer.write(threePrimeGene);
+			writer.write("{ENST00000318560}:r.1727_5037\t7\t-\t");
+			writer.write(String.valueOf(this.random.nextInt(50_000)));
+			writer.write('\t');
+			writer.write(fivePrimeGene);
+			writer.write("\t9\t+\t");
+			writer.write(String.valueOf(this.random.nextInt(50_000)));
+			writer.write('\t');
+			writer.write(threePrimeGene);
+			writer.write("\tInferred Breakpoint\t");
+			writer.write(String.valueOf(20_000_000 + this.random.nextInt(10_000_000)));
+			writer.write('\n');
+		}
+	}
+}
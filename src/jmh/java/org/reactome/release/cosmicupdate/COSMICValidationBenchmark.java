@@ -0,0 +1,111 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the passes over the COSMIC files, on synthetic files generated by COSMICFileGenerator.
+ * The default sizes keep a run short; a release-sized run can be done by overriding the parameters, e.g.
+ * <pre>java -cp cosmic-update-jar-with-dependencies.jar org.openjdk.jmh.Main COSMICValidationBenchmark -p mutationRows=50000000 -p gzip=true</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class COSMICValidationBenchmark
+{
+	@Param({ "1000000" })
+	public long mutationRows;
+
+	@Param({ "100000" })
+	public long fusionRows;
+
+	// The number of COSMIC identifiers in the database.
+	@Param({ "20000" })
+	public int identifierCount;
+
+	@Param({ "false", "true" })
+	public boolean gzip;
+
+	@Param({ "1" })
+	public int parsingThreads;
+
+	private Path directory;
+	private Map<String, Path> files;
+	private Map<String, List<COSMICIdentifierUpdater>> updaters;
+	private COSMICIdentifierIndex identifierIndex;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		COSMICUpdateUtil.setParsingThreads(this.parsingThreads);
+		this.directory = Files.createTempDirectory("cosmic-benchmark");
+		COSMICFileGenerator generator = new COSMICFileGenerator(1L, this.mutationRows, this.fusionRows);
+		this.updaters = new HashMap<>();
+		for (String identifier : generator.generateDatabaseIdentifiers(this.identifierCount))
+		{
+			COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+			updater.setIdentifier(identifier);
+			this.updaters.computeIfAbsent(identifier, k -> new ArrayList<>()).add(updater);
+		}
+		this.identifierIndex = new COSMICIdentifierIndex(this.updaters.keySet());
+		this.files = generator.writeFiles(this.directory, this.gzip);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		try(Stream<Path> paths = Files.walk(this.directory))
+		{
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public COSMICMutationMatches validateAgainstCosmicMutantExport() throws IOException
+	{
+		return COSMICUpdateUtil.validateAgainstCosmicMutantExport(this.identifierIndex,
+			this.files.get(COSMICFileGenerator.MUTANT_EXPORT_FILE_NAME).toString());
+	}
+
+	@Benchmark
+	public COSMICMutationMatches validateAgainstCosmicMutationTracking() throws IOException
+	{
+		return COSMICUpdateUtil.validateAgainstCosmicMutationTracking(this.identifierIndex,
+			this.files.get(COSMICFileGenerator.MUTATION_TRACKING_FILE_NAME).toString());
+	}
+
+	@Benchmark
+	public Set<String> validateAgainstCosmicFusionExport() throws IOException
+	{
+		return COSMICUpdateUtil.validateAgainstCosmicFusionExport(this.updaters, this.files.get(COSMICFileGenerator.FUSION_EXPORT_FILE_NAME).toString());
+	}
+}
@@ -0,0 +1,121 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks <code>determinePrefixes</code> on an in-memory graph of COSMIC identifiers, EWASes, reference sequences and modified residues,
+ * built from FakeInstances so that no database is needed. The shape of the graph roughly follows the COSMIC data in a Reactome release:
+ * most identifiers are referred to by one or two EWASes, a few by none or by a non-EWAS, and some EWASes have fragment modifications.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DeterminePrefixesBenchmark
+{
+	@Param({ "20000" })
+	public int identifierCount;
+
+	private Path reportsDirectory;
+	private List<GKInstance> cosmicObjects;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException
+	{
+		this.reportsDirectory = Files.createTempDirectory("cosmic-benchmark-reports");
+		COSMICUpdateUtil.setReportsDirectoryPath(this.reportsDirectory.toString());
+
+		Random random = new Random(1L);
+		long dbID = 1;
+		List<FakeInstance> referenceSequences = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			referenceSequences.add(new FakeInstance(ReactomeJavaConstants.ReferenceGeneProduct, dbID++));
+		}
+		this.cosmicObjects = new ArrayList<>(this.identifierCount);
+		for (int i = 0; i < this.identifierCount; i++)
+		{
+			int kind = random.nextInt(10);
+			String identifier = kind < 5 ? String.valueOf(1 + i) : (kind < 9 ? COSMICUpdateUtil.COSMIC_LEGACY_PREFIX : COSMICUpdateUtil.COSMIC_FUSION_PREFIX) + (1 + i);
+			FakeInstance cosmicObject = new FakeInstance(ReactomeJavaConstants.DatabaseIdentifier, dbID++)
+				.addValue(ReactomeJavaConstants.identifier, identifier);
+			this.cosmicObjects.add(cosmicObject);
+
+			int referrerCount = random.nextInt(20) == 0 ? 0 : 1 + random.nextInt(2);
+			for (int j = 0; j < referrerCount; j++)
+			{
+				if (random.nextInt(50) == 0)
+				{
+					new FakeInstance(ReactomeJavaConstants.Complex, dbID++).addValue(ReactomeJavaConstants.crossReference, cosmicObject);
+					continue;
+				}
+				FakeInstance referenceSequence = referenceSequences.get(random.nextInt(referenceSequences.size()));
+				FakeInstance ewas = new FakeInstance(ReactomeJavaConstants.EntityWithAccessionedSequence, dbID++)
+					.addValue(ReactomeJavaConstants.crossReference, cosmicObject)
+					.addValue(ReactomeJavaConstants.referenceEntity, referenceSequence);
+				int residueCount = random.nextInt(4);
+				for (int k = 0; k < residueCount; k++)
+				{
+					FakeInstance residue;
+					if (random.nextInt(5) == 0)
+					{
+						// A fragment modification, whose reference sequence is usually the EWAS's own, but sometimes another one (a fusion).
+						residue = new FakeInstance(ReactomeJavaConstants.FragmentReplacedModification, dbID++)
+							.addValue(ReactomeJavaConstants.referenceSequence,
+								random.nextBoolean() ? referenceSequence : referenceSequences.get(random.nextInt(referenceSequences.size())));
+					}
+					else
+					{
+						residue = new FakeInstance(ReactomeJavaConstants.GroupModifiedResidue, dbID++);
+					}
+					ewas.addValue(ReactomeJavaConstants.hasModifiedResidue, residue);
+				}
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		try(Stream<Path> paths = Files.walk(this.reportsDirectory))
+		{
+			for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator)
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public Map<String, List<COSMICIdentifierUpdater>> determinePrefixes() throws Exception
+	{
+		return COSMICUpdateUtil.determinePrefixes(this.cosmicObjects);
+	}
+}
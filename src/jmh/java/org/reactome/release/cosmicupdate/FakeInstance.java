@@ -0,0 +1,113 @@
+package org.reactome.release.cosmicupdate;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gk.model.GKInstance;
+import org.gk.schema.SchemaClass;
+
+/**
+ * An instance that lives entirely in memory, for benchmarks that need a graph of objects but no database.
+ * Only the parts of GKInstance that the COSMIC update looks at are supported: the DB_ID, the schema class name, attribute values and referrers.
+ * Mocks would work too, but their overhead would swamp the code being measured.
+ */
+class FakeInstance extends GKInstance
+{
+	private static final Map<String, SchemaClass> schemaClasses = new HashMap<>();
+
+	private final Long dbID;
+	private final SchemaClass schemaClass;
+	private final Map<String, List<Object>> attributes = new HashMap<>();
+	private final Map<String, List<GKInstance>> referrers = new HashMap<>();
+
+	/**
+	 * @param className The name of the schema class of the instance.
+	 * @param dbID The DB_ID of the instance.
+	 */
+	FakeInstance(String className, long dbID)
+	{
+		this.dbID = dbID;
+		this.schemaClass = getSchemaClass(className);
+	}
+
+	/**
+	 * Adds a value to an attribute, and records this instance as a referrer of the value if the value is also a FakeInstance.
+	 * @return This instance.
+	 */
+	FakeInstance addValue(String attributeName, Object value)
+	{
+		this.attributes.computeIfAbsent(attributeName, k -> new ArrayList<>()).add(value);
+		if (value instanceof FakeInstance)
+		{
+			((FakeInstance) value).referrers.computeIfAbsent(attributeName, k -> new ArrayList<>()).add(this);
+		}
+		return this;
+	}
+
+	@Override
+	public Long getDBID()
+	{
+		return this.dbID;
+	}
+
+	@Override
+	public SchemaClass getSchemClass()
+	{
+		return this.schemaClass;
+	}
+
+	@Override
+	public Object getAttributeValue(String attributeName)
+	{
+		List<Object> values = this.attributes.get(attributeName);
+		return values == null || values.isEmpty() ? null : values.get(0);
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public List getAttributeValuesList(String attributeName)
+	{
+		return this.attributes.getOrDefault(attributeName, new ArrayList<>());
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Collection getReferers(String attributeName)
+	{
+		return this.referrers.get(attributeName);
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[" + this.schemaClass.getName() + ":" + this.dbID + "]";
+	}
+
+	/**
+	 * Creates a SchemaClass that only knows its own name. SchemaClass is a large interface, so a dynamic proxy is simpler than implementing it.
+	 */
+	private static synchronized SchemaClass getSchemaClass(String className)
+	{
+		return schemaClasses.computeIfAbsent(className, name -> (SchemaClass) Proxy.newProxyInstance(SchemaClass.class.getClassLoader(),
+			new Class<?>[] { SchemaClass.class }, (proxy, method, args) -> {
+				switch (method.getName())
+				{
+					case "getName":
+					case "toString":
+						return name;
+					case "isa":
+						return args[0] instanceof SchemaClass ? proxy == args[0] : name.equals(args[0]);
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						throw new UnsupportedOperationException(method.getName() + " is not supported by the schema classes of FakeInstance");
+				}
+			}));
+	}
+}
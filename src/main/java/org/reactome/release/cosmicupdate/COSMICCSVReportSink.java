@@ -0,0 +1,59 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+/**
+ * Writes a report as CSV, with a header row.
+ */
+class COSMICCSVReportSink implements COSMICReportSink
+{
+	private final CSVPrinter printer;
+	// Collections are formatted into this, so that no String is built for them.
+	private final StringBuilder collectionValue = new StringBuilder();
+
+	COSMICCSVReportSink(Path file, Column... columns) throws IOException
+	{
+		this.printer = new CSVPrinter(COSMICReportSink.openWriter(file), CSVFormat.DEFAULT.withHeader(COSMICReportSink.getHeaders(columns)));
+	}
+
+	@Override
+	public void writeRow(Object... values) throws IOException
+	{
+		for (Object value : values)
+		{
+			this.printer.print(value instanceof Collection ? formatCollection((Collection<?>) value) : value);
+		}
+		this.printer.println();
+	}
+
+	/**
+	 * Formats a Collection the way a Set is printed: "[COSM1, COSM2]".
+	 */
+	private CharSequence formatCollection(Collection<?> values)
+	{
+		this.collectionValue.setLength(0);
+		this.collectionValue.append('[');
+		Iterator<?> iterator = values.iterator();
+		while (iterator.hasNext())
+		{
+			this.collectionValue.append(iterator.next());
+			if (iterator.hasNext())
+			{
+				this.collectionValue.append(", ");
+			}
+		}
+		return this.collectionValue.append(']');
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.printer.close();
+	}
+}
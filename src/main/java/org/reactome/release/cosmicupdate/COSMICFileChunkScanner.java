@@ -0,0 +1,266 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Scans an uncompressed COSMIC file in parallel.
+ * The file is split into chunks that start and end on line boundaries, and each chunk is scanned by its own COSMICFileScanner
+ * in a fork-join pool. Files that are scanned at the same time can share one pool, so that they don't use more threads than it has.
+ * Every chunk collects into its own result object, so the row handlers do not need to be thread-safe;
+ * the results are returned in the same order as the chunks appear in the file, so that the caller can merge them in file order.
+ */
+class COSMICFileChunkScanner
+{
+	private static final Logger logger = LogManager.getLogger();
+	// Chunks smaller than this aren't worth the overhead of a separate task.
+	static final long MIN_CHUNK_SIZE = 64L * 1024 * 1024;
+	// More chunks than threads, so that a thread that finishes early can pick up more work.
+	private static final int CHUNKS_PER_THREAD = 4;
+	private static final int BOUNDARY_SEARCH_BUFFER_SIZE = 64 * 1024;
+
+	private COSMICFileChunkScanner()
+	{
+		// ...no-op
+	}
+
+	/**
+	 * Handles one row of a chunk, collecting into the chunk's own result.
+	 * @param <T> The type of result collected by each chunk.
+	 */
+	interface ChunkRowHandler<T>
+	{
+		void handleRow(T chunkResult, COSMICFileScanner.Row row) throws IOException;
+	}
+
+	/**
+	 * Scans a file in parallel.
+	 * @param file The path to an uncompressed COSMIC file.
+	 * @param parallelism The number of threads to use.
+	 * @param minChunkSize The smallest chunk that the file will be split into, in bytes.
+	 * @param resultSupplier Creates the result object for each chunk.
+	 * @param handler Handles each row, collecting into the result of the chunk that the row is in.
+	 * @param columnNames The names of the columns of interest.
+	 * @return The result of each chunk, in file order.
+	 * @throws IOException
+	 */
+	static <T> List<T> scan(Path file, int parallelism, long minChunkSize, Supplier<T> resultSupplier, ChunkRowHandler<T> handler,
+		String... columnNames) throws IOException
+	{
+		return scan(file, parallelism, minChunkSize, resultSupplier, handler, (COSMICScanProgress) null, columnNames);
+	}
+
+	/**
+	 * Scans a file in parallel, adding the bytes and rows read by every chunk to <code>progress</code>.
+	 * @param file The path to an uncompressed COSMIC file.
+	 * @param parallelism The number of threads to use.
+	 * @param minChunkSize The smallest chunk that the file will be split into, in bytes.
+	 * @param resultSupplier Creates the result object for each chunk.
+	 * @param handler Handles each row, collecting into the result of the chunk that the row is in.
+	 * @param progress The progress of the scan, or null.
+	 * @param columnNames The names of the columns of interest.
+	 * @return The result of each chunk, in file order.
+	 * @throws IOException
+	 */
+	static <T> List<T> scan(Path file, int parallelism, long minChunkSize, Supplier<T> resultSupplier, ChunkRowHandler<T> handler,
+		COSMICScanProgress progress, String... columnNames) throws IOException
+	{
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try
+		{
+			return scan(file, pool, minChunkSize, resultSupplier, handler, progress, columnNames);
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Scans a file in parallel in a pool that may be shared with other scans, adding the bytes and rows read by every chunk to
+	 * <code>progress</code>. The file is split for the parallelism of the pool.
+	 * @param file The path to an uncompressed COSMIC file.
+	 * @param pool The threads to scan the chunks with. The pool is not shut down.
+	 * @param minChunkSize The smallest chunk that the file will be split into, in bytes.
+	 * @param resultSupplier Creates the result object for each chunk.
+	 * @param handler Handles each row, collecting into the result of the chunk that the row is in.
+	 * @param progress The progress of the scan, or null.
+	 * @param columnNames The names of the columns of interest.
+	 * @return The result of each chunk, in file order.
+	 * @throws IOException
+	 */
+	static <T> List<T> scan(Path file, ForkJoinPool pool, long minChunkSize, Supplier<T> resultSupplier, ChunkRowHandler<T> handler,
+		COSMICScanProgress progress, String... columnNames) throws IOException
+	{
+		int parallelism = pool.getParallelism();
+		long headerLength;
+		int[] columnIndices;
+		try(COSMICFileScanner headerScanner = new COSMICFileScanner(COSMICUpdateUtil.getInputStream(file.toString()), columnNames))
+		{
+			headerLength = headerScanner.getHeaderLength();
+			columnIndices = headerScanner.getColumnIndices();
+		}
+
+		List<long[]> chunks = getChunks(file, headerLength, parallelism, minChunkSize);
+		logger.info("Scanning {} in {} chunks with {} threads", file.getFileName(), chunks.size(), parallelism);
+		try
+		{
+			List<ForkJoinTask<T>> tasks = new ArrayList<>();
+			for (long[] chunk : chunks)
+			{
+				tasks.add(pool.submit(() -> scanChunk(file, chunk[0], chunk[1], columnIndices, resultSupplier, handler, progress)));
+			}
+			List<T> results = new ArrayList<>();
+			for (ForkJoinTask<T> task : tasks)
+			{
+				results.add(task.get());
+			}
+			return results;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scanning " + file, e);
+		}
+	}
+
+	private static <T> T scanChunk(Path file, long start, long end, int[] columnIndices, Supplier<T> resultSupplier, ChunkRowHandler<T> handler,
+		COSMICScanProgress progress) throws IOException
+	{
+		T chunkResult = resultSupplier.get();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			COSMICFileScanner scanner = new COSMICFileScanner(trackProgress(new ChannelRangeInputStream(channel, start, end), progress), columnIndices))
+		{
+			scanner.setProgress(progress);
+			scanner.scan(row -> handler.handleRow(chunkResult, row));
+		}
+		return chunkResult;
+	}
+
+	private static InputStream trackProgress(InputStream chunkStream, COSMICScanProgress progress)
+	{
+		return progress != null ? progress.track(chunkStream) : chunkStream;
+	}
+
+	/**
+	 * Splits the file (after the header) into chunks that each start at the beginning of a line.
+	 * @return A list of [start, end) byte ranges.
+	 * @throws IOException
+	 */
+	static List<long[]> getChunks(Path file, long headerLength, int parallelism, long minChunkSize) throws IOException
+	{
+		List<long[]> chunks = new ArrayList<>();
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			long fileSize = channel.size();
+			long dataSize = fileSize - headerLength;
+			long chunkCount = Math.max(1, Math.min((long) parallelism * CHUNKS_PER_THREAD, dataSize / minChunkSize));
+			long chunkSize = dataSize / chunkCount;
+			long start = headerLength;
+			for (long i = 1; i < chunkCount && start < fileSize; i++)
+			{
+				long end = findLineStart(channel, Math.max(start, headerLength + i * chunkSize));
+				if (end > start)
+				{
+					chunks.add(new long[] { start, end });
+					start = end;
+				}
+			}
+			if (start < fileSize)
+			{
+				chunks.add(new long[] { start, fileSize });
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Finds the start of the first line that begins at or after <code>offset</code>.
+	 * @return The offset just after the first newline at or after <code>offset - 1</code>, or the size of the file if there is none.
+	 * @throws IOException
+	 */
+	private static long findLineStart(FileChannel channel, long offset) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SEARCH_BUFFER_SIZE);
+		long position = offset - 1;
+		while (true)
+		{
+			buffer.clear();
+			int bytesRead = channel.read(buffer, position);
+			if (bytesRead < 0)
+			{
+				return channel.size();
+			}
+			for (int i = 0; i < bytesRead; i++)
+			{
+				if (buffer.get(i) == '\n')
+				{
+					return position + i + 1;
+				}
+			}
+			position += bytesRead;
+		}
+	}
+
+	/**
+	 * An InputStream of a range of bytes in a file. It uses positional reads, so many of these can share a file without interfering with each other.
+	 */
+	private static class ChannelRangeInputStream extends InputStream
+	{
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+
+		ChannelRangeInputStream(FileChannel channel, long start, long end)
+		{
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			if (this.position >= this.end)
+			{
+				return -1;
+			}
+			int lengthToRead = (int) Math.min(length, this.end - this.position);
+			int bytesRead = this.channel.read(ByteBuffer.wrap(bytes, offset, lengthToRead), this.position);
+			if (bytesRead > 0)
+			{
+				this.position += bytesRead;
+			}
+			return bytesRead;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			byte[] singleByte = new byte[1];
+			int bytesRead = read(singleByte, 0, 1);
+			return bytesRead < 0 ? -1 : singleByte[0] & 0xFF;
+		}
+	}
+}
@@ -0,0 +1,672 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Downloads a COSMIC file over several connections at once, each one fetching a range of the file with an HTTP range request.
+ * The file is downloaded to a ".part" file next to the destination, and the progress of each range is recorded in a ".progress" file beside it,
+ * so a download that fails (or is killed) resumes where it stopped the next time it is run. When all of the ranges are complete, the size of
+ * the file, and its checksum, are verified before it is moved to the destination.
+ * <br/>
+ * A request that gets no response, or a response that stops sending data, for longer than the timeout fails, and is retried like any other
+ * failure. Since the download URL is short-lived, a new one is requested before each retry.
+ * <br/>
+ * Like <code>COSMICFileRetriever</code>, it downloads in two steps: the COSMIC URL of the file is requested with the COSMIC username and password,
+ * and the response contains the (short-lived) URL that the file itself is downloaded from.
+ */
+class COSMICFileDownloader
+{
+	static final String PART_EXTENSION = ".part";
+	static final String PROGRESS_EXTENSION = ".progress";
+	static final int DEFAULT_CONNECTIONS = 4;
+	static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+	private static final Logger logger = LogManager.getLogger();
+	private static final Pattern DOWNLOAD_URL_PATTERN = Pattern.compile("\"url\"\\s*:\\s*\"([^\"]+)\"");
+	private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes \\d+-\\d+/(\\d+)");
+	// An ETag that is the MD5 digest of the file, as it is for most files on S3.
+	private static final Pattern MD5_ETAG_PATTERN = Pattern.compile("\"?([0-9a-fA-F]{32})\"?");
+	// The number of times in a row that a range may fail without any progress before the download is abandoned.
+	private static final int MAX_ATTEMPTS = 5;
+	// The progress of a range is saved each time this many more bytes of it have been written.
+	private static final long PROGRESS_INTERVAL = 32L << 20;
+
+	private final HttpClient client;
+	private final URI dataURL;
+	private final Path destination;
+	private final Path partFile;
+	private final Path progressFile;
+	private final String userName;
+	private final String password;
+	private final int connections;
+	private long minimumRangeSize = 16L << 20;
+	private Duration retryDelay = Duration.ofSeconds(5);
+	private Duration timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Private helper class: what the server says about the file.
+	 */
+	private static class RemoteFile
+	{
+		// Replaced by a new download URL before a failed range is retried.
+		private volatile URI url;
+		// -1 if the server did not send the size.
+		private final long size;
+		// The ETag, or the Last-Modified date, of the file. A partial download is only resumed if it has not changed.
+		private final String validator;
+		private final boolean rangesSupported;
+
+		RemoteFile(URI url, long size, String validator, boolean rangesSupported)
+		{
+			this.url = url;
+			this.size = size;
+			this.validator = validator;
+			this.rangesSupported = rangesSupported;
+		}
+	}
+
+	/**
+	 * Private helper class: a range of bytes of the file, from <code>start</code> (inclusive) to <code>end</code> (exclusive),
+	 * of which the bytes up to <code>position</code> have been written.
+	 */
+	private static class Range
+	{
+		private final long start;
+		private long end;
+		private volatile long position;
+
+		Range(long start, long end, long position)
+		{
+			this.start = start;
+			this.end = end;
+			this.position = position;
+		}
+
+		boolean isComplete()
+		{
+			return this.position >= this.end;
+		}
+	}
+
+	/**
+	 * @param dataURL The COSMIC URL of the file.
+	 * @param destination Where to download the file to.
+	 * @param userName The COSMIC username.
+	 * @param password The COSMIC password.
+	 * @param connections The maximum number of connections to download the file with.
+	 */
+	COSMICFileDownloader(URI dataURL, Path destination, String userName, String password, int connections)
+	{
+		if (connections < 1)
+		{
+			throw new IllegalArgumentException("The number of connections must be at least 1, but was " + connections);
+		}
+		this.dataURL = dataURL;
+		this.destination = destination;
+		this.partFile = destination.resolveSibling(destination.getFileName() + PART_EXTENSION);
+		this.progressFile = destination.resolveSibling(this.partFile.getFileName() + PROGRESS_EXTENSION);
+		this.userName = userName;
+		this.password = password;
+		this.connections = connections;
+		// HTTP/1.1, so that each range gets a connection of its own, rather than all of them sharing one HTTP/2 connection.
+		this.client = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.followRedirects(HttpClient.Redirect.NORMAL)
+			.connectTimeout(Duration.ofSeconds(30))
+			.build();
+	}
+
+	/**
+	 * Sets the smallest range that the file is split into; a small file is downloaded over fewer connections. Default is 16 MB.
+	 * @param minimumRangeSize The size, in bytes.
+	 */
+	void setMinimumRangeSize(long minimumRangeSize)
+	{
+		this.minimumRangeSize = Math.max(1, minimumRangeSize);
+	}
+
+	/**
+	 * Sets how long to wait before retrying a range that failed. The delay grows with each failure in a row. Default is 5 seconds.
+	 * @param retryDelay The delay after the first failure.
+	 */
+	void setRetryDelay(Duration retryDelay)
+	{
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Sets how long to wait for a response, and for more data while a response is being received, before the request fails. Default is 1 minute.
+	 * @param timeout The timeout.
+	 */
+	void setTimeout(Duration timeout)
+	{
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Downloads the file, unless the destination is younger than <code>maxAge</code>.
+	 * @param maxAge The maximum age of the destination file. If null or zero, the file is always downloaded.
+	 * @return true if the file was downloaded.
+	 * @throws IOException If the download failed (it will resume the next time), or the downloaded file did not pass verification.
+	 * @throws InterruptedException
+	 */
+	boolean download(Duration maxAge) throws IOException, InterruptedException
+	{
+		if (isUpToDate(maxAge))
+		{
+			logger.info("{} is younger than {}, so it will not be downloaded again", this.destination, maxAge);
+			return false;
+		}
+		RemoteFile remoteFile = getRemoteFile(getDownloadURL());
+		List<Range> ranges = loadProgress(remoteFile);
+		if (ranges == null)
+		{
+			ranges = splitIntoRanges(remoteFile);
+			Files.deleteIfExists(this.partFile);
+		}
+		logger.info("Downloading {} ({} bytes) to {} over {} connection(s)", this.dataURL, remoteFile.size, this.destination, ranges.size());
+
+		try(FileChannel channel = FileChannel.open(this.partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+		{
+			try
+			{
+				downloadRanges(remoteFile, channel, ranges);
+			}
+			finally
+			{
+				saveProgress(channel, remoteFile, ranges);
+			}
+		}
+
+		try
+		{
+			verify(remoteFile);
+		}
+		catch (IOException e)
+		{
+			// The file is corrupt, so the next attempt must start again from the beginning.
+			Files.deleteIfExists(this.progressFile);
+			Files.deleteIfExists(this.partFile);
+			throw e;
+		}
+		Files.move(this.partFile, this.destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.deleteIfExists(this.progressFile);
+		logger.info("{} has been downloaded and verified", this.destination);
+		return true;
+	}
+
+	private boolean isUpToDate(Duration maxAge) throws IOException
+	{
+		if (maxAge == null || maxAge.isZero() || !Files.exists(this.destination))
+		{
+			return false;
+		}
+		return Files.getLastModifiedTime(this.destination).toInstant().plus(maxAge).isAfter(Instant.now());
+	}
+
+	/**
+	 * Gets the URL to download the file from, by requesting the COSMIC URL of the file with the COSMIC username and password.
+	 * @return The URL in the response.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private URI getDownloadURL() throws IOException, InterruptedException
+	{
+		String credentials = Base64.getEncoder().encodeToString((this.userName + ":" + this.password).getBytes(StandardCharsets.UTF_8));
+		HttpRequest request = HttpRequest.newBuilder(this.dataURL).timeout(this.timeout).header("Authorization", "Basic " + credentials).GET()
+			.build();
+		HttpResponse<String> response = this.client.send(request, HttpResponse.BodyHandlers.ofString());
+		if (response.statusCode() != 200)
+		{
+			throw new IOException("Could not get the download URL for " + this.dataURL + "; the response status was " + response.statusCode());
+		}
+		Matcher matcher = DOWNLOAD_URL_PATTERN.matcher(response.body());
+		if (!matcher.find())
+		{
+			throw new IOException("There was no download URL in the response for " + this.dataURL);
+		}
+		return this.dataURL.resolve(matcher.group(1).replace("\\/", "/"));
+	}
+
+	/**
+	 * Asks the server for the first byte of the file, to find out the size of the file and whether the server supports range requests.
+	 * @param url The URL to download the file from.
+	 * @return What the server says about the file.
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	private RemoteFile getRemoteFile(URI url) throws IOException, InterruptedException
+	{
+		HttpRequest request = HttpRequest.newBuilder(url).timeout(this.timeout).header("Range", "bytes=0-0").GET().build();
+		HttpResponse<InputStream> response = this.client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+		// Only the headers are needed. If the server ignored the range and is sending the whole file, closing the body stops it.
+		response.body().close();
+		String validator = response.headers().firstValue("ETag").orElse(response.headers().firstValue("Last-Modified").orElse(""));
+		if (response.statusCode() == 206)
+		{
+			Matcher matcher = CONTENT_RANGE_PATTERN.matcher(response.headers().firstValue("Content-Range").orElse(""));
+			if (!matcher.matches())
+			{
+				throw new IOException("The size of " + url + " is not known; Content-Range was: " + response.headers().firstValue("Content-Range").orElse(""));
+			}
+			return new RemoteFile(url, Long.parseLong(matcher.group(1)), validator, true);
+		}
+		if (response.statusCode() == 200)
+		{
+			logger.warn("The server does not support range requests, so {} will be downloaded over one connection and can't be resumed", this.dataURL);
+			return new RemoteFile(url, response.headers().firstValueAsLong("Content-Length").orElse(-1), validator, false);
+		}
+		throw new IOException("Could not download " + this.dataURL + "; the response status was " + response.statusCode());
+	}
+
+	private List<Range> splitIntoRanges(RemoteFile remoteFile)
+	{
+		List<Range> ranges = new ArrayList<>();
+		if (!remoteFile.rangesSupported || remoteFile.size < 0)
+		{
+			ranges.add(new Range(0, remoteFile.size < 0 ? Long.MAX_VALUE : remoteFile.size, 0));
+			return ranges;
+		}
+		int rangeCount = (int) Math.max(1, Math.min(this.connections, remoteFile.size / this.minimumRangeSize));
+		long rangeSize = (remoteFile.size + rangeCount - 1) / rangeCount;
+		for (long start = 0; start < remoteFile.size; start += rangeSize)
+		{
+			ranges.add(new Range(start, Math.min(start + rangeSize, remoteFile.size), start));
+		}
+		return ranges;
+	}
+
+	/**
+	 * Downloads the ranges in parallel. If a range fails, the others are still downloaded (as far as they can be), so that as much as possible
+	 * has been downloaded when the download is resumed.
+	 * @throws IOException If any range could not be downloaded.
+	 * @throws InterruptedException
+	 */
+	private void downloadRanges(RemoteFile remoteFile, FileChannel channel, List<Range> ranges) throws IOException, InterruptedException
+	{
+		ExecutorService execService = Executors.newFixedThreadPool(ranges.size());
+		try
+		{
+			List<Future<Void>> results = new ArrayList<>();
+			for (Range range : ranges)
+			{
+				results.add(execService.submit(() -> {
+					downloadRange(remoteFile, channel, range, ranges);
+					return null;
+				}));
+			}
+			IOException failure = null;
+			for (Future<Void> result : results)
+			{
+				try
+				{
+					result.get();
+				}
+				catch (ExecutionException e)
+				{
+					if (failure == null)
+					{
+						failure = e.getCause() instanceof IOException ? (IOException) e.getCause()
+							: new IOException("Could not download " + this.dataURL, e.getCause());
+					}
+				}
+			}
+			if (failure != null)
+			{
+				throw failure;
+			}
+		}
+		finally
+		{
+			execService.shutdownNow();
+		}
+	}
+
+	/**
+	 * Downloads one range, retrying after failures. A range that makes progress between failures is retried for as long as it does.
+	 */
+	private void downloadRange(RemoteFile remoteFile, FileChannel channel, Range range, List<Range> ranges) throws IOException, InterruptedException
+	{
+		int failures = 0;
+		while (!range.isComplete())
+		{
+			long startPosition = range.position;
+			try
+			{
+				if (failures > 0)
+				{
+					// The download URL may have expired since it was requested.
+					remoteFile.url = getDownloadURL();
+				}
+				copyRange(remoteFile, channel, range, ranges);
+			}
+			catch (IOException e)
+			{
+				// Without range requests, each attempt starts from the beginning again, so it can't make progress.
+				boolean progressed = remoteFile.rangesSupported && range.position > startPosition;
+				failures = progressed ? 1 : failures + 1;
+				if (failures >= MAX_ATTEMPTS)
+				{
+					throw e;
+				}
+				logger.warn("Downloading bytes {}-{} of {} failed ({}); it will be retried from byte {}", range.start, range.end - 1, this.destination,
+					e.getMessage(), remoteFile.rangesSupported ? range.position : range.start);
+				Thread.sleep(this.retryDelay.toMillis() * failures);
+			}
+		}
+	}
+
+	/**
+	 * Requests the rest of a range, and writes it to the part file.
+	 * @throws IOException If the request fails or times out, no data is received for longer than the timeout, or the connection is closed
+	 * before the end of the range.
+	 */
+	private void copyRange(RemoteFile remoteFile, FileChannel channel, Range range, List<Range> ranges) throws IOException, InterruptedException
+	{
+		HttpRequest.Builder request = HttpRequest.newBuilder(remoteFile.url).timeout(this.timeout).GET();
+		if (remoteFile.rangesSupported)
+		{
+			request.header("Range", "bytes=" + range.position + "-" + (range.end - 1));
+		}
+		else
+		{
+			// Start again from the beginning, discarding anything that an earlier attempt wrote.
+			channel.truncate(0);
+			range.position = range.start;
+		}
+		// The body is received as a publisher, rather than an InputStream, so that waiting for more of it can time out.
+		HttpResponse<Flow.Publisher<List<ByteBuffer>>> response = this.client.send(request.build(), HttpResponse.BodyHandlers.ofPublisher());
+		BodyReader body = new BodyReader(this.timeout);
+		response.body().subscribe(body);
+		try
+		{
+			int expectedStatus = remoteFile.rangesSupported ? 206 : 200;
+			if (response.statusCode() != expectedStatus)
+			{
+				throw new IOException("The response status was " + response.statusCode() + " instead of " + expectedStatus);
+			}
+			long unsavedBytes = 0;
+			List<ByteBuffer> buffers;
+			while (!range.isComplete() && (buffers = body.next()) != null)
+			{
+				for (ByteBuffer data : buffers)
+				{
+					int count = (int) Math.min(data.remaining(), range.end - range.position);
+					data.limit(data.position() + count);
+					long position = range.position;
+					while (data.hasRemaining())
+					{
+						position += channel.write(data, position);
+					}
+					range.position = position;
+					unsavedBytes += count;
+				}
+				if (unsavedBytes >= PROGRESS_INTERVAL)
+				{
+					saveProgress(channel, remoteFile, ranges);
+					unsavedBytes = 0;
+				}
+			}
+		}
+		finally
+		{
+			body.cancel();
+		}
+		if (remoteFile.size < 0)
+		{
+			// The size is not known, so the end of the response is the end of the file.
+			range.end = range.position;
+		}
+		if (!range.isComplete())
+		{
+			throw new IOException("The connection was closed at byte " + range.position);
+		}
+	}
+
+	/**
+	 * Private helper class: receives the body of a response one list of buffers at a time, and fails if the next one doesn't arrive in time.
+	 */
+	private static class BodyReader implements Flow.Subscriber<List<ByteBuffer>>
+	{
+		// Put on the queue when the body is complete.
+		private static final Object END = new Object();
+		private final Duration timeout;
+		private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+		private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+
+		BodyReader(Duration timeout)
+		{
+			this.timeout = timeout;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription)
+		{
+			this.subscription.complete(subscription);
+			subscription.request(1);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> buffers)
+		{
+			this.items.add(buffers);
+		}
+
+		@Override
+		public void onError(Throwable throwable)
+		{
+			this.items.add(throwable);
+		}
+
+		@Override
+		public void onComplete()
+		{
+			this.items.add(END);
+		}
+
+		/**
+		 * @return The next part of the body, or null at the end of the body.
+		 * @throws IOException If the body failed, or nothing was received within the timeout.
+		 */
+		@SuppressWarnings("unchecked")
+		List<ByteBuffer> next() throws IOException, InterruptedException
+		{
+			Object item = this.items.poll(this.timeout.toMillis(), TimeUnit.MILLISECONDS);
+			if (item == null)
+			{
+				throw new IOException("No data was received for " + this.timeout.toMillis() + " ms");
+			}
+			if (item instanceof Throwable)
+			{
+				throw new IOException("The response failed: " + ((Throwable) item).getMessage(), (Throwable) item);
+			}
+			if (item == END)
+			{
+				return null;
+			}
+			this.subscription.join().request(1);
+			return (List<ByteBuffer>) item;
+		}
+
+		/**
+		 * Stops receiving the body, which closes the connection if the body hasn't all been received.
+		 */
+		void cancel()
+		{
+			this.subscription.thenAccept(Flow.Subscription::cancel);
+		}
+	}
+
+	/**
+	 * Reads the progress of an earlier download of the same file.
+	 * @return The ranges of the earlier download, or null if there is none, or the file has changed on the server since.
+	 * @throws IOException
+	 */
+	private List<Range> loadProgress(RemoteFile remoteFile) throws IOException
+	{
+		if (!remoteFile.rangesSupported || !Files.exists(this.progressFile) || !Files.exists(this.partFile))
+		{
+			return null;
+		}
+		long size = -1;
+		String validator = null;
+		List<Range> ranges = new ArrayList<>();
+		for (String line : Files.readAllLines(this.progressFile, StandardCharsets.UTF_8))
+		{
+			int separator = line.indexOf('=');
+			String key = line.substring(0, Math.max(separator, 0));
+			String value = line.substring(separator + 1);
+			switch (key)
+			{
+				case "size":
+					size = Long.parseLong(value);
+					break;
+				case "validator":
+					validator = value;
+					break;
+				case "range":
+					String[] fields = value.split(",");
+					ranges.add(new Range(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+					break;
+				default:
+					break;
+			}
+		}
+		if (size != remoteFile.size || !remoteFile.validator.equals(validator) || ranges.isEmpty())
+		{
+			logger.info("{} has changed on the server since the last (partial) download, which will be discarded", this.dataURL);
+			return null;
+		}
+		long downloaded = ranges.stream().mapToLong(range -> range.position - range.start).sum();
+		logger.info("Resuming the download of {}: {} of {} bytes were downloaded before", this.destination, downloaded, size);
+		return ranges;
+	}
+
+	/**
+	 * Saves the progress of the ranges, so that the download can be resumed if it fails.
+	 */
+	private synchronized void saveProgress(FileChannel channel, RemoteFile remoteFile, List<Range> ranges) throws IOException
+	{
+		if (!remoteFile.rangesSupported)
+		{
+			return;
+		}
+		List<String> lines = new ArrayList<>();
+		lines.add("size=" + remoteFile.size);
+		lines.add("validator=" + remoteFile.validator);
+		for (Range range : ranges)
+		{
+			lines.add("range=" + range.start + "," + range.end + "," + range.position);
+		}
+		// The positions are read before the part file is flushed, so that no position is saved for bytes that are not on disk yet.
+		channel.force(false);
+		Path tempFile = this.progressFile.resolveSibling(this.progressFile.getFileName() + ".tmp");
+		Files.write(tempFile, lines, StandardCharsets.UTF_8);
+		Files.move(tempFile, this.progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Verifies the size of the downloaded file, and its MD5 digest if the ETag looks like one.
+	 * If there is no digest to compare to, a gzipped file is verified by inflating it, which checks the CRC-32 of its contents. That is also done
+	 * if the digest doesn't match, since not every ETag of 32 hex digits is an MD5 digest (those of S3 objects encrypted with SSE-KMS aren't).
+	 * @throws IOException If the file is not the file on the server.
+	 */
+	private void verify(RemoteFile remoteFile) throws IOException
+	{
+		long size = Files.size(this.partFile);
+		if (remoteFile.size >= 0 && size != remoteFile.size)
+		{
+			throw new IOException("The size of the downloaded " + this.destination + " is " + size + " bytes, but should be " + remoteFile.size);
+		}
+		Matcher md5Matcher = MD5_ETAG_PATTERN.matcher(remoteFile.validator);
+		String digestMismatch = null;
+		if (md5Matcher.matches())
+		{
+			String digest = getMD5Digest(this.partFile);
+			if (digest.equalsIgnoreCase(md5Matcher.group(1)))
+			{
+				return;
+			}
+			digestMismatch = "The MD5 digest of the downloaded " + this.destination + " is " + digest + ", but the ETag is " + md5Matcher.group(1);
+			if (!this.destination.toString().endsWith(COSMICUpdateUtil.GZIP_EXTENSION))
+			{
+				throw new IOException(digestMismatch);
+			}
+		}
+		if (this.destination.toString().endsWith(COSMICUpdateUtil.GZIP_EXTENSION))
+		{
+			// GZIPInputStream checks the CRC-32 and the length of each member of the archive when it reaches the member's end.
+			try(InputStream inflater = new GZIPInputStream(Files.newInputStream(this.partFile), COSMICUpdateUtil.GZIP_BUFFER_SIZE))
+			{
+				inflater.transferTo(OutputStream.nullOutputStream());
+			}
+			catch (IOException e)
+			{
+				throw new IOException((digestMismatch != null ? digestMismatch + ", and the" : "The") + " downloaded " + this.destination
+					+ " is not a valid gzip file", e);
+			}
+			if (digestMismatch != null)
+			{
+				logger.info("{}, so the ETag is not an MD5 digest; the file was verified as a gzip file instead", digestMismatch);
+			}
+		}
+	}
+
+	private static String getMD5Digest(Path file) throws IOException
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			try(InputStream input = new DigestInputStream(Files.newInputStream(file), digest))
+			{
+				input.transferTo(OutputStream.nullOutputStream());
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest())
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform supports MD5.
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,696 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A pre-built binary index of a COSMIC file, so that the file does not have to be parsed again on every run of the COSMIC update.
+ * <br/>
+ * An index of a mutation file (Mutant Export or Mutation Tracking) maps each legacy ID to the mutation IDs and the COSV identifier that
+ * scanning the file would have collected for it; an index of Fusion Export is the set of fusion IDs in the file. The IDs are encoded as longs
+ * (see COSMICIdentifierIndex.encode) and stored sorted, and the index file is memory-mapped, so a lookup is a binary search.
+ * <br/>
+ * Each index records the size, last-modified time and CRC32C checksum of the file it was built from, and the COSMIC version. An index is only
+ * used if the file and the version still match; if only the last-modified time has changed (for example, the same file was downloaded again),
+ * the checksum is recomputed to decide, and if it matches the new time is recorded so that the next run doesn't read the file again.
+ */
+class COSMICFileIndex
+{
+	private static final Logger logger = LogManager.getLogger();
+	static final String INDEX_EXTENSION = ".idx";
+	private static final long MAGIC = 0x434F534D49435831L; // "COSMICX1"
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_STRING_LENGTH = 255;
+	private static final int MAX_MUTATION_IDS = 65535;
+	// Where the last-modified time of the source file is in the header: after the magic number, the format version, the kind and the size.
+	private static final int SOURCE_MODIFIED_OFFSET = Long.BYTES + Integer.BYTES + 1 + Long.BYTES;
+
+	/**
+	 * The kind of COSMIC file that is indexed.
+	 */
+	enum Kind
+	{
+		MUTATIONS, FUSIONS
+	}
+
+	private final Kind kind;
+	private final MappedByteBuffer buffer;
+	private final int entryCount;
+	private final int keysOffset;
+	private final int dataOffsetsOffset;
+	private final int dataOffset;
+
+	/**
+	 * The fingerprint of the file that an index was built from.
+	 */
+	private static final class Header
+	{
+		private Kind kind;
+		private long sourceSize;
+		private long sourceModified;
+		private long sourceChecksum;
+		private String cosmicVersion;
+		private int entryCount;
+		private int length;
+	}
+
+	/**
+	 * The rows that were read while building an index, kept in primitive arrays rather than a map of objects, so that the index of a large
+	 * file can be built in not much more memory than the file's IDs take up. Each row is its key and, for a mutation file, the offset of its
+	 * mutation ID and COSV identifier in a pool of bytes, where each is written as in the index (its length in one byte, then its bytes).
+	 * The offsets grow with the row number, so sorting the rows by key and then by offset keeps the rows of each key in the order of the file.
+	 */
+	private static final class IndexRows
+	{
+		private static final int CHUNK_SIZE = 1 << 22;
+		private static final int INITIAL_CAPACITY = 1 << 10;
+		private static final int INSERTION_SORT_THRESHOLD = 16;
+
+		private long[] keys = new long[INITIAL_CAPACITY];
+		private long[] valueOffsets;
+		private int size;
+		// The pool of values. A row's values are never split between two chunks.
+		private final List<byte[]> chunks = new ArrayList<>();
+		private int chunkPosition = CHUNK_SIZE;
+		// The rows of one key whose mutation IDs weren't in an earlier row of the key.
+		private int[] distinctRows = new int[INITIAL_CAPACITY];
+
+		private IndexRows(boolean withValues)
+		{
+			this.valueOffsets = withValues ? new long[INITIAL_CAPACITY] : null;
+		}
+
+		private void add(long key)
+		{
+			if (this.size == this.keys.length)
+			{
+				int capacity = this.size + (this.size >> 1);
+				this.keys = Arrays.copyOf(this.keys, capacity);
+				if (this.valueOffsets != null)
+				{
+					this.valueOffsets = Arrays.copyOf(this.valueOffsets, capacity);
+				}
+			}
+			this.keys[this.size++] = key;
+		}
+
+		/**
+		 * Adds a row of a mutation file.
+		 */
+		private void add(long key, COSMICFileScanner.Row row) throws IOException
+		{
+			int mutationIDLength = getLength(row, COSMICUpdateUtil.MUTATION_ID_FIELD);
+			int genomicIDLength = getLength(row, COSMICUpdateUtil.GENOMIC_MUTATION_ID_FIELD);
+			int length = 2 + mutationIDLength + genomicIDLength;
+			if (this.chunkPosition + length > CHUNK_SIZE)
+			{
+				this.chunks.add(new byte[CHUNK_SIZE]);
+				this.chunkPosition = 0;
+			}
+			long offset = (long) (this.chunks.size() - 1) * CHUNK_SIZE + this.chunkPosition;
+			byte[] chunk = this.chunks.get(this.chunks.size() - 1);
+			chunk[this.chunkPosition++] = (byte) mutationIDLength;
+			System.arraycopy(row.getBuffer(), row.getStart(COSMICUpdateUtil.MUTATION_ID_FIELD), chunk, this.chunkPosition, mutationIDLength);
+			this.chunkPosition += mutationIDLength;
+			chunk[this.chunkPosition++] = (byte) genomicIDLength;
+			System.arraycopy(row.getBuffer(), row.getStart(COSMICUpdateUtil.GENOMIC_MUTATION_ID_FIELD), chunk, this.chunkPosition, genomicIDLength);
+			this.chunkPosition += genomicIDLength;
+			add(key);
+			this.valueOffsets[this.size - 1] = offset;
+		}
+
+		private static int getLength(COSMICFileScanner.Row row, int field) throws IOException
+		{
+			int length = row.getEnd(field) - row.getStart(field);
+			if (length > MAX_STRING_LENGTH)
+			{
+				throw new UnindexableFileException("Value is too long to be indexed: " + row.getString(field));
+			}
+			return length;
+		}
+
+		/**
+		 * Sorts the rows by key (and the rows of a mutation file, by key and then offset).
+		 */
+		private void sort()
+		{
+			if (this.valueOffsets == null)
+			{
+				Arrays.sort(this.keys, 0, this.size);
+			}
+			else
+			{
+				sort(0, this.size);
+			}
+		}
+
+		private void sort(int from, int to)
+		{
+			while (to - from > INSERTION_SORT_THRESHOLD)
+			{
+				int middle = (from + to) >>> 1;
+				long pivotKey = this.keys[middle];
+				long pivotOffset = this.valueOffsets[middle];
+				int i = from;
+				int j = to - 1;
+				while (i <= j)
+				{
+					while (compare(i, pivotKey, pivotOffset) < 0)
+					{
+						i++;
+					}
+					while (compare(j, pivotKey, pivotOffset) > 0)
+					{
+						j--;
+					}
+					if (i <= j)
+					{
+						swap(i++, j--);
+					}
+				}
+				// Recurse into the smaller part, so that the stack stays shallow.
+				if (j + 1 - from < to - i)
+				{
+					sort(from, j + 1);
+					from = i;
+				}
+				else
+				{
+					sort(i, to);
+					to = j + 1;
+				}
+			}
+			for (int i = from + 1; i < to; i++)
+			{
+				for (int j = i; j > from && compare(j - 1, this.keys[j], this.valueOffsets[j]) > 0; j--)
+				{
+					swap(j - 1, j);
+				}
+			}
+		}
+
+		private int compare(int row, long key, long offset)
+		{
+			int comparison = Long.compare(this.keys[row], key);
+			return comparison != 0 ? comparison : Long.compare(this.valueOffsets[row], offset);
+		}
+
+		private void swap(int row, int other)
+		{
+			long key = this.keys[row];
+			this.keys[row] = this.keys[other];
+			this.keys[other] = key;
+			long offset = this.valueOffsets[row];
+			this.valueOffsets[row] = this.valueOffsets[other];
+			this.valueOffsets[other] = offset;
+		}
+
+		/**
+		 * @return The row after the last row with the same key as <code>row</code>. The rows must have been sorted.
+		 */
+		private int getKeyEnd(int row)
+		{
+			int end = row + 1;
+			while (end < this.size && this.keys[end] == this.keys[row])
+			{
+				end++;
+			}
+			return end;
+		}
+
+		/**
+		 * Finds the rows of one key that have a mutation ID that wasn't in an earlier row of the key; they are put in <code>distinctRows</code>.
+		 * @return The number of those rows.
+		 */
+		private int findDistinctMutationIDs(int from, int to)
+		{
+			int count = 0;
+			for (int row = from; row < to; row++)
+			{
+				boolean seen = false;
+				for (int i = 0; i < count && !seen; i++)
+				{
+					seen = mutationIDsEqual(this.distinctRows[i], row);
+				}
+				if (!seen)
+				{
+					if (count == this.distinctRows.length)
+					{
+						this.distinctRows = Arrays.copyOf(this.distinctRows, count * 2);
+					}
+					this.distinctRows[count++] = row;
+				}
+			}
+			return count;
+		}
+
+		private boolean mutationIDsEqual(int row, int other)
+		{
+			byte[] chunk = getChunk(this.valueOffsets[row]);
+			int start = getPosition(this.valueOffsets[row]);
+			byte[] otherChunk = getChunk(this.valueOffsets[other]);
+			int otherStart = getPosition(this.valueOffsets[other]);
+			return Arrays.equals(chunk, start, start + 1 + (chunk[start] & 0xFF), otherChunk, otherStart, otherStart + 1 + (otherChunk[otherStart] & 0xFF));
+		}
+
+		/**
+		 * @return The length of the mutation ID of a row, with its length byte.
+		 */
+		private int getMutationIDSize(int row)
+		{
+			return 1 + (getChunk(this.valueOffsets[row])[getPosition(this.valueOffsets[row])] & 0xFF);
+		}
+
+		/**
+		 * @return The length of the COSV identifier of a row, with its length byte.
+		 */
+		private int getGenomicIDSize(int row)
+		{
+			return 1 + (getChunk(this.valueOffsets[row])[getPosition(this.valueOffsets[row]) + getMutationIDSize(row)] & 0xFF);
+		}
+
+		private void writeMutationID(DataOutputStream output, int row) throws IOException
+		{
+			output.write(getChunk(this.valueOffsets[row]), getPosition(this.valueOffsets[row]), getMutationIDSize(row));
+		}
+
+		private void writeGenomicID(DataOutputStream output, int row) throws IOException
+		{
+			output.write(getChunk(this.valueOffsets[row]), getPosition(this.valueOffsets[row]) + getMutationIDSize(row), getGenomicIDSize(row));
+		}
+
+		private byte[] getChunk(long offset)
+		{
+			return this.chunks.get((int) (offset / CHUNK_SIZE));
+		}
+
+		private static int getPosition(long offset)
+		{
+			return (int) (offset % CHUNK_SIZE);
+		}
+	}
+
+	private COSMICFileIndex(Header header, MappedByteBuffer buffer)
+	{
+		this.kind = header.kind;
+		this.buffer = buffer;
+		this.entryCount = header.entryCount;
+		this.keysOffset = header.length;
+		this.dataOffsetsOffset = this.keysOffset + this.entryCount * Long.BYTES;
+		this.dataOffset = this.dataOffsetsOffset + (this.kind == Kind.MUTATIONS ? (this.entryCount + 1) * Integer.BYTES : 0);
+	}
+
+	/**
+	 * Opens the index of a COSMIC file, building it first if there is no index yet, or the file or the COSMIC version have changed.
+	 * @param sourceFile The COSMIC file. It may be gzipped.
+	 * @param indexDirectory The directory where the indexes are kept.
+	 * @param cosmicVersion The COSMIC version of the file.
+	 * @param kind The kind of file.
+	 * @return The index, or null if the file can't be indexed (see <code>build</code>); the file must then be parsed instead.
+	 * @throws IOException
+	 */
+	static COSMICFileIndex openOrBuild(Path sourceFile, Path indexDirectory, String cosmicVersion, Kind kind) throws IOException
+	{
+		Path indexFile = indexDirectory.resolve(sourceFile.getFileName() + INDEX_EXTENSION);
+		if (Files.exists(indexFile))
+		{
+			Header header = null;
+			try
+			{
+				header = readHeader(indexFile);
+			}
+			catch (IOException e)
+			{
+				logger.warn("Could not read the index {}; it will be rebuilt: {}", indexFile, e.getMessage());
+			}
+			if (header != null && isIndexOf(header, sourceFile, cosmicVersion, kind))
+			{
+				long sourceModified = Files.getLastModifiedTime(sourceFile).toMillis();
+				if (header.sourceModified != sourceModified)
+				{
+					updateSourceModified(indexFile, sourceModified);
+				}
+				logger.info("Using the index {} for {}", indexFile, sourceFile);
+				return open(indexFile, header);
+			}
+			logger.info("The index {} is out of date and will be rebuilt", indexFile);
+		}
+		Files.createDirectories(indexDirectory);
+		if (!build(sourceFile, indexFile, cosmicVersion, kind))
+		{
+			return null;
+		}
+		return open(indexFile, readHeader(indexFile));
+	}
+
+	/**
+	 * Checks if an index was built from the current contents of a file.
+	 */
+	private static boolean isIndexOf(Header header, Path sourceFile, String cosmicVersion, Kind kind) throws IOException
+	{
+		if (header.kind != kind || !header.cosmicVersion.equals(cosmicVersion) || header.sourceSize != Files.size(sourceFile))
+		{
+			return false;
+		}
+		if (header.sourceModified == Files.getLastModifiedTime(sourceFile).toMillis())
+		{
+			return true;
+		}
+		// Reading the file once is still much cheaper than parsing it.
+		logger.info("{} has been modified since it was indexed; comparing checksums", sourceFile);
+		CRC32C checksum = new CRC32C();
+		try(InputStream input = new CheckedInputStream(Files.newInputStream(sourceFile), checksum))
+		{
+			input.transferTo(OutputStream.nullOutputStream());
+		}
+		return checksum.getValue() == header.sourceChecksum;
+	}
+
+	/**
+	 * Records a new last-modified time of the source file in the header of its index, once the checksum has shown that the file is the same.
+	 * The index is still usable if this fails; the checksum is just compared again next time.
+	 */
+	private static void updateSourceModified(Path indexFile, long sourceModified)
+	{
+		try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.WRITE))
+		{
+			ByteBuffer value = ByteBuffer.allocate(Long.BYTES).putLong(0, sourceModified);
+			while (value.hasRemaining())
+			{
+				channel.write(value, SOURCE_MODIFIED_OFFSET + value.position());
+			}
+		}
+		catch (IOException e)
+		{
+			logger.warn("Could not update the header of {}: {}", indexFile, e.getMessage());
+		}
+	}
+
+	/**
+	 * Builds the index of a COSMIC file.
+	 * A file can only be indexed if all of its (non-empty) legacy IDs or fusion IDs can be encoded as longs; if not, nothing is written.
+	 * @param sourceFile The COSMIC file. It may be gzipped.
+	 * @param indexFile The index file to write.
+	 * @param cosmicVersion The COSMIC version of the file.
+	 * @param kind The kind of file.
+	 * @return true if the index was written.
+	 * @throws IOException
+	 */
+	static boolean build(Path sourceFile, Path indexFile, String cosmicVersion, Kind kind) throws IOException
+	{
+		logger.info("Building the index {} from {}", indexFile, sourceFile);
+		long sourceSize = Files.size(sourceFile);
+		long sourceModified = Files.getLastModifiedTime(sourceFile).toMillis();
+		CRC32C checksum = new CRC32C();
+		COSMICScanProgress progress = new COSMICScanProgress(sourceFile.getFileName().toString(), sourceSize, COSMICUpdateUtil.getProgressInterval());
+		CheckedInputStream checkedInput = new CheckedInputStream(progress.track(Files.newInputStream(sourceFile)), checksum);
+		InputStream input = sourceFile.toString().endsWith(COSMICUpdateUtil.GZIP_EXTENSION)
+			? new GZIPInputStream(checkedInput, COSMICUpdateUtil.GZIP_BUFFER_SIZE)
+			: checkedInput;
+
+		IndexRows rows = new IndexRows(kind == Kind.MUTATIONS);
+		String[] columns = kind == Kind.MUTATIONS ? COSMICUpdateUtil.MUTATION_COLUMNS : new String[] { COSMICUpdateUtil.COSMIC_FUSION_ID };
+		try(progress; COSMICFileScanner scanner = new COSMICFileScanner(input, columns))
+		{
+			scanner.setProgress(progress);
+			scanner.scan(row -> {
+				int start = row.getStart(0);
+				int end = row.getEnd(0);
+				if (start == end)
+				{
+					return;
+				}
+				long key = COSMICIdentifierIndex.encode(row.getBuffer(), start, end);
+				if (key == COSMICIdentifierIndex.NOT_ENCODABLE)
+				{
+					throw new UnindexableFileException("Row " + row.getRowNumber() + " has an ID that can't be indexed: " + row.getString(0));
+				}
+				if (kind == Kind.FUSIONS)
+				{
+					rows.add(key);
+				}
+				else
+				{
+					rows.add(key, row);
+				}
+			});
+			// Make sure that the checksum covers the whole file, even if the decompressor didn't read all of it.
+			checkedInput.transferTo(OutputStream.nullOutputStream());
+		}
+		catch (UnindexableFileException e)
+		{
+			logger.warn("{} will not be indexed, and will be parsed instead: {}", sourceFile, e.getMessage());
+			return false;
+		}
+
+		rows.sort();
+		int keyCount = 0;
+		for (int row = 0; row < rows.size; row = rows.getKeyEnd(row))
+		{
+			keyCount++;
+		}
+		Path temporaryFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+		try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile), 1 << 16)))
+		{
+			byte[] version = cosmicVersion.getBytes(StandardCharsets.UTF_8);
+			output.writeLong(MAGIC);
+			output.writeInt(FORMAT_VERSION);
+			output.writeByte(kind.ordinal());
+			output.writeLong(sourceSize);
+			output.writeLong(sourceModified);
+			output.writeLong(checksum.getValue());
+			output.writeShort(version.length);
+			output.write(version);
+			output.writeInt(keyCount);
+			for (int row = 0; row < rows.size; row = rows.getKeyEnd(row))
+			{
+				output.writeLong(rows.keys[row]);
+			}
+			if (kind == Kind.MUTATIONS)
+			{
+				writeMutationEntries(output, rows);
+			}
+		}
+		catch (UnindexableFileException e)
+		{
+			Files.delete(temporaryFile);
+			logger.warn("{} will not be indexed, and will be parsed instead: {}", sourceFile, e.getMessage());
+			return false;
+		}
+		Files.move(temporaryFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Indexed {} IDs from {}", keyCount, sourceFile);
+		return true;
+	}
+
+	/**
+	 * Writes the offset of each entry (and the end of the last entry), then the entries: the COSV identifier, the number of mutation IDs,
+	 * and the mutation IDs. Strings are written as their length in one byte, followed by their bytes.
+	 * The entry of a key has the COSV identifier of its last row, and the mutation IDs of its rows in order, without repeats.
+	 * @param rows The rows of the file, sorted.
+	 */
+	private static void writeMutationEntries(DataOutputStream output, IndexRows rows) throws IOException
+	{
+		long offset = 0;
+		for (int from = 0, to; from < rows.size; from = to)
+		{
+			to = rows.getKeyEnd(from);
+			int mutationIDCount = rows.findDistinctMutationIDs(from, to);
+			if (mutationIDCount > MAX_MUTATION_IDS)
+			{
+				throw new UnindexableFileException("Too many mutation IDs for one legacy ID: " + mutationIDCount);
+			}
+			output.writeInt((int) offset);
+			offset += rows.getGenomicIDSize(to - 1) + Short.BYTES;
+			for (int i = 0; i < mutationIDCount; i++)
+			{
+				offset += rows.getMutationIDSize(rows.distinctRows[i]);
+			}
+			if (offset > Integer.MAX_VALUE / 2)
+			{
+				throw new UnindexableFileException("The index would be too large to map into memory");
+			}
+		}
+		output.writeInt((int) offset);
+		for (int from = 0, to; from < rows.size; from = to)
+		{
+			to = rows.getKeyEnd(from);
+			int mutationIDCount = rows.findDistinctMutationIDs(from, to);
+			rows.writeGenomicID(output, to - 1);
+			output.writeShort(mutationIDCount);
+			for (int i = 0; i < mutationIDCount; i++)
+			{
+				rows.writeMutationID(output, rows.distinctRows[i]);
+			}
+		}
+	}
+
+	private static Header readHeader(Path indexFile) throws IOException
+	{
+		try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile))))
+		{
+			if (input.readLong() != MAGIC || input.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException(indexFile + " is not an index file, or was written by a different version of this program");
+			}
+			Header header = new Header();
+			header.kind = Kind.values()[input.readByte()];
+			header.sourceSize = input.readLong();
+			header.sourceModified = input.readLong();
+			header.sourceChecksum = input.readLong();
+			byte[] version = new byte[input.readUnsignedShort()];
+			input.readFully(version);
+			header.cosmicVersion = new String(version, StandardCharsets.UTF_8);
+			header.entryCount = input.readInt();
+			header.length = Long.BYTES + Integer.BYTES + 1 + 3 * Long.BYTES + Short.BYTES + version.length + Integer.BYTES;
+			return header;
+		}
+	}
+
+	private static COSMICFileIndex open(Path indexFile, Header header) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ))
+		{
+			// The mapping stays valid after the channel is closed.
+			return new COSMICFileIndex(header, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Looks up legacy IDs in the index of a mutation file.
+	 * @param legacyIDs The legacy IDs to look up (the keys of the updaters map).
+	 * @return The same matches that scanning the file would have found.
+	 */
+	COSMICMutationMatches findMutationMatches(Collection<String> legacyIDs)
+	{
+		if (this.kind != Kind.MUTATIONS)
+		{
+			throw new IllegalStateException("Not an index of a mutation file");
+		}
+		COSMICMutationMatches matches = new COSMICMutationMatches();
+		for (String legacyID : legacyIDs)
+		{
+			int entry = find(COSMICIdentifierIndex.encode(legacyID));
+			if (entry < 0)
+			{
+				continue;
+			}
+			int position = this.dataOffset + this.buffer.getInt(this.dataOffsetsOffset + entry * Integer.BYTES);
+			String genomicID = readString(position);
+			position += 1 + (this.buffer.get(position) & 0xFF);
+			int mutationIDCount = this.buffer.getShort(position) & 0xFFFF;
+			position += Short.BYTES;
+			for (int i = 0; i < mutationIDCount; i++)
+			{
+				matches.add(legacyID, readString(position), genomicID);
+				position += 1 + (this.buffer.get(position) & 0xFF);
+			}
+		}
+		return matches;
+	}
+
+	/**
+	 * Looks up fusion IDs in the index of Fusion Export.
+	 * @param fusionIDs The fusion IDs (without the COSF prefix) to look up.
+	 * @return The fusion IDs that are in the file.
+	 */
+	Set<String> findFusionIDs(Collection<String> fusionIDs)
+	{
+		if (this.kind != Kind.FUSIONS)
+		{
+			throw new IllegalStateException("Not an index of Fusion Export");
+		}
+		Set<String> foundFusionIDs = new HashSet<>();
+		for (String fusionID : fusionIDs)
+		{
+			if (find(COSMICIdentifierIndex.encode(fusionID)) >= 0)
+			{
+				foundFusionIDs.add(fusionID);
+			}
+		}
+		return foundFusionIDs;
+	}
+
+	int size()
+	{
+		return this.entryCount;
+	}
+
+	/**
+	 * @return The position of the key in the index, or -1 if it's not there.
+	 */
+	private int find(long key)
+	{
+		// An ID that can't be encoded can't be in the file either, because the index is only built if all of the file's IDs can be encoded.
+		if (key == COSMICIdentifierIndex.NOT_ENCODABLE)
+		{
+			return -1;
+		}
+		int low = 0;
+		int high = this.entryCount - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			long middleKey = this.buffer.getLong(this.keysOffset + middle * Long.BYTES);
+			if (middleKey < key)
+			{
+				low = middle + 1;
+			}
+			else if (middleKey > key)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	private String readString(int position)
+	{
+		byte[] bytes = new byte[this.buffer.get(position) & 0xFF];
+		ByteBuffer string = this.buffer.duplicate();
+		string.position(position + 1);
+		string.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Thrown when a file contains something that can't be represented in an index.
+	 */
+	private static class UnindexableFileException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		UnindexableFileException(String message)
+		{
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,343 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A scanner for the tab-separated files from COSMIC.
+ * The header line is read once to find the columns of interest. After that, each line is read as raw bytes and only
+ * the requested columns are located, so the many other columns in a COSMIC file are never turned into Strings. A column
+ * is only decoded if the RowHandler asks for it.
+ * COSMIC files are plain tab-separated values, so unlike a CSVParser, this scanner does not do any handling of quotes.
+ */
+class COSMICFileScanner implements Closeable
+{
+	static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	private static final byte TAB = '\t';
+	private static final byte NEWLINE = '\n';
+	private static final byte CARRIAGE_RETURN = '\r';
+
+	private final InputStream inputStream;
+	private final int[] columnIndices;
+	private long headerLength;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private boolean endOfStream;
+	private boolean stopped;
+	private COSMICScanProgress progress;
+
+	/**
+	 * Handles one row of a COSMIC file.
+	 */
+	interface RowHandler
+	{
+		void handleRow(Row row) throws IOException;
+	}
+
+	/**
+	 * Creates a scanner that reads the header line from <code>inputStream</code> to find the requested columns.
+	 * @param inputStream The (uncompressed) contents of the file.
+	 * @param columnNames The names of the columns of interest. Fields are requested from a Row by their position in this list.
+	 * @throws IOException If the header could not be read or is missing one of the columns.
+	 */
+	COSMICFileScanner(InputStream inputStream, String... columnNames) throws IOException
+	{
+		this.inputStream = inputStream;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		int lineEnd = nextLineEnd();
+		if (lineEnd < 0)
+		{
+			throw new IOException("COSMIC file is empty; expected a header with the columns " + Arrays.toString(columnNames));
+		}
+		String header = new String(this.buffer, this.position, trimCarriageReturn(this.position, lineEnd) - this.position, StandardCharsets.UTF_8);
+		this.position = lineEnd + 1;
+		// Nothing has been shifted in the buffer yet, so the position is also the offset in the stream.
+		this.headerLength = this.position;
+		this.columnIndices = getColumnIndices(header, columnNames);
+	}
+
+	/**
+	 * Creates a scanner for a stream that has no header line (such as a part of a file that starts after the header).
+	 * @param inputStream The (uncompressed) contents of the file.
+	 * @param columnIndices The indices of the columns of interest, as returned by <code>getColumnIndices()</code>.
+	 */
+	COSMICFileScanner(InputStream inputStream, int[] columnIndices)
+	{
+		this.inputStream = inputStream;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this.columnIndices = columnIndices.clone();
+	}
+
+	/**
+	 * Finds the indices of columns in a header line.
+	 * @param header The header line of a COSMIC file.
+	 * @param columnNames The names of the columns to look for.
+	 * @return The index of each column in <code>columnNames</code>, in the same order.
+	 * @throws IOException If a column is not in the header.
+	 */
+	static int[] getColumnIndices(String header, String... columnNames) throws IOException
+	{
+		List<String> headerColumns = Arrays.asList(header.split("\t", -1));
+		int[] indices = new int[columnNames.length];
+		for (int i = 0; i < columnNames.length; i++)
+		{
+			indices[i] = headerColumns.indexOf(columnNames[i]);
+			if (indices[i] < 0)
+			{
+				throw new IOException("Column \"" + columnNames[i] + "\" was not found in the header of the COSMIC file: " + header);
+			}
+		}
+		return indices;
+	}
+
+	/**
+	 * @return The file column index of each of the requested columns.
+	 */
+	int[] getColumnIndices()
+	{
+		return this.columnIndices.clone();
+	}
+
+	/**
+	 * @return The number of bytes in the header line, including its line ending. Zero if this scanner did not read a header.
+	 */
+	long getHeaderLength()
+	{
+		return this.headerLength;
+	}
+
+	/**
+	 * Sets the progress that the rows read by <code>scan</code> are added to, a stride of rows at a time.
+	 * @param progress The progress of the scan of the file, or null.
+	 */
+	void setProgress(COSMICScanProgress progress)
+	{
+		this.progress = progress;
+	}
+
+	/**
+	 * Stops <code>scan</code> after the current row, when the handler has found everything that it was looking for.
+	 */
+	void stop()
+	{
+		this.stopped = true;
+	}
+
+	/**
+	 * Reads all of the remaining lines (or the lines up to a call to <code>stop</code>) and passes each one to <code>handler</code>.
+	 * Empty lines are skipped.
+	 * The Row passed to the handler is reused for the next line, so it must not be kept by the handler.
+	 * @param handler Handles each row.
+	 * @return The number of rows read.
+	 * @throws IOException
+	 */
+	long scan(RowHandler handler) throws IOException
+	{
+		Row row = new Row(this.columnIndices);
+		long rowCount = 0;
+		int lineEnd;
+		while (!this.stopped && (lineEnd = nextLineEnd()) >= 0)
+		{
+			int lineStart = this.position;
+			int contentEnd = trimCarriageReturn(lineStart, lineEnd);
+			this.position = lineEnd + 1;
+			if (contentEnd > lineStart)
+			{
+				rowCount++;
+				row.reset(this.buffer, lineStart, contentEnd, rowCount);
+				handler.handleRow(row);
+				if ((rowCount & COSMICScanProgress.ROW_STRIDE_MASK) == 0 && this.progress != null)
+				{
+					this.progress.addRows(COSMICScanProgress.ROW_STRIDE);
+				}
+			}
+		}
+		if (this.progress != null)
+		{
+			this.progress.addRows(rowCount & COSMICScanProgress.ROW_STRIDE_MASK);
+		}
+		return rowCount;
+	}
+
+	/**
+	 * Finds the end of the next line, reading more of the stream into the buffer as needed.
+	 * The next line always starts at <code>this.position</code>.
+	 * @return The index of the end of the line (the newline, or the end of the data if the last line has no newline), or -1 at the end of the stream.
+	 * @throws IOException
+	 */
+	private int nextLineEnd() throws IOException
+	{
+		int searchFrom = this.position;
+		while (true)
+		{
+			for (int i = searchFrom; i < this.limit; i++)
+			{
+				if (this.buffer[i] == NEWLINE)
+				{
+					return i;
+				}
+			}
+			if (this.endOfStream)
+			{
+				// The last line might not end with a newline.
+				return this.position < this.limit ? this.limit : -1;
+			}
+			searchFrom = this.limit - this.position;
+			fillBuffer();
+		}
+	}
+
+	/**
+	 * Moves the unread data to the start of the buffer (growing the buffer if a single line fills it) and reads more from the stream.
+	 * @throws IOException
+	 */
+	private void fillBuffer() throws IOException
+	{
+		int remaining = this.limit - this.position;
+		if (this.position == 0 && remaining == this.buffer.length)
+		{
+			this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+		}
+		else if (remaining > 0)
+		{
+			System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+		}
+		this.position = 0;
+		this.limit = remaining;
+		int bytesRead = this.inputStream.read(this.buffer, this.limit, this.buffer.length - this.limit);
+		if (bytesRead < 0)
+		{
+			this.endOfStream = true;
+		}
+		else
+		{
+			this.limit += bytesRead;
+		}
+	}
+
+	private int trimCarriageReturn(int lineStart, int lineEnd)
+	{
+		return (lineEnd > lineStart && this.buffer[lineEnd - 1] == CARRIAGE_RETURN) ? lineEnd - 1 : lineEnd;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.inputStream.close();
+	}
+
+	/**
+	 * A view of one line of a COSMIC file. Fields are located lazily: the line is only scanned as far as the last column that has been asked for.
+	 * A field is identified by the position of its column in the list of columns given to the scanner.
+	 */
+	static final class Row
+	{
+		private final int[] columnIndices;
+		private final int[] fieldStarts;
+		private final int[] fieldEnds;
+		private byte[] buffer;
+		private int lineStart;
+		private int lineEnd;
+		private int columnsLocated;
+		private long rowNumber;
+
+		private Row(int[] columnIndices)
+		{
+			this.columnIndices = columnIndices;
+			int columnCount = Arrays.stream(columnIndices).max().orElse(-1) + 1;
+			this.fieldStarts = new int[columnCount];
+			this.fieldEnds = new int[columnCount];
+		}
+
+		private void reset(byte[] buffer, int lineStart, int lineEnd, long rowNumber)
+		{
+			this.buffer = buffer;
+			this.lineStart = lineStart;
+			this.lineEnd = lineEnd;
+			this.rowNumber = rowNumber;
+			this.columnsLocated = 0;
+		}
+
+		/**
+		 * Finds the start and end of every column up to and including <code>column</code>.
+		 */
+		private void locateColumn(int column) throws IOException
+		{
+			int start = this.columnsLocated == 0 ? this.lineStart : this.fieldEnds[this.columnsLocated - 1] + 1;
+			while (this.columnsLocated <= column)
+			{
+				if (start > this.lineEnd)
+				{
+					throw new IOException("Row " + this.rowNumber + " of the COSMIC file only has " + this.columnsLocated
+						+ " columns, but column " + (column + 1) + " was expected.");
+				}
+				int end = start;
+				while (end < this.lineEnd && this.buffer[end] != TAB)
+				{
+					end++;
+				}
+				this.fieldStarts[this.columnsLocated] = start;
+				this.fieldEnds[this.columnsLocated] = end;
+				this.columnsLocated++;
+				start = end + 1;
+			}
+		}
+
+		/**
+		 * @return The buffer that holds the current line. Only the range of a field returned by getStart/getEnd should be read from it.
+		 */
+		byte[] getBuffer()
+		{
+			return this.buffer;
+		}
+
+		/**
+		 * @param field The position of the column in the list of columns given to the scanner.
+		 * @return The index in the buffer where the field starts.
+		 */
+		int getStart(int field) throws IOException
+		{
+			int column = this.columnIndices[field];
+			if (column >= this.columnsLocated)
+			{
+				locateColumn(column);
+			}
+			return this.fieldStarts[column];
+		}
+
+		/**
+		 * @param field The position of the column in the list of columns given to the scanner.
+		 * @return The index in the buffer just after the end of the field.
+		 */
+		int getEnd(int field) throws IOException
+		{
+			int column = this.columnIndices[field];
+			if (column >= this.columnsLocated)
+			{
+				locateColumn(column);
+			}
+			return this.fieldEnds[column];
+		}
+
+		/**
+		 * Decodes a field as a String.
+		 * @param field The position of the column in the list of columns given to the scanner.
+		 * @return The value of the field.
+		 */
+		String getString(int field) throws IOException
+		{
+			int start = getStart(field);
+			return new String(this.buffer, start, getEnd(field) - start, StandardCharsets.UTF_8);
+		}
+
+		long getRowNumber()
+		{
+			return this.rowNumber;
+		}
+	}
+}
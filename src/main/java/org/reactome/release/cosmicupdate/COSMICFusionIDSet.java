@@ -0,0 +1,179 @@
+package org.reactome.release.cosmicupdate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fusion IDs of the COSF identifiers (the keys of the updaters map) that are looked for in the FUSION_ID column of Fusion Export,
+ * and which of them have been seen so far.
+ * A fusion ID is a number, so it is stored as a long in an open-addressing hash table (like <code>COSMICIdentifierIndex</code>), and a field
+ * is parsed straight from the bytes of the line and probed without allocating anything. The few fusion IDs that aren't numbers without
+ * leading zeros are kept in an ordinary map, and compared with the field as a String.
+ * <br/>
+ * Each fusion ID is counted once, however many rows it is in, so that a scan can stop as soon as all of them have been seen.
+ */
+class COSMICFusionIDSet
+{
+	private static final long EMPTY_SLOT = -1L;
+
+	private final long[] fusionIDs;
+	private final boolean[] seen;
+	private final int mask;
+	// The keys of the updaters with each fusion ID. Almost every fusion ID has one key.
+	private final List<List<String>> keys = new ArrayList<>();
+	private final int[] keyIndices;
+	private final Map<String, List<String>> otherFusionIDs = new HashMap<>();
+	private final Set<String> otherSeenFusionIDs = new HashSet<>();
+	private int size;
+	private int seenCount;
+
+	/**
+	 * @param keys The keys of the updaters map. Only the COSF identifiers are used.
+	 */
+	COSMICFusionIDSet(Collection<String> keys)
+	{
+		List<String> fusionKeys = new ArrayList<>();
+		for (String key : keys)
+		{
+			if (key.toUpperCase().startsWith(COSMICUpdateUtil.COSMIC_FUSION_PREFIX))
+			{
+				fusionKeys.add(key);
+			}
+		}
+		int capacity = Integer.highestOneBit(Math.max(2, fusionKeys.size() * 2 - 1)) << 1;
+		this.fusionIDs = new long[capacity];
+		Arrays.fill(this.fusionIDs, EMPTY_SLOT);
+		this.seen = new boolean[capacity];
+		this.keyIndices = new int[capacity];
+		this.mask = capacity - 1;
+		for (String key : fusionKeys)
+		{
+			String fusionID = getFusionID(key);
+			byte[] bytes = fusionID.getBytes(StandardCharsets.UTF_8);
+			long number = parseNumber(bytes, 0, bytes.length);
+			if (number == EMPTY_SLOT)
+			{
+				this.otherFusionIDs.computeIfAbsent(fusionID, k -> {
+					this.size++;
+					return new ArrayList<>(1);
+				}).add(key);
+				continue;
+			}
+			int slot = findSlot(number);
+			if (this.fusionIDs[slot] == EMPTY_SLOT)
+			{
+				this.fusionIDs[slot] = number;
+				this.keyIndices[slot] = this.keys.size();
+				this.keys.add(new ArrayList<>(1));
+				this.size++;
+			}
+			this.keys.get(this.keyIndices[slot]).add(key);
+		}
+	}
+
+	/**
+	 * @return The fusion ID of a COSF identifier: the identifier in upper case, without COSF.
+	 */
+	static String getFusionID(String key)
+	{
+		return key.toUpperCase().replace(COSMICUpdateUtil.COSMIC_FUSION_PREFIX, "");
+	}
+
+	/**
+	 * Marks a FUSION_ID field as seen, if it is one of the fusion IDs.
+	 * @param bytes The buffer that holds the field.
+	 * @param start The start of the field.
+	 * @param end The end of the field (exclusive).
+	 * @return true if the field is one of the fusion IDs and had not been seen before.
+	 */
+	boolean markSeen(byte[] bytes, int start, int end)
+	{
+		long number = parseNumber(bytes, start, end);
+		if (number != EMPTY_SLOT)
+		{
+			int slot = findSlot(number);
+			if (this.fusionIDs[slot] == EMPTY_SLOT || this.seen[slot])
+			{
+				return false;
+			}
+			this.seen[slot] = true;
+			this.seenCount++;
+			return true;
+		}
+		if (this.otherFusionIDs.isEmpty())
+		{
+			return false;
+		}
+		String fusionID = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+		if (this.otherFusionIDs.containsKey(fusionID) && this.otherSeenFusionIDs.add(fusionID))
+		{
+			this.seenCount++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if every fusion ID has been seen.
+	 */
+	boolean allSeen()
+	{
+		return this.seenCount == this.size;
+	}
+
+	/**
+	 * @return The number of (distinct) fusion IDs.
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return The keys of the updaters whose fusion IDs have been seen.
+	 */
+	Set<String> getSeenKeys()
+	{
+		Set<String> seenKeys = new HashSet<>();
+		for (int slot = 0; slot < this.fusionIDs.length; slot++)
+		{
+			if (this.seen[slot])
+			{
+				seenKeys.addAll(this.keys.get(this.keyIndices[slot]));
+			}
+		}
+		this.otherSeenFusionIDs.forEach(fusionID -> seenKeys.addAll(this.otherFusionIDs.get(fusionID)));
+		return seenKeys;
+	}
+
+	/**
+	 * Finds the slot that holds <code>number</code>, or the empty slot where it would go.
+	 */
+	private int findSlot(long number)
+	{
+		int slot = COSMICIdentifierIndex.hash(number) & this.mask;
+		while (this.fusionIDs[slot] != EMPTY_SLOT && this.fusionIDs[slot] != number)
+		{
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Parses a number without leading zeros (the form of the fusion IDs in Fusion Export).
+	 * @return The number, or EMPTY_SLOT if the bytes are anything else.
+	 */
+	private static long parseNumber(byte[] bytes, int start, int end)
+	{
+		long encoded = COSMICIdentifierIndex.encode(bytes, start, end);
+		// An identifier with a prefix (such as COSF) is not a number.
+		return encoded == COSMICIdentifierIndex.NOT_ENCODABLE || encoded > COSMICIdentifierIndex.MAX_NUMBER ? EMPTY_SLOT : encoded;
+	}
+}
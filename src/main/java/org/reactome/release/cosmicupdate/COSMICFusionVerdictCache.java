@@ -0,0 +1,212 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+
+/**
+ * Whether each EWAS (by DB_ID) is a fusion: whether any of its FragmentReplacedModifications or FragmentInsertionModifications has a
+ * referenceSequence that isn't the EWAS's referenceEntity. Many COSMIC identifiers are cross-referenced by the same EWASes, so
+ * <code>determinePrefixes</code> works out each EWAS's verdict once, instead of once per identifier.
+ * <br/>
+ * A cache that is loaded from a file (see <code>load</code>) is also kept between runs. Each verdict is saved with the DB_ID of the last
+ * InstanceEdit of its EWAS or of any of the EWAS's modified residues (the one that created it, or the last one that modified it), and a verdict
+ * is only used while that hasn't changed. The verdicts of EWASes that aren't looked at in a run are kept as they are.
+ */
+class COSMICFusionVerdictCache
+{
+	private static final Logger logger = LogManager.getLogger();
+	private static final String EWAS_DB_ID = "EWAS DB_ID";
+	private static final String LAST_MODIFIED = "Last InstanceEdit";
+	private static final String FUSION = "Fusion";
+	// The last InstanceEdit of an EWAS whose last InstanceEdit isn't known.
+	private static final long UNKNOWN = 0;
+
+	private static class Verdict
+	{
+		private final boolean fusion;
+		private final long lastModified;
+
+		Verdict(boolean fusion, long lastModified)
+		{
+			this.fusion = fusion;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private final boolean persistent;
+	private final Map<Long, Verdict> verdicts = new ConcurrentHashMap<>();
+	// The last InstanceEdits of the EWASes (and their modified residues) in this run, when they are known.
+	private final Map<Long, Long> lastInstanceEdits = new ConcurrentHashMap<>();
+	private final LongAdder cachedVerdicts = new LongAdder();
+	private final LongAdder computedVerdicts = new LongAdder();
+
+	/**
+	 * Creates a cache that is only kept for this run.
+	 */
+	COSMICFusionVerdictCache()
+	{
+		this(false);
+	}
+
+	private COSMICFusionVerdictCache(boolean persistent)
+	{
+		this.persistent = persistent;
+	}
+
+	/**
+	 * @return true if the cache is kept between runs, in which case the last InstanceEdits of the EWASes must be passed to
+	 * <code>setLastInstanceEdits</code> before any verdict is used.
+	 */
+	boolean isPersistent()
+	{
+		return this.persistent;
+	}
+
+	/**
+	 * Sets the last InstanceEdits of some of the EWASes in this run, and drops the verdicts of those EWASes that have been modified since
+	 * their verdicts were saved. This can be called for several batches of EWASes, by several threads at once.
+	 * @param lastInstanceEdits The DB_ID of the last InstanceEdit of each EWAS or any of its modified residues, keyed by the DB_ID of the EWAS.
+	 */
+	void setLastInstanceEdits(Map<Long, Long> lastInstanceEdits)
+	{
+		int outOfDateCount = 0;
+		for (Map.Entry<Long, Long> lastInstanceEdit : lastInstanceEdits.entrySet())
+		{
+			this.lastInstanceEdits.put(lastInstanceEdit.getKey(), lastInstanceEdit.getValue());
+			Verdict verdict = this.verdicts.get(lastInstanceEdit.getKey());
+			if (verdict != null && verdict.lastModified != lastInstanceEdit.getValue())
+			{
+				this.verdicts.remove(lastInstanceEdit.getKey(), verdict);
+				outOfDateCount++;
+			}
+		}
+		if (outOfDateCount > 0)
+		{
+			logger.info("{} cached fusion verdicts are out of date", outOfDateCount);
+		}
+	}
+
+	/**
+	 * @param ewas An EWAS.
+	 * @return true if it is known whether the EWAS is a fusion.
+	 */
+	boolean hasVerdict(GKInstance ewas)
+	{
+		return isStored(ewas) && this.verdicts.containsKey(ewas.getDBID());
+	}
+
+	/**
+	 * @param ewas An EWAS.
+	 * @return Whether the EWAS is a fusion, or null if that isn't known yet.
+	 */
+	Boolean getVerdict(GKInstance ewas)
+	{
+		Verdict verdict = isStored(ewas) ? this.verdicts.get(ewas.getDBID()) : null;
+		if (verdict == null)
+		{
+			return null;
+		}
+		this.cachedVerdicts.increment();
+		return verdict.fusion;
+	}
+
+	/**
+	 * Records whether an EWAS is a fusion. Nothing is recorded for an EWAS that isn't stored in the database.
+	 * @param ewas An EWAS.
+	 * @param fusion true if it is a fusion.
+	 */
+	void putVerdict(GKInstance ewas, boolean fusion)
+	{
+		this.computedVerdicts.increment();
+		if (isStored(ewas))
+		{
+			this.verdicts.put(ewas.getDBID(), new Verdict(fusion, this.lastInstanceEdits.getOrDefault(ewas.getDBID(), UNKNOWN)));
+		}
+	}
+
+	/**
+	 * @return true if the instance is stored in the database. Only those DB_IDs identify one instance (unsaved instances have no DB_ID,
+	 * or a negative one).
+	 */
+	private static boolean isStored(GKInstance instance)
+	{
+		return instance.getDBID() != null && instance.getDBID() > 0;
+	}
+
+	long getCachedVerdictCount()
+	{
+		return this.cachedVerdicts.sum();
+	}
+
+	long getComputedVerdictCount()
+	{
+		return this.computedVerdicts.sum();
+	}
+
+	/**
+	 * Loads a cache that is kept between runs. If the file doesn't exist, the cache is empty.
+	 * @param cacheFile The cache file.
+	 * @return The cache.
+	 * @throws IOException
+	 */
+	static COSMICFusionVerdictCache load(Path cacheFile) throws IOException
+	{
+		COSMICFusionVerdictCache cache = new COSMICFusionVerdictCache(true);
+		if (!Files.exists(cacheFile))
+		{
+			logger.info("There is no fusion verdict cache {}; every EWAS will be checked.", cacheFile);
+			return cache;
+		}
+		try(Reader reader = Files.newBufferedReader(cacheFile);
+			CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader()))
+		{
+			for (CSVRecord record : parser)
+			{
+				cache.verdicts.put(Long.parseLong(record.get(EWAS_DB_ID)),
+					new Verdict(Boolean.parseBoolean(record.get(FUSION)), Long.parseLong(record.get(LAST_MODIFIED))));
+			}
+		}
+		logger.info("Loaded the fusion verdicts of {} EWASes from {}", cache.verdicts.size(), cacheFile);
+		return cache;
+	}
+
+	/**
+	 * Saves the verdicts whose EWASes' last InstanceEdits are known, sorted by DB_ID.
+	 * @param cacheFile The cache file.
+	 * @throws IOException
+	 */
+	void save(Path cacheFile) throws IOException
+	{
+		Path absoluteCacheFile = cacheFile.toAbsolutePath();
+		Files.createDirectories(absoluteCacheFile.getParent());
+		Path temporaryFile = absoluteCacheFile.resolveSibling(absoluteCacheFile.getFileName() + ".tmp");
+		Map<Long, Verdict> sortedVerdicts = new TreeMap<>(this.verdicts);
+		sortedVerdicts.values().removeIf(verdict -> verdict.lastModified == UNKNOWN);
+		try(BufferedWriter writer = Files.newBufferedWriter(temporaryFile);
+			CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(EWAS_DB_ID, LAST_MODIFIED, FUSION)))
+		{
+			for (Map.Entry<Long, Verdict> entry : sortedVerdicts.entrySet())
+			{
+				printer.printRecord(entry.getKey(), entry.getValue().lastModified, entry.getValue().fusion);
+			}
+		}
+		Files.move(temporaryFile, absoluteCacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Saved the fusion verdicts of {} EWASes to {}", sortedVerdicts.size(), cacheFile);
+	}
+}
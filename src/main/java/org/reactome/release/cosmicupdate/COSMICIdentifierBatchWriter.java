@@ -0,0 +1,306 @@
+package org.reactome.release.cosmicupdate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.model.GKInstance;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * Writes COSMIC identifier updates to the database in batches.
+ * Each batch is written in its own transaction, which is committed when the whole batch has been written. If any update in a batch fails,
+ * the batch is rolled back, so the database never contains part of a batch. Failed batches are logged, and the rest of the batches are still written.
+ * <br/>
+ * The identifier objects of a batch are fetched with one query, and the attributes that an update reads and changes are loaded for all of
+ * them with one more, rather than lazily, one object at a time. The changes are then written with the adaptor.
+ * If a batch is rolled back, the cached identifier objects are given back the values they had before it, so they match the database again.
+ * If the database does not support transactions, the updates are written one identifier at a time instead, so that the number of
+ * updates that failed is exact.
+ */
+class COSMICIdentifierBatchWriter
+{
+	private static final Logger logger = LogManager.getLogger();
+	static final int DEFAULT_BATCH_SIZE = 500;
+	// The attributes of the identifier objects that an update reads or changes; the display name is made from the referenceDatabase.
+	private static final String[] UPDATED_ATTRIBUTES = { ReactomeJavaConstants.identifier, ReactomeJavaConstants.modified,
+		ReactomeJavaConstants.referenceDatabase };
+	private final MySQLAdaptor adaptor;
+	private final long creatorID;
+	private final int batchSize;
+
+	/**
+	 * @param adaptor The adaptor to write with.
+	 * @param creatorID The DB_ID of the Creator of the updates.
+	 * @param batchSize The number of updaters to write in each transaction.
+	 */
+	COSMICIdentifierBatchWriter(MySQLAdaptor adaptor, long creatorID, int batchSize)
+	{
+		if (batchSize < 1)
+		{
+			throw new IllegalArgumentException("Batch size must be at least 1, but was " + batchSize);
+		}
+		this.adaptor = adaptor;
+		this.creatorID = creatorID;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Runs the updaters, one batch at a time.
+	 * @param updaters The updaters to run.
+	 * @return The number of updaters in batches that failed and were rolled back (or, without transactions, the number of updaters that failed).
+	 * @throws Exception If the InstanceEdits for the updates cannot be created, or a failed batch cannot be rolled back.
+	 */
+	int write(Collection<COSMICIdentifierUpdater> updaters) throws Exception
+	{
+		// The InstanceEdits are shared by all batches, so they must not be created inside a batch that might be rolled back.
+		COSMICIdentifierUpdater.createInstanceEdits(this.adaptor, this.creatorID, updaters);
+
+		boolean useTransactions = this.adaptor.supportsTransactions();
+		if (!useTransactions)
+		{
+			logger.warn("The database does not support transactions; updates will be written one identifier at a time, and not rolled back if they fail.");
+		}
+		int failedCount = 0;
+		int batchCount = 0;
+		List<COSMICIdentifierUpdater> batch = new ArrayList<>(this.batchSize);
+		for (COSMICIdentifierUpdater updater : updaters)
+		{
+			batch.add(updater);
+			if (batch.size() == this.batchSize)
+			{
+				failedCount += writeBatch(batch, useTransactions);
+				batchCount++;
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty())
+		{
+			failedCount += writeBatch(batch, useTransactions);
+			batchCount++;
+		}
+		logger.info("Wrote {} identifier updates in {} batches; {} updates were rolled back.", updaters.size(), batchCount, failedCount);
+		return failedCount;
+	}
+
+	/**
+	 * Runs the updaters on several threads, each with its own adaptor from <code>adaptorPool</code>.
+	 * The updaters are partitioned by DB_ID, so that updates to the same object are always written by the same worker.
+	 * @param adaptorPool The pool to borrow adaptors from. There is one worker for each adaptor the pool can hold.
+	 * @param creatorID The DB_ID of the Creator of the updates.
+	 * @param batchSize The number of updaters to write in each transaction.
+	 * @param updaters The updaters to run.
+	 * @return The number of updaters in batches that failed and were rolled back.
+	 * @throws Exception
+	 */
+	static int writeInParallel(MySQLAdaptorPool adaptorPool, long creatorID, int batchSize, Collection<COSMICIdentifierUpdater> updaters)
+		throws Exception
+	{
+		int workerCount = adaptorPool.getMaxSize();
+		List<List<COSMICIdentifierUpdater>> partitions = new ArrayList<>();
+		for (int i = 0; i < workerCount; i++)
+		{
+			partitions.add(new ArrayList<>());
+		}
+		updaters.forEach(updater -> partitions.get((int) Math.floorMod(updater.getDbID(), (long) workerCount)).add(updater));
+
+		// Create the shared InstanceEdits once, before any worker starts.
+		MySQLAdaptor adaptor = adaptorPool.borrow();
+		try
+		{
+			COSMICIdentifierUpdater.createInstanceEdits(adaptor, creatorID, updaters);
+		}
+		finally
+		{
+			adaptorPool.release(adaptor);
+		}
+
+		logger.info("Writing {} identifier updates with {} workers", updaters.size(), workerCount);
+		ExecutorService execService = Executors.newFixedThreadPool(workerCount);
+		try
+		{
+			List<Future<Integer>> results = new ArrayList<>();
+			for (List<COSMICIdentifierUpdater> partition : partitions)
+			{
+				if (partition.isEmpty())
+				{
+					continue;
+				}
+				results.add(execService.submit(() -> {
+					MySQLAdaptor workerAdaptor = adaptorPool.borrow();
+					try
+					{
+						return new COSMICIdentifierBatchWriter(workerAdaptor, creatorID, batchSize).write(partition);
+					}
+					finally
+					{
+						adaptorPool.release(workerAdaptor);
+					}
+				}));
+			}
+			int failedCount = 0;
+			for (Future<Integer> result : results)
+			{
+				failedCount += result.get();
+			}
+			return failedCount;
+		}
+		finally
+		{
+			execService.shutdown();
+		}
+	}
+
+	/**
+	 * Writes a single batch in a transaction. Without transactions, each updater of the batch is written on its own.
+	 * @return 0 if the batch was committed, otherwise the number of updaters that were not written.
+	 */
+	private int writeBatch(List<COSMICIdentifierUpdater> batch, boolean useTransactions) throws Exception
+	{
+		COSMICUpdateMetrics.Phase phase = COSMICUpdateUtil.getMetrics().getPhase(COSMICUpdateMetrics.WRITE_BACK_PHASE);
+		if (!useTransactions)
+		{
+			int failedCount = 0;
+			for (COSMICIdentifierUpdater updater : batch)
+			{
+				List<PreviousValues> previousValues = new ArrayList<>(1);
+				try
+				{
+					phase.addDbRoundTrips(writeUpdates(Collections.singletonList(updater), previousValues));
+					updater.setWritten(true);
+				}
+				catch (Exception e)
+				{
+					logger.error("Exception caught while trying to update the identifier " + updater.getIdentifier() + " (DB_ID: " + updater.getDbID()
+						+ "); it may be partly updated. Exception is: ", e);
+					restore(previousValues);
+					failedCount++;
+				}
+			}
+			return failedCount;
+		}
+		List<PreviousValues> previousValues = new ArrayList<>(batch.size());
+		try
+		{
+			this.adaptor.startTransaction();
+			phase.addDbRoundTrips(1);
+			phase.addDbRoundTrips(writeUpdates(batch, previousValues));
+			this.adaptor.commit();
+			phase.addDbRoundTrips(1);
+			batch.forEach(updater -> updater.setWritten(true));
+			return 0;
+		}
+		catch (Exception e)
+		{
+			logger.error("Exception caught while trying to update a batch of identifiers; the batch will be rolled back. "
+				+ "The identifiers in this batch (DB_IDs: " + batch.stream().map(updater -> String.valueOf(updater.getDbID())).collect(Collectors.joining(","))
+				+ ") were NOT updated. Exception is: ", e);
+			this.adaptor.rollback();
+			phase.addDbRoundTrips(1);
+			restore(previousValues);
+			return batch.size();
+		}
+	}
+
+	private static void restore(List<PreviousValues> previousValues)
+	{
+		for (PreviousValues values : previousValues)
+		{
+			try
+			{
+				values.restore();
+			}
+			catch (Exception e)
+			{
+				logger.warn("Could not restore the cached values of DB_ID " + values.identifierObject.getDBID() + ": ", e);
+			}
+		}
+	}
+
+	/**
+	 * Writes the updates of some updaters, with one query to fetch their identifier objects and one to load the attributes of those objects.
+	 * @param previousValues The values that the identifier objects had before they were changed are added to this list.
+	 * @return The number of database round trips.
+	 */
+	private int writeUpdates(List<COSMICIdentifierUpdater> updaters, List<PreviousValues> previousValues) throws Exception
+	{
+		List<Long> dbIDs = new ArrayList<>(updaters.size());
+		for (COSMICIdentifierUpdater updater : updaters)
+		{
+			if (updater.hasUpdate())
+			{
+				dbIDs.add(updater.getDbID());
+			}
+			else
+			{
+				updater.logNoUpdate();
+			}
+		}
+		if (dbIDs.isEmpty())
+		{
+			return 0;
+		}
+		Map<Long, GKInstance> identifierObjects = new HashMap<>();
+		@SuppressWarnings("unchecked")
+		Collection<GKInstance> fetchedObjects = this.adaptor.fetchInstanceByAttribute(ReactomeJavaConstants.DatabaseIdentifier,
+			ReactomeJavaConstants.DB_ID, "=", dbIDs);
+		fetchedObjects.forEach(identifierObject -> identifierObjects.put(identifierObject.getDBID(), identifierObject));
+		this.adaptor.loadInstanceAttributeValues(fetchedObjects, UPDATED_ATTRIBUTES);
+		int roundTrips = 2;
+
+		for (COSMICIdentifierUpdater updater : updaters)
+		{
+			if (!updater.hasUpdate())
+			{
+				continue;
+			}
+			GKInstance identifierObject = identifierObjects.get(updater.getDbID());
+			if (identifierObject == null)
+			{
+				throw new IllegalStateException("No DatabaseIdentifier with DB_ID " + updater.getDbID() + " was found for " + updater.getIdentifier());
+			}
+			previousValues.add(new PreviousValues(identifierObject));
+			if (updater.applyUpdate(this.adaptor, this.creatorID, identifierObject) != null)
+			{
+				roundTrips += updater.writeUpdate(this.adaptor, identifierObject);
+			}
+		}
+		return roundTrips;
+	}
+
+	/**
+	 * The values of the attributes of an identifier object that an update changes, as they were before the update.
+	 */
+	private static class PreviousValues
+	{
+		private final GKInstance identifierObject;
+		private final Object identifier;
+		private final List<?> modified;
+		private final String displayName;
+
+		PreviousValues(GKInstance identifierObject) throws Exception
+		{
+			this.identifierObject = identifierObject;
+			this.identifier = identifierObject.getAttributeValue(ReactomeJavaConstants.identifier);
+			this.modified = new ArrayList<>(identifierObject.getAttributeValuesList(ReactomeJavaConstants.modified));
+			this.displayName = identifierObject.getDisplayName();
+		}
+
+		void restore() throws Exception
+		{
+			this.identifierObject.setAttributeValue(ReactomeJavaConstants.identifier, this.identifier);
+			this.identifierObject.setAttributeValue(ReactomeJavaConstants.modified, new ArrayList<>(this.modified));
+			this.identifierObject.setDisplayName(this.displayName);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package org.reactome.release.cosmicupdate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * A Bloom filter of COSMIC identifiers, that is checked with the raw bytes of a field from a COSMIC file.
+ * Only a tiny fraction of the rows in the COSMIC mutation files have a legacy ID that we are interested in, so most rows can be rejected
+ * with a hash of the field and a single read from this filter, which is small enough to stay in the CPU cache.
+ * The filter is "blocked": all of the bits for an identifier are in the same 64-bit word.
+ * A field that is not rejected might still not be one of the identifiers, so it must still be looked up.
+ */
+class COSMICIdentifierFilter
+{
+	private static final int BITS_PER_KEY = 16;
+	private static final int BITS_PER_WORD = 64;
+	private static final int HASH_COUNT = 6;
+	// Each of the bits for an identifier is chosen with 6 bits of the hash.
+	private static final int BIT_INDEX_BITS = 6;
+	private static final int MAX_WORD_COUNT = 1 << 30;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long[] words;
+	private final int mask;
+
+	/**
+	 * @param keys The identifiers to add to the filter.
+	 */
+	COSMICIdentifierFilter(Collection<String> keys)
+	{
+		// A power of two, so that a word can be chosen with a mask.
+		long wordsNeeded = (long) keys.size() * BITS_PER_KEY / BITS_PER_WORD;
+		int wordCount = 1;
+		while (wordCount < wordsNeeded && wordCount < MAX_WORD_COUNT)
+		{
+			wordCount <<= 1;
+		}
+		this.words = new long[wordCount];
+		this.mask = wordCount - 1;
+		for (String key : keys)
+		{
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			long hash = hash(bytes, 0, bytes.length);
+			this.words[wordIndex(hash)] |= bitMask(hash);
+		}
+	}
+
+	/**
+	 * Checks if a field might be one of the identifiers in the filter.
+	 * @param bytes The buffer holding the field.
+	 * @param start The start of the field.
+	 * @param end The end of the field (exclusive).
+	 * @return false if the field is definitely not one of the identifiers, true if it might be.
+	 */
+	boolean mightContain(byte[] bytes, int start, int end)
+	{
+		long hash = hash(bytes, start, end);
+		long bitMask = bitMask(hash);
+		return (this.words[wordIndex(hash)] & bitMask) == bitMask;
+	}
+
+	private int wordIndex(long hash)
+	{
+		return (int) hash & this.mask;
+	}
+
+	/**
+	 * Chooses the bits to set in the word, using the upper bits of the hash (the lower bits choose the word).
+	 */
+	private static long bitMask(long hash)
+	{
+		long bitMask = 0L;
+		long bits = hash >>> (Long.SIZE - HASH_COUNT * BIT_INDEX_BITS);
+		for (int i = 0; i < HASH_COUNT; i++)
+		{
+			bitMask |= 1L << (bits & (BITS_PER_WORD - 1));
+			bits >>>= BIT_INDEX_BITS;
+		}
+		return bitMask;
+	}
+
+	/**
+	 * FNV-1a over the bytes, followed by the MurmurHash3 finalizer so that all of the bits of the hash depend on all of the bytes.
+	 */
+	private static long hash(byte[] bytes, int start, int end)
+	{
+		long hash = FNV_OFFSET_BASIS;
+		for (int i = start; i < end; i++)
+		{
+			hash ^= bytes[i] & 0xFF;
+			hash *= FNV_PRIME;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
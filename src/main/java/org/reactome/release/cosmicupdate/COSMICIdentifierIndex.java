@@ -0,0 +1,216 @@
+package org.reactome.release.cosmicupdate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact index of COSMIC identifiers (the keys of the updaters map) that can be probed directly with the bytes of a field from a COSMIC file.
+ * Almost every COSMIC identifier is a prefix (COSM, COSF, COSV or none) followed by a number, so it is stored as a single long in an
+ * open-addressing hash table, and probing it with a field does not allocate anything. The few identifiers that don't follow that pattern
+ * (such as lowercase prefixes or numbers with leading zeros) are kept in an ordinary map, keyed by the exact String.
+ * Fields are checked against a COSMICIdentifierFilter first, so most fields that are not in the index are rejected without being parsed.
+ */
+class COSMICIdentifierIndex
+{
+	// Returned by encode() for identifiers that can't be stored as a long.
+	static final long NOT_ENCODABLE = -1L;
+	private static final long EMPTY_SLOT = -1L;
+	private static final int PREFIX_SHIFT = 60;
+	private static final int PREFIX_LENGTH = 4;
+	// 18 digits always fit in the 60 bits below the prefix.
+	private static final int MAX_DIGITS = 18;
+	// The largest encoded identifier without a prefix. Identifiers with a prefix are always encoded as larger numbers.
+	static final long MAX_NUMBER = (1L << PREFIX_SHIFT) - 1;
+	private static final long NO_PREFIX = 0L;
+	private static final long LEGACY_PREFIX = 1L;
+	private static final long FUSION_PREFIX = 2L;
+	private static final long GENOMIC_PREFIX = 3L;
+
+	private final long[] encodedKeys;
+	private final String[] keys;
+	private final int mask;
+	private final int size;
+	private final Map<String, String> otherKeys = new HashMap<>();
+	private final COSMICIdentifierFilter filter;
+
+	/**
+	 * @param keys The identifiers to index.
+	 */
+	COSMICIdentifierIndex(Collection<String> keys)
+	{
+		int capacity = Integer.highestOneBit(Math.max(2, keys.size() * 2 - 1)) << 1;
+		this.encodedKeys = new long[capacity];
+		Arrays.fill(this.encodedKeys, EMPTY_SLOT);
+		this.keys = new String[capacity];
+		this.mask = capacity - 1;
+		int count = 0;
+		for (String key : keys)
+		{
+			long encodedKey = encode(key);
+			if (encodedKey == NOT_ENCODABLE)
+			{
+				if (this.otherKeys.put(key, key) == null)
+				{
+					count++;
+				}
+				continue;
+			}
+			int slot = findSlot(encodedKey);
+			if (this.encodedKeys[slot] == EMPTY_SLOT)
+			{
+				this.encodedKeys[slot] = encodedKey;
+				this.keys[slot] = key;
+				count++;
+			}
+		}
+		this.size = count;
+		this.filter = new COSMICIdentifierFilter(keys);
+	}
+
+	/**
+	 * Looks up the identifier in a field of a COSMIC file.
+	 * @param bytes The buffer holding the field.
+	 * @param start The start of the field.
+	 * @param end The end of the field (exclusive).
+	 * @return The indexed identifier (the same String that was given to the constructor) or null if the field is not in the index.
+	 */
+	String find(byte[] bytes, int start, int end)
+	{
+		if (!this.filter.mightContain(bytes, start, end))
+		{
+			return null;
+		}
+		long encodedKey = encode(bytes, start, end);
+		if (encodedKey != NOT_ENCODABLE)
+		{
+			return this.keys[findSlot(encodedKey)];
+		}
+		if (this.otherKeys.isEmpty())
+		{
+			return null;
+		}
+		return this.otherKeys.get(new String(bytes, start, end - start, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Looks up an identifier.
+	 * @param identifier The identifier.
+	 * @return The indexed identifier or null if it is not in the index.
+	 */
+	String find(String identifier)
+	{
+		long encodedKey = encode(identifier);
+		return encodedKey != NOT_ENCODABLE ? this.keys[findSlot(encodedKey)] : this.otherKeys.get(identifier);
+	}
+
+	/**
+	 * @return The number of identifiers in the index.
+	 */
+	int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * Finds the slot that holds <code>encodedKey</code>, or the empty slot where it would go.
+	 */
+	private int findSlot(long encodedKey)
+	{
+		int slot = hash(encodedKey) & this.mask;
+		while (this.encodedKeys[slot] != EMPTY_SLOT && this.encodedKeys[slot] != encodedKey)
+		{
+			slot = (slot + 1) & this.mask;
+		}
+		return slot;
+	}
+
+	static int hash(long encodedKey)
+	{
+		// The finalizer from MurmurHash3, so that sequential identifiers are spread over the table.
+		long hash = encodedKey;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash;
+	}
+
+	/**
+	 * Encodes an identifier such as "COSM1234", "COSF45", "COSV678" or "1234" as a long.
+	 * @param identifier The identifier.
+	 * @return The encoded identifier, or NOT_ENCODABLE if the identifier does not have an upper case prefix and a number without leading zeros.
+	 */
+	static long encode(String identifier)
+	{
+		byte[] bytes = identifier.getBytes(StandardCharsets.UTF_8);
+		return encode(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Decodes an identifier that was encoded by <code>encode</code>.
+	 * @param encodedIdentifier The encoded identifier, which must not be NOT_ENCODABLE.
+	 * @return The identifier, exactly as it was before it was encoded.
+	 */
+	static String decode(long encodedIdentifier)
+	{
+		long number = encodedIdentifier & MAX_NUMBER;
+		switch ((int) (encodedIdentifier >>> PREFIX_SHIFT))
+		{
+			case (int) LEGACY_PREFIX:
+				return COSMICUpdateUtil.COSMIC_LEGACY_PREFIX + number;
+			case (int) FUSION_PREFIX:
+				return COSMICUpdateUtil.COSMIC_FUSION_PREFIX + number;
+			case (int) GENOMIC_PREFIX:
+				return COSMICUpdateUtil.COSMIC_GENOMIC_PREFIX + number;
+			default:
+				return Long.toString(number);
+		}
+	}
+
+	/**
+	 * Encodes an identifier in a byte buffer as a long. See <code>encode(String)</code>.
+	 */
+	static long encode(byte[] bytes, int start, int end)
+	{
+		long prefix = NO_PREFIX;
+		int numberStart = start;
+		if (end - start > PREFIX_LENGTH && bytes[start] == 'C' && bytes[start + 1] == 'O' && bytes[start + 2] == 'S')
+		{
+			switch (bytes[start + 3])
+			{
+				case 'M':
+					prefix = LEGACY_PREFIX;
+					break;
+				case 'F':
+					prefix = FUSION_PREFIX;
+					break;
+				case 'V':
+					prefix = GENOMIC_PREFIX;
+					break;
+				default:
+					return NOT_ENCODABLE;
+			}
+			numberStart = start + PREFIX_LENGTH;
+		}
+		int digitCount = end - numberStart;
+		if (digitCount < 1 || digitCount > MAX_DIGITS || (bytes[numberStart] == '0' && digitCount > 1))
+		{
+			return NOT_ENCODABLE;
+		}
+		long number = 0;
+		for (int i = numberStart; i < end; i++)
+		{
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9)
+			{
+				return NOT_ENCODABLE;
+			}
+			number = number * 10 + digit;
+		}
+		return (prefix << PREFIX_SHIFT) | number;
+	}
+}
@@ -0,0 +1,195 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+/**
+ * Compares the identifiers of this run with the identifiers report of a previous run, and reports only what changed.
+ * <br/>
+ * Both sides are merged in order of DB_ID. The previous report (which is in the report's own order) is sorted by DB_ID
+ * with an ExternalLineSorter, so it is never loaded into memory all at once if it is large; only references to this run's
+ * updaters are sorted.
+ */
+class COSMICIdentifierReportDiff
+{
+	/**
+	 * The kinds of changes. An identifier can have more than one change, such as becoming valid and getting a COSV identifier.
+	 */
+	enum Change
+	{
+		/** The identifier wasn't in the previous report. */
+		ADDED,
+		/** The identifier was in the previous report, but isn't any more. */
+		REMOVED,
+		/** The identifier was valid, and isn't any more. */
+		NEWLY_INVALID,
+		/** The identifier wasn't valid, and now is. */
+		NEWLY_VALID,
+		/** The COSV identifier changed, including one being found or lost. */
+		COSV_REMAPPED
+	}
+
+	static final COSMICReportSink.Column[] COLUMNS = {
+		new COSMICReportSink.Column("Change", "change"),
+		new COSMICReportSink.Column("DB_ID", "dbID"),
+		new COSMICReportSink.Column("Identifier", "identifier"),
+		new COSMICReportSink.Column("Previously valid?", "previousValid"),
+		new COSMICReportSink.Column("Valid?", "valid"),
+		new COSMICReportSink.Column("Previous COSV identifier", "previousCosvIdentifier"),
+		new COSMICReportSink.Column("COSV identifier", "cosvIdentifier")
+	};
+
+	// The columns of the identifiers report that are compared.
+	private static final int DB_ID_FIELD = 0;
+	private static final int IDENTIFIER_FIELD = 1;
+	private static final int VALID_FIELD = 3;
+	private static final int COSV_IDENTIFIER_FIELD = 4;
+
+	private final COSMICReportSink sink;
+	private final Map<Change, Long> changeCounts = new EnumMap<>(Change.class);
+
+	private COSMICIdentifierReportDiff(COSMICReportSink sink)
+	{
+		this.sink = sink;
+		for (Change change : Change.values())
+		{
+			this.changeCounts.put(change, 0L);
+		}
+	}
+
+	/**
+	 * A row of the previous report.
+	 */
+	private static class PreviousRow
+	{
+		private final long dbID;
+		private final String identifier;
+		private final boolean valid;
+		private final String cosvIdentifier;
+
+		PreviousRow(String line) throws IOException
+		{
+			try(CSVParser parser = CSVParser.parse(line, CSVFormat.DEFAULT))
+			{
+				CSVRecord record = parser.iterator().next();
+				this.dbID = Long.parseLong(record.get(DB_ID_FIELD));
+				this.identifier = record.get(IDENTIFIER_FIELD);
+				this.valid = Boolean.parseBoolean(record.get(VALID_FIELD));
+				this.cosvIdentifier = record.get(COSV_IDENTIFIER_FIELD).isEmpty() ? null : record.get(COSV_IDENTIFIER_FIELD);
+			}
+		}
+	}
+
+	/**
+	 * Writes the changes between a previous identifiers report and this run's updaters.
+	 * @param previousReport The previous run's identifiers report, as CSV. It may be gzipped.
+	 * @param updaters This run's updaters.
+	 * @param sink Where to write the changes. It isn't closed.
+	 * @param temporaryDirectory Where the previous report is sorted, if it doesn't fit in memory.
+	 * @param maxLinesInMemory The most lines of the previous report that are sorted in memory at once.
+	 * @return The number of each kind of change.
+	 * @throws IOException
+	 */
+	static Map<Change, Long> diff(Path previousReport, Map<String, List<COSMICIdentifierUpdater>> updaters, COSMICReportSink sink,
+		Path temporaryDirectory, int maxLinesInMemory) throws IOException
+	{
+		COSMICIdentifierUpdater[] currentUpdaters = updaters.values().stream().flatMap(List::stream).toArray(COSMICIdentifierUpdater[]::new);
+		Arrays.parallelSort(currentUpdaters, Comparator.comparingLong(COSMICIdentifierUpdater::getDbID));
+
+		COSMICIdentifierReportDiff diff = new COSMICIdentifierReportDiff(sink);
+		ExternalLineSorter sorter = new ExternalLineSorter(Comparator.comparingLong(COSMICIdentifierReportDiff::getDbID),
+			maxLinesInMemory, temporaryDirectory);
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(COSMICUpdateUtil.getInputStream(previousReport.toString()),
+			StandardCharsets.UTF_8)))
+		{
+			String header = reader.readLine();
+			if (header == null || !header.startsWith(COSMICIdentifierReportWriter.COLUMNS[DB_ID_FIELD].getHeader() + ","))
+			{
+				throw new IllegalArgumentException(previousReport + " is not a COSMIC identifiers report");
+			}
+			try(ExternalLineSorter.SortedLines previousLines = sorter.sort(reader))
+			{
+				diff.merge(previousLines, currentUpdaters);
+			}
+		}
+		return diff.changeCounts;
+	}
+
+	private void merge(Iterator<String> previousLines, COSMICIdentifierUpdater[] currentUpdaters) throws IOException
+	{
+		PreviousRow previous = nextRow(previousLines);
+		int position = 0;
+		while (previous != null || position < currentUpdaters.length)
+		{
+			COSMICIdentifierUpdater current = position < currentUpdaters.length ? currentUpdaters[position] : null;
+			if (current == null || (previous != null && previous.dbID < current.getDbID()))
+			{
+				write(Change.REMOVED, previous.dbID, previous.identifier, previous.valid, null, previous.cosvIdentifier, null);
+				previous = nextRow(previousLines);
+			}
+			else if (previous == null || current.getDbID() < previous.dbID)
+			{
+				write(Change.ADDED, current.getDbID(), current.getIdentifier(), null, current.isValid(), null, current.getCosvIdentifier());
+				position++;
+			}
+			else
+			{
+				if (previous.valid != current.isValid())
+				{
+					write(current.isValid() ? Change.NEWLY_VALID : Change.NEWLY_INVALID, current.getDbID(), current.getIdentifier(),
+						previous.valid, current.isValid(), previous.cosvIdentifier, current.getCosvIdentifier());
+				}
+				if (!Objects.equals(previous.cosvIdentifier, current.getCosvIdentifier()))
+				{
+					write(Change.COSV_REMAPPED, current.getDbID(), current.getIdentifier(), previous.valid, current.isValid(),
+						previous.cosvIdentifier, current.getCosvIdentifier());
+				}
+				previous = nextRow(previousLines);
+				position++;
+			}
+		}
+	}
+
+	private void write(Change change, long dbID, String identifier, Boolean previousValid, Boolean valid, String previousCosvIdentifier,
+		String cosvIdentifier) throws IOException
+	{
+		this.sink.writeRow(change.name(), dbID, identifier, previousValid, valid, previousCosvIdentifier, cosvIdentifier);
+		this.changeCounts.merge(change, 1L, Long::sum);
+	}
+
+	private static PreviousRow nextRow(Iterator<String> lines) throws IOException
+	{
+		while (lines.hasNext())
+		{
+			String line = lines.next();
+			if (!line.isEmpty())
+			{
+				return new PreviousRow(line);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The DB_ID of a line of the identifiers report, which is its first field.
+	 */
+	private static long getDbID(String line)
+	{
+		int end = line.indexOf(',');
+		return line.isEmpty() ? Long.MIN_VALUE : Long.parseLong(line, 0, end < 0 ? line.length() : end, 10);
+	}
+}
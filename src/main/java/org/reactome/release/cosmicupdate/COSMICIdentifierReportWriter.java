@@ -0,0 +1,162 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the COSMIC identifiers report: one row per updater, invalid identifiers first, and then by identifier
+ * (the order of <code>COSMICIdentifierUpdater.compareTo</code>).
+ * <br/>
+ * The updaters are views of ordinals in COSMICIdentifierStores, so no array of updaters is made: each row is a primitive long that packs
+ * the index of its store with its ordinal, and those are merge-sorted (stably, like <code>Arrays.sort</code> of the updaters would be).
+ * The rows are then streamed from the stores to a COSMICReportSink: the URL of a row is formatted into a reused buffer, not built as a String,
+ * and the mutation IDs are passed to the sink as they are.
+ */
+class COSMICIdentifierReportWriter
+{
+	static final COSMICReportSink.Column[] COLUMNS = {
+		new COSMICReportSink.Column("DB_ID", "dbID"),
+		new COSMICReportSink.Column("Identifier", "identifier"),
+		new COSMICReportSink.Column("Suggested Prefix", "suggestedPrefix"),
+		new COSMICReportSink.Column("Valid (according to COSMIC files)?", "valid"),
+		new COSMICReportSink.Column("COSV identifier", "cosvIdentifier"),
+		new COSMICReportSink.Column("Mutation IDs", "mutationIDs"),
+		new COSMICReportSink.Column("COSMIC Search URL", "cosmicSearchURL")
+	};
+	static final String COSMIC_SEARCH_URL = "https://cancer.sanger.ac.uk/cosmic/search?q=";
+
+	// Below this many rows, a range is sorted by insertion rather than split further.
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private final StringBuilder url = new StringBuilder(COSMIC_SEARCH_URL);
+	private final List<COSMICIdentifierStore> stores;
+
+	private COSMICIdentifierReportWriter(List<COSMICIdentifierStore> stores)
+	{
+		this.stores = stores;
+	}
+
+	/**
+	 * Writes the report.
+	 * @param sink Where to write the report. It isn't closed.
+	 * @param updaters The updaters, grouped by identifier.
+	 * @return The number of rows written (not counting the header).
+	 * @throws IOException
+	 */
+	static long write(COSMICReportSink sink, Map<String, List<COSMICIdentifierUpdater>> updaters) throws IOException
+	{
+		// The keys aren't always the identifiers (numeric identifiers are keyed with their suggested prefix), so the rows themselves are sorted.
+		// Most updaters share one store, but those reused from an incremental state are in another, and updaters made on their own have their own.
+		List<COSMICIdentifierStore> stores = new ArrayList<>();
+		Map<COSMICIdentifierStore, Integer> storeIndices = new IdentityHashMap<>();
+		int updaterCount = updaters.values().stream().mapToInt(List::size).sum();
+		long[] rows = new long[updaterCount];
+		int position = 0;
+		for (List<COSMICIdentifierUpdater> identifierUpdaters : updaters.values())
+		{
+			for (COSMICIdentifierUpdater updater : identifierUpdaters)
+			{
+				int storeIndex = storeIndices.computeIfAbsent(updater.getStore(), store -> {
+					stores.add(store);
+					return stores.size() - 1;
+				});
+				rows[position++] = ((long) storeIndex << Integer.SIZE) | updater.getOrdinal();
+			}
+		}
+		COSMICIdentifierReportWriter writer = new COSMICIdentifierReportWriter(stores);
+		writer.sort(rows, new long[rows.length], 0, rows.length);
+		for (long row : rows)
+		{
+			COSMICIdentifierStore store = writer.getStore(row);
+			int ordinal = (int) row;
+			String identifier = store.getIdentifier(ordinal);
+			String suggestedPrefix = store.getSuggestedPrefix(ordinal);
+			sink.writeRow(store.getDbID(ordinal), identifier, suggestedPrefix, store.isValid(ordinal), store.getCosvIdentifier(ordinal),
+				store.getMutationIDs(ordinal), writer.formatURL(identifier, suggestedPrefix));
+		}
+		return rows.length;
+	}
+
+	private COSMICIdentifierStore getStore(long row)
+	{
+		return this.stores.get((int) (row >>> Integer.SIZE));
+	}
+
+	/**
+	 * Compares two rows the way <code>COSMICIdentifierUpdater.compareTo</code> compares their updaters: invalid identifiers first,
+	 * then by identifier.
+	 */
+	private int compare(long row, long otherRow)
+	{
+		COSMICIdentifierStore store = getStore(row);
+		COSMICIdentifierStore otherStore = getStore(otherRow);
+		boolean valid = store.isValid((int) row);
+		if (valid != otherStore.isValid((int) otherRow))
+		{
+			return valid ? 1 : -1;
+		}
+		return store.getIdentifier((int) row).compareTo(otherStore.getIdentifier((int) otherRow));
+	}
+
+	/**
+	 * Sorts <code>rows[from, to)</code> with a stable merge sort, using <code>buffer</code> (as long as <code>rows</code>) to merge.
+	 */
+	private void sort(long[] rows, long[] buffer, int from, int to)
+	{
+		if (to - from <= INSERTION_SORT_THRESHOLD)
+		{
+			for (int i = from + 1; i < to; i++)
+			{
+				long row = rows[i];
+				int j = i - 1;
+				while (j >= from && compare(rows[j], row) > 0)
+				{
+					rows[j + 1] = rows[j];
+					j--;
+				}
+				rows[j + 1] = row;
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		sort(rows, buffer, from, middle);
+		sort(rows, buffer, middle, to);
+		if (compare(rows[middle - 1], rows[middle]) <= 0)
+		{
+			// The halves are already in order.
+			return;
+		}
+		System.arraycopy(rows, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++)
+		{
+			// Ties are taken from the left half, which keeps the sort stable.
+			if (right >= to || (left < middle && compare(buffer[left], buffer[right]) <= 0))
+			{
+				rows[i] = buffer[left++];
+			}
+			else
+			{
+				rows[i] = buffer[right++];
+			}
+		}
+	}
+
+	/**
+	 * Formats a COSMIC Search URL for the identifier, to make it easier for Curators to follow up on identifiers that might need attention.
+	 * Identifiers that don't start with "C" are searched for with their suggested prefix, if there is one.
+	 */
+	private CharSequence formatURL(String identifier, String suggestedPrefix)
+	{
+		this.url.setLength(COSMIC_SEARCH_URL.length());
+		if (!COSMICUpdateUtil.stringStartsWithC(identifier) && suggestedPrefix != null)
+		{
+			this.url.append(suggestedPrefix);
+		}
+		return this.url.append(identifier);
+	}
+}
@@ -0,0 +1,415 @@
+package org.reactome.release.cosmicupdate;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the state of many COSMICIdentifierUpdaters in parallel arrays, indexed by ordinal, instead of in one object per field per updater.
+ * A COSMICIdentifierUpdater is then just a view of one ordinal in a store.
+ * <br/>
+ * The arrays are allocated in pages, so that the store can grow without copying what it already holds.
+ * Suggested prefixes are interned in a small table and stored as a byte. COSV identifiers and mutation IDs are stored as longs
+ * (see <code>COSMICIdentifierIndex.encode</code>), and most identifiers have no more than two mutation IDs, so those are kept inline.
+ * Values that can't be encoded, and identifiers with more mutation IDs, are kept in (much smaller) maps, keyed by ordinal.
+ * <br/>
+ * Updaters are only added to a store by one thread at a time, but the values of different updaters can be set by different threads
+ * (as the batch writer does when it marks updaters as written).
+ */
+class COSMICIdentifierStore
+{
+	static final int DEFAULT_PAGE_SIZE = 4096;
+
+	// Stored in place of a COSV identifier that is null.
+	private static final long NO_VALUE = Long.MIN_VALUE;
+	// The number of mutation IDs of an updater whose mutation IDs are in otherMutationIDs, because at least one of them can't be encoded.
+	private static final int NOT_ENCODED = -1;
+	private static final int INLINE_MUTATION_IDS = 2;
+	private static final int MAX_PREFIXES = 255;
+
+	private final int pageShift;
+	private final int pageMask;
+	private volatile Page[] pages = new Page[0];
+	private int size;
+	// Index 0 stands for a null prefix. There are only ever a few prefixes, so the table is copied when one is added.
+	private volatile String[] prefixes = new String[] { null };
+	private final Map<Integer, long[]> overflowMutationIDs = new ConcurrentHashMap<>();
+	private final Map<Integer, Set<String>> otherMutationIDs = new ConcurrentHashMap<>();
+	private final Map<Integer, String> otherCosvIdentifiers = new ConcurrentHashMap<>();
+
+	/**
+	 * Private helper class: the columns of one page of updaters.
+	 */
+	private static class Page
+	{
+		private final long[] dbIDs;
+		private final String[] identifiers;
+		private final byte[] prefixes;
+		private final boolean[] valid;
+		private final boolean[] written;
+		private final long[] cosvIdentifiers;
+		private final int[] mutationIDCounts;
+		private final long[] firstMutationIDs;
+		private final long[] secondMutationIDs;
+
+		Page(int size)
+		{
+			this.dbIDs = new long[size];
+			this.identifiers = new String[size];
+			this.prefixes = new byte[size];
+			this.valid = new boolean[size];
+			this.written = new boolean[size];
+			this.cosvIdentifiers = new long[size];
+			Arrays.fill(this.cosvIdentifiers, NO_VALUE);
+			this.mutationIDCounts = new int[size];
+			this.firstMutationIDs = new long[size];
+			this.secondMutationIDs = new long[size];
+		}
+	}
+
+	COSMICIdentifierStore()
+	{
+		this(DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param pageSize The number of updaters in each page. It is rounded up to a power of two.
+	 * A standalone updater uses a store with a page size of 1.
+	 */
+	COSMICIdentifierStore(int pageSize)
+	{
+		if (pageSize < 1)
+		{
+			throw new IllegalArgumentException("Page size must be at least 1, but was " + pageSize);
+		}
+		this.pageShift = 32 - Integer.numberOfLeadingZeros(pageSize - 1);
+		this.pageMask = (1 << this.pageShift) - 1;
+	}
+
+	/**
+	 * Adds a new updater, with no values set, to this store.
+	 * @return The updater, which is a view of its ordinal in this store.
+	 */
+	synchronized COSMICIdentifierUpdater add()
+	{
+		int ordinal = this.size;
+		int pageIndex = ordinal >>> this.pageShift;
+		if (pageIndex == this.pages.length)
+		{
+			Page[] grownPages = Arrays.copyOf(this.pages, pageIndex + 1);
+			grownPages[pageIndex] = new Page(this.pageMask + 1);
+			this.pages = grownPages;
+		}
+		this.size++;
+		return new COSMICIdentifierUpdater(this, ordinal);
+	}
+
+	synchronized int size()
+	{
+		return this.size;
+	}
+
+	private Page page(int ordinal)
+	{
+		return this.pages[ordinal >>> this.pageShift];
+	}
+
+	private int slot(int ordinal)
+	{
+		return ordinal & this.pageMask;
+	}
+
+	long getDbID(int ordinal)
+	{
+		return page(ordinal).dbIDs[slot(ordinal)];
+	}
+
+	void setDbID(int ordinal, long dbID)
+	{
+		page(ordinal).dbIDs[slot(ordinal)] = dbID;
+	}
+
+	String getIdentifier(int ordinal)
+	{
+		return page(ordinal).identifiers[slot(ordinal)];
+	}
+
+	void setIdentifier(int ordinal, String identifier)
+	{
+		page(ordinal).identifiers[slot(ordinal)] = identifier;
+	}
+
+	String getSuggestedPrefix(int ordinal)
+	{
+		return this.prefixes[page(ordinal).prefixes[slot(ordinal)] & 0xFF];
+	}
+
+	void setSuggestedPrefix(int ordinal, String suggestedPrefix)
+	{
+		page(ordinal).prefixes[slot(ordinal)] = internPrefix(suggestedPrefix);
+	}
+
+	/**
+	 * @return The index of <code>prefix</code> in the table of prefixes, adding it if necessary.
+	 */
+	private synchronized byte internPrefix(String prefix)
+	{
+		String[] currentPrefixes = this.prefixes;
+		for (int i = 0; i < currentPrefixes.length; i++)
+		{
+			if (Objects.equals(currentPrefixes[i], prefix))
+			{
+				return (byte) i;
+			}
+		}
+		if (currentPrefixes.length > MAX_PREFIXES)
+		{
+			throw new IllegalStateException("Too many different suggested prefixes (more than " + MAX_PREFIXES + ")");
+		}
+		String[] grownPrefixes = Arrays.copyOf(currentPrefixes, currentPrefixes.length + 1);
+		grownPrefixes[currentPrefixes.length] = prefix;
+		this.prefixes = grownPrefixes;
+		return (byte) currentPrefixes.length;
+	}
+
+	boolean isValid(int ordinal)
+	{
+		return page(ordinal).valid[slot(ordinal)];
+	}
+
+	void setValid(int ordinal, boolean valid)
+	{
+		page(ordinal).valid[slot(ordinal)] = valid;
+	}
+
+	boolean isWritten(int ordinal)
+	{
+		return page(ordinal).written[slot(ordinal)];
+	}
+
+	void setWritten(int ordinal, boolean written)
+	{
+		page(ordinal).written[slot(ordinal)] = written;
+	}
+
+	String getCosvIdentifier(int ordinal)
+	{
+		long encodedIdentifier = page(ordinal).cosvIdentifiers[slot(ordinal)];
+		if (encodedIdentifier == NO_VALUE)
+		{
+			return null;
+		}
+		if (encodedIdentifier == COSMICIdentifierIndex.NOT_ENCODABLE)
+		{
+			return this.otherCosvIdentifiers.get(ordinal);
+		}
+		return COSMICIdentifierIndex.decode(encodedIdentifier);
+	}
+
+	void setCosvIdentifier(int ordinal, String cosvIdentifier)
+	{
+		long encodedIdentifier = cosvIdentifier == null ? NO_VALUE : COSMICIdentifierIndex.encode(cosvIdentifier);
+		if (encodedIdentifier == COSMICIdentifierIndex.NOT_ENCODABLE)
+		{
+			this.otherCosvIdentifiers.put(ordinal, cosvIdentifier);
+		}
+		else
+		{
+			this.otherCosvIdentifiers.remove(ordinal);
+		}
+		page(ordinal).cosvIdentifiers[slot(ordinal)] = encodedIdentifier;
+	}
+
+	/**
+	 * @return A live view of the mutation IDs of an updater, which iterates in the order in which they were added.
+	 */
+	Set<String> getMutationIDs(int ordinal)
+	{
+		return new MutationIDSet(ordinal);
+	}
+
+	/**
+	 * @return The encoded mutation IDs of an updater, or null if they are not encoded.
+	 */
+	private long[] getEncodedMutationIDs(int ordinal)
+	{
+		Page page = page(ordinal);
+		int slot = slot(ordinal);
+		int count = page.mutationIDCounts[slot];
+		if (count == NOT_ENCODED)
+		{
+			return null;
+		}
+		if (count > INLINE_MUTATION_IDS)
+		{
+			return Arrays.copyOf(this.overflowMutationIDs.get(ordinal), count);
+		}
+		long[] mutationIDs = new long[count];
+		if (count > 0)
+		{
+			mutationIDs[0] = page.firstMutationIDs[slot];
+		}
+		if (count > 1)
+		{
+			mutationIDs[1] = page.secondMutationIDs[slot];
+		}
+		return mutationIDs;
+	}
+
+	private boolean addMutationID(int ordinal, String mutationID)
+	{
+		Page page = page(ordinal);
+		int slot = slot(ordinal);
+		int count = page.mutationIDCounts[slot];
+		if (count == NOT_ENCODED)
+		{
+			return this.otherMutationIDs.get(ordinal).add(mutationID);
+		}
+		long encodedID = COSMICIdentifierIndex.encode(mutationID);
+		if (encodedID == COSMICIdentifierIndex.NOT_ENCODABLE)
+		{
+			// From now on, all of the mutation IDs of this updater are kept as Strings.
+			Set<String> mutationIDs = new LinkedHashSet<>();
+			for (long id : getEncodedMutationIDs(ordinal))
+			{
+				mutationIDs.add(COSMICIdentifierIndex.decode(id));
+			}
+			mutationIDs.add(mutationID);
+			this.otherMutationIDs.put(ordinal, mutationIDs);
+			this.overflowMutationIDs.remove(ordinal);
+			page.mutationIDCounts[slot] = NOT_ENCODED;
+			return true;
+		}
+		if (containsEncoded(page, slot, ordinal, count, encodedID))
+		{
+			return false;
+		}
+		if (count == 0)
+		{
+			page.firstMutationIDs[slot] = encodedID;
+		}
+		else if (count == 1)
+		{
+			page.secondMutationIDs[slot] = encodedID;
+		}
+		else
+		{
+			long[] overflow = this.overflowMutationIDs.get(ordinal);
+			if (overflow == null)
+			{
+				overflow = new long[INLINE_MUTATION_IDS * 2];
+				overflow[0] = page.firstMutationIDs[slot];
+				overflow[1] = page.secondMutationIDs[slot];
+			}
+			else if (overflow.length == count)
+			{
+				overflow = Arrays.copyOf(overflow, count * 2);
+			}
+			overflow[count] = encodedID;
+			this.overflowMutationIDs.put(ordinal, overflow);
+		}
+		page.mutationIDCounts[slot] = count + 1;
+		return true;
+	}
+
+	private boolean containsEncoded(Page page, int slot, int ordinal, int count, long encodedID)
+	{
+		if (count > INLINE_MUTATION_IDS)
+		{
+			long[] overflow = this.overflowMutationIDs.get(ordinal);
+			for (int i = 0; i < count; i++)
+			{
+				if (overflow[i] == encodedID)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+		return (count > 0 && page.firstMutationIDs[slot] == encodedID) || (count > 1 && page.secondMutationIDs[slot] == encodedID);
+	}
+
+	private void clearMutationIDs(int ordinal)
+	{
+		this.overflowMutationIDs.remove(ordinal);
+		this.otherMutationIDs.remove(ordinal);
+		page(ordinal).mutationIDCounts[slot(ordinal)] = 0;
+	}
+
+	/**
+	 * Private helper class: the mutation IDs of one updater, as a Set of Strings.
+	 */
+	private class MutationIDSet extends AbstractSet<String>
+	{
+		private final int ordinal;
+
+		MutationIDSet(int ordinal)
+		{
+			this.ordinal = ordinal;
+		}
+
+		@Override
+		public int size()
+		{
+			int count = page(this.ordinal).mutationIDCounts[slot(this.ordinal)];
+			return count == NOT_ENCODED ? otherMutationIDs.get(this.ordinal).size() : count;
+		}
+
+		@Override
+		public boolean contains(Object mutationID)
+		{
+			if (!(mutationID instanceof String))
+			{
+				return false;
+			}
+			Page page = page(this.ordinal);
+			int slot = slot(this.ordinal);
+			int count = page.mutationIDCounts[slot];
+			if (count == NOT_ENCODED)
+			{
+				return otherMutationIDs.get(this.ordinal).contains(mutationID);
+			}
+			long encodedID = COSMICIdentifierIndex.encode((String) mutationID);
+			return encodedID != COSMICIdentifierIndex.NOT_ENCODABLE && containsEncoded(page, slot, this.ordinal, count, encodedID);
+		}
+
+		@Override
+		public boolean add(String mutationID)
+		{
+			return addMutationID(this.ordinal, mutationID);
+		}
+
+		@Override
+		public void clear()
+		{
+			clearMutationIDs(this.ordinal);
+		}
+
+		/**
+		 * Iterates over a snapshot of the mutation IDs. Removing through the iterator is not supported.
+		 */
+		@Override
+		public Iterator<String> iterator()
+		{
+			long[] encodedIDs = getEncodedMutationIDs(this.ordinal);
+			if (encodedIDs == null)
+			{
+				return Collections.unmodifiableList(new ArrayList<>(otherMutationIDs.get(this.ordinal))).iterator();
+			}
+			List<String> mutationIDs = new ArrayList<>(encodedIDs.length);
+			for (long encodedID : encodedIDs)
+			{
+				mutationIDs.add(COSMICIdentifierIndex.decode(encodedID));
+			}
+			return Collections.unmodifiableList(mutationIDs).iterator();
+		}
+	}
+}
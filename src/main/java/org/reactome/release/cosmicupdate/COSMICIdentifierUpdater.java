@@ -1,8 +1,11 @@
 package org.reactome.release.cosmicupdate;
 
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -25,60 +28,110 @@ public class COSMICIdentifierUpdater implements Comparable<COSMICIdentifierUpdat
 	private static final Logger logger = LogManager.getLogger();
 	private static GKInstance instanceEditNewCOSV;
 	private static GKInstance instanceEditPrependCOSM;
-	private String identifier;
-	private long dbID;
-	private String suggestedPrefix;
-	private boolean valid;
-	private Set<String> mutationIDs = new HashSet<>();
-	private String cosvIdentifier;
+	// The number of attributes that updateIdentifierObject writes, each with its own statement.
+	private static final int UPDATED_ATTRIBUTE_COUNT = 3;
+	// The values of this updater are kept in a store, shared with many other updaters when there are many identifiers.
+	private final COSMICIdentifierStore store;
+	private final int ordinal;
+
+	/**
+	 * Creates an updater that has a store of its own.
+	 */
+	public COSMICIdentifierUpdater()
+	{
+		this.store = new COSMICIdentifierStore(1);
+		this.ordinal = 0;
+		this.store.add();
+	}
+
+	/**
+	 * Creates a view of the updater at <code>ordinal</code> in <code>store</code>. Use <code>COSMICIdentifierStore.add</code>.
+	 */
+	COSMICIdentifierUpdater(COSMICIdentifierStore store, int ordinal)
+	{
+		this.store = store;
+		this.ordinal = ordinal;
+	}
+
+	/**
+	 * @return The store that holds the values of this updater.
+	 */
+	COSMICIdentifierStore getStore()
+	{
+		return this.store;
+	}
+
+	/**
+	 * @return The ordinal of this updater in its store.
+	 */
+	int getOrdinal()
+	{
+		return this.ordinal;
+	}
 
 	public String getIdentifier()
 	{
-		return identifier;
+		return store.getIdentifier(ordinal);
 	}
 	public void setIdentifier(String identifier)
 	{
-		this.identifier = identifier;
+		store.setIdentifier(ordinal, identifier);
 	}
 	public long getDbID()
 	{
-		return dbID;
+		return store.getDbID(ordinal);
 	}
 	public void setDbID(long dbID)
 	{
-		this.dbID = dbID;
+		store.setDbID(ordinal, dbID);
 	}
 	public String getSuggestedPrefix()
 	{
-		return suggestedPrefix;
+		return store.getSuggestedPrefix(ordinal);
 	}
 	public void setSuggestedPrefix(String suggestedPrefix)
 	{
-		this.suggestedPrefix = suggestedPrefix;
+		store.setSuggestedPrefix(ordinal, suggestedPrefix);
 	}
 	public boolean isValid()
 	{
-		return valid;
+		return store.isValid(ordinal);
 	}
 	public void setValid(boolean valid)
 	{
-		this.valid = valid;
+		store.setValid(ordinal, valid);
 	}
+	/**
+	 * @return A live view of the mutation IDs, in the order in which they were added.
+	 */
 	public Set<String> getMutationIDs()
 	{
-		return mutationIDs;
+		return store.getMutationIDs(ordinal);
 	}
 	public void setMutationIDs(Set<String> mutationIDs)
 	{
-		this.mutationIDs = mutationIDs;
+		Set<String> storedMutationIDs = store.getMutationIDs(ordinal);
+		storedMutationIDs.clear();
+		storedMutationIDs.addAll(mutationIDs);
 	}
 	public String getCosvIdentifier()
 	{
-		return cosvIdentifier;
+		return store.getCosvIdentifier(ordinal);
 	}
 	public void setCosvIdentifier(String cosvIdentifier)
 	{
-		this.cosvIdentifier = cosvIdentifier;
+		store.setCosvIdentifier(ordinal, cosvIdentifier);
+	}
+	/**
+	 * @return true if the update of this identifier has been committed to the database (in this run, or in an earlier run of an incremental update).
+	 */
+	public boolean isWritten()
+	{
+		return store.isWritten(ordinal);
+	}
+	public void setWritten(boolean written)
+	{
+		store.setWritten(ordinal, written);
 	}
 	
 	@Override
@@ -99,77 +152,181 @@ public class COSMICIdentifierUpdater implements Comparable<COSMICIdentifierUpdat
 	@Override
 	public int compareTo(COSMICIdentifierUpdater other)
 	{
-		if (other.valid && !this.valid)
+		if (other.isValid() && !this.isValid())
 		{
 			return -1;
 		}
-		if (!other.valid && this.valid)
+		if (!other.isValid() && this.isValid())
 		{
 			return 1;
 		}
-		if (other.valid == this.valid)
+		if (other.isValid() == this.isValid())
 		{
-			return this.identifier.compareTo(other.identifier);
+			return this.getIdentifier().compareTo(other.getIdentifier());
 		}
 		return 0;
 	}
 
 	/**
-	 * Perform an update of a COSMIC identifier.
+	 * Creates the InstanceEdits that will be needed to update <code>updaters</code>, if they have not been created yet.
+	 * Call this before updating identifiers inside a transaction, so that the shared InstanceEdits are not
+	 * lost if that transaction is rolled back.
 	 * @param adaptor - the database adapter to use.
 	 * @param creatorID - the DB_ID of the Creator of this update.
+	 * @param updaters - the updaters that are about to be run.
 	 * @throws Exception
 	 */
-	public void updateIdentfier(MySQLAdaptor adaptor, long creatorID) throws Exception
+	static void createInstanceEdits(MySQLAdaptor adaptor, long creatorID, Collection<COSMICIdentifierUpdater> updaters) throws Exception
 	{
-		// If there is a COSV identifier, we'll update using that.
-		if (this.getCosvIdentifier() != null && !this.getCosvIdentifier().isEmpty())
+		if (updaters.stream().anyMatch(COSMICIdentifierUpdater::hasCosvIdentifier))
+		{
+			getInstanceEditNewCOSV(adaptor, creatorID);
+		}
+		if (updaters.stream().anyMatch(updater -> !updater.hasCosvIdentifier() && updater.needsCOSMPrefix()))
+		{
+			getInstanceEditPrependCOSM(adaptor, creatorID);
+		}
+	}
+
+	/**
+	 * @return The DB_IDs of the InstanceEdits that have been created for updates so far.
+	 */
+	static synchronized List<Long> getInstanceEditDbIDs()
+	{
+		return Stream.of(COSMICIdentifierUpdater.instanceEditNewCOSV, COSMICIdentifierUpdater.instanceEditPrependCOSM)
+			.filter(Objects::nonNull)
+			.map(GKInstance::getDBID)
+			.collect(Collectors.toList());
+	}
+
+	/**
+	 * Gets the InstanceEdit for identifiers that are updated to a COSV identifier, creating it if necessary.
+	 */
+	private static synchronized GKInstance getInstanceEditNewCOSV(MySQLAdaptor adaptor, long creatorID) throws Exception
+	{
+		if (COSMICIdentifierUpdater.instanceEditNewCOSV == null)
 		{
-			// Create the InstanceEdit, if necessary.
-			synchronized (COSMICIdentifierUpdater.class)
-			{
-				if (COSMICIdentifierUpdater.instanceEditNewCOSV == null)
-				{
-					COSMICIdentifierUpdater.instanceEditNewCOSV = InstanceEditUtils.createDefaultIE(adaptor, creatorID, true, "Identifier was automatically updated to new \"COSV\" identifier by COSMIC Update process.");
-				}
-			}
-			GKInstance identifierObject = adaptor.fetchInstance( this.getDbID());
-			
-			updateIdentifierObject(adaptor, COSMICIdentifierUpdater.instanceEditNewCOSV, identifierObject, this.getCosvIdentifier());
+			COSMICIdentifierUpdater.instanceEditNewCOSV = InstanceEditUtils.createDefaultIE(adaptor, creatorID, true, "Identifier was automatically updated to new \"COSV\" identifier by COSMIC Update process.");
 		}
-		// If no COSV identifier was found, update using the suggested prefix (determined computationally).
-		else if (this.getSuggestedPrefix() != null && this.getSuggestedPrefix().equalsIgnoreCase(COSMICUpdateUtil.COSMIC_LEGACY_PREFIX))
+		return COSMICIdentifierUpdater.instanceEditNewCOSV;
+	}
+
+	/**
+	 * Gets the InstanceEdit for identifiers that are prepended with "COSM", creating it if necessary.
+	 */
+	private static synchronized GKInstance getInstanceEditPrependCOSM(MySQLAdaptor adaptor, long creatorID) throws Exception
+	{
+		if (COSMICIdentifierUpdater.instanceEditPrependCOSM == null)
 		{
-			GKInstance identifierObject = adaptor.fetchInstance( this.getDbID());
-			String currentIdentifier = (String) identifierObject.getAttributeValue(ReactomeJavaConstants.identifier);
-			// If the current identifier already begins with "C" then leave it alone.
-			// This code is for updating numeric identifiers that have a suggested prefix.
-			if (!COSMICUpdateUtil.stringStartsWithC(currentIdentifier.toUpperCase()))
-			{
-				// Create the InstanceEdit, if necessary.
-				synchronized (COSMICIdentifierUpdater.class)
-				{
-					if (COSMICIdentifierUpdater.instanceEditPrependCOSM == null)
-					{
-						COSMICIdentifierUpdater.instanceEditPrependCOSM = InstanceEditUtils.createDefaultIE(adaptor, creatorID, true, "Identifier was automatically prepended with \"COSM\" by COSMIC Update process.");
-					}
-				}
-				updateIdentifierObject(adaptor, COSMICIdentifierUpdater.instanceEditPrependCOSM, identifierObject, this.getSuggestedPrefix() + currentIdentifier);
-			}
+			COSMICIdentifierUpdater.instanceEditPrependCOSM = InstanceEditUtils.createDefaultIE(adaptor, creatorID, true, "Identifier was automatically prepended with \"COSM\" by COSMIC Update process.");
 		}
+		return COSMICIdentifierUpdater.instanceEditPrependCOSM;
+	}
+
+	private boolean hasCosvIdentifier()
+	{
+		return this.getCosvIdentifier() != null && !this.getCosvIdentifier().isEmpty();
+	}
+
+	/**
+	 * @return true if this is a numeric identifier that will be prepended with "COSM".
+	 */
+	private boolean needsCOSMPrefix()
+	{
+		return this.getSuggestedPrefix() != null && this.getSuggestedPrefix().equalsIgnoreCase(COSMICUpdateUtil.COSMIC_LEGACY_PREFIX)
+			&& this.getIdentifier() != null && !COSMICUpdateUtil.stringStartsWithC(this.getIdentifier().toUpperCase());
+	}
+
+	/**
+	 * Perform an update of a COSMIC identifier.
+	 * @param adaptor - the database adapter to use.
+	 * @param creatorID - the DB_ID of the Creator of this update.
+	 * @return The number of database round trips that were made (not counting attribute values that were loaded lazily).
+	 * @throws Exception
+	 */
+	public int updateIdentfier(MySQLAdaptor adaptor, long creatorID) throws Exception
+	{
 		// Some identifiers won't have a COSV identifier in the COSMIC files, and they might not have a suggested prefix either.
-		else
+		if (!this.hasUpdate())
+		{
+			this.logNoUpdate();
+			return 0;
+		}
+		GKInstance identifierObject = adaptor.fetchInstance( this.getDbID());
+		if (this.applyUpdate(adaptor, creatorID, identifierObject) == null)
 		{
-			logger.info("No suggested prefix OR corresponding COSV identifier for {} (DBID: {}) - identifier will not be updated.", this.getIdentifier(), this.getDbID());
+			return 1;
 		}
+		return 1 + this.writeUpdate(adaptor, identifierObject);
+	}
+
+	/**
+	 * Writes the attributes that <code>applyUpdate</code> changed to the database.
+	 * @param adaptor - the database adapter to use.
+	 * @param identifierObject - the object that the update was applied to.
+	 * @return The number of database round trips that were made.
+	 * @throws Exception
+	 */
+	int writeUpdate(MySQLAdaptor adaptor, GKInstance identifierObject) throws Exception
+	{
+		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants.identifier);
+		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants.modified);
+		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants._displayName);
+		return UPDATED_ATTRIBUTE_COUNT;
+	}
+
+	/**
+	 * @return true if there is something to update the identifier with: a COSV identifier, or the suggested prefix "COSM".
+	 */
+	boolean hasUpdate()
+	{
+		return this.hasCosvIdentifier()
+			|| (this.getSuggestedPrefix() != null && this.getSuggestedPrefix().equalsIgnoreCase(COSMICUpdateUtil.COSMIC_LEGACY_PREFIX));
+	}
+
+	void logNoUpdate()
+	{
+		logger.info("No suggested prefix OR corresponding COSV identifier for {} (DBID: {}) - identifier will not be updated.", this.getIdentifier(), this.getDbID());
+	}
+
+	/**
+	 * Applies the update to the identifier object, without writing it to the database.
+	 * If there is a COSV identifier, it replaces the identifier. Otherwise the identifier is prepended with the suggested prefix,
+	 * unless it already begins with "C".
+	 * @param adaptor - the database adapter to create the InstanceEdit with, if it has not been created yet.
+	 * @param creatorID - the DB_ID of the Creator of this update.
+	 * @param identifierObject - the object of this identifier, with DB_ID <code>getDbID()</code>.
+	 * @return The InstanceEdit that was added to the <code>modified</code> list of the identifier object,
+	 * or null if the identifier object was not changed and doesn't need to be written.
+	 * @throws Exception
+	 */
+	GKInstance applyUpdate(MySQLAdaptor adaptor, long creatorID, GKInstance identifierObject) throws Exception
+	{
+		// If there is a COSV identifier, we'll update using that.
+		if (this.hasCosvIdentifier())
+		{
+			GKInstance instanceEdit = getInstanceEditNewCOSV(adaptor, creatorID);
+			updateIdentifierObject(instanceEdit, identifierObject, this.getCosvIdentifier());
+			return instanceEdit;
+		}
+		// Otherwise update using the suggested prefix (determined computationally).
+		String currentIdentifier = (String) identifierObject.getAttributeValue(ReactomeJavaConstants.identifier);
+		// If the current identifier already begins with "C" then leave it alone.
+		// This code is for updating numeric identifiers that have a suggested prefix.
+		if (COSMICUpdateUtil.stringStartsWithC(currentIdentifier.toUpperCase()))
+		{
+			return null;
+		}
+		GKInstance instanceEdit = getInstanceEditPrependCOSM(adaptor, creatorID);
+		updateIdentifierObject(instanceEdit, identifierObject, this.getSuggestedPrefix() + currentIdentifier);
+		return instanceEdit;
 	}
 	
 	/**
-	 * Executes an update on an instance.
+	 * Updates an instance in memory; the caller writes it to the database.
 	 * Sets the identifier attribute of <code>identifierObject</code> to the value of <code>identifierValue</code>.
 	 * <code>identifierObject</code> (which must be an InstanceEdit) will also have <code>modifiedForCOSMICUpdate</code> added to its <code>modified</code> list.
 	 * The display name of <code>identifierObject</code> will also be regenerated to reflect changes in <code>identifierValue</code>.
-	 * @param adaptor
 	 * @param modifiedForCOSMICUpdate An InstanceEdit which explains why an instance was modified.
 	 * @param identifierObject An object (probably a DatabaseIdentifier, though there is no actual restriction on type at this point) that represents a COSMIC identifier.
 	 * @param identifierValue An identifier value that will be set on <code>identifierObject</code>
@@ -177,7 +334,7 @@ public class COSMICIdentifierUpdater implements Comparable<COSMICIdentifierUpdat
 	 * @throws Exception
 	 * @throws InvalidAttributeValueException
 	 */
-	private void updateIdentifierObject(MySQLAdaptor adaptor, GKInstance modifiedForCOSMICUpdate, GKInstance identifierObject, String identifierValue) throws InvalidAttributeException, Exception, InvalidAttributeValueException
+	private void updateIdentifierObject(GKInstance modifiedForCOSMICUpdate, GKInstance identifierObject, String identifierValue) throws InvalidAttributeException, Exception, InvalidAttributeValueException
 	{
 		// Set the identifier value.
 		identifierObject.setAttributeValue(ReactomeJavaConstants.identifier, identifierValue);
@@ -189,9 +346,5 @@ public class COSMICIdentifierUpdater implements Comparable<COSMICIdentifierUpdat
 		
 		// Update the displayname after other changes (setDisplayName will generate a new value and then set it)
 		InstanceDisplayNameGenerator.setDisplayName(identifierObject);
-		
-		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants.identifier);
-		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants.modified);
-		adaptor.updateInstanceAttribute(identifierObject, ReactomeJavaConstants._displayName);
 	}
 }
@@ -0,0 +1,103 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Writes a report as JSON Lines: one JSON object per row, keyed by the columns' keys. Numbers and booleans are written
+ * as JSON numbers and booleans, and Collections as arrays of strings, so that they don't need to be parsed out of strings.
+ */
+class COSMICJSONLinesReportSink implements COSMICReportSink
+{
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final Writer writer;
+	private final Column[] columns;
+
+	COSMICJSONLinesReportSink(Path file, Column... columns) throws IOException
+	{
+		this.writer = COSMICReportSink.openWriter(file);
+		this.columns = columns;
+	}
+
+	@Override
+	public void writeRow(Object... values) throws IOException
+	{
+		this.writer.write('{');
+		for (int i = 0; i < values.length; i++)
+		{
+			if (i > 0)
+			{
+				this.writer.write(',');
+			}
+			writeString(this.columns[i].getKey());
+			this.writer.write(':');
+			writeValue(values[i]);
+		}
+		this.writer.write("}\n");
+	}
+
+	private void writeValue(Object value) throws IOException
+	{
+		if (value == null)
+		{
+			this.writer.write("null");
+		}
+		else if (value instanceof Number || value instanceof Boolean)
+		{
+			this.writer.write(value.toString());
+		}
+		else if (value instanceof Collection)
+		{
+			this.writer.write('[');
+			boolean first = true;
+			for (Object element : (Collection<?>) value)
+			{
+				if (!first)
+				{
+					this.writer.write(',');
+				}
+				first = false;
+				writeValue(element);
+			}
+			this.writer.write(']');
+		}
+		else
+		{
+			writeString(value instanceof CharSequence ? (CharSequence) value : value.toString());
+		}
+	}
+
+	private void writeString(CharSequence value) throws IOException
+	{
+		this.writer.write('"');
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				this.writer.write('\\');
+				this.writer.write(c);
+			}
+			else if (c < ' ')
+			{
+				this.writer.write("\\u00");
+				this.writer.write(HEX_DIGITS[c >> 4]);
+				this.writer.write(HEX_DIGITS[c & 0xf]);
+			}
+			else
+			{
+				this.writer.write(c);
+			}
+		}
+		this.writer.write('"');
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		this.writer.close();
+	}
+}
@@ -0,0 +1,57 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes each row of a report to several sinks, so that a report is written in several formats in one pass.
+ */
+class COSMICMultiReportSink implements COSMICReportSink
+{
+	private final List<COSMICReportSink> sinks;
+
+	COSMICMultiReportSink(List<COSMICReportSink> sinks)
+	{
+		this.sinks = sinks;
+	}
+
+	@Override
+	public void writeRow(Object... values) throws IOException
+	{
+		for (COSMICReportSink sink : this.sinks)
+		{
+			sink.writeRow(values);
+		}
+	}
+
+	/**
+	 * Closes every sink, even if closing one of them fails.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		IOException exception = null;
+		for (COSMICReportSink sink : this.sinks)
+		{
+			try
+			{
+				sink.close();
+			}
+			catch (IOException e)
+			{
+				if (exception == null)
+				{
+					exception = e;
+				}
+				else
+				{
+					exception.addSuppressed(e);
+				}
+			}
+		}
+		if (exception != null)
+		{
+			throw exception;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package org.reactome.release.cosmicupdate;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rows of a COSMIC mutation file (Mutant Export or Mutation Tracking) that matched a COSMIC identifier, collected by legacy ID.
+ * Matches are collected separately from the COSMICIdentifierUpdaters so that a file can be scanned in parallel parts,
+ * and then applied to the updaters in one go. Applying the matches has the same effect as updating the updaters row by row
+ * in file order: all mutation IDs are added, and the COSV identifier from the last matching row wins.
+ */
+class COSMICMutationMatches
+{
+	private final Map<String, Match> matches = new HashMap<>();
+
+	/**
+	 * The mutation IDs and the COSV identifier found for a single legacy ID.
+	 */
+	static final class Match
+	{
+		private final Set<String> mutationIDs = new LinkedHashSet<>();
+		private String genomicID;
+
+		Set<String> getMutationIDs()
+		{
+			return this.mutationIDs;
+		}
+
+		String getGenomicID()
+		{
+			return this.genomicID;
+		}
+	}
+
+	/**
+	 * Records a matching row.
+	 * @param legacyID The LEGACY_MUTATION_ID of the row (the key of the matching updaters).
+	 * @param mutationID The MUTATION_ID of the row.
+	 * @param genomicID The GENOMIC_MUTATION_ID (COSV identifier) of the row.
+	 */
+	void add(String legacyID, String mutationID, String genomicID)
+	{
+		Match match = this.matches.computeIfAbsent(legacyID, k -> new Match());
+		match.mutationIDs.add(mutationID);
+		match.genomicID = genomicID;
+	}
+
+	/**
+	 * Adds the matches from a part of the file that comes <em>after</em> the part that this object was collected from.
+	 * @param laterMatches Matches from a later part of the file.
+	 */
+	void addAll(COSMICMutationMatches laterMatches)
+	{
+		laterMatches.matches.forEach((legacyID, laterMatch) -> {
+			Match match = this.matches.computeIfAbsent(legacyID, k -> new Match());
+			match.mutationIDs.addAll(laterMatch.mutationIDs);
+			match.genomicID = laterMatch.genomicID;
+		});
+	}
+
+	Match get(String legacyID)
+	{
+		return this.matches.get(legacyID);
+	}
+
+	int size()
+	{
+		return this.matches.size();
+	}
+
+	/**
+	 * Applies the matches to the updaters.
+	 * @param updaters The updaters, keyed by COSMIC identifier.
+	 * @param markValid If true, the matching updaters will be marked as valid.
+	 */
+	void applyTo(Map<String, List<COSMICIdentifierUpdater>> updaters, boolean markValid)
+	{
+		this.matches.forEach((legacyID, match) -> updaters.get(legacyID).forEach(updater -> {
+			if (markValid)
+			{
+				updater.setValid(true);
+			}
+			updater.getMutationIDs().addAll(match.mutationIDs);
+			updater.setCosvIdentifier(match.genomicID);
+		}));
+	}
+}
@@ -0,0 +1,159 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Where the rows of a report are written. A report can be written in several formats in one pass: see <code>open</code>.
+ * <br/>
+ * Values are typed: a value is a Long (or other Number), a Boolean, a CharSequence, a Collection of Strings, or null.
+ * Each format writes the types the best way it can; CSV writes a Collection the way a Set is printed ("[COSM1, COSM2]"),
+ * and JSON Lines writes it as an array.
+ */
+interface COSMICReportSink extends Closeable
+{
+	/**
+	 * The formats that a report can be written in.
+	 */
+	enum Format
+	{
+		CSV(".csv"),
+		JSONL(".jsonl");
+
+		private final String extension;
+
+		Format(String extension)
+		{
+			this.extension = extension;
+		}
+
+		String getExtension()
+		{
+			return this.extension;
+		}
+
+		/**
+		 * Parses a comma-separated list of formats, such as "csv,jsonl".
+		 * @param formats The formats. Case doesn't matter.
+		 * @return The formats, or just CSV if <code>formats</code> is null or blank.
+		 */
+		static Set<Format> parse(String formats)
+		{
+			Set<Format> parsedFormats = EnumSet.noneOf(Format.class);
+			if (formats != null)
+			{
+				for (String format : formats.split(","))
+				{
+					if (!format.trim().isEmpty())
+					{
+						parsedFormats.add(Format.valueOf(format.trim().toUpperCase(Locale.ROOT)));
+					}
+				}
+			}
+			return parsedFormats.isEmpty() ? EnumSet.of(CSV) : parsedFormats;
+		}
+	}
+
+	/**
+	 * A column of a report: its header in CSV, and its key in JSON Lines.
+	 */
+	final class Column
+	{
+		private final String header;
+		private final String key;
+
+		Column(String header, String key)
+		{
+			this.header = header;
+			this.key = key;
+		}
+
+		String getHeader()
+		{
+			return this.header;
+		}
+
+		String getKey()
+		{
+			return this.key;
+		}
+	}
+
+	/**
+	 * Writes one row.
+	 * @param values The values of the row, one for each column.
+	 * @throws IOException
+	 */
+	void writeRow(Object... values) throws IOException;
+
+	/**
+	 * Opens a report for writing in each of <code>formats</code>. Every row that is written to the sink that is returned
+	 * is written to each format.
+	 * @param directory The directory of the report.
+	 * @param baseName The name of the report's file(s), without an extension.
+	 * @param formats The formats to write.
+	 * @param compressed If true, the files are gzipped (and their names end with ".gz").
+	 * @param columns The columns of the report.
+	 * @return The sink.
+	 * @throws IOException
+	 */
+	static COSMICReportSink open(Path directory, String baseName, Set<Format> formats, boolean compressed, Column... columns) throws IOException
+	{
+		List<COSMICReportSink> sinks = new ArrayList<>(formats.size());
+		try
+		{
+			for (Format format : formats)
+			{
+				Path file = directory.resolve(baseName + format.getExtension() + (compressed ? COSMICUpdateUtil.GZIP_EXTENSION : ""));
+				sinks.add(format == Format.CSV ? new COSMICCSVReportSink(file, columns) : new COSMICJSONLinesReportSink(file, columns));
+			}
+		}
+		catch (IOException e)
+		{
+			for (COSMICReportSink sink : sinks)
+			{
+				sink.close();
+			}
+			throw e;
+		}
+		return sinks.size() == 1 ? sinks.get(0) : new COSMICMultiReportSink(sinks);
+	}
+
+	/**
+	 * Opens a buffered writer for a report file, which is gzipped if its name ends with ".gz".
+	 * @param file The report file.
+	 * @return The writer.
+	 * @throws IOException
+	 */
+	static Writer openWriter(Path file) throws IOException
+	{
+		OutputStream output = Files.newOutputStream(file);
+		if (file.getFileName().toString().endsWith(COSMICUpdateUtil.GZIP_EXTENSION))
+		{
+			output = new GZIPOutputStream(output, 1 << 16);
+		}
+		return new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * @return The headers of <code>columns</code>.
+	 */
+	static String[] getHeaders(Column... columns)
+	{
+		return Arrays.stream(columns).map(Column::getHeader).toArray(String[]::new);
+	}
+}
@@ -0,0 +1,173 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Periodically logs the progress of a scan of a COSMIC file: percent complete, rows/sec, MB/sec, matches so far and an ETA.
+ * <br/>
+ * Progress is measured in bytes read from the file itself (so for a gzipped file, in compressed bytes), by wrapping the stream
+ * that reads the file with <code>track</code>. That costs one addition per read of a buffer, not per row. Rows are added
+ * in strides of <code>ROW_STRIDE</code> by the scanner (see <code>COSMICFileScanner.setProgress</code>), and matches are added as
+ * they are found, since there are far fewer of them than rows. The counters are only read when a progress line is logged.
+ */
+class COSMICScanProgress implements Closeable
+{
+	static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(30);
+	// Rows are added to the counter once every ROW_STRIDE rows. Must be a power of two.
+	static final long ROW_STRIDE = 1 << 12;
+	static final long ROW_STRIDE_MASK = ROW_STRIDE - 1;
+
+	private static final Logger logger = LogManager.getLogger();
+	private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+	private static final double NANOS_PER_SECOND = 1e9;
+	// One thread logs the progress of every scan.
+	private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "scan-progress");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final String name;
+	private final long totalBytes;
+	private final long startNanos = System.nanoTime();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder rows = new LongAdder();
+	private final LongAdder matches = new LongAdder();
+	private final ScheduledFuture<?> scheduledReport;
+
+	/**
+	 * Starts logging the progress of a scan, every <code>interval</code>.
+	 * @param name The name of the file, for the log.
+	 * @param totalBytes The size of the file, or 0 if it is not known (in which case there is no percentage or ETA).
+	 * @param interval How often to log the progress.
+	 */
+	COSMICScanProgress(String name, long totalBytes, Duration interval)
+	{
+		this.name = name;
+		this.totalBytes = totalBytes;
+		long intervalMillis = Math.max(1, interval.toMillis());
+		this.scheduledReport = reporter.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Wraps the stream that reads the file, to count the bytes that are read from it.
+	 * @param fileStream The stream of the file's own bytes (before any decompression).
+	 * @return A stream that counts the bytes read from <code>fileStream</code>.
+	 */
+	InputStream track(InputStream fileStream)
+	{
+		return new FilterInputStream(fileStream)
+		{
+			@Override
+			public int read() throws IOException
+			{
+				int value = super.read();
+				if (value >= 0)
+				{
+					bytesRead.increment();
+				}
+				return value;
+			}
+
+			@Override
+			public int read(byte[] bytes, int offset, int length) throws IOException
+			{
+				int count = super.read(bytes, offset, length);
+				if (count > 0)
+				{
+					bytesRead.add(count);
+				}
+				return count;
+			}
+
+			@Override
+			public long skip(long count) throws IOException
+			{
+				long skipped = super.skip(count);
+				bytesRead.add(skipped);
+				return skipped;
+			}
+		};
+	}
+
+	void addRows(long count)
+	{
+		this.rows.add(count);
+	}
+
+	void addMatches(long count)
+	{
+		this.matches.add(count);
+	}
+
+	long getBytesRead()
+	{
+		return this.bytesRead.sum();
+	}
+
+	long getRows()
+	{
+		return this.rows.sum();
+	}
+
+	long getMatches()
+	{
+		return this.matches.sum();
+	}
+
+	/**
+	 * @return A description of the progress so far.
+	 */
+	String describe()
+	{
+		long elapsedNanos = Math.max(1, System.nanoTime() - this.startNanos);
+		long bytes = getBytesRead();
+		double bytesPerSecond = bytes * NANOS_PER_SECOND / elapsedNanos;
+		StringBuilder description = new StringBuilder(this.name).append(": ");
+		if (this.totalBytes > 0)
+		{
+			description.append(String.format("%.1f%% (%.1f of %.1f MB)", 100.0 * bytes / this.totalBytes, bytes / BYTES_PER_MB, this.totalBytes / BYTES_PER_MB));
+		}
+		else
+		{
+			description.append(String.format("%.1f MB", bytes / BYTES_PER_MB));
+		}
+		description.append(String.format(", %.0f rows/sec, %.1f MB/sec, %d matches", getRows() * NANOS_PER_SECOND / elapsedNanos,
+			bytesPerSecond / BYTES_PER_MB, getMatches()));
+		if (this.totalBytes > 0 && bytes > 0 && bytes < this.totalBytes)
+		{
+			Duration eta = Duration.ofSeconds((long) ((this.totalBytes - bytes) / bytesPerSecond));
+			description.append(String.format(", ETA %d:%02d:%02d", eta.toHours(), eta.toMinutesPart(), eta.toSecondsPart()));
+		}
+		return description.toString();
+	}
+
+	private void report()
+	{
+		logger.info("{}", describe());
+	}
+
+	/**
+	 * Stops logging the progress, and logs the totals.
+	 */
+	@Override
+	public void close()
+	{
+		this.scheduledReport.cancel(false);
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+		logger.info("Finished scanning {}: {} rows, {} matches, {} MB in {} s", this.name, getRows(), getMatches(),
+			String.format("%.1f", getBytesRead() / BYTES_PER_MB), String.format("%.1f", elapsedMillis / 1000.0));
+	}
+}
@@ -0,0 +1,127 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * The COSMIC identifiers (the keys of the updaters map) in order of their bytes, so that they can be merge-joined with a COSMIC mutation
+ * file whose rows are in order of LEGACY_MUTATION_ID (see <code>COSMICSortedMutationFile</code>). The file and the identifiers are then
+ * read side by side, once each, and no row is looked up in a hash table.
+ * <br/>
+ * A merge only gives the right matches if the rows really are in order, so each legacy ID is compared with the one before it as the
+ * file is read, and the merge gives up as soon as one is out of order.
+ */
+class COSMICSortedIdentifiers
+{
+	private static final int INITIAL_FIELD_SIZE = 32;
+
+	private final byte[][] keyBytes;
+	private final String[] keys;
+
+	/**
+	 * @param keys The identifiers to merge with the files.
+	 */
+	COSMICSortedIdentifiers(Collection<String> keys)
+	{
+		Object[][] sortedKeys = new Object[keys.size()][];
+		int i = 0;
+		for (String key : keys)
+		{
+			sortedKeys[i++] = new Object[] { key.getBytes(StandardCharsets.UTF_8), key };
+		}
+		Arrays.sort(sortedKeys, Comparator.comparing(sortedKey -> (byte[]) sortedKey[0], Arrays::compareUnsigned));
+		this.keyBytes = new byte[sortedKeys.length][];
+		this.keys = new String[sortedKeys.length];
+		for (i = 0; i < sortedKeys.length; i++)
+		{
+			this.keyBytes[i] = (byte[]) sortedKeys[i][0];
+			this.keys[i] = (String) sortedKeys[i][1];
+		}
+	}
+
+	/**
+	 * Merges the rows of a mutation file with the identifiers. The scan stops once the legacy IDs of the rows are past the last identifier.
+	 * @param scanner A scanner of the file, for the columns in <code>COSMICUpdateUtil.MUTATION_COLUMNS</code>.
+	 * @return The matching rows, or null if the rows are not in order of legacy ID.
+	 * @throws IOException
+	 */
+	COSMICMutationMatches merge(COSMICFileScanner scanner) throws IOException
+	{
+		Merge merge = new Merge(scanner);
+		scanner.scan(merge);
+		return merge.inOrder ? merge.matches : null;
+	}
+
+	int size()
+	{
+		return this.keys.length;
+	}
+
+	/**
+	 * The state of one merge. The two mutation files may be merged at the same time, so each merge has its own.
+	 */
+	private class Merge implements COSMICFileScanner.RowHandler
+	{
+		private final COSMICFileScanner scanner;
+		private final COSMICMutationMatches matches = new COSMICMutationMatches();
+		// The next identifier that could match a row.
+		private int position;
+		// The legacy ID of the previous row.
+		private byte[] previousField = new byte[INITIAL_FIELD_SIZE];
+		private int previousLength = -1;
+		private boolean inOrder = true;
+
+		private Merge(COSMICFileScanner scanner)
+		{
+			this.scanner = scanner;
+		}
+
+		@Override
+		public void handleRow(COSMICFileScanner.Row row) throws IOException
+		{
+			byte[] buffer = row.getBuffer();
+			int start = row.getStart(COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD);
+			int end = row.getEnd(COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD);
+			if (this.previousLength >= 0 && Arrays.compareUnsigned(this.previousField, 0, this.previousLength, buffer, start, end) > 0)
+			{
+				this.inOrder = false;
+				this.scanner.stop();
+				return;
+			}
+			rememberField(buffer, start, end);
+
+			int comparison = -1;
+			while (this.position < keys.length
+				&& (comparison = Arrays.compareUnsigned(keyBytes[this.position], 0, keyBytes[this.position].length, buffer, start, end)) < 0)
+			{
+				this.position++;
+			}
+			if (this.position == keys.length)
+			{
+				// No identifier is left, so no later row can match.
+				this.scanner.stop();
+				return;
+			}
+			// Several rows can have the same legacy ID, so the identifier stays where it is until a row is past it.
+			if (comparison == 0)
+			{
+				this.matches.add(keys[this.position], row.getString(COSMICUpdateUtil.MUTATION_ID_FIELD),
+					row.getString(COSMICUpdateUtil.GENOMIC_MUTATION_ID_FIELD));
+			}
+		}
+
+		private void rememberField(byte[] buffer, int start, int end)
+		{
+			int length = end - start;
+			if (length > this.previousField.length)
+			{
+				this.previousField = new byte[Math.max(length, this.previousField.length * 2)];
+			}
+			System.arraycopy(buffer, start, this.previousField, 0, length);
+			this.previousLength = length;
+		}
+	}
+}
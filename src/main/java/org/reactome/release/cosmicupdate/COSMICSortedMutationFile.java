@@ -0,0 +1,297 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.function.UnaryOperator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A COSMIC mutation file (Mutant Export or Mutation Tracking) whose rows are in order of LEGACY_MUTATION_ID, so that it can be merge-joined
+ * with the sorted identifiers instead of each row being looked up in a hash table.
+ * <br/>
+ * The first time a file is needed (for each COSMIC version), its rows are read once to check if they are in order already, stopping at the first
+ * row that is out of order. If they are, the file itself is used. Otherwise it is sorted with an ExternalLineSorter into a gzipped copy in the
+ * sorted files directory, which only has the <code>MUTATION_COLUMNS</code> (legacy ID first). Either way, the outcome is recorded next to
+ * the copy, with the size and modification time of the file (of its archive, if it was unzipped), so later runs don't check or sort it again.
+ * <br/>
+ * The rows are ordered by the bytes of their legacy IDs, and rows with the same legacy ID keep the order they had in the file
+ * (so the last row of a legacy ID is still the last one, as <code>COSMICMutationMatches</code> expects).
+ */
+class COSMICSortedMutationFile
+{
+	static final String SORTED_EXTENSION = ".sorted.tsv.gz";
+	private static final String RECORD_EXTENSION = ".sorted.properties";
+	private static final int INITIAL_FIELD_SIZE = 32;
+	private static final String COSMIC_VERSION = "cosmicVersion";
+	private static final String SOURCE_SIZE = "sourceSize";
+	private static final String SOURCE_MODIFIED = "sourceModified";
+	private static final String SOURCE_SORTED = "sourceSorted";
+	private static final Logger logger = LogManager.getLogger();
+
+	// Private constructor to prevent instantiation of utility class
+	private COSMICSortedMutationFile()
+	{
+		// ...no-op
+	}
+
+	/**
+	 * Gets a version of a mutation file whose rows are in order of LEGACY_MUTATION_ID, sorting it if that hasn't been done yet.
+	 * @param sourceFile The COSMIC mutation file. It may be gzipped.
+	 * @param sortedDirectory The directory of the sorted copies.
+	 * @param cosmicVersion The COSMIC version of the file.
+	 * @return The file itself, if it is already sorted; otherwise the sorted copy.
+	 * @throws IOException
+	 */
+	static Path getSortedFile(Path sourceFile, Path sortedDirectory, String cosmicVersion) throws IOException
+	{
+		String baseName = sourceFile.getFileName().toString().replaceFirst("(\\.tsv)?(\\.gz)?$", "");
+		Path sortedFile = sortedDirectory.resolve(baseName + SORTED_EXTENSION);
+		Path recordFile = sortedDirectory.resolve(baseName + RECORD_EXTENSION);
+		Properties record = readRecord(recordFile);
+		if (record != null && isRecordOf(record, sourceFile, cosmicVersion))
+		{
+			if (Boolean.parseBoolean(record.getProperty(SOURCE_SORTED)))
+			{
+				logger.info("{} is already sorted by legacy ID", sourceFile);
+				return sourceFile;
+			}
+			if (Files.exists(sortedFile))
+			{
+				logger.info("Using {}, sorted by legacy ID, for {}", sortedFile, sourceFile);
+				return sortedFile;
+			}
+		}
+		Files.createDirectories(sortedDirectory);
+		boolean sourceSorted = isSortedByLegacyID(sourceFile);
+		if (sourceSorted)
+		{
+			logger.info("{} is already sorted by legacy ID", sourceFile);
+		}
+		else
+		{
+			sort(sourceFile, sortedFile, sortedDirectory);
+		}
+		Properties newRecord = new Properties();
+		newRecord.setProperty(COSMIC_VERSION, cosmicVersion);
+		Path sourceArchive = COSMICUpdateUtil.getArchivePath(sourceFile);
+		newRecord.setProperty(SOURCE_SIZE, Long.toString(Files.size(sourceArchive)));
+		newRecord.setProperty(SOURCE_MODIFIED, Long.toString(Files.getLastModifiedTime(sourceArchive).toMillis()));
+		newRecord.setProperty(SOURCE_SORTED, Boolean.toString(sourceSorted));
+		Path temporaryRecordFile = recordFile.resolveSibling(recordFile.getFileName() + ".tmp");
+		try(OutputStream output = Files.newOutputStream(temporaryRecordFile))
+		{
+			newRecord.store(output, "The sorting of " + sourceFile.getFileName() + " by legacy ID");
+		}
+		Files.move(temporaryRecordFile, recordFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return sourceSorted ? sourceFile : sortedFile;
+	}
+
+	/**
+	 * Checks if the rows of a mutation file are in order of legacy ID, the way <code>COSMICSortedIdentifiers</code> checks them while merging.
+	 * Only the legacy IDs are located in each row, and the file is only read until the first row that is out of order.
+	 */
+	private static boolean isSortedByLegacyID(Path sourceFile) throws IOException
+	{
+		try(COSMICFileScanner scanner = new COSMICFileScanner(COSMICUpdateUtil.getInputStream(sourceFile.toString()),
+			COSMICUpdateUtil.MUTATION_COLUMNS[COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD]))
+		{
+			OrderCheck orderCheck = new OrderCheck(scanner);
+			scanner.scan(orderCheck);
+			return orderCheck.inOrder;
+		}
+	}
+
+	/**
+	 * Compares the legacy ID of each row with the one before it, and stops the scan at the first row that is out of order.
+	 */
+	private static class OrderCheck implements COSMICFileScanner.RowHandler
+	{
+		private final COSMICFileScanner scanner;
+		// The legacy ID of the previous row.
+		private byte[] previousField = new byte[INITIAL_FIELD_SIZE];
+		private int previousLength = -1;
+		private boolean inOrder = true;
+
+		private OrderCheck(COSMICFileScanner scanner)
+		{
+			this.scanner = scanner;
+		}
+
+		@Override
+		public void handleRow(COSMICFileScanner.Row row) throws IOException
+		{
+			byte[] buffer = row.getBuffer();
+			// The scanner only locates the legacy ID column.
+			int start = row.getStart(0);
+			int end = row.getEnd(0);
+			if (this.previousLength >= 0 && Arrays.compareUnsigned(this.previousField, 0, this.previousLength, buffer, start, end) > 0)
+			{
+				this.inOrder = false;
+				this.scanner.stop();
+				return;
+			}
+			int length = end - start;
+			if (length > this.previousField.length)
+			{
+				this.previousField = new byte[Math.max(length, this.previousField.length * 2)];
+			}
+			System.arraycopy(buffer, start, this.previousField, 0, length);
+			this.previousLength = length;
+		}
+	}
+
+	/**
+	 * Sorts the rows of a mutation file by legacy ID into <code>sortedFile</code>. Only the <code>MUTATION_COLUMNS</code> are kept,
+	 * with the legacy ID first, so that the rows that are sorted (and spilled to the runs) are short and are compared by their first field.
+	 */
+	private static void sort(Path sourceFile, Path sortedFile, Path temporaryDirectory) throws IOException
+	{
+		logger.info("Sorting {} by legacy ID", sourceFile);
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(COSMICUpdateUtil.getInputStream(sourceFile.toString()),
+			StandardCharsets.UTF_8)))
+		{
+			String header = reader.readLine();
+			if (header == null)
+			{
+				throw new IOException(sourceFile + " is empty; expected a header with the column "
+					+ COSMICUpdateUtil.MUTATION_COLUMNS[COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD]);
+			}
+			int[] columns = COSMICFileScanner.getColumnIndices(header, COSMICUpdateUtil.MUTATION_COLUMNS);
+			ExternalLineSorter sorter = new ExternalLineSorter(byLegacyID(), ExternalLineSorter.DEFAULT_MAX_LINES_IN_MEMORY,
+				temporaryDirectory);
+			try(ExternalLineSorter.SortedLines lines = sorter.sort(reader, new Projection(columns)))
+			{
+				Path temporaryFile = sortedFile.resolveSibling(sortedFile.getFileName() + ".tmp" + COSMICUpdateUtil.GZIP_EXTENSION);
+				try(Writer writer = COSMICReportSink.openWriter(temporaryFile))
+				{
+					writer.write(String.join("\t", COSMICUpdateUtil.MUTATION_COLUMNS));
+					writer.write('\n');
+					while (lines.hasNext())
+					{
+						writer.write(lines.next());
+						writer.write('\n');
+					}
+				}
+				Files.move(temporaryFile, sortedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				logger.info("Wrote {}", sortedFile);
+			}
+		}
+	}
+
+	/**
+	 * Keeps some columns of a row, in the given order. A column that the row doesn't have is kept as an empty field.
+	 * The field positions are reused from row to row, so a projection must only be used by one thread.
+	 */
+	private static class Projection implements UnaryOperator<String>
+	{
+		private final int[] columns;
+		private final int[] starts;
+		private final int[] ends;
+		private final StringBuilder builder = new StringBuilder();
+
+		private Projection(int[] columns)
+		{
+			this.columns = columns;
+			int columnCount = Arrays.stream(columns).max().orElse(-1) + 1;
+			this.starts = new int[columnCount];
+			this.ends = new int[columnCount];
+		}
+
+		@Override
+		public String apply(String line)
+		{
+			// Each field of the row is located once, up to the last column that is kept.
+			int start = 0;
+			for (int column = 0; column < this.starts.length; column++)
+			{
+				int tab = start > line.length() ? -1 : line.indexOf('\t', start);
+				int end = tab < 0 ? line.length() : tab;
+				this.starts[column] = Math.min(start, end);
+				this.ends[column] = end;
+				start = tab < 0 ? line.length() + 1 : tab + 1;
+			}
+			this.builder.setLength(0);
+			for (int i = 0; i < this.columns.length; i++)
+			{
+				if (i > 0)
+				{
+					this.builder.append('\t');
+				}
+				this.builder.append(line, this.starts[this.columns[i]], this.ends[this.columns[i]]);
+			}
+			return this.builder.toString();
+		}
+	}
+
+	/**
+	 * Orders projected rows by their first field (the legacy ID), character by character. For the ASCII legacy IDs, this is the same as
+	 * the order of their bytes, which is the order that the merge join expects.
+	 */
+	static Comparator<String> byLegacyID()
+	{
+		return (line, other) -> {
+			int end = fieldEnd(line);
+			int otherEnd = fieldEnd(other);
+			int length = Math.min(end, otherEnd);
+			for (int i = 0; i < length; i++)
+			{
+				int comparison = Character.compare(line.charAt(i), other.charAt(i));
+				if (comparison != 0)
+				{
+					return comparison;
+				}
+			}
+			return Integer.compare(end, otherEnd);
+		};
+	}
+
+	private static int fieldEnd(String line)
+	{
+		int tab = line.indexOf('\t');
+		return tab < 0 ? line.length() : tab;
+	}
+
+	private static Properties readRecord(Path recordFile)
+	{
+		if (!Files.exists(recordFile))
+		{
+			return null;
+		}
+		Properties record = new Properties();
+		try(InputStream input = Files.newInputStream(recordFile))
+		{
+			record.load(input);
+			return record;
+		}
+		catch (IOException e)
+		{
+			logger.warn("Could not read {}; the file will be sorted again: {}", recordFile, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Checks if a record was made for the current contents of a file. An unzipped file is checked by its archive, since it is unzipped
+	 * again by every run.
+	 */
+	private static boolean isRecordOf(Properties record, Path sourceFile, String cosmicVersion) throws IOException
+	{
+		Path sourceArchive = COSMICUpdateUtil.getArchivePath(sourceFile);
+		return cosmicVersion.equals(record.getProperty(COSMIC_VERSION))
+			&& Long.toString(Files.size(sourceArchive)).equals(record.getProperty(SOURCE_SIZE))
+			&& Long.toString(Files.getLastModifiedTime(sourceArchive).toMillis()).equals(record.getProperty(SOURCE_MODIFIED));
+	}
+}
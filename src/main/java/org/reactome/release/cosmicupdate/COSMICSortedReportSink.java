@@ -0,0 +1,135 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A report sink that any number of threads can write rows to. The rows are handed to a single writer thread through a queue, and
+ * written to the underlying sink when this sink is closed, sorted by the text of their values (column by column). So the report is the
+ * same, byte for byte, however many threads wrote it and in whatever order.
+ */
+class COSMICSortedReportSink implements COSMICReportSink
+{
+	// Orders rows by their values as text, column by column, with null before any other value.
+	static final Comparator<Object[]> ROW_ORDER = (row, other) -> {
+		for (int i = 0; i < Math.min(row.length, other.length); i++)
+		{
+			int comparison = Objects.compare(textOf(row[i]), textOf(other[i]), Comparator.nullsFirst(Comparator.naturalOrder()));
+			if (comparison != 0)
+			{
+				return comparison;
+			}
+		}
+		return Integer.compare(row.length, other.length);
+	};
+
+	// Put on the queue when the sink is closed.
+	private static final Object[] END = new Object[0];
+
+	private final COSMICReportSink sink;
+	private final BlockingQueue<Object[]> rows = new LinkedBlockingQueue<>();
+	private final Thread writerThread;
+	private volatile IOException writeException;
+	private boolean closed;
+
+	/**
+	 * @param sink The sink that the sorted rows are written to. It is closed when this sink is closed.
+	 * @param name The name of the writer thread.
+	 */
+	COSMICSortedReportSink(COSMICReportSink sink, String name)
+	{
+		this.sink = sink;
+		this.writerThread = new Thread(this::writeRows, name);
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	private static String textOf(Object value)
+	{
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Queues a row. This can be called by any thread.
+	 */
+	@Override
+	public void writeRow(Object... values) throws IOException
+	{
+		if (this.writeException != null)
+		{
+			throw this.writeException;
+		}
+		this.rows.add(values.clone());
+	}
+
+	/**
+	 * Runs on the writer thread: collects the rows until the sink is closed, then sorts them and writes them.
+	 */
+	private void writeRows()
+	{
+		List<Object[]> collectedRows = new ArrayList<>();
+		try
+		{
+			Object[] row;
+			while ((row = this.rows.take()) != END)
+			{
+				collectedRows.add(row);
+			}
+			collectedRows.sort(ROW_ORDER);
+			for (Object[] sortedRow : collectedRows)
+			{
+				this.sink.writeRow(sortedRow);
+			}
+		}
+		catch (IOException e)
+		{
+			this.writeException = e;
+		}
+		catch (RuntimeException e)
+		{
+			this.writeException = new IOException(e);
+		}
+		catch (InterruptedException e)
+		{
+			this.writeException = new InterruptedIOException("The report writer was interrupted");
+		}
+	}
+
+	/**
+	 * Waits for the rows to be written, and closes the underlying sink.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		this.closed = true;
+		try
+		{
+			this.rows.add(END);
+			this.writerThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			this.writerThread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the report to be written");
+		}
+		finally
+		{
+			this.sink.close();
+		}
+		if (this.writeException != null)
+		{
+			throw this.writeException;
+		}
+	}
+}
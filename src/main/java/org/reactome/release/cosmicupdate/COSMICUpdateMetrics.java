@@ -0,0 +1,410 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Timing and throughput metrics for the phases of a COSMIC update run: wall time, rows, bytes, matched rows, database round trips
+ * and the heap high-water mark of each phase. At the end of a run they are written as a JSON summary and, optionally,
+ * as a Prometheus textfile (for the node_exporter textfile collector), so that runs of different releases can be compared.
+ * <br/>
+ * A phase is timed from when it is started to when it is closed; a phase that is started again (such as a fetch that is done with
+ * several queries) keeps its first start time. Counters can be added to a phase from any thread, whether or not it has been started.
+ * The heap is sampled in the background from when the first phase is started to the end of the run, so the high-water marks are approximate.
+ */
+class COSMICUpdateMetrics
+{
+	static final String FETCH_IDENTIFIERS_PHASE = "fetchIdentifiers";
+	static final String LOAD_PREFIX_ATTRIBUTES_PHASE = "loadPrefixAttributes";
+	static final String DETERMINE_PREFIXES_PHASE = "determinePrefixes";
+	static final String UNZIP_PHASE = "unzip";
+	static final String REPORT_PHASE = "report";
+	static final String DIFF_PHASE = "diff";
+	static final String WRITE_BACK_PHASE = "writeBack";
+	// Followed by the name of the file.
+	static final String DOWNLOAD_PHASE_PREFIX = "download:";
+	static final String VALIDATION_PHASE_PREFIX = "validate:";
+
+	private static final long HEAP_SAMPLE_INTERVAL_MILLIS = 50;
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final String PROMETHEUS_PREFIX = "cosmic_update_";
+
+	private final Instant startTime = Instant.now();
+	private final long startNanos = System.nanoTime();
+	private final Map<String, Phase> phases = new LinkedHashMap<>();
+	private final LongAccumulator heapHighWater = new LongAccumulator(Math::max, 0);
+	private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+	private ScheduledExecutorService heapSampler;
+	private long endNanos;
+	private boolean succeeded;
+
+	/**
+	 * The metrics of one phase.
+	 */
+	class Phase implements AutoCloseable
+	{
+		private final String name;
+		private long phaseStartNanos;
+		private long phaseEndNanos;
+		private boolean started;
+		private boolean running;
+		private final LongAdder rows = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LongAdder matches = new LongAdder();
+		private final LongAdder dbRoundTrips = new LongAdder();
+		private final LongAccumulator phaseHeapHighWater = new LongAccumulator(Math::max, 0);
+
+		private Phase(String name)
+		{
+			this.name = name;
+		}
+
+		String getName()
+		{
+			return this.name;
+		}
+
+		void addRows(long count)
+		{
+			this.rows.add(count);
+		}
+
+		void addBytes(long count)
+		{
+			this.bytes.add(count);
+		}
+
+		void addMatches(long count)
+		{
+			this.matches.add(count);
+		}
+
+		void addDbRoundTrips(long count)
+		{
+			this.dbRoundTrips.add(count);
+		}
+
+		long getRows()
+		{
+			return this.rows.sum();
+		}
+
+		long getBytes()
+		{
+			return this.bytes.sum();
+		}
+
+		long getMatches()
+		{
+			return this.matches.sum();
+		}
+
+		long getDbRoundTrips()
+		{
+			return this.dbRoundTrips.sum();
+		}
+
+		long getHeapHighWaterBytes()
+		{
+			return this.phaseHeapHighWater.get();
+		}
+
+		/**
+		 * @return The wall time of this phase so far, or 0 if it has never been started.
+		 */
+		synchronized long getDurationNanos()
+		{
+			if (!this.started)
+			{
+				return 0;
+			}
+			return (this.running ? System.nanoTime() : this.phaseEndNanos) - this.phaseStartNanos;
+		}
+
+		private synchronized void start()
+		{
+			if (!this.started)
+			{
+				this.phaseStartNanos = System.nanoTime();
+				this.started = true;
+			}
+			this.running = true;
+		}
+
+		private synchronized boolean isRunning()
+		{
+			return this.running;
+		}
+
+		private void recordHeapUsage(long usedBytes)
+		{
+			this.phaseHeapHighWater.accumulate(usedBytes);
+		}
+
+		/**
+		 * Ends the phase.
+		 */
+		@Override
+		public void close()
+		{
+			sampleHeap();
+			synchronized (this)
+			{
+				this.phaseEndNanos = System.nanoTime();
+				this.running = false;
+			}
+		}
+	}
+
+	/**
+	 * Starts (or restarts) a phase.
+	 * @param name The name of the phase.
+	 * @return The phase, to be closed when it ends.
+	 */
+	Phase startPhase(String name)
+	{
+		Phase phase = getPhase(name);
+		phase.start();
+		synchronized (this)
+		{
+			if (this.heapSampler == null && this.endNanos == 0)
+			{
+				this.heapSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "metrics-heap-sampler");
+					thread.setDaemon(true);
+					return thread;
+				});
+				this.heapSampler.scheduleAtFixedRate(this::sampleHeap, 0, HEAP_SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+			}
+		}
+		sampleHeap();
+		return phase;
+	}
+
+	/**
+	 * Gets a phase, to add to its counters, creating it (without starting it) if necessary.
+	 * @param name The name of the phase.
+	 * @return The phase.
+	 */
+	synchronized Phase getPhase(String name)
+	{
+		return this.phases.computeIfAbsent(name, Phase::new);
+	}
+
+	/**
+	 * @return The phases, in the order in which they were first used.
+	 */
+	synchronized List<Phase> getPhases()
+	{
+		return new ArrayList<>(this.phases.values());
+	}
+
+	long getHeapHighWaterBytes()
+	{
+		return this.heapHighWater.get();
+	}
+
+	/**
+	 * Records the heap usage now, for the run and for each phase that is running.
+	 */
+	private void sampleHeap()
+	{
+		long usedBytes = this.memoryBean.getHeapMemoryUsage().getUsed();
+		this.heapHighWater.accumulate(usedBytes);
+		for (Phase phase : getPhases())
+		{
+			if (phase.isRunning())
+			{
+				phase.recordHeapUsage(usedBytes);
+			}
+		}
+	}
+
+	/**
+	 * Ends the run: stops sampling the heap, and records the duration and outcome of the run.
+	 * @param succeeded false if the run failed.
+	 */
+	synchronized void finish(boolean succeeded)
+	{
+		sampleHeap();
+		if (this.heapSampler != null)
+		{
+			this.heapSampler.shutdownNow();
+			this.heapSampler = null;
+		}
+		this.endNanos = System.nanoTime();
+		this.succeeded = succeeded;
+	}
+
+	private synchronized long getRunDurationNanos()
+	{
+		return (this.endNanos != 0 ? this.endNanos : System.nanoTime()) - this.startNanos;
+	}
+
+	private synchronized boolean isSucceeded()
+	{
+		return this.succeeded;
+	}
+
+	/**
+	 * @return The metrics as a JSON object, with the phases in the order in which they were first used.
+	 */
+	String toJson()
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"startTime\": ").append(quoteJson(this.startTime.toString())).append(",\n");
+		json.append("  \"durationSeconds\": ").append(formatSeconds(getRunDurationNanos())).append(",\n");
+		json.append("  \"succeeded\": ").append(isSucceeded()).append(",\n");
+		json.append("  \"heapHighWaterBytes\": ").append(getHeapHighWaterBytes()).append(",\n");
+		json.append("  \"phases\": [");
+		List<Phase> allPhases = getPhases();
+		for (int i = 0; i < allPhases.size(); i++)
+		{
+			Phase phase = allPhases.get(i);
+			long durationNanos = phase.getDurationNanos();
+			json.append(i == 0 ? "\n" : ",\n");
+			json.append("    {\n");
+			json.append("      \"name\": ").append(quoteJson(phase.getName())).append(",\n");
+			json.append("      \"durationSeconds\": ").append(formatSeconds(durationNanos)).append(",\n");
+			json.append("      \"rows\": ").append(phase.getRows()).append(",\n");
+			json.append("      \"rowsPerSecond\": ").append(formatRate(phase.getRows(), durationNanos)).append(",\n");
+			json.append("      \"bytes\": ").append(phase.getBytes()).append(",\n");
+			json.append("      \"bytesPerSecond\": ").append(formatRate(phase.getBytes(), durationNanos)).append(",\n");
+			json.append("      \"matches\": ").append(phase.getMatches()).append(",\n");
+			json.append("      \"dbRoundTrips\": ").append(phase.getDbRoundTrips()).append(",\n");
+			json.append("      \"heapHighWaterBytes\": ").append(phase.getHeapHighWaterBytes()).append("\n");
+			json.append("    }");
+		}
+		json.append(allPhases.isEmpty() ? "]\n" : "\n  ]\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * @return The metrics in the Prometheus text exposition format. Every metric is a gauge; rates can be derived from the totals.
+	 */
+	String toPrometheus()
+	{
+		StringBuilder text = new StringBuilder();
+		appendGauge(text, "duration_seconds", "Wall time of the COSMIC update run.", formatSeconds(getRunDurationNanos()));
+		appendGauge(text, "succeeded", "1 if the COSMIC update run succeeded.", isSucceeded() ? "1" : "0");
+		appendGauge(text, "heap_high_water_bytes", "Highest heap usage sampled during the run.", String.valueOf(getHeapHighWaterBytes()));
+		appendGauge(text, "last_run_timestamp_seconds", "Time at which the run started.", String.valueOf(this.startTime.getEpochSecond()));
+		List<Phase> allPhases = getPhases();
+		appendPhaseGauges(text, allPhases, "phase_duration_seconds", "Wall time of each phase.", phase -> formatSeconds(phase.getDurationNanos()));
+		appendPhaseGauges(text, allPhases, "phase_rows", "Rows (or objects) processed by each phase.", phase -> String.valueOf(phase.getRows()));
+		appendPhaseGauges(text, allPhases, "phase_bytes", "Bytes read or written by each phase.", phase -> String.valueOf(phase.getBytes()));
+		appendPhaseGauges(text, allPhases, "phase_matches", "Rows matched by each phase.", phase -> String.valueOf(phase.getMatches()));
+		appendPhaseGauges(text, allPhases, "phase_db_round_trips", "Database round trips of each phase.",
+			phase -> String.valueOf(phase.getDbRoundTrips()));
+		appendPhaseGauges(text, allPhases, "phase_heap_high_water_bytes", "Highest heap usage sampled during each phase.",
+			phase -> String.valueOf(phase.getHeapHighWaterBytes()));
+		return text.toString();
+	}
+
+	private static void appendGauge(StringBuilder text, String name, String help, String value)
+	{
+		text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(" gauge\n");
+		text.append(PROMETHEUS_PREFIX).append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void appendPhaseGauges(StringBuilder text, List<Phase> phases, String name, String help, Function<Phase, String> value)
+	{
+		text.append("# HELP ").append(PROMETHEUS_PREFIX).append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name).append(" gauge\n");
+		for (Phase phase : phases)
+		{
+			text.append(PROMETHEUS_PREFIX).append(name).append("{phase=\"").append(escapeLabelValue(phase.getName())).append("\"} ")
+				.append(value.apply(phase)).append('\n');
+		}
+	}
+
+	/**
+	 * Writes the JSON summary to a file.
+	 * @param file The path of the file. Its directory is created if it is missing.
+	 * @throws IOException
+	 */
+	void writeJson(Path file) throws IOException
+	{
+		writeAtomically(file, toJson());
+	}
+
+	/**
+	 * Writes the metrics to a Prometheus textfile. The file is written under a temporary name and then moved into place,
+	 * so that the textfile collector never reads a partly written file.
+	 * @param file The path of the file, which should end with ".prom". Its directory is created if it is missing.
+	 * @throws IOException
+	 */
+	void writePrometheusTextfile(Path file) throws IOException
+	{
+		writeAtomically(file, toPrometheus());
+	}
+
+	private static void writeAtomically(Path file, String content) throws IOException
+	{
+		Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+		{
+			Files.createDirectories(directory);
+		}
+		Path temporaryFile = Paths.get(file.toString() + ".tmp");
+		Files.write(temporaryFile, content.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String formatSeconds(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / NANOS_PER_SECOND);
+	}
+
+	private static String formatRate(long count, long nanos)
+	{
+		return String.format(Locale.ROOT, "%.1f", nanos > 0 ? count * NANOS_PER_SECOND / nanos : 0.0);
+	}
+
+	private static String quoteJson(String value)
+	{
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray())
+		{
+			if (c == '"' || c == '\\')
+			{
+				quoted.append('\\').append(c);
+			}
+			else if (c < ' ')
+			{
+				quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			}
+			else
+			{
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static String escapeLabelValue(String value)
+	{
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,397 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The results of previous runs of the COSMIC update, for incremental runs.
+ * For each COSMIC DatabaseIdentifier (by DB_ID), the state records the identifier, the suggested prefix, the results of validating it against
+ * the COSMIC files, the DB_ID of the last InstanceEdit that had created or modified it (or one of the EWASes that refer to it, or their
+ * modified residues), and whether its update has been written to the database.
+ * An identifier only needs to be processed again if its last InstanceEdit has changed, if the EWASes that refer to it have changed
+ * (the DB_IDs of the referrers are recorded too, so that a removed reference is noticed), or if it is new.
+ * <br/>
+ * The state also records the COSMIC version and the COSMIC files (their names, sizes and modification times) it was computed with: a state
+ * from another version or other files is not used, and neither is any state when the COSMIC version is not known. It also records the
+ * InstanceEdits that the COSMIC update itself created: those are ignored when looking for modified identifiers, otherwise every updated
+ * identifier would look modified.
+ * <br/>
+ * The state file is a CSV file, preceded by a few "# key=value" lines with the COSMIC version, the files and the InstanceEdits.
+ */
+class COSMICUpdateState
+{
+	private static final Logger logger = LogManager.getLogger();
+	private static final String METADATA_MARKER = "# ";
+	private static final String COSMIC_VERSION_KEY = "cosmicVersion";
+	private static final String SOURCE_FILES_KEY = "sourceFiles";
+	private static final String OWN_INSTANCE_EDITS_KEY = "ownInstanceEdits";
+	private static final String DB_ID = "DB_ID";
+	private static final String IDENTIFIER = "Identifier";
+	private static final String SUGGESTED_PREFIX = "Suggested Prefix";
+	private static final String VALID = "Valid";
+	private static final String COSV_IDENTIFIER = "COSV identifier";
+	private static final String MUTATION_IDS = "Mutation IDs";
+	private static final String LAST_MODIFIED = "Last InstanceEdit";
+	private static final String REFERRERS = "Referrers";
+	private static final String WRITTEN = "Written";
+	private static final String LIST_SEPARATOR = ";";
+
+	private final String cosmicVersion;
+	private final String sourceFiles;
+	private final Set<Long> ownInstanceEdits = new HashSet<>();
+	// Sorted by DB_ID, so that the state file is easy to compare between runs.
+	private final Map<Long, Entry> entries = new TreeMap<>();
+
+	/**
+	 * The last-processed result for one DatabaseIdentifier.
+	 */
+	static final class Entry
+	{
+		private long dbID;
+		private String identifier;
+		private String suggestedPrefix;
+		private boolean valid;
+		private String cosvIdentifier;
+		private Set<String> mutationIDs = new LinkedHashSet<>();
+		private long lastModified;
+		// The DB_IDs of the EWASes that referred to the identifier; null if they weren't recorded.
+		private Set<Long> referrers;
+		private boolean written;
+		// Entries for COSV identifiers (which are not processed) don't have an updater.
+		private boolean processed;
+
+		long getLastModified()
+		{
+			return this.lastModified;
+		}
+
+		boolean isWritten()
+		{
+			return this.written;
+		}
+	}
+
+	/**
+	 * Creates an empty state.
+	 * @param cosmicVersion The COSMIC version.
+	 * @param sourceFiles The COSMIC files, from <code>describeSourceFiles</code>.
+	 */
+	COSMICUpdateState(String cosmicVersion, String sourceFiles)
+	{
+		this.cosmicVersion = cosmicVersion;
+		this.sourceFiles = sourceFiles;
+	}
+
+	/**
+	 * Describes the COSMIC files that a state is computed from, so that a state is not used with other files, even of the same version.
+	 * Unzipped files are described by their archives, since they are unzipped again by every run.
+	 * @param files The COSMIC files.
+	 * @return The name, size and modification time of each file (or of its archive).
+	 * @throws IOException
+	 */
+	static String describeSourceFiles(Collection<Path> files) throws IOException
+	{
+		List<String> descriptions = new ArrayList<>();
+		for (Path sourceFile : files)
+		{
+			Path file = COSMICUpdateUtil.getArchivePath(sourceFile);
+			descriptions.add(file.getFileName() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis());
+		}
+		Collections.sort(descriptions);
+		return String.join(",", descriptions);
+	}
+
+	/**
+	 * Loads a state file.
+	 * @param stateFile The state file.
+	 * @param cosmicVersion The COSMIC version of this run.
+	 * @param sourceFiles The COSMIC files of this run, from <code>describeSourceFiles</code>.
+	 * @return The state in the file, or an empty state if there is no file, the COSMIC version is not known,
+	 * or the file is for a different COSMIC version or different files.
+	 * @throws IOException
+	 */
+	static COSMICUpdateState load(Path stateFile, String cosmicVersion, String sourceFiles) throws IOException
+	{
+		if (cosmicVersion.isEmpty())
+		{
+			logger.warn("The COSMIC version is not known, so the results in {} can't be reused; all COSMIC identifiers will be processed.",
+				stateFile);
+			return new COSMICUpdateState(cosmicVersion, sourceFiles);
+		}
+		if (!Files.exists(stateFile))
+		{
+			logger.info("There is no state file {}; all COSMIC identifiers will be processed.", stateFile);
+			return new COSMICUpdateState(cosmicVersion, sourceFiles);
+		}
+		try(BufferedReader reader = Files.newBufferedReader(stateFile))
+		{
+			Map<String, String> metadata = readMetadata(reader);
+			if (!cosmicVersion.equals(metadata.getOrDefault(COSMIC_VERSION_KEY, "")))
+			{
+				logger.info("The state file {} is for COSMIC version \"{}\"; all COSMIC identifiers will be processed.", stateFile,
+					metadata.get(COSMIC_VERSION_KEY));
+				return new COSMICUpdateState(cosmicVersion, sourceFiles);
+			}
+			if (!sourceFiles.equals(metadata.getOrDefault(SOURCE_FILES_KEY, "")))
+			{
+				logger.info("The state file {} is for other COSMIC files ({}); all COSMIC identifiers will be processed.", stateFile,
+					metadata.get(SOURCE_FILES_KEY));
+				return new COSMICUpdateState(cosmicVersion, sourceFiles);
+			}
+			COSMICUpdateState state = new COSMICUpdateState(cosmicVersion, sourceFiles);
+			state.ownInstanceEdits.addAll(parseLongs(metadata.getOrDefault(OWN_INSTANCE_EDITS_KEY, "")));
+			try(CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader()))
+			{
+				for (CSVRecord record : parser)
+				{
+					Entry entry = new Entry();
+					entry.dbID = Long.parseLong(record.get(DB_ID));
+					entry.identifier = record.get(IDENTIFIER);
+					entry.suggestedPrefix = emptyToNull(record.get(SUGGESTED_PREFIX));
+					entry.valid = Boolean.parseBoolean(record.get(VALID));
+					entry.cosvIdentifier = emptyToNull(record.get(COSV_IDENTIFIER));
+					if (!record.get(MUTATION_IDS).isEmpty())
+					{
+						entry.mutationIDs.addAll(Arrays.asList(record.get(MUTATION_IDS).split(LIST_SEPARATOR)));
+					}
+					entry.lastModified = Long.parseLong(record.get(LAST_MODIFIED));
+					// State files written before the referrers were recorded don't have them, so those identifiers are processed again.
+					entry.referrers = record.isMapped(REFERRERS) ? parseLongs(record.get(REFERRERS).replace(LIST_SEPARATOR, ",")) : null;
+					entry.written = Boolean.parseBoolean(record.get(WRITTEN));
+					entry.processed = !entry.identifier.toUpperCase().startsWith(COSMICUpdateUtil.COSMIC_GENOMIC_PREFIX);
+					state.entries.put(entry.dbID, entry);
+				}
+			}
+			logger.info("Loaded the results for {} COSMIC identifiers from {}", state.entries.size(), stateFile);
+			return state;
+		}
+	}
+
+	/**
+	 * Reads the "# key=value" lines at the start of the file, leaving the reader at the first line after them.
+	 */
+	private static Map<String, String> readMetadata(BufferedReader reader) throws IOException
+	{
+		Map<String, String> metadata = new HashMap<>();
+		while (true)
+		{
+			reader.mark(1 << 16);
+			String line = reader.readLine();
+			if (line == null || !line.startsWith(METADATA_MARKER))
+			{
+				reader.reset();
+				return metadata;
+			}
+			String[] parts = line.substring(METADATA_MARKER.length()).split("=", 2);
+			metadata.put(parts[0].trim(), parts.length > 1 ? parts[1].trim() : "");
+		}
+	}
+
+	/**
+	 * Writes the state to a file. The file is replaced in one step, so an interrupted run never leaves a partial state file.
+	 * @param stateFile The state file.
+	 * @throws IOException
+	 */
+	void save(Path stateFile) throws IOException
+	{
+		Path absoluteStateFile = stateFile.toAbsolutePath();
+		Files.createDirectories(absoluteStateFile.getParent());
+		Path temporaryFile = absoluteStateFile.resolveSibling(absoluteStateFile.getFileName() + ".tmp");
+		try(BufferedWriter writer = Files.newBufferedWriter(temporaryFile))
+		{
+			writer.write(METADATA_MARKER + COSMIC_VERSION_KEY + "=" + this.cosmicVersion + "\n");
+			writer.write(METADATA_MARKER + SOURCE_FILES_KEY + "=" + this.sourceFiles + "\n");
+			writer.write(METADATA_MARKER + OWN_INSTANCE_EDITS_KEY + "="
+				+ this.ownInstanceEdits.stream().sorted().map(String::valueOf).collect(Collectors.joining(",")) + "\n");
+			try(CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(DB_ID, IDENTIFIER, SUGGESTED_PREFIX, VALID, COSV_IDENTIFIER,
+				MUTATION_IDS, LAST_MODIFIED, REFERRERS, WRITTEN)))
+			{
+				for (Entry entry : this.entries.values())
+				{
+					printer.printRecord(entry.dbID, entry.identifier, nullToEmpty(entry.suggestedPrefix), entry.valid, nullToEmpty(entry.cosvIdentifier),
+						String.join(LIST_SEPARATOR, entry.mutationIDs), entry.lastModified,
+						entry.referrers == null ? "" : entry.referrers.stream().sorted().map(String::valueOf).collect(Collectors.joining(LIST_SEPARATOR)),
+						entry.written);
+				}
+			}
+		}
+		Files.move(temporaryFile, absoluteStateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		logger.info("Saved the results for {} COSMIC identifiers to {}", this.entries.size(), stateFile);
+	}
+
+	/**
+	 * Compares the state to the identifiers that are in the database now. Identifiers that are no longer in the database are dropped from the state.
+	 * An identifier has changed if its last InstanceEdit has changed, or if the EWASes that refer to it have (an EWAS that no longer
+	 * refers to it doesn't change its last InstanceEdit).
+	 * @param lastInstanceEdits The DB_ID of the last InstanceEdit of each COSMIC identifier in the database, keyed by the DB_ID of the identifier.
+	 * @param referrers The DB_IDs of the EWASes that refer to each COSMIC identifier, keyed by the DB_ID of the identifier.
+	 * @return The DB_IDs of the identifiers that are new or have been modified since they were last processed.
+	 */
+	Set<Long> getChangedIdentifiers(Map<Long, Long> lastInstanceEdits, Map<Long, Set<Long>> referrers)
+	{
+		int previousSize = this.entries.size();
+		this.entries.keySet().retainAll(lastInstanceEdits.keySet());
+		if (this.entries.size() < previousSize)
+		{
+			logger.info("{} COSMIC identifiers are no longer in the database", previousSize - this.entries.size());
+		}
+		Set<Long> changedIdentifiers = new HashSet<>();
+		lastInstanceEdits.forEach((dbID, lastInstanceEdit) -> {
+			Entry entry = this.entries.get(dbID);
+			if (entry == null || entry.lastModified != lastInstanceEdit
+				|| !Objects.equals(entry.referrers, referrers.getOrDefault(dbID, Collections.emptySet())))
+			{
+				changedIdentifiers.add(dbID);
+			}
+		});
+		return changedIdentifiers;
+	}
+
+	/**
+	 * Records the results of processing identifiers, replacing any earlier results for them.
+	 * @param updaters The updaters of the identifiers that were processed.
+	 * @param lastInstanceEdits The DB_ID of the last InstanceEdit of each identifier, keyed by the DB_ID of the identifier.
+	 * @param referrers The DB_IDs of the EWASes that refer to each identifier, keyed by the DB_ID of the identifier.
+	 */
+	void recordResults(Collection<COSMICIdentifierUpdater> updaters, Map<Long, Long> lastInstanceEdits, Map<Long, Set<Long>> referrers)
+	{
+		for (COSMICIdentifierUpdater updater : updaters)
+		{
+			Entry entry = new Entry();
+			entry.dbID = updater.getDbID();
+			entry.identifier = updater.getIdentifier();
+			entry.suggestedPrefix = updater.getSuggestedPrefix();
+			entry.valid = updater.isValid();
+			entry.cosvIdentifier = updater.getCosvIdentifier();
+			entry.mutationIDs.addAll(updater.getMutationIDs());
+			entry.lastModified = lastInstanceEdits.getOrDefault(updater.getDbID(), 0L);
+			entry.referrers = new HashSet<>(referrers.getOrDefault(updater.getDbID(), Collections.emptySet()));
+			entry.written = updater.isWritten();
+			entry.processed = true;
+			this.entries.put(entry.dbID, entry);
+		}
+	}
+
+	/**
+	 * Records identifiers that are in the database but are not processed (COSV identifiers), so that they are not fetched again.
+	 * @param dbID The DB_ID of the identifier.
+	 * @param identifier The identifier.
+	 * @param lastInstanceEdit The DB_ID of the last InstanceEdit of the identifier.
+	 * @param referrers The DB_IDs of the EWASes that refer to the identifier.
+	 */
+	void recordUnprocessed(long dbID, String identifier, long lastInstanceEdit, Set<Long> referrers)
+	{
+		Entry entry = new Entry();
+		entry.dbID = dbID;
+		entry.identifier = identifier;
+		entry.lastModified = lastInstanceEdit;
+		entry.referrers = new HashSet<>(referrers);
+		this.entries.put(dbID, entry);
+	}
+
+	/**
+	 * Records that an update was written for identifiers.
+	 * @param updaters The updaters that were written.
+	 */
+	void recordWritten(Collection<COSMICIdentifierUpdater> updaters)
+	{
+		updaters.stream().filter(COSMICIdentifierUpdater::isWritten).forEach(updater -> {
+			Entry entry = this.entries.get(updater.getDbID());
+			if (entry != null)
+			{
+				entry.written = true;
+			}
+		});
+	}
+
+	/**
+	 * Recreates the updaters of the identifiers that were processed in earlier runs, except for those in <code>excludedDbIDs</code>.
+	 * @param excludedDbIDs The DB_IDs of identifiers that are being processed again.
+	 * @return The updaters, in DB_ID order.
+	 */
+	List<COSMICIdentifierUpdater> getUpdaters(Set<Long> excludedDbIDs)
+	{
+		List<COSMICIdentifierUpdater> updaters = new ArrayList<>();
+		COSMICIdentifierStore store = new COSMICIdentifierStore();
+		for (Entry entry : this.entries.values())
+		{
+			if (!entry.processed || excludedDbIDs.contains(entry.dbID))
+			{
+				continue;
+			}
+			COSMICIdentifierUpdater updater = store.add();
+			updater.setDbID(entry.dbID);
+			updater.setIdentifier(entry.identifier);
+			updater.setSuggestedPrefix(entry.suggestedPrefix);
+			updater.setValid(entry.valid);
+			updater.setCosvIdentifier(entry.cosvIdentifier);
+			updater.getMutationIDs().addAll(entry.mutationIDs);
+			updater.setWritten(entry.written);
+			updaters.add(updater);
+		}
+		return updaters;
+	}
+
+	/**
+	 * Records InstanceEdits that were created by the COSMIC update.
+	 * @param instanceEditDbIDs The DB_IDs of the InstanceEdits.
+	 */
+	void addOwnInstanceEdits(Collection<Long> instanceEditDbIDs)
+	{
+		this.ownInstanceEdits.addAll(instanceEditDbIDs);
+	}
+
+	Set<Long> getOwnInstanceEdits()
+	{
+		return this.ownInstanceEdits;
+	}
+
+	Entry getEntry(long dbID)
+	{
+		return this.entries.get(dbID);
+	}
+
+	int size()
+	{
+		return this.entries.size();
+	}
+
+	private static Set<Long> parseLongs(String values)
+	{
+		return Arrays.stream(values.split(",")).map(String::trim).filter(value -> !value.isEmpty()).map(Long::valueOf).collect(Collectors.toSet());
+	}
+
+	private static String emptyToNull(String value)
+	{
+		return value == null || value.isEmpty() ? null : value;
+	}
+
+	private static String nullToEmpty(String value)
+	{
+		return value == null ? "" : value;
+	}
+}
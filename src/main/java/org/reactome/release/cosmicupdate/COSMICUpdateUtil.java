@@ -1,27 +1,41 @@
 package org.reactome.release.cosmicupdate;
 
-import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.gk.model.GKInstance;
@@ -35,14 +49,48 @@ import org.gk.schema.InvalidAttributeException;
 public class COSMICUpdateUtil
 {
 	static final String COSMIC_LEGACY_PREFIX = "COSM";
-	private static final String COSMIC_FUSION_ID = "FUSION_ID";
+	static final String COSMIC_FUSION_ID = "FUSION_ID";
 	private static final String COSMIC_GENOMIC_MUTATION_ID = "GENOMIC_MUTATION_ID";
 	private static final String COSMIC_MUTATION_ID = "MUTATION_ID";
 	private static final String COSMIC_LEGACY_MUTATION_ID = "LEGACY_MUTATION_ID";
+	// The columns that are read from Mutant Export and Mutation Tracking, and the position of each one in this array.
+	static final String[] MUTATION_COLUMNS = { COSMIC_LEGACY_MUTATION_ID, COSMIC_MUTATION_ID, COSMIC_GENOMIC_MUTATION_ID };
+	static final int LEGACY_MUTATION_ID_FIELD = 0;
+	static final int MUTATION_ID_FIELD = 1;
+	static final int GENOMIC_MUTATION_ID_FIELD = 2;
 	static final String COSMIC_FUSION_PREFIX = "COSF";
+	static final String COSMIC_GENOMIC_PREFIX = "COSV";
+	static final String GZIP_EXTENSION = ".gz";
+	// Size of the buffer used by the inflater when reading straight from a gzipped COSMIC file.
+	static final int GZIP_BUFFER_SIZE = 1 << 16;
 	private static final Logger logger = LogManager.getLogger();
 	private static String dateSuffix;
 	private static String reportsDirectoryPath = "reports";
+	// The maximum number of instances loaded by one bulk query.
+	private static final int LOAD_BATCH_SIZE = 5000;
+	// The tables of the multi-valued attributes that link a COSMIC identifier to its EWASes, and an EWAS to its modified residues.
+	private static final String CROSS_REFERENCE_TABLE = "PhysicalEntity_2_crossReference";
+	private static final String MODIFIED_RESIDUE_TABLE = "EntityWithAccessionedSequence_2_hasModifiedResidue";
+	private static int parsingThreads = Runtime.getRuntime().availableProcessors();
+	// The threads that scan the chunks of uncompressed files, shared by the files that are scanned at the same time. Created when first needed.
+	private static ForkJoinPool parsingPool;
+	// Where the binary indexes of the COSMIC files are kept. If null, the files are always parsed.
+	private static String indexDirectoryPath;
+	private static String cosmicVersion = "";
+	// If true, gzipped files are inflated on a background thread while they are parsed.
+	private static boolean inflatingAhead;
+	// The metrics of the current run.
+	private static COSMICUpdateMetrics metrics = new COSMICUpdateMetrics();
+	// How often the progress of a scan of a COSMIC file is logged.
+	private static Duration progressInterval = COSMICScanProgress.DEFAULT_INTERVAL;
+	// If true, the identifiers report is gzipped.
+	private static boolean compressingReport;
+	// The formats that the reports are written in.
+	private static Set<COSMICReportSink.Format> reportFormats = EnumSet.of(COSMICReportSink.Format.CSV);
+	// The fusion verdicts of EWASes that are kept between runs. If null, the verdicts are only kept for one call of determinePrefixes.
+	private static COSMICFusionVerdictCache fusionVerdictCache;
+	// Where the copies of the mutation files that are sorted by legacy ID are kept. If null, the mutation files are not merge-joined.
+	private static String sortedFilesDirectoryPath;
 	// Private constructor to prevent instantiation of utility class
 	private COSMICUpdateUtil()
 	{
@@ -58,7 +106,7 @@ public class COSMICUpdateUtil
 	/**
 	 * Validate the identifiers in the database by comparing them to the identifiers in the file.
 	 * @param updaters A map of updaters (actually, it's a LIST of updaters, in case > 1 object is identified by the same identifier value), keyed by COSMIC identifier.
-	 * @param COSMICFusionExportFile The path to the COSMIC Fusion Export file.
+	 * @param COSMICFusionExportFile The path to the COSMIC Fusion Export file. Paths ending with ".gz" are read without unzipping to disk.
 	 * @param COSMICMutationTrackingFile The path to the COSMIC Mutation Tracking file.
 	 * @param COSMICMutantExportFile The path to the COMSIC Mutant Export file.
 	 * @throws IOException
@@ -80,71 +128,481 @@ public class COSMICUpdateUtil
 		// It may also happen that a mapping from a COSM to a COSV does exist in Mutation Tracking, but the COSM is not in Mutant Export, meaning it is not
 		// a *current* identifier in the current COSMIC database, so it will also have "valid == false".
 		
-		validateAgainstCosmicFusionExport(updaters, COSMICFusionExportFile);
-		validateAgainstCosmicMutationTracking(updaters, COSMICMutationTrackingFile);
-		validateAgainstCosmicMutantExport(updaters, COSMICMutantExportFile);
+		validateIdentifiersAgainstFiles(updaters, CompletableFuture.completedFuture(COSMICFusionExportFile),
+			CompletableFuture.completedFuture(COSMICMutationTrackingFile), CompletableFuture.completedFuture(COSMICMutantExportFile));
 	}
-	
-	private static void validateAgainstCosmicMutantExport(Map<String, List<COSMICIdentifierUpdater>> updaters, String COSMICMutantExportFile) throws IOException, FileNotFoundException
+
+	/**
+	 * Validate the identifiers in the database by comparing them to the identifiers in the files, scanning each file as soon as it is available.
+	 * So a file that has been downloaded can be scanned while the other files are still being downloaded.
+	 * @param updaters The updaters, keyed by COSMIC identifier.
+	 * @param COSMICFusionExportFile Completes with the path to the COSMIC Fusion Export file, once it has been downloaded.
+	 * @param COSMICMutationTrackingFile Completes with the path to the COSMIC Mutation Tracking file, once it has been downloaded.
+	 * @param COSMICMutantExportFile Completes with the path to the COMSIC Mutant Export file, once it has been downloaded.
+	 * @throws IOException If a file can't be read, or could not be downloaded.
+	 */
+	static void validateIdentifiersAgainstFiles(Map<String, List<COSMICIdentifierUpdater>> updaters, CompletableFuture<String> COSMICFusionExportFile,
+		CompletableFuture<String> COSMICMutationTrackingFile, CompletableFuture<String> COSMICMutantExportFile) throws IOException
 	{
-		logger.info("Now checking with CosmicMutantExport.tsv...");
-		try(CSVParser parser = new CSVParser(new FileReader(COSMICMutantExportFile), CSVFormat.DEFAULT.withFirstRecordAsHeader().withDelimiter('\t')); )
+		// The three files are independent of each other, so they are scanned at the same time. Each scan only reads the updaters map
+		// and collects its own result; the results are then merged into the updaters in a fixed order (see mergeValidationResults).
+		ExecutorService execService = Executors.newFixedThreadPool(3);
+		try
 		{
-			parser.forEach(record -> {
-				String legacyID = record.get(COSMIC_LEGACY_MUTATION_ID);
-				String mutationID = record.get(COSMIC_MUTATION_ID);
-				String genomicID = record.get(COSMIC_GENOMIC_MUTATION_ID);
-				if (updaters.containsKey(legacyID))
+			// If there is an up-to-date binary index of a file, the identifiers are looked up in it instead of parsing the file.
+			CompletableFuture<Set<String>> fusionExportMatches = COSMICFusionExportFile.thenApplyAsync(file -> uncheckedIO(() -> {
+				try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(getValidationPhaseName(file)))
 				{
-					updaters.get(legacyID).forEach(updater -> {
-						updater.setValid(true); // only VALID if in MutantExport...
-						updater.getMutationIDs().add(mutationID);
-						updater.setCosvIdentifier(genomicID);
-					});
+					COSMICFileIndex fileIndex = getFileIndex(file, COSMICFileIndex.Kind.FUSIONS);
+					Set<String> matches = fileIndex != null ? findFusionMatches(fileIndex, updaters, phase)
+						: validateAgainstCosmicFusionExport(updaters, file);
+					phase.addMatches(matches.size());
+					return matches;
+				}
+			}), execService);
+			// Rows of the mutation files are looked up in a compact index of the identifiers, rather than in the updaters map.
+			COSMICIdentifierIndex identifierIndex = new COSMICIdentifierIndex(updaters.keySet());
+			// If the mutation files are merge-joined, the identifiers are sorted once, for both files.
+			COSMICSortedIdentifiers sortedIdentifiers = getSortedFilesDirectoryPath() != null ? new COSMICSortedIdentifiers(updaters.keySet()) : null;
+			CompletableFuture<COSMICMutationMatches> mutationTrackingMatches = COSMICMutationTrackingFile.thenApplyAsync(file -> uncheckedIO(() ->
+				findMutationMatches(updaters, identifierIndex, sortedIdentifiers, file, COSMICUpdateUtil::validateAgainstCosmicMutationTracking)),
+				execService);
+			CompletableFuture<COSMICMutationMatches> mutantExportMatches = COSMICMutantExportFile.thenApplyAsync(file -> uncheckedIO(() ->
+				findMutationMatches(updaters, identifierIndex, sortedIdentifiers, file, COSMICUpdateUtil::validateAgainstCosmicMutantExport)),
+				execService);
+
+			mergeValidationResults(updaters, getValidationResult(fusionExportMatches), getValidationResult(mutationTrackingMatches),
+				getValidationResult(mutantExportMatches));
+		}
+		finally
+		{
+			execService.shutdownNow();
+		}
+	}
+
+	/**
+	 * Private helper interface: one of the validations against a mutation file.
+	 */
+	@FunctionalInterface
+	private interface MutationFileValidation
+	{
+		COSMICMutationMatches validate(COSMICIdentifierIndex identifierIndex, String COSMICMutationFile) throws IOException;
+	}
 
+	/**
+	 * Finds the identifiers that are in a COSMIC mutation file: in its binary index if there is one, otherwise by merging a sorted copy
+	 * of it with the sorted identifiers if sorted files are being used, otherwise (or if the merge can't be done) by parsing it.
+	 * The time this takes is recorded in the validation phase of the file.
+	 * @param updaters The updaters, keyed by COSMIC identifier. This map is only read.
+	 * @param identifierIndex An index of the keys of the updaters map.
+	 * @param sortedIdentifiers The keys of the updaters map in order, or null if sorted files are not being used.
+	 * @param COSMICMutationFile The path to the file.
+	 * @param validation Parses the file.
+	 * @return The matches.
+	 * @throws IOException
+	 */
+	private static COSMICMutationMatches findMutationMatches(Map<String, List<COSMICIdentifierUpdater>> updaters,
+		COSMICIdentifierIndex identifierIndex, COSMICSortedIdentifiers sortedIdentifiers, String COSMICMutationFile, MutationFileValidation validation) throws IOException
+	{
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(getValidationPhaseName(COSMICMutationFile)))
+		{
+			COSMICFileIndex fileIndex = getFileIndex(COSMICMutationFile, COSMICFileIndex.Kind.MUTATIONS);
+			COSMICMutationMatches matches;
+			if (fileIndex != null)
+			{
+				matches = fileIndex.findMutationMatches(updaters.keySet());
+				// Each identifier is looked up in the index, instead of each row of the file being read.
+				phase.addRows(updaters.size());
+			}
+			else
+			{
+				matches = sortedIdentifiers != null ? mergeMutationMatches(sortedIdentifiers, COSMICMutationFile, phase) : null;
+				if (matches == null)
+				{
+					matches = validation.validate(identifierIndex, COSMICMutationFile);
 				}
-			});
+			}
+			phase.addMatches(matches.size());
+			return matches;
+		}
+	}
+
+	/**
+	 * Finds the identifiers that are in a COSMIC mutation file by merging a copy of the file that is sorted by legacy ID with the sorted
+	 * identifiers. The copy is made the first time it is needed for a COSMIC version (see <code>COSMICSortedMutationFile</code>).
+	 * @param sortedIdentifiers The keys of the updaters map in order.
+	 * @param COSMICMutationFile The path to the file.
+	 * @param phase The validation phase of the file.
+	 * @return The matching rows, or null if the rows turned out not to be in order, in which case the file must be parsed instead.
+	 * @throws IOException
+	 */
+	private static COSMICMutationMatches mergeMutationMatches(COSMICSortedIdentifiers sortedIdentifiers, String COSMICMutationFile,
+		COSMICUpdateMetrics.Phase phase) throws IOException
+	{
+		Path sortedFile = COSMICSortedMutationFile.getSortedFile(Paths.get(COSMICMutationFile), Paths.get(getSortedFilesDirectoryPath()),
+			getCosmicVersion());
+		logger.info("Merging {} identifiers with {}", sortedIdentifiers.size(), sortedFile);
+		long fileSize = Files.size(sortedFile);
+		try(COSMICScanProgress progress = new COSMICScanProgress(sortedFile.getFileName().toString(), fileSize, getProgressInterval());
+			COSMICFileScanner scanner = new COSMICFileScanner(getInputStream(sortedFile.toString(), progress), MUTATION_COLUMNS))
+		{
+			scanner.setProgress(progress);
+			COSMICMutationMatches matches = sortedIdentifiers.merge(scanner);
+			if (matches == null)
+			{
+				logger.warn("The rows of {} are not in order of legacy ID, so {} will be parsed instead", sortedFile, COSMICMutationFile);
+				return null;
+			}
+			progress.addMatches(matches.size());
+			phase.addBytes(fileSize);
+			phase.addRows(progress.getRows());
+			logger.info("{} identifiers were found in {}", matches.size(), sortedFile.getFileName());
+			return matches;
+		}
+	}
+
+	/**
+	 * @return The name of the metrics phase in which a COSMIC file is validated.
+	 */
+	static String getValidationPhaseName(String COSMICFile)
+	{
+		return COSMICUpdateMetrics.VALIDATION_PHASE_PREFIX + Paths.get(COSMICFile).getFileName();
+	}
+
+	/**
+	 * Merges the results of validating against the three COSMIC files into the updaters. The order is the same as when the files
+	 * were processed one after another: Fusion Export, then Mutation Tracking, then Mutant Export. So a COSV identifier from Mutant Export
+	 * replaces one from Mutation Tracking, and only Fusion Export and Mutant Export can make an identifier valid.
+	 * @param updaters The updaters, keyed by COSMIC identifier.
+	 * @param fusionExportMatches Keys of the updaters that were found in Fusion Export.
+	 * @param mutationTrackingMatches The matches from Mutation Tracking.
+	 * @param mutantExportMatches The matches from Mutant Export.
+	 */
+	static void mergeValidationResults(Map<String, List<COSMICIdentifierUpdater>> updaters, Set<String> fusionExportMatches,
+		COSMICMutationMatches mutationTrackingMatches, COSMICMutationMatches mutantExportMatches)
+	{
+		// COSF identifiers are valid if they are in the Fusion Export mapping.
+		fusionExportMatches.forEach(key -> updaters.get(key).forEach(updater -> updater.setValid(true)));
+		// It is not yet known if these identifiers will be valid as per COSMIC's data.
+		mutationTrackingMatches.applyTo(updaters, false);
+		// only VALID if in MutantExport...
+		mutantExportMatches.applyTo(updaters, true);
+	}
+
+	/**
+	 * Builds the binary indexes of the three COSMIC files (in parallel), unless they are already up to date.
+	 * The indexes are written to the index directory, which must have been set with <code>setIndexDirectoryPath</code>.
+	 * @param COSMICFusionExportFile The path to the COSMIC Fusion Export file.
+	 * @param COSMICMutationTrackingFile The path to the COSMIC Mutation Tracking file.
+	 * @param COSMICMutantExportFile The path to the COMSIC Mutant Export file.
+	 * @throws IOException
+	 */
+	static void buildFileIndexes(String COSMICFusionExportFile, String COSMICMutationTrackingFile, String COSMICMutantExportFile) throws IOException
+	{
+		ExecutorService execService = Executors.newFixedThreadPool(3);
+		try
+		{
+			List<Future<COSMICFileIndex>> fileIndexes = new ArrayList<>();
+			fileIndexes.add(execService.submit(() -> getFileIndex(COSMICFusionExportFile, COSMICFileIndex.Kind.FUSIONS)));
+			fileIndexes.add(execService.submit(() -> getFileIndex(COSMICMutationTrackingFile, COSMICFileIndex.Kind.MUTATIONS)));
+			fileIndexes.add(execService.submit(() -> getFileIndex(COSMICMutantExportFile, COSMICFileIndex.Kind.MUTATIONS)));
+			for (Future<COSMICFileIndex> fileIndex : fileIndexes)
+			{
+				getValidationResult(fileIndex);
+			}
+		}
+		finally
+		{
+			execService.shutdownNow();
 		}
 	}
 
-	private static void validateAgainstCosmicMutationTracking(Map<String, List<COSMICIdentifierUpdater>> updaters, String COSMICMutationTrackingFile) throws IOException, FileNotFoundException
+	/**
+	 * Gets the binary index of a COSMIC file, building it if necessary.
+	 * @return The index, or null if indexes are not being used or the file can't be indexed.
+	 */
+	private static COSMICFileIndex getFileIndex(String COSMICFile, COSMICFileIndex.Kind kind) throws IOException
+	{
+		String indexDirectory = getIndexDirectoryPath();
+		if (indexDirectory == null)
+		{
+			return null;
+		}
+		return COSMICFileIndex.openOrBuild(Paths.get(COSMICFile), Paths.get(indexDirectory), getCosmicVersion(), kind);
+	}
+
+	/**
+	 * Private helper interface: an action that can throw an IOException.
+	 */
+	@FunctionalInterface
+	private interface IOAction<T>
+	{
+		T run() throws IOException;
+	}
+
+	/**
+	 * Runs an action in a context that can't throw checked exceptions (such as a stage of a CompletableFuture).
+	 * An IOException is rethrown as an UncheckedIOException, which <code>getValidationResult</code> unwraps again.
+	 */
+	private static <T> T uncheckedIO(IOAction<T> action)
+	{
+		try
+		{
+			return action.run();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static <T> T getValidationResult(Future<T> validation) throws IOException
+	{
+		try
+		{
+			return validation.get();
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+			{
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof UncheckedIOException)
+			{
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			}
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while validating against the COSMIC files", e);
+		}
+	}
+
+	/**
+	 * Finds the identifiers that are in the COSMIC Mutant Export file.
+	 * @param identifierIndex An index of the keys of the updaters map.
+	 * @param COSMICMutantExportFile The path to the COMSIC Mutant Export file.
+	 * @return The matching rows of Mutant Export.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static COSMICMutationMatches validateAgainstCosmicMutantExport(COSMICIdentifierIndex identifierIndex, String COSMICMutantExportFile) throws IOException, FileNotFoundException
+	{
+		logger.info("Now checking with CosmicMutantExport.tsv...");
+		COSMICMutationMatches matches = findMutationMatches(identifierIndex, COSMICMutantExportFile);
+		logger.info("{} identifiers were found in CosmicMutantExport.tsv", matches.size());
+		return matches;
+	}
+
+	/**
+	 * Finds the identifiers that are in the COSMIC Mutation Tracking file.
+	 * @param identifierIndex An index of the keys of the updaters map.
+	 * @param COSMICMutationTrackingFile The path to the COSMIC Mutation Tracking file.
+	 * @return The matching rows of Mutation Tracking.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static COSMICMutationMatches validateAgainstCosmicMutationTracking(COSMICIdentifierIndex identifierIndex, String COSMICMutationTrackingFile) throws IOException, FileNotFoundException
 	{
 		logger.info("Now checking with CosmicMutationTracking.tsv...");
 		// Now we need to look through the HUGE file from COSMIC and see if we can map the identifiers...
-		try(CSVParser parser = new CSVParser(new FileReader(COSMICMutationTrackingFile), CSVFormat.DEFAULT.withFirstRecordAsHeader().withDelimiter('\t'));)
+		COSMICMutationMatches matches = findMutationMatches(identifierIndex, COSMICMutationTrackingFile);
+		logger.info("{} identifiers were found in CosmicMutationTracking.tsv", matches.size());
+		return matches;
+	}
+
+	/**
+	 * Finds the rows of a COSMIC mutation file (Mutant Export or Mutation Tracking) whose legacy ID is in <code>identifierIndex</code>.
+	 * Uncompressed files that are large enough are scanned in parallel chunks; gzipped files can only be read sequentially.
+	 * @param identifierIndex An index of the keys of the updaters map.
+	 * @param COSMICMutationFile The path to the file.
+	 * @return The matching rows.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	private static COSMICMutationMatches findMutationMatches(COSMICIdentifierIndex identifierIndex, String COSMICMutationFile) throws IOException, FileNotFoundException
+	{
+		COSMICUpdateMetrics.Phase phase = getMetrics().getPhase(getValidationPhaseName(COSMICMutationFile));
+		long fileSize = Files.size(Paths.get(COSMICMutationFile));
+		phase.addBytes(fileSize);
+		try(COSMICScanProgress progress = new COSMICScanProgress(Paths.get(COSMICMutationFile).getFileName().toString(), fileSize, getProgressInterval()))
 		{
-			parser.forEach(record -> {
-				String legacyID = record.get(COSMIC_LEGACY_MUTATION_ID);
-				String mutationID = record.get(COSMIC_MUTATION_ID);
-				String genomicID = record.get(COSMIC_GENOMIC_MUTATION_ID);
-				if (updaters.containsKey(legacyID))
+			COSMICFileChunkScanner.ChunkRowHandler<COSMICMutationMatches> handler = (matches, row) -> {
+				// The legacy ID is looked up straight from the bytes of the row; the other fields are only decoded for the rows that match.
+				String legacyID = identifierIndex.find(row.getBuffer(), row.getStart(LEGACY_MUTATION_ID_FIELD), row.getEnd(LEGACY_MUTATION_ID_FIELD));
+				if (legacyID != null)
 				{
-					updaters.get(legacyID).forEach(updater -> {
-						// It is not yet known if this identifier will be valid as per COSMIC's data.
-						updater.getMutationIDs().add(mutationID);
-						updater.setCosvIdentifier(genomicID);
-					});
+					matches.add(legacyID, row.getString(MUTATION_ID_FIELD), row.getString(GENOMIC_MUTATION_ID_FIELD));
+					progress.addMatches(1);
 				}
-			
-			});
+			};
+
+			COSMICMutationMatches matches = new COSMICMutationMatches();
+			int parallelism = getParsingThreads();
+			if (parallelism > 1 && !COSMICMutationFile.endsWith(GZIP_EXTENSION) && fileSize > 2 * COSMICFileChunkScanner.MIN_CHUNK_SIZE)
+			{
+				List<COSMICMutationMatches> chunkMatches = COSMICFileChunkScanner.scan(Paths.get(COSMICMutationFile), getParsingPool(),
+					COSMICFileChunkScanner.MIN_CHUNK_SIZE, COSMICMutationMatches::new, handler, progress, MUTATION_COLUMNS);
+				// Merge in file order, so that the result is the same as reading the file sequentially.
+				chunkMatches.forEach(matches::addAll);
+			}
+			else
+			{
+				try(COSMICFileScanner scanner = new COSMICFileScanner(getInputStream(COSMICMutationFile, progress), MUTATION_COLUMNS))
+				{
+					scanner.setProgress(progress);
+					scanner.scan(row -> handler.handleRow(matches, row));
+				}
+			}
+			phase.addRows(progress.getRows());
+			return matches;
 		}
 	}
 
-	private static void validateAgainstCosmicFusionExport(Map<String, List<COSMICIdentifierUpdater>> updaters, String COSMICFusionExportFile) throws IOException, FileNotFoundException
+	/**
+	 * Finds the COSF identifiers that are in the COSMIC Fusion Export file.
+	 * The FUSION_ID of each row is parsed as a number straight from the bytes of the line, and looked up in a set of the fusion IDs.
+	 * The scan stops as soon as every fusion ID has been found, so a small set of identifiers may only need part of the file.
+	 * @param updaters The updaters, keyed by COSMIC identifier. This map is only read.
+	 * @param COSMICFusionExportFile The path to the COSMIC Fusion Export file.
+	 * @return The keys of <code>updaters</code> that were found in Fusion Export.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static Set<String> validateAgainstCosmicFusionExport(Map<String, List<COSMICIdentifierUpdater>> updaters, String COSMICFusionExportFile) throws IOException, FileNotFoundException
 	{
-		Set<String> fusionIDs = updaters.keySet().parallelStream().filter(id -> id.toUpperCase().startsWith(COSMIC_FUSION_PREFIX)).map(id -> id.toUpperCase().replace(COSMIC_FUSION_PREFIX,"") ).collect(Collectors.toSet());
+		COSMICFusionIDSet fusionIDs = new COSMICFusionIDSet(updaters.keySet());
 		logger.info("Now checking with CosmicFusionExport.tsv...");
-		try(CSVParser parser = new CSVParser(new FileReader(COSMICFusionExportFile), CSVFormat.DEFAULT.withFirstRecordAsHeader().withDelimiter('\t')); )
+		COSMICUpdateMetrics.Phase phase = getMetrics().getPhase(getValidationPhaseName(COSMICFusionExportFile));
+		long fileSize = Files.size(Paths.get(COSMICFusionExportFile));
+		phase.addBytes(fileSize);
+		String fileName = Paths.get(COSMICFusionExportFile).getFileName().toString();
+		try(COSMICScanProgress progress = new COSMICScanProgress(fileName, fileSize, getProgressInterval());
+			COSMICFileScanner scanner = new COSMICFileScanner(getInputStream(COSMICFusionExportFile, progress), COSMIC_FUSION_ID))
 		{
-			parser.forEach( record -> {
-				String fusionID = record.get(COSMIC_FUSION_ID);
-				if (fusionIDs.contains(fusionID))
+			scanner.setProgress(progress);
+			if (fusionIDs.allSeen())
+			{
+				// There are no COSF identifiers to look for.
+				scanner.stop();
+			}
+			long rowCount = scanner.scan(row -> {
+				if (fusionIDs.markSeen(row.getBuffer(), row.getStart(0), row.getEnd(0)))
 				{
-					// COSF identifiers are valid if they are in the Fusion Export mapping.
-					updaters.get(COSMIC_FUSION_PREFIX+fusionID).forEach(updater -> updater.setValid(true));
+					progress.addMatches(1);
+					if (fusionIDs.allSeen())
+					{
+						scanner.stop();
+					}
 				}
 			});
+			phase.addRows(rowCount);
+			if (fusionIDs.allSeen() && fusionIDs.size() > 0)
+			{
+				logger.info("All {} fusion IDs were found after {} rows of CosmicFusionExport.tsv", fusionIDs.size(), rowCount);
+			}
+		}
+		Set<String> matches = fusionIDs.getSeenKeys();
+		logger.info("{} identifiers were found in CosmicFusionExport.tsv", matches.size());
+		return matches;
+	}
+
+	/**
+	 * Finds the COSF identifiers that are in the binary index of the COSMIC Fusion Export file.
+	 * @param fileIndex The index of Fusion Export.
+	 * @param updaters The updaters, keyed by COSMIC identifier. This map is only read.
+	 * @param phase The metrics phase of the validation against Fusion Export.
+	 * @return The keys of <code>updaters</code> that were found in Fusion Export.
+	 */
+	private static Set<String> findFusionMatches(COSMICFileIndex fileIndex, Map<String, List<COSMICIdentifierUpdater>> updaters,
+		COSMICUpdateMetrics.Phase phase)
+	{
+		Set<String> fusionIDs = getFusionIDs(updaters);
+		// Each fusion ID is looked up in the index, instead of each row of the file being read.
+		phase.addRows(fusionIDs.size());
+		Set<String> matches = fileIndex.findFusionIDs(fusionIDs).stream()
+			.map(fusionID -> COSMIC_FUSION_PREFIX + fusionID)
+			.collect(Collectors.toSet());
+		logger.info("{} identifiers were found in the index of CosmicFusionExport.tsv", matches.size());
+		return matches;
+	}
+
+	/**
+	 * @return The fusion IDs (without the COSF prefix) of the COSF identifiers in the updaters map.
+	 */
+	private static Set<String> getFusionIDs(Map<String, List<COSMICIdentifierUpdater>> updaters)
+	{
+		return updaters.keySet().parallelStream().filter(id -> id.toUpperCase().startsWith(COSMIC_FUSION_PREFIX)).map(COSMICFusionIDSet::getFusionID).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Opens a COSMIC file for reading. If the path ends with ".gz", the file is decompressed as it is read,
+	 * so the uncompressed data never needs to be written to disk.
+	 * @param COSMICFile The path to the COSMIC file, which may be gzipped.
+	 * @return A Reader for the (uncompressed) contents of the file.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static Reader getFileReader(String COSMICFile) throws IOException, FileNotFoundException
+	{
+		return new InputStreamReader(getInputStream(COSMICFile));
+	}
+
+	/**
+	 * Gets the file that identifies the contents of a COSMIC file from one run to the next: its gzipped archive, if it was unzipped from one.
+	 * An unzipped file is written again by every run that unzips it (and deleted afterwards), so its modification time never matches
+	 * that of an earlier run.
+	 * @param COSMICFile The path to the COSMIC file, which may be gzipped.
+	 * @return The archive of the file, if it is unzipped and the archive exists; otherwise the file itself.
+	 */
+	static Path getArchivePath(Path COSMICFile)
+	{
+		if (COSMICFile.getFileName().toString().endsWith(GZIP_EXTENSION))
+		{
+			return COSMICFile;
+		}
+		Path archive = COSMICFile.resolveSibling(COSMICFile.getFileName() + GZIP_EXTENSION);
+		return Files.exists(archive) ? archive : COSMICFile;
+	}
+
+	/**
+	 * Opens a COSMIC file for reading as a stream of bytes. If the path ends with ".gz", the file is decompressed as it is read.
+	 * @param COSMICFile The path to the COSMIC file, which may be gzipped.
+	 * @return An InputStream of the (uncompressed) contents of the file.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static InputStream getInputStream(String COSMICFile) throws IOException, FileNotFoundException
+	{
+		return getInputStream(COSMICFile, null);
+	}
+
+	/**
+	 * Opens a COSMIC file for reading as a stream of bytes, counting the bytes read from the file
+	 * (before they are decompressed) in <code>progress</code>.
+	 * @param COSMICFile The path to the COSMIC file, which may be gzipped.
+	 * @param progress The progress of the scan of the file, or null.
+	 * @return An InputStream of the (uncompressed) contents of the file.
+	 * @throws IOException
+	 * @throws FileNotFoundException
+	 */
+	static InputStream getInputStream(String COSMICFile, COSMICScanProgress progress) throws IOException, FileNotFoundException
+	{
+		InputStream fileStream = progress != null ? progress.track(new FileInputStream(COSMICFile)) : new FileInputStream(COSMICFile);
+		if (COSMICFile.endsWith(GZIP_EXTENSION))
+		{
+			InputStream inflater = new GZIPInputStream(fileStream, GZIP_BUFFER_SIZE);
+			// Inflating is usually slower than parsing, so when pipelining, the file is inflated on a thread of its own.
+			return isInflatingAhead() ? new ReadAheadInputStream(inflater, "inflate-" + Paths.get(COSMICFile).getFileName()) : inflater;
 		}
+		return fileStream;
 	}
 
 	/**
@@ -159,77 +617,335 @@ public class COSMICUpdateUtil
 	 */
 	static Map<String, List<COSMICIdentifierUpdater>> determinePrefixes(Collection<GKInstance> cosmicObjects) throws InvalidAttributeException, Exception, IOException
 	{
-		Map<String, List<COSMICIdentifierUpdater>> updates = new HashMap<>();
+		return determinePrefixes(cosmicObjects, null);
+	}
+
+	/**
+	 * Determines the prefixes for COSMIC identifiers, like <code>determinePrefixes(Collection)</code>, for objects whose identifiers are
+	 * already known (from <code>getNonCOSVIdentifiers</code>), so that the identifier attributes of the objects are not loaded.
+	 * @param cosmicObjects Objects that are identified by a COSMIC identifier.
+	 * @param identifiers The identifiers of the objects, keyed by DB_ID, or null to read them from the objects.
+	 * @return A map of <code>COSMICIdentifierUpdater</code>, keyed by COSMIC identifier.
+	 * @throws Exception
+	 */
+	static Map<String, List<COSMICIdentifierUpdater>> determinePrefixes(Collection<GKInstance> cosmicObjects, Map<Long, String> identifiers)
+		throws Exception
+	{
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(COSMICUpdateMetrics.DETERMINE_PREFIXES_PHASE))
+		{
+			phase.addRows(cosmicObjects.size());
+			return determineAllPrefixes(cosmicObjects, identifiers, null, phase);
+		}
+	}
+
+	/**
+	 * Determines the prefixes for COSMIC identifiers, like <code>determinePrefixes(Collection, Map)</code>, on several threads.
+	 * The objects are split into batches of <code>LOAD_BATCH_SIZE</code>, and each worker loads the attributes of a batch (as
+	 * <code>loadPrefixAttributes</code> does) with its own adaptor from <code>adaptorPool</code>, then determines the prefixes of the batch.
+	 * The updaters and the report rows are the same as those of <code>determinePrefixes</code>, whatever the number of workers.
+	 * @param adaptorPool The pool to borrow adaptors from. There is one worker for each adaptor the pool can hold.
+	 * @param cosmicObjects Objects that are identified by a COSMIC identifier.
+	 * @param identifiers The identifiers of the objects, keyed by DB_ID, or null to read them from the objects.
+	 * @return A map of <code>COSMICIdentifierUpdater</code>, keyed by COSMIC identifier.
+	 * @throws Exception
+	 */
+	static Map<String, List<COSMICIdentifierUpdater>> determinePrefixes(MySQLAdaptorPool adaptorPool, Collection<GKInstance> cosmicObjects,
+		Map<Long, String> identifiers) throws Exception
+	{
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(COSMICUpdateMetrics.DETERMINE_PREFIXES_PHASE))
+		{
+			phase.addRows(cosmicObjects.size());
+			return determineAllPrefixes(cosmicObjects, identifiers, adaptorPool, phase);
+		}
+	}
+
+	/**
+	 * Determines the prefix of one COSMIC object.
+	 */
+	private interface PrefixDeterminer
+	{
+		void determinePrefix(GKInstance cosmicObject) throws Exception;
+	}
+
+	/**
+	 * Does the work of <code>determinePrefixes</code>.
+	 * @param adaptorPool The adaptors of the workers, or null to determine the prefixes on this thread.
+	 */
+	private static Map<String, List<COSMICIdentifierUpdater>> determineAllPrefixes(Collection<GKInstance> cosmicObjects, Map<Long, String> identifiers,
+		MySQLAdaptorPool adaptorPool, COSMICUpdateMetrics.Phase phase) throws Exception
+	{
+		// The workers add their updaters to the same map.
+		Map<String, List<COSMICIdentifierUpdater>> updates = adaptorPool != null ? new ConcurrentHashMap<>() : new HashMap<>();
+		// The updaters are views of one store, so that there aren't several objects per identifier.
+		COSMICIdentifierStore store = new COSMICIdentifierStore();
+		// Many identifiers are cross-referenced by the same EWASes, so each EWAS is only checked once.
+		COSMICFusionVerdictCache verdictCache = getFusionVerdictCache() != null ? getFusionVerdictCache() : new COSMICFusionVerdictCache();
 		// Create the reports directory if it's missing.
 		Files.createDirectories(Paths.get(COSMICUpdateUtil.reportsDirectoryPath));
 		
-		try(CSVPrinter nonEWASPrinter = new CSVPrinter(new FileWriter(COSMICUpdateUtil.reportsDirectoryPath + File.separator + "nonEWASObjectsWithCOSMICIdentifiers_"+dateSuffix+".csv"), CSVFormat.DEFAULT.withHeader("COSMIC identifier", "non-EWAS entity"));
-			CSVPrinter identifiersWithNoReferrerPrinter = new CSVPrinter(new FileWriter(COSMICUpdateUtil.reportsDirectoryPath  + File.separator + "COSMICIdentifiersNoReferrers_"+dateSuffix+".csv"), CSVFormat.DEFAULT.withHeader("COSMIC identifier")))
+		Path reportsDirectory = Paths.get(COSMICUpdateUtil.reportsDirectoryPath);
+		// The rows of these reports are sorted, so that they don't depend on the order that the objects were processed in.
+		try(COSMICReportSink nonEWASPrinter = new COSMICSortedReportSink(COSMICReportSink.open(reportsDirectory,
+				"nonEWASObjectsWithCOSMICIdentifiers_" + dateSuffix, getReportFormats(), false,
+				new COSMICReportSink.Column("COSMIC identifier", "identifier"), new COSMICReportSink.Column("non-EWAS entity", "nonEWASEntity")),
+				"nonEWASReportWriter");
+			COSMICReportSink identifiersWithNoReferrerPrinter = new COSMICSortedReportSink(COSMICReportSink.open(reportsDirectory,
+				"COSMICIdentifiersNoReferrers_" + dateSuffix, getReportFormats(), false, new COSMICReportSink.Column("COSMIC identifier", "identifier")),
+				"noReferrerReportWriter"))
 		{
-			for (GKInstance cosmicObject : cosmicObjects)
+			PrefixDeterminer determiner = cosmicObject -> determinePrefix(cosmicObject, identifiers, store, updates, verdictCache, nonEWASPrinter,
+				identifiersWithNoReferrerPrinter);
+			if (adaptorPool != null)
 			{
-				String identifier = (String)cosmicObject.getAttributeValue(ReactomeJavaConstants.identifier);
-				COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
-				updater.setIdentifier(identifier);
-				updater.setDbID(cosmicObject.getDBID());
-
-				@SuppressWarnings("unchecked")
-				Collection<GKInstance> EWASes = cosmicObject.getReferers(ReactomeJavaConstants.crossReference);
-				// If NO EWASes exist, then log this information.
-				if (EWASes == null || EWASes.isEmpty())
-				{
-					identifiersWithNoReferrerPrinter.printRecord(identifier);
-				}
-				else
+				determineInParallel(adaptorPool, new ArrayList<>(cosmicObjects), determiner, phase);
+			}
+			else
+			{
+				for (GKInstance cosmicObject : cosmicObjects)
 				{
-					// Check the EWASes for mismatches between referenceSequence identifier and main identifier.
-					// If there's a mismatch then suggest COSF, else suggest COSM.
-					checkEWASes(nonEWASPrinter, identifier, updater, EWASes);
+					determiner.determinePrefix(cosmicObject);
 				}
-				
-				// support function for populating list.
-				BiFunction<? super String, ? super List<COSMICIdentifierUpdater>, ? extends List<COSMICIdentifierUpdater>> listPopulator = (k,v) -> {
-					if (v == null)
+			}
+		}
+		// An identifier with several objects has one updater for each, in the order of their DB_IDs.
+		for (List<COSMICIdentifierUpdater> updaters : updates.values())
+		{
+			if (updaters.size() > 1)
+			{
+				updaters.sort(Comparator.comparingLong(COSMICIdentifierUpdater::getDbID));
+			}
+		}
+		logger.info("Checked {} EWASes for fusions; used {} known verdicts", verdictCache.getComputedVerdictCount(),
+			verdictCache.getCachedVerdictCount());
+		return updates;
+	}
+
+	/**
+	 * Runs <code>determiner</code> on batches of the objects on several threads, each with its own adaptor from <code>adaptorPool</code>.
+	 * Each batch is loaded by its worker's adaptor first.
+	 */
+	private static void determineInParallel(MySQLAdaptorPool adaptorPool, List<GKInstance> cosmicObjects, PrefixDeterminer determiner,
+		COSMICUpdateMetrics.Phase phase) throws Exception
+	{
+		int workerCount = adaptorPool.getMaxSize();
+		logger.info("Determining the prefixes of {} COSMIC objects with {} workers", cosmicObjects.size(), workerCount);
+		ExecutorService execService = Executors.newFixedThreadPool(workerCount);
+		try
+		{
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int start = 0; start < cosmicObjects.size(); start += LOAD_BATCH_SIZE)
+			{
+				List<GKInstance> batch = cosmicObjects.subList(start, Math.min(start + LOAD_BATCH_SIZE, cosmicObjects.size()));
+				results.add(execService.submit(() -> {
+					MySQLAdaptor workerAdaptor = adaptorPool.borrow();
+					try
 					{
-						List<COSMICIdentifierUpdater> updaters = new ArrayList<>();
-						updaters.add(updater);
-						return updaters;
+						int queryCount = loadAllPrefixAttributes(workerAdaptor, batch);
+						for (GKInstance cosmicObject : batch)
+						{
+							determiner.determinePrefix(cosmicObject);
+						}
+						return queryCount;
 					}
-					else
+					finally
 					{
-						v.add(updater);
-						return v;
+						adaptorPool.release(workerAdaptor);
 					}
-				};
-				
-				// If the identifier starts with C it's not a numeric identifier.
-				if (COSMICUpdateUtil.stringStartsWithC(identifier))
-				{
-					updates.compute(updater.getIdentifier(), listPopulator );
-					
-				}
-				else
-				{
+				}));
+			}
+			for (Future<Integer> result : results)
+			{
+				phase.addDbRoundTrips(result.get());
+			}
+		}
+		finally
+		{
+			execService.shutdown();
+		}
+	}
 
-					updates.compute(updater.getSuggestedPrefix() + updater.getIdentifier(), listPopulator );
-				}
+	/**
+	 * Determines the prefix of one COSMIC object, and adds its updater to <code>updates</code>. This can be called by several threads at once,
+	 * if <code>updates</code> is a concurrent map.
+	 */
+	private static void determinePrefix(GKInstance cosmicObject, Map<Long, String> identifiers, COSMICIdentifierStore store,
+		Map<String, List<COSMICIdentifierUpdater>> updates, COSMICFusionVerdictCache verdictCache, COSMICReportSink nonEWASPrinter,
+		COSMICReportSink identifiersWithNoReferrerPrinter) throws Exception
+	{
+		String identifier = identifiers != null ? identifiers.get(cosmicObject.getDBID())
+			: (String)cosmicObject.getAttributeValue(ReactomeJavaConstants.identifier);
+		COSMICIdentifierUpdater updater = store.add();
+		updater.setIdentifier(identifier);
+		updater.setDbID(cosmicObject.getDBID());
+
+		@SuppressWarnings("unchecked")
+		Collection<GKInstance> EWASes = cosmicObject.getReferers(ReactomeJavaConstants.crossReference);
+		// If NO EWASes exist, then log this information.
+		if (EWASes == null || EWASes.isEmpty())
+		{
+			identifiersWithNoReferrerPrinter.writeRow(identifier);
+		}
+		else
+		{
+			// Check the EWASes for mismatches between referenceSequence identifier and main identifier.
+			// If there's a mismatch then suggest COSF, else suggest COSM.
+			checkEWASes(nonEWASPrinter, identifier, updater, EWASes, verdictCache);
+		}
+		
+		// support function for populating list.
+		BiFunction<? super String, ? super List<COSMICIdentifierUpdater>, ? extends List<COSMICIdentifierUpdater>> listPopulator = (k,v) -> {
+			if (v == null)
+			{
+				// Almost every identifier has only one updater.
+				List<COSMICIdentifierUpdater> updaters = new ArrayList<>(1);
+				updaters.add(updater);
+				return updaters;
+			}
+			else
+			{
+				v.add(updater);
+				return v;
+			}
+		};
+		
+		updates.compute(getUpdaterKey(updater), listPopulator);
+	}
+
+	/**
+	 * Gets the key of an updater in the updaters map. If the identifier starts with C it's not a numeric identifier, and it is its own key;
+	 * a numeric identifier is keyed by the identifier with the suggested prefix (which is how it appears in the COSMIC files).
+	 * @param updater The updater. Its suggested prefix must have been determined.
+	 * @return The key.
+	 */
+	static String getUpdaterKey(COSMICIdentifierUpdater updater)
+	{
+		return stringStartsWithC(updater.getIdentifier()) ? updater.getIdentifier() : updater.getSuggestedPrefix() + updater.getIdentifier();
+	}
+
+	/**
+	 * Loads everything that <code>determinePrefixes</code> will look at, with a few set-based queries instead of one query per object:
+	 * the referrers (via crossReference) of the COSMIC objects, the referenceEntity and hasModifiedResidue of the EWASes among those referrers,
+	 * and the referenceSequence of the fragment modifications among those residues.
+	 * Calling this before <code>determinePrefixes</code> is optional, but without it every object is loaded lazily, one query at a time.
+	 * @param adaptor The adaptor that the COSMIC objects were fetched with.
+	 * @param cosmicObjects Objects that are identified by a COSMIC identifier.
+	 * @throws Exception
+	 */
+	static void loadPrefixAttributes(MySQLAdaptor adaptor, Collection<GKInstance> cosmicObjects) throws Exception
+	{
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(COSMICUpdateMetrics.LOAD_PREFIX_ATTRIBUTES_PHASE))
+		{
+			phase.addRows(cosmicObjects.size());
+			phase.addDbRoundTrips(loadAllPrefixAttributes(adaptor, cosmicObjects));
+		}
+	}
+
+	/**
+	 * Does the work of <code>loadPrefixAttributes</code>.
+	 * @return The number of queries.
+	 */
+	private static int loadAllPrefixAttributes(MySQLAdaptor adaptor, Collection<GKInstance> cosmicObjects) throws Exception
+	{
+		int queryCount = loadInBatches(cosmicObjects,
+			batch -> adaptor.loadInstanceReverseAttributeValues(batch, new String[] { ReactomeJavaConstants.crossReference }));
+
+		Set<GKInstance> EWASes = new HashSet<>();
+		for (GKInstance cosmicObject : cosmicObjects)
+		{
+			@SuppressWarnings("unchecked")
+			Collection<GKInstance> referrers = cosmicObject.getReferers(ReactomeJavaConstants.crossReference);
+			if (referrers != null)
+			{
+				referrers.stream().filter(COSMICUpdateUtil::isEWAS).forEach(EWASes::add);
 			}
 		}
-		return updates;
+		COSMICFusionVerdictCache verdictCache = getFusionVerdictCache();
+		if (verdictCache != null && verdictCache.isPersistent())
+		{
+			// The EWASes whose saved verdicts are still up to date are not checked again, so their attributes aren't needed.
+			Map<Long, Long> lastInstanceEdits = new HashMap<>();
+			queryCount += loadInBatches(EWASes, batch -> lastInstanceEdits.putAll(getLastEWASInstanceEdits(adaptor, batch)));
+			verdictCache.setLastInstanceEdits(lastInstanceEdits);
+			int EWASCount = EWASes.size();
+			EWASes.removeIf(verdictCache::hasVerdict);
+			logger.info("{} of {} EWASes have up-to-date fusion verdicts", EWASCount - EWASes.size(), EWASCount);
+		}
+		queryCount += loadInBatches(EWASes, batch -> adaptor.loadInstanceAttributeValues(batch,
+			new String[] { ReactomeJavaConstants.referenceEntity, ReactomeJavaConstants.hasModifiedResidue }));
+
+		Set<GKInstance> fragmentModifications = new HashSet<>();
+		for (GKInstance ewas : EWASes)
+		{
+			@SuppressWarnings("unchecked")
+			List<GKInstance> modResidues = (List<GKInstance>) ewas.getAttributeValuesList(ReactomeJavaConstants.hasModifiedResidue);
+			modResidues.stream().filter(COSMICUpdateUtil::isFragmentModification).forEach(fragmentModifications::add);
+		}
+		queryCount += loadInBatches(fragmentModifications,
+			batch -> adaptor.loadInstanceAttributeValues(batch, new String[] { ReactomeJavaConstants.referenceSequence }));
+		logger.info("Loaded attributes of {} EWASes and {} fragment modifications for {} COSMIC objects",
+			EWASes.size(), fragmentModifications.size(), cosmicObjects.size());
+		return queryCount;
+	}
+
+	/**
+	 * A bulk load of some instances (or of the instances with some DB_IDs).
+	 */
+	private interface BatchLoader<T>
+	{
+		void load(Collection<T> batch) throws Exception;
+	}
+
+	/**
+	 * Splits the instances into batches of <code>LOAD_BATCH_SIZE</code>, so that the queries don't get too large, and loads each batch.
+	 * @return The number of batches, which is the number of queries.
+	 */
+	private static <T> int loadInBatches(Collection<T> instances, BatchLoader<T> loader) throws Exception
+	{
+		int batchCount = 0;
+		List<T> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+		for (T instance : instances)
+		{
+			batch.add(instance);
+			if (batch.size() == LOAD_BATCH_SIZE)
+			{
+				loader.load(batch);
+				batchCount++;
+				batch = new ArrayList<>(LOAD_BATCH_SIZE);
+			}
+		}
+		if (!batch.isEmpty())
+		{
+			loader.load(batch);
+			batchCount++;
+		}
+		return batchCount;
+	}
+
+	private static boolean isEWAS(GKInstance instance)
+	{
+		return instance.getSchemClass().getName().equals(ReactomeJavaConstants.EntityWithAccessionedSequence);
+	}
+
+	private static boolean isFragmentModification(GKInstance modResidue)
+	{
+		return modResidue.getSchemClass().getName().contains(ReactomeJavaConstants.FragmentReplacedModification)
+			|| modResidue.getSchemClass().getName().contains(ReactomeJavaConstants.FragmentInsertionModification);
 	}
 
 	/**
 	 * Checks EWASes to see if they have modifiedResidues that have a referenceSequence that is NOT the same as the EWASes referenceEntity.
 	 * The suggested prefix will be set to COSF on the update record if mismatches are found, otherwise COSM will be set.
-	 * @param nonEWASPrinter CSVPrinter for reporting.
+	 * @param nonEWASPrinter Sink for reporting.
 	 * @param identifier Identifier of the object being checked, used for reporting.
 	 * @param updater A COSMICIdentifierUpdater whose suggested prefix will be updated.
 	 * @param EWASes The EWASes to check. If a non-EWAS is in this list, it will be reported.
+	 * @param verdictCache The EWASes that have already been checked.
 	 * @throws InvalidAttributeException
 	 * @throws Exception
 	 * @throws IOException
 	 */
-	private static void checkEWASes(CSVPrinter nonEWASPrinter, String identifier, COSMICIdentifierUpdater updater, Collection<GKInstance> EWASes) throws InvalidAttributeException, Exception, IOException
+	private static void checkEWASes(COSMICReportSink nonEWASPrinter, String identifier, COSMICIdentifierUpdater updater, Collection<GKInstance> EWASes,
+		COSMICFusionVerdictCache verdictCache) throws InvalidAttributeException, Exception, IOException
 	{
 		String prefix;
 		GKInstance[] EWASArray = EWASes.toArray(new GKInstance[0]);
@@ -239,14 +955,9 @@ public class COSMICUpdateUtil
 		{
 			boolean foundMismatchedRefSequence = false;
 			GKInstance ewas = EWASArray[i];
-			if (ewas.getSchemClass().getName().equals(ReactomeJavaConstants.EntityWithAccessionedSequence))
+			if (isEWAS(ewas))
 			{
-				GKInstance refSequence = (GKInstance) ewas.getAttributeValue(ReactomeJavaConstants.referenceEntity);
-				// get hasModifiedResidue
-				@SuppressWarnings("unchecked")
-				List<GKInstance> modResidues = (List<GKInstance>) ewas.getAttributeValuesList(ReactomeJavaConstants.hasModifiedResidue);
-				
-				foundMismatchedRefSequence = referenceSequenceMismatchesResidues(refSequence, modResidues);
+				foundMismatchedRefSequence = isFusion(ewas, verdictCache);
 				
 				// If there is any mismatch, then COSF.
 				prefix = foundMismatchedRefSequence ? COSMIC_FUSION_PREFIX : COSMIC_LEGACY_PREFIX;
@@ -254,13 +965,37 @@ public class COSMICUpdateUtil
 			}
 			else
 			{
-				nonEWASPrinter.printRecord(identifier, ewas.toString());
+				nonEWASPrinter.writeRow(identifier, ewas.toString());
 			}
 			i++;
 			done = foundMismatchedRefSequence || i >= EWASArray.length;
 		}
 	}
 
+	/**
+	 * Checks whether an EWAS has a modifiedResidue whose referenceSequence is NOT the same as the EWAS's referenceEntity,
+	 * unless that is already known.
+	 * @param ewas The EWAS.
+	 * @param verdictCache The EWASes that have already been checked. The verdict for this EWAS is added to it.
+	 * @return TRUE if there is a mismatch.
+	 * @throws InvalidAttributeException
+	 * @throws Exception
+	 */
+	private static boolean isFusion(GKInstance ewas, COSMICFusionVerdictCache verdictCache) throws InvalidAttributeException, Exception
+	{
+		Boolean fusion = verdictCache.getVerdict(ewas);
+		if (fusion == null)
+		{
+			GKInstance refSequence = (GKInstance) ewas.getAttributeValue(ReactomeJavaConstants.referenceEntity);
+			// get hasModifiedResidue
+			@SuppressWarnings("unchecked")
+			List<GKInstance> modResidues = (List<GKInstance>) ewas.getAttributeValuesList(ReactomeJavaConstants.hasModifiedResidue);
+			fusion = referenceSequenceMismatchesResidues(refSequence, modResidues);
+			verdictCache.putVerdict(ewas, fusion);
+		}
+		return fusion;
+	}
+
 	/**
 	 * Checks modifiedResidues (only FragmentReplacedModification and FragmentInsertionModification are of interest) to see if they match
 	 * refSequence. 
@@ -277,8 +1012,7 @@ public class COSMICUpdateUtil
 		while (!foundMismatchedRefSequence && i < modResidues.size())
 		{
 			GKInstance modResidue = modResidues.get(i);
-			if (modResidue.getSchemClass().getName().contains(ReactomeJavaConstants.FragmentReplacedModification)
-				|| modResidue.getSchemClass().getName().contains(ReactomeJavaConstants.FragmentInsertionModification))
+			if (isFragmentModification(modResidue))
 			{
 				GKInstance residueRefSequence = (GKInstance) modResidue.getAttributeValue(ReactomeJavaConstants.referenceSequence);
 				foundMismatchedRefSequence = !residueRefSequence.getDBID().equals(refSequence.getDBID());
@@ -289,22 +1023,101 @@ public class COSMICUpdateUtil
 	}
 
 	/**
-	 * Gets COSMIC identifiers from the database.
-	 * Queries the database for a ReferenceDatabase named "COSMIC" and then gets all DatabaseIdentifier objects
-	 * that refer to the COSMIC ReferenceDatabase via the referenceDatabase attribute.
-	 * This method will terminate the execution of the program if more than 1 "COSMIC" ReferenceDatabase is found.
-	 * If you plan to add more "COSMIC" ReferenceDatabase objects, this code will need to be changed to use the <em>correct</em> "COSMIC"
-	 * ReferenceDatabase.
+	 * Gets the COSMIC identifier objects with some DB_IDs from the database.
+	 * Only the objects in <code>dbIDs</code> are created (with one <code>DB_ID IN (...)</code> query for each <code>LOAD_BATCH_SIZE</code> of them),
+	 * and their attributes are not loaded: their identifiers are already known, and everything else is loaded by loadPrefixAttributes
+	 * (or, for the objects that are updated, when they are written).
 	 * @param adaptor
+	 * @param dbIDs The DB_IDs of the identifiers, from <code>getNonCOSVIdentifiers</code>.
 	 * @return A Collection of DatabaseIdentifier objects.
 	 * @throws SQLException
 	 * @throws Exception
 	 * @throws InvalidAttributeException
 	 */
-	static Collection<GKInstance> getCOSMICIdentifiers(MySQLAdaptor adaptor) throws SQLException, Exception, InvalidAttributeException
+	static Collection<GKInstance> getCOSMICIdentifiers(MySQLAdaptor adaptor, Set<Long> dbIDs) throws SQLException, Exception, InvalidAttributeException
+	{
+		List<GKInstance> cosmicObjects = new ArrayList<>(dbIDs.size());
+		int queryCount = fetchDatabaseIdentifiers(adaptor, dbIDs, cosmicObjects);
+		getMetrics().getPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE).addDbRoundTrips(queryCount);
+		return cosmicObjects;
+	}
+
+	/**
+	 * Fetches the DatabaseIdentifiers with some DB_IDs, without loading their attributes.
+	 * @param adaptor
+	 * @param dbIDs The DB_IDs. DB_IDs of objects that don't exist (or aren't DatabaseIdentifiers) are left out.
+	 * @param cosmicObjects The DatabaseIdentifiers are added to this list.
+	 * @return The number of queries.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private static int fetchDatabaseIdentifiers(MySQLAdaptor adaptor, Collection<Long> dbIDs, List<GKInstance> cosmicObjects) throws Exception
+	{
+		return loadInBatches(dbIDs, batch -> cosmicObjects.addAll(adaptor.fetchInstanceByAttribute(ReactomeJavaConstants.DatabaseIdentifier,
+			ReactomeJavaConstants.DB_ID, "=", batch)));
+	}
+
+	/**
+	 * Gets the DB_ID and identifier of every COSMIC identifier that is not a COSV identifier, with one query that only reads those two columns.
+	 * The COSV identifiers are filtered out by the query, and no DatabaseIdentifier objects are created or loaded.
+	 * @param adaptor
+	 * @return The identifiers, keyed by the DB_IDs of their DatabaseIdentifiers.
+	 * @throws Exception
+	 */
+	static Map<Long, String> getNonCOSVIdentifiers(MySQLAdaptor adaptor) throws Exception
+	{
+		GKInstance cosmicRefDB = getCOSMICReferenceDatabase(adaptor);
+		String query = "SELECT di.DB_ID, di.identifier"
+			+ " FROM DatabaseIdentifier di"
+			+ " WHERE di.referenceDatabase = ? AND UPPER(di.identifier) NOT LIKE ?";
+		Map<Long, String> identifiers = new HashMap<>();
+		try(PreparedStatement statement = adaptor.getConnection().prepareStatement(query))
+		{
+			statement.setLong(1, cosmicRefDB.getDBID());
+			statement.setString(2, COSMIC_GENOMIC_PREFIX + "%");
+			getMetrics().getPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE).addDbRoundTrips(1);
+			try(ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					identifiers.put(results.getLong(1), results.getString(2));
+				}
+			}
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Gets the identifiers of COSMIC identifier objects whose identifiers have already been loaded, leaving out the COSV identifiers.
+	 * @param cosmicObjects The COSMIC identifier objects.
+	 * @return The identifiers that are not COSV identifiers, keyed by the DB_IDs of their objects.
+	 * @throws Exception
+	 */
+	static Map<Long, String> getNonCOSVIdentifiers(Collection<GKInstance> cosmicObjects) throws Exception
+	{
+		Map<Long, String> identifiers = new HashMap<>();
+		for (GKInstance cosmicObject : cosmicObjects)
+		{
+			String identifier = (String) cosmicObject.getAttributeValue(ReactomeJavaConstants.identifier);
+			if (!identifier.toUpperCase().startsWith(COSMIC_GENOMIC_PREFIX))
+			{
+				identifiers.put(cosmicObject.getDBID(), identifier);
+			}
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Gets the "COSMIC" ReferenceDatabase. This method will terminate the execution of the program if more than 1 "COSMIC" ReferenceDatabase is found.
+	 * @param adaptor
+	 * @return The COSMIC ReferenceDatabase.
+	 * @throws Exception
+	 */
+	private static GKInstance getCOSMICReferenceDatabase(MySQLAdaptor adaptor) throws Exception
 	{
 		@SuppressWarnings("unchecked")
 		Collection<GKInstance> refDBs = adaptor.fetchInstanceByAttribute(ReactomeJavaConstants.ReferenceDatabase, ReactomeJavaConstants.name, " = ", "COSMIC");
+		getMetrics().getPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE).addDbRoundTrips(1);
 		GKInstance cosmicRefDB = null;
 		if (refDBs.size() == 1)
 		{
@@ -315,13 +1128,148 @@ public class COSMICUpdateUtil
 			logger.fatal("Wrong number of \"COSMIC\" refDBs: {} ; only 1 was expected. Cannot proceed.", refDBs.size());
 			System.exit(1);
 		}
-		
-		@SuppressWarnings("unchecked")
-		Collection<GKInstance> cosmicObjects = adaptor.fetchInstanceByAttribute(ReactomeJavaConstants.DatabaseIdentifier, ReactomeJavaConstants.referenceDatabase, " = ", cosmicRefDB.getAttributeValue(ReactomeJavaConstants.DB_ID));
-		
-		return cosmicObjects;
+		return cosmicRefDB;
 	}
-	
+
+	/**
+	 * Gets the last InstanceEdit of every COSMIC identifier in the database, and is used to find the identifiers that have changed since an
+	 * earlier run. The prefix of an identifier depends on the EWASes that refer to it (and their modified residues), so the last InstanceEdit
+	 * of an identifier is the last one that created or modified the identifier, any of those EWASes, or any of their modified residues.
+	 * This is a single query, which doesn't create any instances. An EWAS that no longer refers to an identifier doesn't show up in it,
+	 * so the EWASes that refer to each identifier are returned too, to be compared with those of the earlier run.
+	 * @param adaptor
+	 * @param ignoredInstanceEdits InstanceEdits to ignore (those created by the COSMIC update itself).
+	 * @param referrers The DB_IDs of the EWASes that refer to each COSMIC identifier, keyed by the DB_ID of the identifier, are put here.
+	 * @return The DB_ID of the last InstanceEdit of each COSMIC identifier, keyed by the DB_ID of the identifier.
+	 * @throws Exception
+	 */
+	static Map<Long, Long> getLastInstanceEdits(MySQLAdaptor adaptor, Collection<Long> ignoredInstanceEdits, Map<Long, Set<Long>> referrers)
+		throws Exception
+	{
+		GKInstance cosmicRefDB = getCOSMICReferenceDatabase(adaptor);
+		String ignoredInstanceEditsCondition = ignoredInstanceEdits.isEmpty() ? ""
+			: " AND m.modified NOT IN (" + ignoredInstanceEdits.stream().map(id -> "?").collect(Collectors.joining(",")) + ")";
+		// Each row is the last InstanceEdit of one object: the identifier itself, an EWAS that refers to it, or a residue of that EWAS.
+		String query = "SELECT di.DB_ID, NULL, o.created, MAX(m.modified)"
+			+ " FROM DatabaseIdentifier di"
+			+ " JOIN DatabaseObject o ON o.DB_ID = di.DB_ID"
+			+ " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = o.DB_ID" + ignoredInstanceEditsCondition
+			+ " WHERE di.referenceDatabase = ?"
+			+ " GROUP BY di.DB_ID, o.created"
+			+ " UNION ALL"
+			+ " SELECT di.DB_ID, e.DB_ID, e.created, MAX(m.modified)"
+			+ " FROM DatabaseIdentifier di"
+			+ " JOIN " + CROSS_REFERENCE_TABLE + " x ON x.crossReference = di.DB_ID"
+			+ " JOIN DatabaseObject e ON e.DB_ID = x.DB_ID AND e._class = ?"
+			+ " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = e.DB_ID"
+			+ " WHERE di.referenceDatabase = ?"
+			+ " GROUP BY di.DB_ID, e.DB_ID, e.created"
+			+ " UNION ALL"
+			+ " SELECT di.DB_ID, h.DB_ID, r.created, MAX(m.modified)"
+			+ " FROM DatabaseIdentifier di"
+			+ " JOIN " + CROSS_REFERENCE_TABLE + " x ON x.crossReference = di.DB_ID"
+			+ " JOIN " + MODIFIED_RESIDUE_TABLE + " h ON h.DB_ID = x.DB_ID"
+			+ " JOIN DatabaseObject r ON r.DB_ID = h.hasModifiedResidue"
+			+ " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = r.DB_ID"
+			+ " WHERE di.referenceDatabase = ?"
+			+ " GROUP BY di.DB_ID, h.DB_ID, r.DB_ID, r.created";
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		try(PreparedStatement statement = adaptor.getConnection().prepareStatement(query))
+		{
+			int parameterIndex = 1;
+			for (Long instanceEdit : ignoredInstanceEdits)
+			{
+				statement.setLong(parameterIndex++, instanceEdit);
+			}
+			statement.setLong(parameterIndex++, cosmicRefDB.getDBID());
+			statement.setString(parameterIndex++, ReactomeJavaConstants.EntityWithAccessionedSequence);
+			statement.setLong(parameterIndex++, cosmicRefDB.getDBID());
+			statement.setLong(parameterIndex, cosmicRefDB.getDBID());
+			getMetrics().getPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE).addDbRoundTrips(1);
+			try(ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					long dbID = results.getLong(1);
+					long referrer = results.getLong(2);
+					if (!results.wasNull())
+					{
+						referrers.computeIfAbsent(dbID, k -> new HashSet<>()).add(referrer);
+					}
+					// getLong returns 0 for NULL, which is less than any real DB_ID.
+					lastInstanceEdits.merge(dbID, Math.max(results.getLong(3), results.getLong(4)), Math::max);
+				}
+			}
+		}
+		return lastInstanceEdits;
+	}
+
+	/**
+	 * Gets the last InstanceEdit of some EWASes, which is used to tell whether their fusion verdicts are still up to date. A verdict depends on
+	 * the EWAS and on its modified residues (a residue's referenceSequence can be edited without an edit to the EWAS), so the last InstanceEdit
+	 * of an EWAS is the last one that created or modified the EWAS or any of its modified residues. This is a single query.
+	 * @param adaptor
+	 * @param EWASes The EWASes.
+	 * @return The DB_ID of the last InstanceEdit of each EWAS, keyed by the DB_ID of the EWAS.
+	 * @throws Exception
+	 */
+	static Map<Long, Long> getLastEWASInstanceEdits(MySQLAdaptor adaptor, Collection<GKInstance> EWASes) throws Exception
+	{
+		String placeholders = EWASes.stream().map(ewas -> "?").collect(Collectors.joining(","));
+		// Each row is the last InstanceEdit of one object: the EWAS itself, or one of its residues.
+		String query = "SELECT o.DB_ID, o.created, MAX(m.modified)"
+			+ " FROM DatabaseObject o"
+			+ " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = o.DB_ID"
+			+ " WHERE o.DB_ID IN (" + placeholders + ")"
+			+ " GROUP BY o.DB_ID, o.created"
+			+ " UNION ALL"
+			+ " SELECT h.DB_ID, r.created, MAX(m.modified)"
+			+ " FROM " + MODIFIED_RESIDUE_TABLE + " h"
+			+ " JOIN DatabaseObject r ON r.DB_ID = h.hasModifiedResidue"
+			+ " LEFT JOIN DatabaseObject_2_modified m ON m.DB_ID = r.DB_ID"
+			+ " WHERE h.DB_ID IN (" + placeholders + ")"
+			+ " GROUP BY h.DB_ID, r.DB_ID, r.created";
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		try(PreparedStatement statement = adaptor.getConnection().prepareStatement(query))
+		{
+			int parameterIndex = 1;
+			for (int i = 0; i < 2; i++)
+			{
+				for (GKInstance ewas : EWASes)
+				{
+					statement.setLong(parameterIndex++, ewas.getDBID());
+				}
+			}
+			try(ResultSet results = statement.executeQuery())
+			{
+				while (results.next())
+				{
+					// getLong returns 0 for NULL, which is less than any real DB_ID.
+					lastInstanceEdits.merge(results.getLong(1), Math.max(results.getLong(2), results.getLong(3)), Math::max);
+				}
+			}
+		}
+		return lastInstanceEdits;
+	}
+
+	/**
+	 * Fetches some of the COSMIC identifiers from the database, with their identifiers loaded.
+	 * The objects are fetched, and their identifiers loaded, with one query for each <code>LOAD_BATCH_SIZE</code> of them, so that a run
+	 * in which most identifiers have changed (such as the first incremental run) doesn't make a query for each one.
+	 * @param adaptor
+	 * @param dbIDs The DB_IDs of the DatabaseIdentifiers to fetch.
+	 * @return The DatabaseIdentifier objects.
+	 * @throws Exception
+	 */
+	static Collection<GKInstance> fetchCOSMICIdentifiers(MySQLAdaptor adaptor, Collection<Long> dbIDs) throws Exception
+	{
+		List<GKInstance> cosmicObjects = new ArrayList<>(dbIDs.size());
+		int queryCount = fetchDatabaseIdentifiers(adaptor, dbIDs, cosmicObjects);
+		queryCount += loadInBatches(cosmicObjects,
+			batch -> adaptor.loadInstanceAttributeValues(batch, new String[] { ReactomeJavaConstants.identifier }));
+		getMetrics().getPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE).addDbRoundTrips(queryCount);
+		return cosmicObjects;
+	}	
 	
 	/**
 	 * Produces a report on identifiers. Report indicates old/"legacy" identifiers, suggested prefixes, new identifiers suggested from COSMIC files,
@@ -333,31 +1281,44 @@ public class COSMICUpdateUtil
 	{
 		// Create the reports directory if it's missing.
 		Files.createDirectories(Paths.get(COSMICUpdateUtil.reportsDirectoryPath));
-		try(CSVPrinter printer = new CSVPrinter(new FileWriter(COSMICUpdateUtil.reportsDirectoryPath + "/COSMIC-identifiers-report_"+dateSuffix+".csv"), CSVFormat.DEFAULT.withHeader("DB_ID", "Identifier", "Suggested Prefix", "Valid (according to COSMIC files)?", "COSV identifier", "Mutation IDs", "COSMIC Search URL")))
+		Path reportsDirectory = Paths.get(COSMICUpdateUtil.reportsDirectoryPath);
+		String reportName = "COSMIC-identifiers-report_" + dateSuffix;
+		Set<COSMICReportSink.Format> formats = getReportFormats();
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(COSMICUpdateMetrics.REPORT_PHASE))
 		{
-			for (COSMICIdentifierUpdater record : updaters.values().parallelStream().flatMap(Collection::stream).sorted().collect(Collectors.toList()))
+			try(COSMICReportSink sink = COSMICReportSink.open(reportsDirectory, reportName, formats, isCompressingReport(),
+				COSMICIdentifierReportWriter.COLUMNS))
 			{
-				// Include a COSMIC Search URL for the identifier in the report, to make it easier for Curators to follow up on identifiers that might need attention.
-				String url;
-				String identifierForUrl = "";
-				if (COSMICUpdateUtil.stringStartsWithC(record.getIdentifier()))
-				{
-					identifierForUrl = record.getIdentifier();
-				}
-				else
-				{
-					if (record.getSuggestedPrefix() != null)
-					{
-						identifierForUrl = record.getSuggestedPrefix() + record.getIdentifier();
-					}
-					else
-					{
-						identifierForUrl = record.getIdentifier();
-					}
-				}
-				url = "https://cancer.sanger.ac.uk/cosmic/search?q=" + identifierForUrl;
-				printer.printRecord(record.getDbID(), record.getIdentifier(), record.getSuggestedPrefix(), record.isValid(), record.getCosvIdentifier(), record.getMutationIDs().toString(), url);
+				phase.addRows(COSMICIdentifierReportWriter.write(sink, updaters));
 			}
+			for (COSMICReportSink.Format format : formats)
+			{
+				Path reportPath = reportsDirectory.resolve(reportName + format.getExtension() + (isCompressingReport() ? GZIP_EXTENSION : ""));
+				phase.addBytes(Files.size(reportPath));
+				logger.info("The identifiers report was written to {}", reportPath);
+			}
+		}
+	}
+
+	/**
+	 * Produces a report of the changes since a previous run: the identifiers that were added or removed, that became valid or invalid,
+	 * or whose COSV identifier changed.
+	 * @param previousReportPath The previous run's identifiers report, as CSV. It may be gzipped.
+	 * @param updaters The map of identifier updaters.
+	 * @throws IOException
+	 */
+	public static void printIdentifierDiffReport(String previousReportPath, Map<String, List<COSMICIdentifierUpdater>> updaters) throws IOException
+	{
+		Path reportsDirectory = Paths.get(COSMICUpdateUtil.reportsDirectoryPath);
+		try(COSMICUpdateMetrics.Phase phase = getMetrics().startPhase(COSMICUpdateMetrics.DIFF_PHASE);
+			COSMICReportSink sink = COSMICReportSink.open(reportsDirectory, "COSMIC-identifiers-diff_" + dateSuffix, getReportFormats(),
+				isCompressingReport(), COSMICIdentifierReportDiff.COLUMNS))
+		{
+			phase.addBytes(Files.size(Paths.get(previousReportPath)));
+			Map<COSMICIdentifierReportDiff.Change, Long> changeCounts = COSMICIdentifierReportDiff.diff(Paths.get(previousReportPath), updaters, sink,
+				reportsDirectory, ExternalLineSorter.DEFAULT_MAX_LINES_IN_MEMORY);
+			phase.addMatches(changeCounts.values().stream().mapToLong(Long::longValue).sum());
+			logger.info("Changes since {}: {}", previousReportPath, changeCounts);
 		}
 	}
 
@@ -371,6 +1332,169 @@ public class COSMICUpdateUtil
 		COSMICUpdateUtil.reportsDirectoryPath = reportsDirectoryPath;
 	}
 	
+	public static synchronized int getParsingThreads()
+	{
+		return parsingThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to scan large, uncompressed COSMIC files. Use 1 to always scan files sequentially.
+	 * @param parsingThreads The number of threads. Default is the number of available processors.
+	 */
+	public static synchronized void setParsingThreads(int parsingThreads)
+	{
+		COSMICUpdateUtil.parsingThreads = parsingThreads;
+		if (parsingPool != null && parsingPool.getParallelism() != parsingThreads)
+		{
+			// Scans that are using the old pool finish their work first.
+			parsingPool.shutdown();
+			parsingPool = null;
+		}
+	}
+
+	/**
+	 * @return The pool of <code>parsingThreads</code> threads that every parallel scan of a file uses, so that scanning several files
+	 * at the same time doesn't use more threads than that.
+	 */
+	static synchronized ForkJoinPool getParsingPool()
+	{
+		if (parsingPool == null)
+		{
+			parsingPool = new ForkJoinPool(parsingThreads);
+		}
+		return parsingPool;
+	}
+
+	public static synchronized String getIndexDirectoryPath()
+	{
+		return indexDirectoryPath;
+	}
+
+	/**
+	 * Sets the directory for the binary indexes of the COSMIC files. When this is set, <code>validateIdentifiersAgainstFiles</code> looks up
+	 * identifiers in the indexes instead of parsing the files, and builds (or rebuilds) an index when a file has no up-to-date index.
+	 * @param indexDirectoryPath The directory, or null to always parse the files (the default).
+	 */
+	public static synchronized void setIndexDirectoryPath(String indexDirectoryPath)
+	{
+		COSMICUpdateUtil.indexDirectoryPath = indexDirectoryPath;
+	}
+
+	public static synchronized String getSortedFilesDirectoryPath()
+	{
+		return sortedFilesDirectoryPath;
+	}
+
+	/**
+	 * Sets the directory for the copies of the mutation files that are sorted by legacy ID. When this is set (and there is no binary index
+	 * of a file), <code>validateIdentifiersAgainstFiles</code> merges the sorted identifiers with a sorted copy of each mutation file,
+	 * and sorts a file into a copy when it has no up-to-date copy. A file whose rows are already in order is used as it is.
+	 * @param sortedFilesDirectoryPath The directory, or null to look up each row of the files in a hash table (the default).
+	 */
+	public static synchronized void setSortedFilesDirectoryPath(String sortedFilesDirectoryPath)
+	{
+		COSMICUpdateUtil.sortedFilesDirectoryPath = sortedFilesDirectoryPath;
+	}
+
+	public static synchronized String getCosmicVersion()
+	{
+		return cosmicVersion;
+	}
+
+	/**
+	 * Sets the COSMIC version of the files. It is recorded in the binary indexes, and an index of a different version is never used.
+	 * @param cosmicVersion The COSMIC version, such as "v96".
+	 */
+	public static synchronized void setCosmicVersion(String cosmicVersion)
+	{
+		COSMICUpdateUtil.cosmicVersion = cosmicVersion;
+	}
+
+	public static synchronized boolean isInflatingAhead()
+	{
+		return inflatingAhead;
+	}
+
+	/**
+	 * Sets whether gzipped COSMIC files are inflated on a background thread, ahead of the parser, so that inflating and parsing overlap.
+	 * @param inflatingAhead true to inflate in the background. Default is false.
+	 */
+	public static synchronized void setInflatingAhead(boolean inflatingAhead)
+	{
+		COSMICUpdateUtil.inflatingAhead = inflatingAhead;
+	}
+
+	static synchronized Set<COSMICReportSink.Format> getReportFormats()
+	{
+		return reportFormats;
+	}
+
+	/**
+	 * Sets the formats that the reports are written in. Each report is written in all of them in one pass.
+	 * @param reportFormats A comma-separated list of formats: "csv" and/or "jsonl". Default is "csv".
+	 */
+	public static synchronized void setReportFormats(String reportFormats)
+	{
+		COSMICUpdateUtil.reportFormats = COSMICReportSink.Format.parse(reportFormats);
+	}
+
+	public static synchronized boolean isCompressingReport()
+	{
+		return compressingReport;
+	}
+
+	/**
+	 * Sets whether the identifiers report is gzipped as it is written (to COSMIC-identifiers-report_*.csv.gz).
+	 * @param compressingReport true to gzip the report. Default is false.
+	 */
+	public static synchronized void setCompressingReport(boolean compressingReport)
+	{
+		COSMICUpdateUtil.compressingReport = compressingReport;
+	}
+
+	public static synchronized Duration getProgressInterval()
+	{
+		return progressInterval;
+	}
+
+	/**
+	 * Sets how often the progress of a scan of a COSMIC file (percent complete, rows/sec, MB/sec, matches and ETA) is logged.
+	 * @param progressInterval The interval. Default is 30 seconds.
+	 */
+	public static synchronized void setProgressInterval(Duration progressInterval)
+	{
+		COSMICUpdateUtil.progressInterval = progressInterval;
+	}
+
+	static synchronized COSMICFusionVerdictCache getFusionVerdictCache()
+	{
+		return fusionVerdictCache;
+	}
+
+	/**
+	 * Sets the fusion verdicts of EWASes that are kept between runs. <code>loadPrefixAttributes</code> finds which of them are still
+	 * up to date, and doesn't load the attributes of those EWASes.
+	 * @param fusionVerdictCache The verdicts, or null to check every EWAS in each run (the default).
+	 */
+	static synchronized void setFusionVerdictCache(COSMICFusionVerdictCache fusionVerdictCache)
+	{
+		COSMICUpdateUtil.fusionVerdictCache = fusionVerdictCache;
+	}
+
+	static synchronized COSMICUpdateMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics that the phases of the update are recorded in. Set new metrics at the start of each run.
+	 * @param metrics The metrics.
+	 */
+	static synchronized void setMetrics(COSMICUpdateMetrics metrics)
+	{
+		COSMICUpdateUtil.metrics = metrics;
+	}
+
 	public static boolean stringStartsWithC(String s)
 	{
 		return s.startsWith("C");
@@ -0,0 +1,267 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sorts lines of text that may not all fit in memory.
+ * <br/>
+ * Lines are read in runs of at most <code>maxLinesInMemory</code>. Each run is sorted in memory and, unless all the lines
+ * fit in one run, written to a gzipped temporary file. The sorted lines are then read back by merging the runs, so at most one run
+ * plus one line per run is held in memory. The sort is stable: lines that compare as equal keep the order they were read in.
+ */
+class ExternalLineSorter
+{
+	static final int DEFAULT_MAX_LINES_IN_MEMORY = 500_000;
+
+	private static final Logger logger = LogManager.getLogger();
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Comparator<String> comparator;
+	private final int maxLinesInMemory;
+	private final Path temporaryDirectory;
+
+	/**
+	 * @param comparator The order of the lines.
+	 * @param maxLinesInMemory The most lines that are sorted in memory at once.
+	 * @param temporaryDirectory Where the sorted runs are written.
+	 */
+	ExternalLineSorter(Comparator<String> comparator, int maxLinesInMemory, Path temporaryDirectory)
+	{
+		this.comparator = comparator;
+		this.maxLinesInMemory = maxLinesInMemory;
+		this.temporaryDirectory = temporaryDirectory;
+	}
+
+	/**
+	 * Sorts the lines of a reader. The reader is read to the end, but not closed.
+	 * @param reader The lines to sort.
+	 * @return The sorted lines. Close them to delete the temporary files.
+	 * @throws IOException
+	 */
+	SortedLines sort(BufferedReader reader) throws IOException
+	{
+		return sort(reader, UnaryOperator.identity());
+	}
+
+	/**
+	 * Sorts the lines of a reader, after replacing each line with the part of it that is needed (so that less is held in memory,
+	 * and written to the runs). The reader is read to the end, but not closed.
+	 * @param reader The lines to sort.
+	 * @param projection What is kept of each line. The comparator orders these.
+	 * @return The sorted lines, as they were projected. Close them to delete the temporary files.
+	 * @throws IOException
+	 */
+	SortedLines sort(BufferedReader reader, UnaryOperator<String> projection) throws IOException
+	{
+		List<Path> runFiles = new ArrayList<>();
+		List<String> run = new ArrayList<>();
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				run.add(projection.apply(line));
+				if (run.size() >= this.maxLinesInMemory)
+				{
+					runFiles.add(writeRun(run));
+					run.clear();
+				}
+			}
+			if (runFiles.isEmpty())
+			{
+				// Everything fitted in memory.
+				run.sort(this.comparator);
+				return new SortedLines(run.iterator(), runFiles);
+			}
+			if (!run.isEmpty())
+			{
+				runFiles.add(writeRun(run));
+			}
+			logger.debug("Merging {} sorted runs", runFiles.size());
+			return new SortedLines(new MergingIterator(runFiles), runFiles);
+		}
+		catch (IOException | RuntimeException e)
+		{
+			deleteAll(runFiles);
+			throw e;
+		}
+	}
+
+	private Path writeRun(List<String> run) throws IOException
+	{
+		run.sort(this.comparator);
+		Path runFile = Files.createTempFile(this.temporaryDirectory, "sort-run", ".txt" + COSMICUpdateUtil.GZIP_EXTENSION);
+		try(BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(runFile), BUFFER_SIZE),
+			StandardCharsets.UTF_8), BUFFER_SIZE))
+		{
+			for (String line : run)
+			{
+				writer.write(line);
+				writer.write('\n');
+			}
+		}
+		return runFile;
+	}
+
+	private static BufferedReader openRun(Path runFile) throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(runFile), BUFFER_SIZE), StandardCharsets.UTF_8),
+			BUFFER_SIZE);
+	}
+
+	private static void deleteAll(List<Path> files) throws IOException
+	{
+		for (Path file : files)
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+
+	/**
+	 * The sorted lines. Closing them deletes the temporary files of the sort.
+	 */
+	static class SortedLines implements Iterator<String>, Closeable
+	{
+		private final Iterator<String> lines;
+		private final List<Path> runFiles;
+
+		private SortedLines(Iterator<String> lines, List<Path> runFiles)
+		{
+			this.lines = lines;
+			this.runFiles = runFiles;
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return this.lines.hasNext();
+		}
+
+		@Override
+		public String next()
+		{
+			return this.lines.next();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			if (this.lines instanceof MergingIterator)
+			{
+				((MergingIterator) this.lines).close();
+			}
+			deleteAll(this.runFiles);
+		}
+	}
+
+	/**
+	 * The current line of one sorted run.
+	 */
+	private static class RunReader
+	{
+		private final BufferedReader reader;
+		// The position of the run, so that equal lines come out in the order they were read in.
+		private final int index;
+		private String line;
+
+		RunReader(BufferedReader reader, int index) throws IOException
+		{
+			this.reader = reader;
+			this.index = index;
+			this.line = reader.readLine();
+		}
+	}
+
+	/**
+	 * Merges the sorted runs.
+	 */
+	private class MergingIterator implements Iterator<String>, Closeable
+	{
+		private final List<RunReader> runReaders = new ArrayList<>();
+		private final PriorityQueue<RunReader> queue;
+
+		MergingIterator(List<Path> runFiles) throws IOException
+		{
+			this.queue = new PriorityQueue<>(runFiles.size(),
+				Comparator.<RunReader, String>comparing(runReader -> runReader.line, ExternalLineSorter.this.comparator)
+					.thenComparingInt(runReader -> runReader.index));
+			try
+			{
+				for (Path runFile : runFiles)
+				{
+					RunReader runReader = new RunReader(openRun(runFile), this.runReaders.size());
+					this.runReaders.add(runReader);
+					if (runReader.line != null)
+					{
+						this.queue.add(runReader);
+					}
+				}
+			}
+			catch (IOException e)
+			{
+				close();
+				throw e;
+			}
+		}
+
+		@Override
+		public boolean hasNext()
+		{
+			return !this.queue.isEmpty();
+		}
+
+		@Override
+		public String next()
+		{
+			RunReader runReader = this.queue.poll();
+			if (runReader == null)
+			{
+				throw new NoSuchElementException();
+			}
+			String line = runReader.line;
+			try
+			{
+				runReader.line = runReader.reader.readLine();
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+			if (runReader.line != null)
+			{
+				this.queue.add(runReader);
+			}
+			return line;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			for (RunReader runReader : this.runReaders)
+			{
+				runReader.reader.close();
+			}
+		}
+	}
+}
@@ -11,13 +11,23 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -47,6 +57,45 @@ public class Main extends ReleaseStep {
 			+ " Example: PT48H == \"48 hours\"")
 	private Duration fileAge;
 
+	@Parameter(names = {"-z"},
+		description = "Read the COSMIC files directly from their gzipped archives, instead of unzipping them to disk"
+			+ " before the update and removing the unzipped files afterwards.")
+	private boolean streamFromArchives;
+
+	@Parameter(names = {"-i"},
+		description = "Validate against binary indexes of the gzipped COSMIC files (in indexDirectory) instead of parsing the files."
+			+ " An index is built when it is missing or its file has changed, and is reused by later runs. Implies -z."
+			+ " Without -u, only the indexes are built.")
+	private boolean useIndexes;
+
+	@Parameter(names = {"-s"},
+		description = "Validate against copies of the mutation files that are sorted by LEGACY_MUTATION_ID (in sortedFilesDirectory),"
+			+ " merging each one with the sorted identifiers instead of looking up each row. A file is sorted when it has no copy"
+			+ " for its COSMIC version, and is used as it is if its rows are already in order. -i takes precedence when both are given.")
+	private boolean useSortedFiles;
+
+	@Parameter(names = {"-n"},
+		description = "Incremental update: only process the COSMIC identifiers that were created or modified since the last incremental run,"
+			+ " and reuse the results of that run (from stateFile) for the others.")
+	private boolean incremental;
+
+	@Parameter(names = {"-p"},
+		description = "Pipelined: download the three files in parallel, and query the database while they download."
+			+ " Each file is validated as soon as it has been downloaded, reading it from its gzipped archive with"
+			+ " inflating and parsing on separate threads. Implies -z.")
+	private boolean pipelined;
+
+	@Parameter(names = {"-r"},
+		description = "Download each file over several connections (downloadConnections) with HTTP range requests. An interrupted"
+			+ " download is resumed from where it stopped on the next run, and each file's size and checksum are verified.")
+	private boolean rangedDownloads;
+
+	@Parameter(names = {"-diff"},
+		description = "The path to a previous run's COSMIC-identifiers-report CSV (which may be gzipped). The identifiers that were"
+			+ " added, removed, became valid or invalid, or got a different COSV identifier since then are written to"
+			+ " COSMIC-identifiers-diff_<date>.csv.")
+	private String previousReport;
+
 	@Parameter(names = {"-c"},
 		description = "The path to the configuration file. Default is src/main/resources/config.properties")
 	private String configPath = "src/main/resources/config.properties";
@@ -70,6 +119,19 @@ public class Main extends ReleaseStep {
 
 	private static final Logger logger = LogManager.getLogger();
 	private static long personId;
+	private static int updateBatchSize = COSMICIdentifierBatchWriter.DEFAULT_BATCH_SIZE;
+	private static int updateWorkers = 1;
+	private static int prefixWorkers = 1;
+	private static int downloadConnections = COSMICFileDownloader.DEFAULT_CONNECTIONS;
+	private static Duration downloadTimeout = COSMICFileDownloader.DEFAULT_TIMEOUT;
+	private static String stateFile;
+	private static String metricsFile;
+	// If set, the fusion verdicts of EWASes are kept in this file between runs.
+	private static String fusionVerdictCacheFile;
+	// If set, the metrics are also written to this file for the Prometheus node_exporter textfile collector.
+	private static String prometheusTextfile;
+	// The COSMIC version in the download URLs, such as "v96".
+	private static final Pattern COSMIC_VERSION_PATTERN = Pattern.compile("/cosmic/(v\\d+)/");
 
 	public static void main(String[] args) throws Exception {
 		Main cosmicUpdateStep = new Main();
@@ -121,15 +183,177 @@ public class Main extends ReleaseStep {
 		Main.COSMICFusionExportURL = configProps.getProperty("urlToFusionExportFile");
 		Main.COSMICMutationTrackingURL = configProps.getProperty("urlToMutationTrackingFile");
 
+		// The number of identifier updates written in each transaction.
+		String updateBatchSize = configProps.getProperty("updateBatchSize");
+		if (updateBatchSize != null && !updateBatchSize.trim().isEmpty()) {
+			Main.updateBatchSize = Integer.parseInt(updateBatchSize.trim());
+		}
+
+		// The number of parallel workers (each with its own database connection) that write the updates.
+		String updateWorkers = configProps.getProperty("updateWorkers");
+		if (updateWorkers != null && !updateWorkers.trim().isEmpty()) {
+			Main.updateWorkers = Integer.parseInt(updateWorkers.trim());
+		}
+
+		// The number of parallel workers (each with its own database connection) that determine the prefixes.
+		String prefixWorkers = configProps.getProperty("prefixWorkers");
+		if (prefixWorkers != null && !prefixWorkers.trim().isEmpty()) {
+			Main.prefixWorkers = Integer.parseInt(prefixWorkers.trim());
+		}
+
+		// The number of connections that each file is downloaded over, with -r.
+		String downloadConnections = configProps.getProperty("downloadConnections");
+		if (downloadConnections != null && !downloadConnections.trim().isEmpty()) {
+			Main.downloadConnections = Integer.parseInt(downloadConnections.trim());
+		}
+
+		// How long a ranged download waits for a response, or for more data, before it retries, with -r.
+		String downloadTimeoutSeconds = configProps.getProperty("downloadTimeoutSeconds");
+		if (downloadTimeoutSeconds != null && !downloadTimeoutSeconds.trim().isEmpty()) {
+			Main.downloadTimeout = Duration.ofSeconds(Long.parseLong(downloadTimeoutSeconds.trim()));
+		}
+
+		// The number of threads used to scan the uncompressed COSMIC files. Defaults to the number of processors.
+		String parsingThreads = configProps.getProperty("parsingThreads");
+		if (parsingThreads != null && !parsingThreads.trim().isEmpty()) {
+			COSMICUpdateUtil.setParsingThreads(Integer.parseInt(parsingThreads.trim()));
+		}
+
+		// How often the progress of a scan of a COSMIC file is logged, in seconds.
+		String progressIntervalSeconds = configProps.getProperty("progressIntervalSeconds");
+		if (progressIntervalSeconds != null && !progressIntervalSeconds.trim().isEmpty()) {
+			COSMICUpdateUtil.setProgressInterval(Duration.ofSeconds(Long.parseLong(progressIntervalSeconds.trim())));
+		}
+
+		// Curators download the identifiers report, so it can be gzipped.
+		COSMICUpdateUtil.setCompressingReport(Boolean.parseBoolean(configProps.getProperty("compressReport", "false").trim()));
+		// The reports can also be written as JSON Lines, for scripts that compare them between releases.
+		COSMICUpdateUtil.setReportFormats(configProps.getProperty("reportFormats"));
+
+		if (this.pipelined) {
+			COSMICUpdateUtil.setInflatingAhead(true);
+		}
+
+		if (this.useIndexes || this.useSortedFiles || this.incremental) {
+			COSMICUpdateUtil.setCosmicVersion(getCosmicVersion(configProps));
+		}
+		if (this.useIndexes) {
+			COSMICUpdateUtil.setIndexDirectoryPath(configProps.getProperty("indexDirectory", "./cosmic-indexes"));
+		}
+		if (this.useSortedFiles) {
+			COSMICUpdateUtil.setSortedFilesDirectoryPath(configProps.getProperty("sortedFilesDirectory", "./cosmic-sorted"));
+		}
+		Main.stateFile = configProps.getProperty("stateFile", "./cosmic-update-state.csv");
+		Main.metricsFile = configProps.getProperty("metricsFile", "./cosmic-update-metrics.json");
+		String fusionVerdictCacheFile = configProps.getProperty("fusionVerdictCacheFile");
+		if (fusionVerdictCacheFile != null && !fusionVerdictCacheFile.trim().isEmpty()) {
+			Main.fusionVerdictCacheFile = fusionVerdictCacheFile.trim();
+		}
+		String prometheusTextfile = configProps.getProperty("prometheusTextfile");
+		if (prometheusTextfile != null && !prometheusTextfile.trim().isEmpty()) {
+			Main.prometheusTextfile = prometheusTextfile.trim();
+		}
+
 		return configProps;
 	}
 
+	/**
+	 * Gets the COSMIC version of the files, from the cosmicVersion property if it is set, otherwise from the Mutant Export URL.
+	 * @param configProps
+	 * @return The COSMIC version, or an empty string if it is not known.
+	 */
+	private static String getCosmicVersion(Properties configProps) {
+		String cosmicVersion = configProps.getProperty("cosmicVersion");
+		if (cosmicVersion != null && !cosmicVersion.trim().isEmpty()) {
+			return cosmicVersion.trim();
+		}
+		Matcher matcher = COSMIC_VERSION_PATTERN.matcher(Main.COSMICMutantExportURL != null ? Main.COSMICMutantExportURL : "");
+		if (matcher.find()) {
+			return matcher.group(1);
+		}
+		logger.warn("The COSMIC version could not be determined; set cosmicVersion in the properties file.");
+		return "";
+	}
+
 	@Override
 	public void executeStep(Properties props) throws Exception {
-		redownloadFilesIfTooOld(this.fileAge);
+		COSMICUpdateMetrics metrics = new COSMICUpdateMetrics();
+		COSMICUpdateUtil.setMetrics(metrics);
+		boolean succeeded = false;
+		try {
+			executeSteps(props);
+			succeeded = true;
+		} finally {
+			metrics.finish(succeeded);
+			writeMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Writes the metrics of the run to metricsFile, and to prometheusTextfile if it is set.
+	 * A failure to write them is logged, but does not fail the run.
+	 * @param metrics The metrics of the run.
+	 */
+	private static void writeMetrics(COSMICUpdateMetrics metrics) {
+		try {
+			metrics.writeJson(Paths.get(Main.metricsFile));
+			logger.info("Metrics of this run were written to {}", Main.metricsFile);
+			if (Main.prometheusTextfile != null) {
+				metrics.writePrometheusTextfile(Paths.get(Main.prometheusTextfile));
+			}
+		} catch (IOException e) {
+			logger.warn("The metrics of this run could not be written", e);
+		}
+	}
+
+	private void executeSteps(Properties props) throws Exception {
+		// In pipelined mode, the files are still being downloaded when this returns.
+		Map<String, CompletableFuture<String>> inputFiles = getInputFiles();
+
+		if (this.useIndexes && !this.executeUpdate) {
+			logger.info("Building the indexes of the COSMIC files.");
+			COSMICUpdateUtil.buildFileIndexes(awaitInputFile(inputFiles.get(COSMICFusionExport)),
+				awaitInputFile(inputFiles.get(COSMICMutationTracking)), awaitInputFile(inputFiles.get(COSMICMutantExport)));
+		}
 
 		if (this.executeUpdate) {
-			executeUpdate(props);
+			executeUpdate(props, inputFiles);
+		} else {
+			for (CompletableFuture<String> inputFile : inputFiles.values()) {
+				awaitInputFile(inputFile);
+			}
+		}
+	}
+
+	/**
+	 * Downloads the files if that was requested, and gets the paths to read them from.
+	 * In pipelined mode, the files are downloaded in parallel in the background, and each path is available once its file has been downloaded.
+	 * @return The path to read each file from, keyed by the (unzipped) path to the file, as configured.
+	 * @throws Exception
+	 */
+	private Map<String, CompletableFuture<String>> getInputFiles() throws Exception {
+		if (this.pipelined && this.fileAge != null) {
+			return startDownloads();
+		}
+		redownloadFilesIfTooOld(this.fileAge);
+		Map<String, CompletableFuture<String>> inputFiles = new HashMap<>();
+		for (String file : Arrays.asList(COSMICFusionExport, COSMICMutationTracking, COSMICMutantExport)) {
+			inputFiles.put(file, CompletableFuture.completedFuture(getInputFilePath(file)));
+		}
+		return inputFiles;
+	}
+
+	/**
+	 * Waits for a file to be available.
+	 * @param inputFile The path to read the file from, once it is available.
+	 * @return The path.
+	 * @throws Exception If the file could not be downloaded.
+	 */
+	private static String awaitInputFile(CompletableFuture<String> inputFile) throws Exception {
+		try {
+			return inputFile.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
 		}
 	}
 
@@ -152,43 +376,150 @@ public class Main extends ReleaseStep {
 		}
 	}
 
-	private void executeUpdate(Properties props) throws Exception {
+	private void executeUpdate(Properties props, Map<String, CompletableFuture<String>> inputFiles) throws Exception {
 		logger.info("User has specified that update process should run.");
 
-		unzipFiles();
+		if (readFromArchives()) {
+			logger.info("COSMIC files will be read directly from their gzipped archives.");
+		} else {
+			unzipFiles();
+		}
 
 		MySQLAdaptor adaptor = DBUtils.getCuratorDbAdaptor(props);
-		Collection<GKInstance> cosmicObjects = COSMICUpdateUtil.getCOSMICIdentifiers(adaptor);
+		COSMICUpdateState state = null;
+		Map<Long, Long> lastInstanceEdits = null;
+		Map<Long, Set<Long>> referrers = new HashMap<>();
+		Set<Long> changedIdentifiers = null;
+		Collection<GKInstance> cosmicObjects;
+		Map<Long, String> identifiers;
+		try (COSMICUpdateMetrics.Phase phase = COSMICUpdateUtil.getMetrics().startPhase(COSMICUpdateMetrics.FETCH_IDENTIFIERS_PHASE)) {
+			if (this.incremental) {
+				// The results are only reused for the same COSMIC files, so they must have been downloaded first.
+				List<Path> sourceFiles = new ArrayList<>();
+				for (CompletableFuture<String> inputFile : inputFiles.values()) {
+					sourceFiles.add(Paths.get(awaitInputFile(inputFile)));
+				}
+				state = COSMICUpdateState.load(Paths.get(Main.stateFile), COSMICUpdateUtil.getCosmicVersion(),
+					COSMICUpdateState.describeSourceFiles(sourceFiles));
+				lastInstanceEdits = COSMICUpdateUtil.getLastInstanceEdits(adaptor, state.getOwnInstanceEdits(), referrers);
+				changedIdentifiers = state.getChangedIdentifiers(lastInstanceEdits, referrers);
+				logger.info("{} of {} COSMIC identifiers are new or were modified since the last run",
+					changedIdentifiers.size(), lastInstanceEdits.size());
+				cosmicObjects = COSMICUpdateUtil.fetchCOSMICIdentifiers(adaptor, changedIdentifiers);
+				identifiers = COSMICUpdateUtil.getNonCOSVIdentifiers(cosmicObjects);
+			} else {
+				// The COSV identifiers are filtered out by the query, so only the other identifiers are fetched.
+				identifiers = COSMICUpdateUtil.getNonCOSVIdentifiers(adaptor);
+				cosmicObjects = COSMICUpdateUtil.getCOSMICIdentifiers(adaptor, identifiers.keySet());
+			}
+			phase.addRows(cosmicObjects.size());
+		}
 		logger.info("{} COSMIC identifiers", cosmicObjects.size());
 		// Filter the identifiers to exclude the COSV prefixes.
-		List<GKInstance> filteredCosmicObjects = cosmicObjects.parallelStream().filter(inst -> {
-			try {
-				return !((String)inst.getAttributeValue(ReactomeJavaConstants.identifier)).toUpperCase().startsWith("COSV");
-			} catch (Exception e) {
-				// exception caught here means there is probably some fundamental problem with the data
-				// such that the program should probably not continue..
-				throw new RuntimeException(e);
-			}
-		}).collect(Collectors.toList());
+		List<GKInstance> filteredCosmicObjects = cosmicObjects.stream()
+			.filter(inst -> identifiers.containsKey(inst.getDBID()))
+			.collect(Collectors.toList());
 		logger.info("{} filtered COSMIC identifiers", filteredCosmicObjects.size());
+		if (Main.fusionVerdictCacheFile != null) {
+			COSMICUpdateUtil.setFusionVerdictCache(COSMICFusionVerdictCache.load(Paths.get(Main.fusionVerdictCacheFile)));
+		}
+		Map<String, List<COSMICIdentifierUpdater>> updaters;
+		if (prefixWorkers > 1) {
+			// Each worker loads the attributes of its own objects.
+			try (MySQLAdaptorPool adaptorPool = new MySQLAdaptorPool(() -> DBUtils.getCuratorDbAdaptor(props), prefixWorkers)) {
+				updaters = COSMICUpdateUtil.determinePrefixes(adaptorPool, filteredCosmicObjects, identifiers);
+			}
+		} else {
+			COSMICUpdateUtil.loadPrefixAttributes(adaptor, filteredCosmicObjects);
+			updaters = COSMICUpdateUtil.determinePrefixes(filteredCosmicObjects, identifiers);
+		}
+		if (Main.fusionVerdictCacheFile != null) {
+			COSMICUpdateUtil.getFusionVerdictCache().save(Paths.get(Main.fusionVerdictCacheFile));
+		}
 
-		Map<String, List<COSMICIdentifierUpdater>> updaters = COSMICUpdateUtil.determinePrefixes(filteredCosmicObjects);
-
-		COSMICUpdateUtil.validateIdentifiersAgainstFiles(updaters, COSMICFusionExport, COSMICMutationTracking, COSMICMutantExport);
+		// In pipelined mode, each file is validated as soon as it has been downloaded.
+		COSMICUpdateUtil.validateIdentifiersAgainstFiles(updaters, inputFiles.get(COSMICFusionExport),
+			inputFiles.get(COSMICMutationTracking), inputFiles.get(COSMICMutantExport));
+		if (state != null) {
+			recordResults(state, cosmicObjects, updaters, lastInstanceEdits, referrers);
+			// The identifiers that were not processed again keep their earlier results, and are still reported
+			// (and written, if an earlier run did not write them).
+			for (COSMICIdentifierUpdater updater : state.getUpdaters(changedIdentifiers)) {
+				updaters.computeIfAbsent(COSMICUpdateUtil.getUpdaterKey(updater), k -> new ArrayList<>()).add(updater);
+			}
+		}
 		COSMICUpdateUtil.printIdentifierUpdateReport(updaters);
+		if (this.previousReport != null) {
+			COSMICUpdateUtil.printIdentifierDiffReport(this.previousReport, updaters);
+		}
 
 		loadTestModeFromProperties(props);
 		if (!this.testMode) {
-			updateIdentifiers(adaptor, updaters);
+			updateIdentifiers(adaptor, props, updaters);
+		}
+		if (state != null) {
+			state.recordWritten(updaters.values().stream().flatMap(Collection::stream).collect(Collectors.toList()));
+			state.addOwnInstanceEdits(COSMICIdentifierUpdater.getInstanceEditDbIDs());
+			state.save(Paths.get(Main.stateFile));
+		}
+		if (!readFromArchives()) {
+			cleanupFiles();
 		}
-		cleanupFiles();
 	}
 
-	private void unzipFiles() throws InterruptedException {
-		ExecutorService execService = Executors.newCachedThreadPool();
-		// The files are large and it could be slow to unzip them sequentially, so we will unzip them in parallel.
-		execService.invokeAll(getGUnzipCallables());
-		execService.shutdown();
+	/**
+	 * The files are read from the gzipped archives if that was requested, if indexes are used (the indexes are built from the archives),
+	 * or when pipelining (the files are read as soon as they have been downloaded).
+	 * @return true if the files are not unzipped.
+	 */
+	private boolean readFromArchives() {
+		return this.streamFromArchives || this.useIndexes || this.pipelined;
+	}
+
+	/**
+	 * Records the results of this run in the incremental state.
+	 * @param state The state.
+	 * @param cosmicObjects All of the COSMIC identifiers that were fetched, including the COSV identifiers that were not processed.
+	 * @param updaters The updaters of the identifiers that were processed.
+	 * @param lastInstanceEdits The DB_ID of the last InstanceEdit of each identifier, keyed by the DB_ID of the identifier.
+	 * @param referrers The DB_IDs of the EWASes that refer to each identifier, keyed by the DB_ID of the identifier.
+	 * @throws Exception
+	 */
+	private static void recordResults(COSMICUpdateState state, Collection<GKInstance> cosmicObjects,
+		Map<String, List<COSMICIdentifierUpdater>> updaters, Map<Long, Long> lastInstanceEdits,
+		Map<Long, Set<Long>> referrers) throws Exception {
+		for (GKInstance cosmicObject : cosmicObjects) {
+			String identifier = (String) cosmicObject.getAttributeValue(ReactomeJavaConstants.identifier);
+			if (identifier.toUpperCase().startsWith(COSMICUpdateUtil.COSMIC_GENOMIC_PREFIX)) {
+				state.recordUnprocessed(cosmicObject.getDBID(), identifier, lastInstanceEdits.getOrDefault(cosmicObject.getDBID(), 0L),
+					referrers.getOrDefault(cosmicObject.getDBID(), Collections.emptySet()));
+			}
+		}
+		state.recordResults(updaters.values().stream().flatMap(Collection::stream).collect(Collectors.toList()), lastInstanceEdits, referrers);
+	}
+
+	/**
+	 * Gets the path that the COSMIC file should be read from: the gzipped archive when streaming from archives or using indexes,
+	 * otherwise the unzipped file.
+	 * @param filePathAsString The (unzipped) path to the COSMIC file, as configured.
+	 * @return The path to read the file from.
+	 */
+	private String getInputFilePath(String filePathAsString) {
+		return readFromArchives() ? getGZippedFilePath(filePathAsString).toString() : filePathAsString;
+	}
+
+	private void unzipFiles() throws InterruptedException, IOException {
+		try (COSMICUpdateMetrics.Phase phase = COSMICUpdateUtil.getMetrics().startPhase(COSMICUpdateMetrics.UNZIP_PHASE)) {
+			ExecutorService execService = Executors.newCachedThreadPool();
+			// The files are large and it could be slow to unzip them sequentially, so we will unzip them in parallel.
+			execService.invokeAll(getGUnzipCallables());
+			execService.shutdown();
+			for (String file : Arrays.asList(COSMICFusionExport, COSMICMutantExport, COSMICMutationTracking)) {
+				if (Files.exists(getGUnzippedFilePath(file))) {
+					phase.addBytes(Files.size(getGUnzippedFilePath(file)));
+				}
+			}
+		}
 	}
 
 	private List<GUnzipCallable> getGUnzipCallables() {
@@ -249,10 +580,10 @@ public class Main extends ReleaseStep {
 	}
 
 	/**
-	 * Download the data files from COSMIC.
-	 * @throws Exception
+	 * Checks that the configuration needed to download the data files is set.
+	 * @throws IllegalArgumentException If a value is missing.
 	 */
-	private void downloadFiles() throws IllegalArgumentException, URISyntaxException, Exception {
+	private void validateDownloadConfig() throws IllegalArgumentException {
 		//TODO: Better Properties class in release-common-lib. (for future work)
 		validateConfigValue(Main.COSMICUsername,
 			"COSMIC Username cannot be null/empty! Please set a value for cosmic.username in the " +
@@ -268,37 +599,19 @@ public class Main extends ReleaseStep {
 				"urlToMutationTrackingFile in the application's properties file");
 		validateConfigValue(Main.COSMICFusionExportURL, "URL for COSMIC Fusion Export file cannot be null/empty!" +
 			"  Please set a value for urlToFusionExportFile in the application's properties file");
+	}
 
-		COSMICFileRetriever mutantExportRetriever = new COSMICFileRetriever();
-		COSMICFileRetriever mutationTrackingRetriever = new COSMICFileRetriever();
-		COSMICFileRetriever fusionExportRetriever = new COSMICFileRetriever();
-
+	/**
+	 * Download the data files from COSMIC.
+	 * @throws Exception
+	 */
+	private void downloadFiles() throws IllegalArgumentException, URISyntaxException, Exception {
+		validateDownloadConfig();
 		try {
-			mutantExportRetriever.setDataURL(new URI(Main.COSMICMutantExportURL));
-			mutationTrackingRetriever.setDataURL(new URI(Main.COSMICMutationTrackingURL));
-			fusionExportRetriever.setDataURL(new URI(Main.COSMICFusionExportURL));
-
-			Properties configProps = getConfigProperties();
-
-			final String mutantExportDestination = addGzipExtension(configProps.getProperty(
-				"pathToMutantExportFile", "./CosmicMutantExport.tsv"));
-			final String mutationTrackingDestination = addGzipExtension(configProps.getProperty(
-				"pathToMutationTrackingFile", "./CosmicMutationTracking.tsv"));
-			final String fusionExportDestination = addGzipExtension(configProps.getProperty(
-				"pathToFusionExportFile", "./CosmicFusionExport.tsv"));
-
-			mutantExportRetriever.setFetchDestination(mutantExportDestination);
-			mutationTrackingRetriever.setFetchDestination(mutationTrackingDestination);
-			fusionExportRetriever.setFetchDestination(fusionExportDestination);
-
-			logDownloadMessage(mutantExportRetriever, mutantExportDestination);
-			this.executeDownload(mutantExportRetriever);
-
-			logDownloadMessage(mutationTrackingRetriever, mutationTrackingDestination);
-			this.executeDownload(mutationTrackingRetriever);
-
-			logDownloadMessage(fusionExportRetriever, fusionExportDestination);
-			this.executeDownload(fusionExportRetriever);
+			for (Map.Entry<String, COSMICFileRetriever> retriever : createRetrievers().entrySet()) {
+				logDownloadMessage(retriever.getValue(), addGzipExtension(retriever.getKey()));
+				this.executeDownload(retriever.getValue(), addGzipExtension(retriever.getKey()));
+			}
 		} catch (URISyntaxException e) {
 			e.printStackTrace();
 			throw e;
@@ -309,6 +622,58 @@ public class Main extends ReleaseStep {
 		}
 	}
 
+	/**
+	 * Starts downloading the data files from COSMIC, all at the same time, in the background.
+	 * @return The path to each gzipped file, once it has been downloaded, keyed by the (unzipped) path to the file, as configured.
+	 * @throws Exception If the configuration is not valid.
+	 */
+	private Map<String, CompletableFuture<String>> startDownloads() throws Exception {
+		logger.info("User has specified that download process should run.");
+		logger.info("Files will be downloaded in parallel if they are older than {}", this.fileAge);
+		validateDownloadConfig();
+		Map<String, COSMICFileRetriever> retrievers = createRetrievers();
+		ExecutorService execService = Executors.newFixedThreadPool(retrievers.size());
+		Map<String, CompletableFuture<String>> inputFiles = new HashMap<>();
+		for (Map.Entry<String, COSMICFileRetriever> retriever : retrievers.entrySet()) {
+			inputFiles.put(retriever.getKey(), CompletableFuture.supplyAsync(() -> {
+				String destination = addGzipExtension(retriever.getKey());
+				try {
+					logDownloadMessage(retriever.getValue(), destination);
+					this.executeDownload(retriever.getValue(), destination);
+				} catch (Exception e) {
+					logger.error("Error occurred while trying to download a file! " + e.getMessage(), e);
+					throw new CompletionException(e);
+				}
+				logger.info("{} is ready", destination);
+				return destination;
+			}, execService));
+		}
+		// The downloads that have been started will still run to completion.
+		execService.shutdown();
+		return inputFiles;
+	}
+
+	/**
+	 * Creates a retriever for each of the data files.
+	 * @return The retrievers, keyed by the (unzipped) path to the file, as configured. The gzipped file is downloaded to this path + ".gz".
+	 * @throws URISyntaxException
+	 */
+	private Map<String, COSMICFileRetriever> createRetrievers() throws URISyntaxException {
+		Map<String, String> urls = new LinkedHashMap<>();
+		urls.put(Main.COSMICMutantExport, Main.COSMICMutantExportURL);
+		urls.put(Main.COSMICMutationTracking, Main.COSMICMutationTrackingURL);
+		urls.put(Main.COSMICFusionExport, Main.COSMICFusionExportURL);
+
+		Map<String, COSMICFileRetriever> retrievers = new LinkedHashMap<>();
+		for (Map.Entry<String, String> url : urls.entrySet()) {
+			COSMICFileRetriever retriever = new COSMICFileRetriever();
+			retriever.setDataURL(new URI(url.getValue()));
+			retriever.setFetchDestination(addGzipExtension(url.getKey()));
+			retrievers.put(url.getKey(), retriever);
+		}
+		return retrievers;
+	}
+
 	private void logDownloadMessage(COSMICFileRetriever retriever, final String destination) {
 		logger.info("Downloading {} to {}", retriever.getDataURL(), destination);
 	}
@@ -316,9 +681,30 @@ public class Main extends ReleaseStep {
 	/**
 	 * Executes a single download.
 	 * @param retriever - the file retriever to run.
+	 * @param destination - the path the file is downloaded to.
 	 * @throws Exception
 	 */
-	private void executeDownload(COSMICFileRetriever retriever) throws Exception {
+	private void executeDownload(COSMICFileRetriever retriever, String destination) throws Exception {
+		Path destinationPath = Paths.get(destination);
+		String phaseName = COSMICUpdateMetrics.DOWNLOAD_PHASE_PREFIX + destinationPath.getFileName();
+		try (COSMICUpdateMetrics.Phase phase = COSMICUpdateUtil.getMetrics().startPhase(phaseName)) {
+			long lastModified = Files.exists(destinationPath) ? Files.getLastModifiedTime(destinationPath).toMillis() : -1;
+			downloadFile(retriever, destination);
+			// A file that was young enough was not downloaded again, so there are no bytes to count.
+			if (Files.exists(destinationPath) && Files.getLastModifiedTime(destinationPath).toMillis() != lastModified) {
+				phase.addBytes(Files.size(destinationPath));
+			}
+		}
+	}
+
+	private void downloadFile(COSMICFileRetriever retriever, String destination) throws Exception {
+		if (this.rangedDownloads) {
+			COSMICFileDownloader downloader = new COSMICFileDownloader(retriever.getDataURL(), Paths.get(destination), Main.COSMICUsername,
+				Main.COSMICPassword, Main.downloadConnections);
+			downloader.setTimeout(Main.downloadTimeout);
+			downloader.download(this.fileAge);
+			return;
+		}
 		retriever.setMaxAge(this.fileAge);
 		retriever.setUserName(Main.COSMICUsername);
 		retriever.setPassword(Main.COSMICPassword);
@@ -326,23 +712,30 @@ public class Main extends ReleaseStep {
 	}
 
 	/**
-	 * Updates the identifiers that need updating.
+	 * Updates the identifiers that need updating, in batches of <code>updateBatchSize</code>, each in its own transaction.
+	 * If <code>updateWorkers</code> is more than 1, the batches are written in parallel, with one database connection per worker.
 	 * @param adaptor
+	 * @param props The configuration, used to open connections for the workers.
 	 * @param updates
 	 * @throws Exception
 	 */
-	private static void updateIdentifiers(MySQLAdaptor adaptor, Map<String, List<COSMICIdentifierUpdater>> updates)
+	private static void updateIdentifiers(MySQLAdaptor adaptor, Properties props, Map<String, List<COSMICIdentifierUpdater>> updates)
 		throws Exception {
 
-		for (List<COSMICIdentifierUpdater> listOfUpdaters : updates.values()) {
-			listOfUpdaters.forEach(updater -> {
-				try {
-					updater.updateIdentfier(adaptor, personId);
-				} catch (Exception e) {
-					logger.error("Exception caught while trying to update identifier: " +
-						listOfUpdaters.toString() + " ; Exception is: ", e);
+		// Updates that were already written by an earlier (incremental) run are not written again.
+		List<COSMICIdentifierUpdater> updaters = updates.values().stream()
+			.flatMap(Collection::stream)
+			.filter(updater -> !updater.isWritten())
+			.collect(Collectors.toList());
+		try (COSMICUpdateMetrics.Phase phase = COSMICUpdateUtil.getMetrics().startPhase(COSMICUpdateMetrics.WRITE_BACK_PHASE)) {
+			phase.addRows(updaters.size());
+			if (updateWorkers > 1) {
+				try (MySQLAdaptorPool adaptorPool = new MySQLAdaptorPool(() -> DBUtils.getCuratorDbAdaptor(props), updateWorkers)) {
+					COSMICIdentifierBatchWriter.writeInParallel(adaptorPool, personId, updateBatchSize, updaters);
 				}
-			});
+			} else {
+				new COSMICIdentifierBatchWriter(adaptor, personId, updateBatchSize).write(updaters);
+			}
 		}
 	}
 
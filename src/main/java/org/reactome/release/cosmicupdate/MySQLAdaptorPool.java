@@ -0,0 +1,109 @@
+package org.reactome.release.cosmicupdate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.gk.persistence.MySQLAdaptor;
+
+/**
+ * A small, bounded pool of database adaptors.
+ * A MySQLAdaptor has a single connection and must not be used by more than one thread at a time, so each worker thread borrows its own adaptor
+ * from the pool. Adaptors are only created when they are needed, and never more than <code>maxSize</code> of them.
+ */
+class MySQLAdaptorPool implements AutoCloseable
+{
+	private static final Logger logger = LogManager.getLogger();
+
+	private final AdaptorFactory adaptorFactory;
+	private final int maxSize;
+	private final BlockingQueue<MySQLAdaptor> idleAdaptors = new LinkedBlockingQueue<>();
+	private final List<MySQLAdaptor> allAdaptors = new ArrayList<>();
+
+	/**
+	 * Creates a new adaptor (with its own connection).
+	 */
+	interface AdaptorFactory
+	{
+		MySQLAdaptor createAdaptor() throws Exception;
+	}
+
+	/**
+	 * @param adaptorFactory Creates the adaptors for the pool.
+	 * @param maxSize The maximum number of adaptors in the pool.
+	 */
+	MySQLAdaptorPool(AdaptorFactory adaptorFactory, int maxSize)
+	{
+		if (maxSize < 1)
+		{
+			throw new IllegalArgumentException("Pool size must be at least 1, but was " + maxSize);
+		}
+		this.adaptorFactory = adaptorFactory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Borrows an adaptor. If all of the adaptors are in use and the pool is full, this waits until one is returned.
+	 * @return An adaptor that only the caller will use until it is returned with <code>release</code>.
+	 * @throws Exception If a new adaptor could not be created.
+	 */
+	MySQLAdaptor borrow() throws Exception
+	{
+		MySQLAdaptor adaptor = this.idleAdaptors.poll();
+		if (adaptor != null)
+		{
+			return adaptor;
+		}
+		synchronized (this.allAdaptors)
+		{
+			if (this.allAdaptors.size() < this.maxSize)
+			{
+				adaptor = this.adaptorFactory.createAdaptor();
+				this.allAdaptors.add(adaptor);
+				return adaptor;
+			}
+		}
+		return this.idleAdaptors.take();
+	}
+
+	/**
+	 * Returns a borrowed adaptor to the pool.
+	 * @param adaptor The adaptor.
+	 */
+	void release(MySQLAdaptor adaptor)
+	{
+		this.idleAdaptors.add(adaptor);
+	}
+
+	int getMaxSize()
+	{
+		return this.maxSize;
+	}
+
+	/**
+	 * Closes all of the adaptors that the pool has created. Adaptors should not be borrowed after this.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (this.allAdaptors)
+		{
+			for (MySQLAdaptor adaptor : this.allAdaptors)
+			{
+				try
+				{
+					adaptor.cleanUp();
+				}
+				catch (Exception e)
+				{
+					logger.warn("Exception caught while closing a database connection: ", e);
+				}
+			}
+			this.allAdaptors.clear();
+			this.idleAdaptors.clear();
+		}
+	}
+}
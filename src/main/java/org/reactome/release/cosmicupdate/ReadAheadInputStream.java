@@ -0,0 +1,237 @@
+package org.reactome.release.cosmicupdate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InputStream that reads its source on a background thread, ahead of the reader. The chunks that have been read are handed over
+ * through a bounded pool of buffers, so the background thread is never more than about <code>chunkCount</code> chunks ahead.
+ * This is used to inflate a gzipped COSMIC file on one thread while it is parsed on another.
+ */
+class ReadAheadInputStream extends InputStream
+{
+	static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	static final int DEFAULT_CHUNK_COUNT = 4;
+
+	// Put on the queue after the last chunk, or when reading the source fails.
+	private static final Chunk END = new Chunk(new byte[0]);
+
+	private final InputStream source;
+	private final BlockingQueue<Chunk> filledChunks;
+	// Chunks that have been consumed are reused, so that only chunkCount + 1 buffers are ever allocated.
+	private final BlockingQueue<Chunk> emptyChunks;
+	private final Thread readerThread;
+	private volatile IOException readException;
+	private Chunk currentChunk;
+	private int position;
+	private boolean closed;
+
+	/**
+	 * Private helper class: a buffer and the number of bytes in it.
+	 */
+	private static class Chunk
+	{
+		private final byte[] buffer;
+		private int length;
+
+		Chunk(byte[] buffer)
+		{
+			this.buffer = buffer;
+		}
+	}
+
+	/**
+	 * @param source The stream to read ahead. It is closed when this stream is closed.
+	 * @param name The name of the background thread.
+	 */
+	ReadAheadInputStream(InputStream source, String name)
+	{
+		this(source, name, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_COUNT);
+	}
+
+	/**
+	 * @param source The stream to read ahead. It is closed when this stream is closed.
+	 * @param name The name of the background thread.
+	 * @param chunkSize The size of each chunk, in bytes.
+	 * @param chunkCount The maximum number of chunks that have been read but not yet consumed.
+	 */
+	ReadAheadInputStream(InputStream source, String name, int chunkSize, int chunkCount)
+	{
+		if (chunkSize < 1 || chunkCount < 1)
+		{
+			throw new IllegalArgumentException("Chunk size and chunk count must be at least 1, but were " + chunkSize + " and " + chunkCount);
+		}
+		this.source = source;
+		// The read-ahead is limited by the number of buffers: chunkCount, plus the one that is being consumed.
+		// The queue of filled chunks has room for all of them and for END, so putting a chunk on it never blocks.
+		int bufferCount = chunkCount + 1;
+		this.filledChunks = new ArrayBlockingQueue<>(bufferCount + 1);
+		this.emptyChunks = new ArrayBlockingQueue<>(bufferCount);
+		for (int i = 0; i < bufferCount; i++)
+		{
+			this.emptyChunks.add(new Chunk(new byte[chunkSize]));
+		}
+		this.readerThread = new Thread(this::readAhead, name);
+		this.readerThread.setDaemon(true);
+		this.readerThread.start();
+	}
+
+	/**
+	 * Runs on the background thread: fills chunks from the source until it is exhausted, fails, or this stream is closed.
+	 */
+	private void readAhead()
+	{
+		try
+		{
+			while (true)
+			{
+				Chunk chunk = this.emptyChunks.take();
+				chunk.length = fill(chunk.buffer);
+				if (chunk.length == 0)
+				{
+					break;
+				}
+				this.filledChunks.put(chunk);
+			}
+		}
+		catch (IOException e)
+		{
+			this.readException = e;
+		}
+		catch (RuntimeException e)
+		{
+			this.readException = new IOException(e);
+		}
+		catch (InterruptedException e)
+		{
+			// The stream was closed.
+			return;
+		}
+		this.filledChunks.offer(END);
+	}
+
+	/**
+	 * Reads from the source until <code>buffer</code> is full or the source is exhausted.
+	 * @return The number of bytes read, which is 0 only at the end of the source.
+	 */
+	private int fill(byte[] buffer) throws IOException
+	{
+		int length = 0;
+		while (length < buffer.length)
+		{
+			int count = this.source.read(buffer, length, buffer.length - length);
+			if (count < 0)
+			{
+				break;
+			}
+			length += count;
+		}
+		return length;
+	}
+
+	/**
+	 * Makes sure that there are unread bytes in the current chunk, waiting for the next chunk if necessary.
+	 * @return false at the end of the stream.
+	 */
+	private boolean nextChunk() throws IOException
+	{
+		if (this.closed)
+		{
+			throw new IOException("Stream closed");
+		}
+		if (this.currentChunk == END)
+		{
+			return false;
+		}
+		if (this.currentChunk != null && this.position < this.currentChunk.length)
+		{
+			return true;
+		}
+		if (this.currentChunk != null)
+		{
+			this.emptyChunks.offer(this.currentChunk);
+		}
+		try
+		{
+			this.currentChunk = this.filledChunks.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for data");
+		}
+		this.position = 0;
+		if (this.currentChunk == END)
+		{
+			if (this.readException != null)
+			{
+				throw this.readException;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		if (!nextChunk())
+		{
+			return -1;
+		}
+		return this.currentChunk.buffer[this.position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+		{
+			return 0;
+		}
+		if (!nextChunk())
+		{
+			return -1;
+		}
+		int count = Math.min(len, this.currentChunk.length - this.position);
+		System.arraycopy(this.currentChunk.buffer, this.position, b, off, count);
+		this.position += count;
+		return count;
+	}
+
+	@Override
+	public int available()
+	{
+		return this.currentChunk != null && this.currentChunk != END ? this.currentChunk.length - this.position : 0;
+	}
+
+	/**
+	 * Stops the background thread and closes the source.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		this.closed = true;
+		this.readerThread.interrupt();
+		try
+		{
+			// The source must not be closed while the background thread is still reading from it.
+			this.readerThread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			this.source.close();
+		}
+	}
+}
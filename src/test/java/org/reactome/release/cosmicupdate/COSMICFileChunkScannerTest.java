@@ -0,0 +1,106 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class COSMICFileChunkScannerTest
+{
+	private static final int ROW_COUNT = 20000;
+	private Path mutantExportFile;
+
+	@Before
+	public void setup() throws IOException
+	{
+		this.mutantExportFile = Files.createTempFile("mutantExport", ".tsv");
+		try(BufferedWriter writer = Files.newBufferedWriter(this.mutantExportFile))
+		{
+			writer.write("GENE_NAME\tLEGACY_MUTATION_ID\tMUTATION_ID\tGENOMIC_MUTATION_ID\n");
+			for (int i = 0; i < ROW_COUNT; i++)
+			{
+				// Rows of different lengths, so that the chunk boundaries fall in the middle of lines.
+				writer.write("GENE" + (i % 97) + "\tCOSM" + (i % 1000) + "\t" + i + "\tCOSV" + i + "\n");
+			}
+		}
+	}
+
+	@Test
+	public void testChunksCoverFile() throws IOException
+	{
+		long headerLength = "GENE_NAME\tLEGACY_MUTATION_ID\tMUTATION_ID\tGENOMIC_MUTATION_ID\n".length();
+		List<long[]> chunks = COSMICFileChunkScanner.getChunks(this.mutantExportFile, headerLength, 4, 1024);
+		assertTrue(chunks.size() > 1);
+		assertEquals(headerLength, chunks.get(0)[0]);
+		for (int i = 1; i < chunks.size(); i++)
+		{
+			assertEquals(chunks.get(i - 1)[1], chunks.get(i)[0]);
+		}
+		assertEquals(Files.size(this.mutantExportFile), chunks.get(chunks.size() - 1)[1]);
+	}
+
+	@Test
+	public void testParallelScanMatchesSequentialScan() throws IOException
+	{
+		List<List<String>> chunkResults = COSMICFileChunkScanner.scan(this.mutantExportFile, 4, 1024, ArrayList::new,
+			(rows, row) -> rows.add(row.getString(0) + "|" + row.getString(1)), "LEGACY_MUTATION_ID", "MUTATION_ID");
+		assertTrue(chunkResults.size() > 1);
+		List<String> parallelRows = new ArrayList<>();
+		chunkResults.forEach(parallelRows::addAll);
+
+		List<String> sequentialRows = new ArrayList<>();
+		try(COSMICFileScanner scanner = new COSMICFileScanner(Files.newInputStream(this.mutantExportFile), "LEGACY_MUTATION_ID", "MUTATION_ID"))
+		{
+			scanner.scan(row -> sequentialRows.add(row.getString(0) + "|" + row.getString(1)));
+		}
+		assertEquals(ROW_COUNT, sequentialRows.size());
+		assertEquals(sequentialRows, parallelRows);
+	}
+
+	/**
+	 * Tests that two files scanned at the same time in one shared pool get the same rows as scanning them one at a time,
+	 * and that the pool is left running for the next scan.
+	 */
+	@Test
+	public void testConcurrentScansShareOnePool() throws Exception
+	{
+		List<List<String>> expectedResults = COSMICFileChunkScanner.scan(this.mutantExportFile, 2, 1024, ArrayList::new,
+			(rows, row) -> rows.add(row.getString(0)), "LEGACY_MUTATION_ID");
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try
+		{
+			CompletableFuture<List<List<String>>> otherScan = CompletableFuture.supplyAsync(() -> {
+				try
+				{
+					return COSMICFileChunkScanner.scan(this.mutantExportFile, pool, 1024, ArrayList::new,
+						(rows, row) -> rows.add(row.getString(0)), null, "LEGACY_MUTATION_ID");
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			});
+			assertEquals(expectedResults, COSMICFileChunkScanner.scan(this.mutantExportFile, pool, 1024, ArrayList::new,
+				(rows, row) -> rows.add(row.getString(0)), null, "LEGACY_MUTATION_ID"));
+			assertEquals(expectedResults, otherScan.get());
+			assertEquals(2, pool.getParallelism());
+			assertFalse(pool.isShutdown());
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests COSMICFileDownloader against a stub server, which serves the download URL (to the right username and password) and the file,
+ * with support for range requests. The server can be made to drop connections halfway through a response.
+ */
+public class COSMICFileDownloaderTest
+{
+	private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+	private static final String CREDENTIALS = "Basic " + Base64.getEncoder().encodeToString("user:secret".getBytes(StandardCharsets.UTF_8));
+
+	private HttpServer server;
+	private byte[] content;
+	private String etag;
+	// If true, the first request for each range is dropped halfway through the response.
+	private volatile boolean droppingFirstRequests;
+	// If true, the other requests for ranges fail.
+	private volatile boolean unavailable;
+	// If true, the first request for each range stops sending data halfway through the response, without closing the connection.
+	private volatile boolean stallingFirstRequests;
+	private AtomicLong downloadURLRequests = new AtomicLong();
+	// The ends of the ranges that have been requested. A retry of a range starts later, but has the same end.
+	private Set<Integer> requestedEnds = ConcurrentHashMap.newKeySet();
+	private AtomicLong bytesServed = new AtomicLong();
+	private List<String> rangesRequested = new CopyOnWriteArrayList<>();
+	private Path directory;
+	private Path destination;
+
+	@Before
+	public void setup() throws IOException
+	{
+		// The content is a gzipped file, so that it can be verified without an MD5 digest.
+		byte[] data = new byte[1 << 20];
+		new Random(1L).nextBytes(data);
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		try(OutputStream output = new GZIPOutputStream(gzipped))
+		{
+			output.write(data);
+		}
+		this.content = gzipped.toByteArray();
+		this.etag = "\"abc-2\"";
+		this.directory = Files.createTempDirectory("cosmicDownload");
+		this.destination = this.directory.resolve("CosmicMutantExport.tsv.gz");
+
+		this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		this.server.createContext("/cosmic/file_download/CosmicMutantExport.tsv.gz", exchange -> {
+			if (!CREDENTIALS.equals(exchange.getRequestHeaders().getFirst("Authorization")))
+			{
+				respond(exchange, 401, new byte[0]);
+				return;
+			}
+			this.downloadURLRequests.incrementAndGet();
+			// The URL is escaped as it would be by a JSON library.
+			String response = "{\"url\" : \"http:\\/\\/localhost:" + this.server.getAddress().getPort() + "\\/files\\/CosmicMutantExport.tsv.gz\"}";
+			respond(exchange, 200, response.getBytes(StandardCharsets.UTF_8));
+		});
+		this.server.createContext("/files/CosmicMutantExport.tsv.gz", this::serveFile);
+		this.server.setExecutor(Executors.newCachedThreadPool());
+		this.server.start();
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.server.stop(0);
+	}
+
+	private void serveFile(HttpExchange exchange) throws IOException
+	{
+		int start = 0;
+		int end = this.content.length - 1;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		int status = 200;
+		if (range != null)
+		{
+			Matcher matcher = RANGE_PATTERN.matcher(range);
+			assertTrue(range, matcher.matches());
+			start = Integer.parseInt(matcher.group(1));
+			end = Math.min(Integer.parseInt(matcher.group(2)), this.content.length - 1);
+			status = 206;
+			exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + this.content.length);
+			this.rangesRequested.add(range);
+		}
+		int length = end - start + 1;
+		// The probe for the size (of one byte) never fails.
+		boolean firstRequest = length > 1 && this.requestedEnds.add(end);
+		boolean dropping = firstRequest && this.droppingFirstRequests;
+		boolean stalling = firstRequest && this.stallingFirstRequests;
+		if (length > 1 && !dropping && !stalling && this.unavailable)
+		{
+			respond(exchange, 503, new byte[0]);
+			return;
+		}
+		exchange.getResponseHeaders().add("ETag", this.etag);
+		exchange.sendResponseHeaders(status, length);
+		OutputStream body = exchange.getResponseBody();
+		if (dropping)
+		{
+			body.write(this.content, start, length / 2);
+			body.flush();
+			this.bytesServed.addAndGet(length / 2);
+			// Closing a response before all of its bytes have been written closes the connection.
+			exchange.close();
+			return;
+		}
+		if (stalling)
+		{
+			body.write(this.content, start, length / 2);
+			body.flush();
+			this.bytesServed.addAndGet(length / 2);
+			try
+			{
+				Thread.sleep(10_000L);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			exchange.close();
+			return;
+		}
+		body.write(this.content, start, length);
+		this.bytesServed.addAndGet(length);
+		body.close();
+	}
+
+	private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException
+	{
+		exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+		try(OutputStream output = exchange.getResponseBody())
+		{
+			output.write(body);
+		}
+	}
+
+	private COSMICFileDownloader createDownloader(String password)
+	{
+		URI dataURL = URI.create("http://localhost:" + this.server.getAddress().getPort() + "/cosmic/file_download/CosmicMutantExport.tsv.gz");
+		COSMICFileDownloader downloader = new COSMICFileDownloader(dataURL, this.destination, "user", password, 4);
+		downloader.setMinimumRangeSize(1 << 16);
+		downloader.setRetryDelay(Duration.ZERO);
+		return downloader;
+	}
+
+	@Test
+	public void testParallelDownload() throws Exception
+	{
+		assertTrue(createDownloader("secret").download(Duration.ZERO));
+		assertArrayEquals(this.content, Files.readAllBytes(this.destination));
+		// The probe, and one request for each of the four ranges.
+		assertEquals(5, this.rangesRequested.size());
+		assertFalse(Files.exists(this.directory.resolve("CosmicMutantExport.tsv.gz" + COSMICFileDownloader.PART_EXTENSION)));
+
+		// The file is now younger than the maximum age, so it is not downloaded again.
+		assertFalse(createDownloader("secret").download(Duration.ofHours(1)));
+	}
+
+	/**
+	 * Tests that a range whose connection is dropped is requested again from where it stopped.
+	 */
+	@Test
+	public void testRetryAfterDroppedConnection() throws Exception
+	{
+		this.droppingFirstRequests = true;
+		createDownloader("secret").download(Duration.ZERO);
+		assertArrayEquals(this.content, Files.readAllBytes(this.destination));
+		// The probe, the first request for each range, and a retry of each range, which requests only the part that was not received.
+		assertEquals(9, this.rangesRequested.size());
+		assertEquals(4, countResumedRanges());
+		// A new download URL was requested for each retry.
+		assertEquals(5, this.downloadURLRequests.get());
+	}
+
+	/**
+	 * Tests that a range whose response stops sending data is given up on after the timeout, and requested again from where it stopped.
+	 */
+	@Test
+	public void testRetryAfterStalledResponse() throws Exception
+	{
+		this.stallingFirstRequests = true;
+		COSMICFileDownloader downloader = createDownloader("secret");
+		downloader.setTimeout(Duration.ofMillis(500));
+		downloader.download(Duration.ZERO);
+		assertArrayEquals(this.content, Files.readAllBytes(this.destination));
+		assertEquals(9, this.rangesRequested.size());
+		assertEquals(4, countResumedRanges());
+	}
+
+	/**
+	 * Counts the requests for a range that start after the start of the range (and no later than its middle, where the server drops it).
+	 */
+	private long countResumedRanges()
+	{
+		int rangeSize = (this.content.length + 3) / 4;
+		return this.rangesRequested.stream().filter(range -> {
+			Matcher matcher = RANGE_PATTERN.matcher(range);
+			assertTrue(matcher.matches());
+			int offset = Integer.parseInt(matcher.group(1)) % rangeSize;
+			return offset > 0 && offset <= rangeSize / 2;
+		}).count();
+	}
+
+	/**
+	 * Tests that a download that failed is resumed by the next download, without requesting the bytes that were already received.
+	 */
+	@Test
+	public void testResumeAfterFailedDownload() throws Exception
+	{
+		this.droppingFirstRequests = true;
+		this.unavailable = true;
+		try
+		{
+			createDownloader("secret").download(Duration.ZERO);
+			fail("Expected the download to fail");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+		assertFalse(Files.exists(this.destination));
+		assertTrue(Files.exists(this.directory.resolve("CosmicMutantExport.tsv.gz" + COSMICFileDownloader.PART_EXTENSION
+			+ COSMICFileDownloader.PROGRESS_EXTENSION)));
+
+		this.droppingFirstRequests = false;
+		this.unavailable = false;
+		this.rangesRequested.clear();
+		this.bytesServed.set(0);
+		createDownloader("secret").download(Duration.ZERO);
+		assertArrayEquals(this.content, Files.readAllBytes(this.destination));
+		// Up to half of each range was received by the failed download, so only the rest of each range (and the probe) was requested.
+		assertEquals(5, this.rangesRequested.size());
+		assertEquals(4, countResumedRanges());
+		assertTrue(this.bytesServed.get() < this.content.length);
+	}
+
+	/**
+	 * Tests that a downloaded file whose MD5 digest is not the one in the ETag, and that is not a valid gzip file, is rejected.
+	 */
+	@Test
+	public void testChecksumMismatch() throws Exception
+	{
+		this.etag = "\"0123456789abcdef0123456789abcdef\"";
+		// Corrupt the compressed data, but not the gzip header.
+		this.content[this.content.length / 2] ^= 0x55;
+		try
+		{
+			createDownloader("secret").download(Duration.ZERO);
+			fail("Expected the verification to fail");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("MD5"));
+		}
+		assertFalse(Files.exists(this.destination));
+		assertFalse(Files.exists(this.directory.resolve("CosmicMutantExport.tsv.gz" + COSMICFileDownloader.PART_EXTENSION)));
+	}
+
+	/**
+	 * Tests that a file whose ETag looks like an MD5 digest, but isn't one (as for an S3 object encrypted with SSE-KMS), is accepted
+	 * if it is a valid gzip file.
+	 */
+	@Test
+	public void testETagThatIsNotMD5() throws Exception
+	{
+		this.etag = "\"0123456789abcdef0123456789abcdef\"";
+		assertTrue(createDownloader("secret").download(Duration.ZERO));
+		assertArrayEquals(this.content, Files.readAllBytes(this.destination));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongPassword() throws Exception
+	{
+		createDownloader("wrong").download(Duration.ZERO);
+	}
+}
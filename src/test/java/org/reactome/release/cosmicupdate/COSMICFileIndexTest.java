@@ -0,0 +1,128 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class COSMICFileIndexTest
+{
+	private static final String MUTATION_HEADER = "GENE_NAME\tGENOMIC_MUTATION_ID\tLEGACY_MUTATION_ID\tMUTATION_ID\n";
+	private Path indexDirectory;
+	private Path mutantExportFile;
+	private Path fusionExportFile;
+
+	@Before
+	public void setup() throws IOException
+	{
+		this.indexDirectory = Files.createTempDirectory("cosmicIndexes");
+		this.mutantExportFile = Files.createTempFile("mutantExport", ".tsv");
+		try(BufferedWriter writer = Files.newBufferedWriter(this.mutantExportFile))
+		{
+			writer.write(MUTATION_HEADER);
+			for (int i = 0; i < 5000; i++)
+			{
+				writer.write("GENE" + (i % 97) + "\tCOSV" + i + "\tCOSM" + (i % 1000) + "\t" + (i % 2000) + "\n");
+			}
+			// A row with no legacy ID is skipped.
+			writer.write("BRAF\tCOSV1\t\t1\n");
+		}
+		this.fusionExportFile = Files.createTempFile("fusionExport", ".tsv");
+		Files.writeString(this.fusionExportFile, "SAMPLE_ID\tFUSION_ID\n1\t1234\n2\t\n3\t7890\n");
+	}
+
+	/**
+	 * Tests that looking up identifiers in the index of a mutation file finds the same matches as scanning the file.
+	 */
+	@Test
+	public void testMutationIndexMatchesScan() throws IOException
+	{
+		List<String> legacyIDs = Arrays.asList("COSM1", "COSM999", "COSM1000", "1", "cosm5", "COSM05");
+		COSMICFileIndex fileIndex = COSMICFileIndex.openOrBuild(this.mutantExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.MUTATIONS);
+		assertNotNull(fileIndex);
+		assertEquals(1000, fileIndex.size());
+		COSMICMutationMatches indexMatches = fileIndex.findMutationMatches(legacyIDs);
+
+		COSMICMutationMatches scanMatches = COSMICUpdateUtil.validateAgainstCosmicMutantExport(new COSMICIdentifierIndex(legacyIDs),
+			this.mutantExportFile.toString());
+		assertEquals(scanMatches.size(), indexMatches.size());
+		for (String legacyID : legacyIDs)
+		{
+			COSMICMutationMatches.Match scanMatch = scanMatches.get(legacyID);
+			COSMICMutationMatches.Match indexMatch = indexMatches.get(legacyID);
+			if (scanMatch == null)
+			{
+				assertNull(legacyID, indexMatch);
+				continue;
+			}
+			assertEquals(legacyID, scanMatch.getGenomicID(), indexMatch.getGenomicID());
+			assertEquals(legacyID, Arrays.asList(scanMatch.getMutationIDs().toArray()), Arrays.asList(indexMatch.getMutationIDs().toArray()));
+		}
+		assertEquals("COSV4999", indexMatches.get("COSM999").getGenomicID());
+		assertEquals(Arrays.asList("999", "1999"), Arrays.asList(indexMatches.get("COSM999").getMutationIDs().toArray()));
+	}
+
+	@Test
+	public void testFusionIndex() throws IOException
+	{
+		COSMICFileIndex fileIndex = COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.FUSIONS);
+		assertNotNull(fileIndex);
+		assertEquals(new HashSet<>(Arrays.asList("1234", "7890")), fileIndex.findFusionIDs(Arrays.asList("1234", "7890", "5678", "01234", "")));
+	}
+
+	/**
+	 * Tests that an index is rebuilt when its file or the COSMIC version changes, but not when the file was only touched; in that case
+	 * the new modification time is recorded, so the file isn't read again to compare checksums.
+	 */
+	@Test
+	public void testIndexIsRebuiltWhenStale() throws IOException
+	{
+		Path indexFile = this.indexDirectory.resolve(this.fusionExportFile.getFileName() + COSMICFileIndex.INDEX_EXTENSION);
+		COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.FUSIONS);
+		long indexSize = Files.size(indexFile);
+
+		// Same contents, new modification time: the checksum still matches.
+		FileTime touchedTime = FileTime.fromMillis(System.currentTimeMillis() + 5000);
+		Files.setLastModifiedTime(this.fusionExportFile, touchedTime);
+		COSMICFileIndex fileIndex = COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.FUSIONS);
+		assertEquals(2, fileIndex.size());
+		assertEquals(indexSize, Files.size(indexFile));
+
+		// The new time was recorded: a change that keeps the size and the time isn't noticed, because the checksum isn't compared.
+		Files.writeString(this.fusionExportFile, Files.readString(this.fusionExportFile).replace("1234", "1235"));
+		Files.setLastModifiedTime(this.fusionExportFile, touchedTime);
+		fileIndex = COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.FUSIONS);
+		assertEquals(new HashSet<>(Arrays.asList("1234")), fileIndex.findFusionIDs(Arrays.asList("1234", "1235")));
+
+		fileIndex = COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v97", COSMICFileIndex.Kind.FUSIONS);
+		assertEquals(2, fileIndex.size());
+		assertEquals(new HashSet<>(Arrays.asList("1235")), fileIndex.findFusionIDs(Arrays.asList("1234", "1235")));
+
+		Files.writeString(this.fusionExportFile, "4\t5678\n", StandardOpenOption.APPEND);
+		fileIndex = COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v97", COSMICFileIndex.Kind.FUSIONS);
+		assertEquals(3, fileIndex.size());
+		assertEquals(new HashSet<>(Arrays.asList("5678")), fileIndex.findFusionIDs(Arrays.asList("5678")));
+	}
+
+	/**
+	 * Tests that a file with an ID that can't be encoded is not indexed.
+	 */
+	@Test
+	public void testUnindexableFile() throws IOException
+	{
+		Files.writeString(this.fusionExportFile, "5\tFUSION-5\n", StandardOpenOption.APPEND);
+		assertNull(COSMICFileIndex.openOrBuild(this.fusionExportFile, this.indexDirectory, "v96", COSMICFileIndex.Kind.FUSIONS));
+	}
+}
@@ -0,0 +1,96 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class COSMICFileScannerTest
+{
+	private static final String HEADER = "GENE_NAME\tGENOMIC_MUTATION_ID\tLEGACY_MUTATION_ID\tMUTATION_ID\n";
+
+	private static COSMICFileScanner getScanner(String contents) throws IOException
+	{
+		return new COSMICFileScanner(new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)),
+			"LEGACY_MUTATION_ID", "MUTATION_ID", "GENOMIC_MUTATION_ID");
+	}
+
+	private static List<String> scanToList(COSMICFileScanner scanner) throws IOException
+	{
+		List<String> rows = new ArrayList<>();
+		scanner.scan(row -> rows.add(row.getString(0) + "|" + row.getString(1) + "|" + row.getString(2)));
+		return rows;
+	}
+
+	@Test
+	public void testScanReadsRequestedColumns() throws IOException
+	{
+		String contents = HEADER
+			+ "BRAF\tCOSV56056643\tCOSM476\t1\n"
+			+ "\n"
+			+ "KRAS\t\tCOSM521\t2\r\n"
+			+ "TP53\tCOSV52661038\tCOSM10648\t3";
+		try(COSMICFileScanner scanner = getScanner(contents))
+		{
+			List<String> rows = scanToList(scanner);
+			assertEquals(3, rows.size());
+			assertEquals("COSM476|1|COSV56056643", rows.get(0));
+			// An empty field, and a Windows line ending.
+			assertEquals("COSM521|2|", rows.get(1));
+			// The last line has no newline.
+			assertEquals("COSM10648|3|COSV52661038", rows.get(2));
+		}
+	}
+
+	@Test
+	public void testScanLineLongerThanBuffer() throws IOException
+	{
+		StringBuilder longGeneName = new StringBuilder();
+		while (longGeneName.length() <= COSMICFileScanner.DEFAULT_BUFFER_SIZE * 2)
+		{
+			longGeneName.append("ABCDEFGHIJ");
+		}
+		String contents = HEADER + "BRAF\tCOSV1\tCOSM1\t1\n" + longGeneName + "\tCOSV2\tCOSM2\t2\n" + "TP53\tCOSV3\tCOSM3\t3\n";
+		try(COSMICFileScanner scanner = getScanner(contents))
+		{
+			List<String> rows = scanToList(scanner);
+			assertEquals(3, rows.size());
+			assertEquals("COSM2|2|COSV2", rows.get(1));
+			assertEquals("COSM3|3|COSV3", rows.get(2));
+		}
+	}
+
+	@Test
+	public void testMissingColumnInHeader() throws IOException
+	{
+		try
+		{
+			getScanner("GENE_NAME\tMUTATION_ID\n");
+			fail("A header without LEGACY_MUTATION_ID should be rejected.");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+
+	@Test
+	public void testShortRow() throws IOException
+	{
+		try(COSMICFileScanner scanner = getScanner(HEADER + "BRAF\tCOSV1\n"))
+		{
+			scanToList(scanner);
+			fail("A row without a LEGACY_MUTATION_ID column should be rejected.");
+		}
+		catch (IOException e)
+		{
+			// expected
+		}
+	}
+}
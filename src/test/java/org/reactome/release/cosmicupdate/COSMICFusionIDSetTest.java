@@ -0,0 +1,67 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+public class COSMICFusionIDSetTest
+{
+	private static boolean markSeen(COSMICFusionIDSet fusionIDs, String field)
+	{
+		byte[] bytes = ("\t" + field + "\t").getBytes(StandardCharsets.UTF_8);
+		return fusionIDs.markSeen(bytes, 1, bytes.length - 1);
+	}
+
+	@Test
+	public void testMarkSeen()
+	{
+		COSMICFusionIDSet fusionIDs = new COSMICFusionIDSet(Arrays.asList("COSF1234", "cosf1234", "COSF77", "COSF0123", "COSM1234", "5678"));
+		// 1234 (for two keys), 77 and 0123.
+		assertEquals(3, fusionIDs.size());
+
+		// Only the numbers of the fusion IDs are matched.
+		assertFalse(markSeen(fusionIDs, "5678"));
+		assertFalse(markSeen(fusionIDs, "COSF1234"));
+		assertFalse(markSeen(fusionIDs, ""));
+		assertTrue(markSeen(fusionIDs, "1234"));
+		// Each fusion ID is only counted once.
+		assertFalse(markSeen(fusionIDs, "1234"));
+		// A fusion ID with a leading zero is compared as a String, so it only matches the same String.
+		assertFalse(markSeen(fusionIDs, "123"));
+		assertTrue(markSeen(fusionIDs, "0123"));
+		assertFalse(fusionIDs.allSeen());
+		assertTrue(markSeen(fusionIDs, "77"));
+		assertTrue(fusionIDs.allSeen());
+
+		assertEquals(new HashSet<>(Arrays.asList("COSF1234", "cosf1234", "COSF77", "COSF0123")), fusionIDs.getSeenKeys());
+	}
+
+	/**
+	 * Tests that a scan stops at the row where the handler stops it.
+	 */
+	@Test
+	public void testScanStopsWhenAllSeen() throws IOException
+	{
+		COSMICFusionIDSet fusionIDs = new COSMICFusionIDSet(Arrays.asList("COSF2", "COSF3"));
+		String contents = "SAMPLE_ID\tFUSION_ID\n" + "1\t3\n" + "2\t1\n" + "3\t2\n" + "4\t3\n" + "5\tnot read\n";
+		try(COSMICFileScanner scanner = new COSMICFileScanner(new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)), "FUSION_ID"))
+		{
+			long rowCount = scanner.scan(row -> {
+				if (fusionIDs.markSeen(row.getBuffer(), row.getStart(0), row.getEnd(0)) && fusionIDs.allSeen())
+				{
+					scanner.stop();
+				}
+			});
+			assertEquals(3, rowCount);
+		}
+		assertEquals(new HashSet<>(Arrays.asList("COSF2", "COSF3")), fusionIDs.getSeenKeys());
+	}
+}
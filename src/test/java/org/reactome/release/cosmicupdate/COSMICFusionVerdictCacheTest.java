@@ -0,0 +1,76 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.gk.model.GKInstance;
+import org.junit.Test;
+
+public class COSMICFusionVerdictCacheTest
+{
+	private static GKInstance createEWAS(Long dbID)
+	{
+		GKInstance ewas = new GKInstance();
+		ewas.setDBID(dbID);
+		return ewas;
+	}
+
+	@Test
+	public void testVerdictsInOneRun()
+	{
+		COSMICFusionVerdictCache cache = new COSMICFusionVerdictCache();
+		GKInstance ewas = createEWAS(1L);
+		assertNull(cache.getVerdict(ewas));
+		cache.putVerdict(ewas, true);
+		assertEquals(Boolean.TRUE, cache.getVerdict(ewas));
+
+		// Unsaved EWASes can't be told apart by DB_ID, so they are always checked.
+		GKInstance newEWAS = createEWAS(null);
+		cache.putVerdict(newEWAS, false);
+		assertFalse(cache.hasVerdict(newEWAS));
+		assertNull(cache.getVerdict(newEWAS));
+		GKInstance localEWAS = createEWAS(-1L);
+		cache.putVerdict(localEWAS, false);
+		assertNull(cache.getVerdict(localEWAS));
+
+		assertEquals(1, cache.getCachedVerdictCount());
+		assertEquals(3, cache.getComputedVerdictCount());
+	}
+
+	/**
+	 * Tests that saved verdicts are used in the next run, except for EWASes that have been modified since.
+	 */
+	@Test
+	public void testSaveAndLoad() throws IOException
+	{
+		Path cacheFile = Files.createTempDirectory("fusionVerdicts").resolve("verdicts.csv");
+		COSMICFusionVerdictCache cache = COSMICFusionVerdictCache.load(cacheFile);
+		assertTrue(cache.isPersistent());
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		lastInstanceEdits.put(1L, 100L);
+		lastInstanceEdits.put(2L, 200L);
+		cache.setLastInstanceEdits(lastInstanceEdits);
+		cache.putVerdict(createEWAS(1L), true);
+		cache.putVerdict(createEWAS(2L), false);
+		// The last InstanceEdit of this EWAS isn't known, so its verdict can't be checked in a later run, and isn't saved.
+		cache.putVerdict(createEWAS(3L), true);
+		cache.save(cacheFile);
+
+		COSMICFusionVerdictCache loadedCache = COSMICFusionVerdictCache.load(cacheFile);
+		lastInstanceEdits.put(2L, 250L);
+		lastInstanceEdits.put(3L, 300L);
+		loadedCache.setLastInstanceEdits(lastInstanceEdits);
+		assertEquals(Boolean.TRUE, loadedCache.getVerdict(createEWAS(1L)));
+		// EWAS 2 was modified since its verdict was saved.
+		assertFalse(loadedCache.hasVerdict(createEWAS(2L)));
+		assertFalse(loadedCache.hasVerdict(createEWAS(3L)));
+	}
+}
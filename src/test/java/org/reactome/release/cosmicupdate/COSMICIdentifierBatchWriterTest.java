@@ -0,0 +1,136 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.gk.model.GKInstance;
+import org.gk.model.InstanceDisplayNameGenerator;
+import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.reactome.release.common.database.InstanceEditUtils;
+
+public class COSMICIdentifierBatchWriterTest
+{
+	private long creatorID = 112233445566L;
+
+	@Mock
+	private MySQLAdaptor mockAdaptor;
+
+	@Mock
+	private GKInstance mockInstanceEdit;
+
+	private List<GKInstance> identifierObjects;
+
+	@Before
+	public void set() throws Exception
+	{
+		MockitoAnnotations.openMocks(this);
+		Mockito.when(mockAdaptor.supportsTransactions()).thenReturn(true);
+		this.identifierObjects = new ArrayList<>();
+		for (long dbID = 1L; dbID <= 3L; dbID++)
+		{
+			GKInstance identifierObject = Mockito.mock(GKInstance.class);
+			Mockito.when(identifierObject.getDBID()).thenReturn(dbID);
+			this.identifierObjects.add(identifierObject);
+		}
+		Mockito.when(mockAdaptor.fetchInstanceByAttribute(any(String.class), any(String.class), any(String.class), anyCollection()))
+			.thenReturn(this.identifierObjects);
+	}
+
+	private static COSMICIdentifierUpdater createUpdater(long dbID, String cosvIdentifier)
+	{
+		COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+		updater.setIdentifier("COSM" + dbID);
+		updater.setCosvIdentifier(cosvIdentifier);
+		updater.setValid(true);
+		updater.setDbID(dbID);
+		return updater;
+	}
+
+	/**
+	 * Tests that each batch is committed in its own transaction, and that the attributes of its objects are loaded all at once.
+	 */
+	@Test
+	public void testWriteCommitsEachBatch() throws Exception
+	{
+		List<COSMICIdentifierUpdater> updaters = Arrays.asList(createUpdater(1L, "COSV1"), createUpdater(2L, "COSV2"), createUpdater(3L, "COSV3"));
+		try(MockedStatic<InstanceEditUtils> mockedInstEdUtils = Mockito.mockStatic(InstanceEditUtils.class);
+			MockedStatic<InstanceDisplayNameGenerator> mockedInstDisNameGen = Mockito.mockStatic(InstanceDisplayNameGenerator.class))
+		{
+			Mockito.when(InstanceEditUtils.createDefaultIE(any(MySQLAdaptor.class), any(Long.class), any(Boolean.class), any(String.class))).thenReturn(mockInstanceEdit);
+
+			int failedCount = new COSMICIdentifierBatchWriter(mockAdaptor, creatorID, 2).write(updaters);
+
+			assertEquals(0, failedCount);
+			Mockito.verify(mockAdaptor, Mockito.times(2)).startTransaction();
+			Mockito.verify(mockAdaptor, Mockito.times(2)).commit();
+			Mockito.verify(mockAdaptor, Mockito.never()).rollback();
+			Mockito.verify(mockAdaptor, Mockito.times(2)).loadInstanceAttributeValues(anyCollection(), any(String[].class));
+			Mockito.verify(mockAdaptor, Mockito.never()).fetchInstance(any(Long.class));
+			// Three attributes for each of the three updaters.
+			Mockito.verify(mockAdaptor, Mockito.times(9)).updateInstanceAttribute(any(GKInstance.class), any(String.class));
+		}
+	}
+
+	/**
+	 * Tests that a batch with a failing update is rolled back, with its cached objects restored, and the other batches are still committed.
+	 */
+	@Test
+	public void testWriteRollsBackFailedBatch() throws Exception
+	{
+		List<COSMICIdentifierUpdater> updaters = Arrays.asList(createUpdater(1L, "COSV1"), createUpdater(2L, "COSV2"), createUpdater(3L, "COSV3"));
+		try(MockedStatic<InstanceEditUtils> mockedInstEdUtils = Mockito.mockStatic(InstanceEditUtils.class);
+			MockedStatic<InstanceDisplayNameGenerator> mockedInstDisNameGen = Mockito.mockStatic(InstanceDisplayNameGenerator.class))
+		{
+			Mockito.when(InstanceEditUtils.createDefaultIE(any(MySQLAdaptor.class), any(Long.class), any(Boolean.class), any(String.class))).thenReturn(mockInstanceEdit);
+			Mockito.when(this.identifierObjects.get(0).getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn("COSM1");
+			Mockito.doThrow(new RuntimeException("Simulated failure")).when(mockAdaptor)
+				.updateInstanceAttribute(this.identifierObjects.get(1), ReactomeJavaConstants.identifier);
+
+			int failedCount = new COSMICIdentifierBatchWriter(mockAdaptor, creatorID, 2).write(updaters);
+
+			// The first batch (DB_IDs 1 and 2) fails as a whole.
+			assertEquals(2, failedCount);
+			Mockito.verify(mockAdaptor, Mockito.times(1)).rollback();
+			Mockito.verify(mockAdaptor, Mockito.times(1)).commit();
+			// The object that was written before the failure gets its old identifier back.
+			Mockito.verify(this.identifierObjects.get(0)).setAttributeValue(ReactomeJavaConstants.identifier, "COSV1");
+			Mockito.verify(this.identifierObjects.get(0)).setAttributeValue(ReactomeJavaConstants.identifier, "COSM1");
+		}
+	}
+
+	/**
+	 * Tests that, without transactions, each updater is written on its own, so that only the updater that failed is counted.
+	 */
+	@Test
+	public void testWriteWithoutTransactionsCountsFailedUpdaters() throws Exception
+	{
+		List<COSMICIdentifierUpdater> updaters = Arrays.asList(createUpdater(1L, "COSV1"), createUpdater(2L, "COSV2"), createUpdater(3L, "COSV3"));
+		Mockito.when(mockAdaptor.supportsTransactions()).thenReturn(false);
+		try(MockedStatic<InstanceEditUtils> mockedInstEdUtils = Mockito.mockStatic(InstanceEditUtils.class);
+			MockedStatic<InstanceDisplayNameGenerator> mockedInstDisNameGen = Mockito.mockStatic(InstanceDisplayNameGenerator.class))
+		{
+			Mockito.when(InstanceEditUtils.createDefaultIE(any(MySQLAdaptor.class), any(Long.class), any(Boolean.class), any(String.class))).thenReturn(mockInstanceEdit);
+			Mockito.doThrow(new RuntimeException("Simulated failure")).when(mockAdaptor)
+				.updateInstanceAttribute(this.identifierObjects.get(0), ReactomeJavaConstants.identifier);
+
+			int failedCount = new COSMICIdentifierBatchWriter(mockAdaptor, creatorID, 3).write(updaters);
+
+			assertEquals(1, failedCount);
+			assertEquals(Arrays.asList(false, true, true), Arrays.asList(updaters.get(0).isWritten(), updaters.get(1).isWritten(), updaters.get(2).isWritten()));
+			Mockito.verify(mockAdaptor, Mockito.never()).startTransaction();
+			Mockito.verify(mockAdaptor, Mockito.never()).rollback();
+		}
+	}
+}
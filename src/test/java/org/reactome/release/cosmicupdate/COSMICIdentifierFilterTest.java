@@ -0,0 +1,61 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class COSMICIdentifierFilterTest
+{
+	private static boolean mightContain(COSMICIdentifierFilter filter, String field)
+	{
+		// Put the field in the middle of a row, to make sure that only the bytes of the field are hashed.
+		byte[] row = ("BRAF\t" + field + "\t1234").getBytes(StandardCharsets.UTF_8);
+		return filter.mightContain(row, 5, 5 + field.getBytes(StandardCharsets.UTF_8).length);
+	}
+
+	/**
+	 * Tests that every identifier in the filter is accepted, and that most other fields are rejected.
+	 */
+	@Test
+	public void testMightContain()
+	{
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 10000; i++)
+		{
+			keys.add("COSM" + (i * 7));
+		}
+		keys.add("cosm5");
+		COSMICIdentifierFilter filter = new COSMICIdentifierFilter(keys);
+
+		for (String key : keys)
+		{
+			assertTrue(key, mightContain(filter, key));
+		}
+
+		int falsePositives = 0;
+		int fieldCount = 100000;
+		for (int i = 0; i < fieldCount; i++)
+		{
+			if (mightContain(filter, "COSM" + (i * 7 + 3)))
+			{
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < fieldCount / 100);
+	}
+
+	/**
+	 * Tests that an empty filter still works.
+	 */
+	@Test
+	public void testEmptyFilter()
+	{
+		COSMICIdentifierFilter filter = new COSMICIdentifierFilter(new ArrayList<>());
+		assertFalse(mightContain(filter, "COSM1"));
+	}
+}
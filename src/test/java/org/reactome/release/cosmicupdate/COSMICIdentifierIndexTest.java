@@ -0,0 +1,76 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class COSMICIdentifierIndexTest
+{
+	/**
+	 * Looks up a column of a tab-separated row, straight from the bytes of the row.
+	 */
+	private static String findInRow(COSMICIdentifierIndex index, String row, int column)
+	{
+		byte[] bytes = row.getBytes(StandardCharsets.US_ASCII);
+		int start = 0;
+		for (int i = 0; i < column; i++)
+		{
+			start = row.indexOf('\t', start) + 1;
+		}
+		int end = row.indexOf('\t', start);
+		return index.find(bytes, start, end < 0 ? row.length() : end);
+	}
+
+	@Test
+	public void testFindFromBytes()
+	{
+		COSMICIdentifierIndex index = new COSMICIdentifierIndex(Arrays.asList("COSM476", "COSF45", "COSV678", "1234"));
+		assertEquals(4, index.size());
+		String row = "BRAF\tCOSM476\tCOSF45\tCOSV678\t1234\tCOSM1234\tCOSM47";
+		assertNull(findInRow(index, row, 0));
+		assertEquals("COSM476", findInRow(index, row, 1));
+		assertEquals("COSF45", findInRow(index, row, 2));
+		assertEquals("COSV678", findInRow(index, row, 3));
+		assertEquals("1234", findInRow(index, row, 4));
+		// The same number with a different prefix is a different identifier.
+		assertNull(findInRow(index, row, 5));
+		assertNull(findInRow(index, row, 6));
+	}
+
+	@Test
+	public void testIdentifiersThatCannotBeEncoded()
+	{
+		COSMICIdentifierIndex index = new COSMICIdentifierIndex(Arrays.asList("COSM0123", "cosm5", "COSM123"));
+		assertEquals(3, index.size());
+		assertEquals("COSM0123", findInRow(index, "x\tCOSM0123", 1));
+		assertEquals("cosm5", findInRow(index, "x\tcosm5", 1));
+		assertEquals("COSM123", findInRow(index, "x\tCOSM123", 1));
+		assertNull(index.find("COSM5"));
+		assertNull(index.find(""));
+		assertEquals(COSMICIdentifierIndex.NOT_ENCODABLE, COSMICIdentifierIndex.encode("COSM1234567890123456789"));
+	}
+
+	@Test
+	public void testManyIdentifiers()
+	{
+		List<String> identifiers = new ArrayList<>();
+		for (int i = 0; i < 100000; i++)
+		{
+			identifiers.add("COSM" + (i * 7));
+		}
+		COSMICIdentifierIndex index = new COSMICIdentifierIndex(identifiers);
+		assertEquals(identifiers.size(), index.size());
+		for (int i = 0; i < 100000; i++)
+		{
+			String identifier = "COSM" + i;
+			assertTrue((i % 7 == 0) == (index.find(identifier) != null));
+		}
+	}
+}
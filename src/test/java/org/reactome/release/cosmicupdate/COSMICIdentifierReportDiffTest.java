@@ -0,0 +1,76 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class COSMICIdentifierReportDiffTest
+{
+	private static void addUpdater(Map<String, List<COSMICIdentifierUpdater>> updaters, COSMICIdentifierStore store, long dbID, String identifier,
+		boolean valid, String cosvIdentifier)
+	{
+		COSMICIdentifierUpdater updater = store.add();
+		updater.setDbID(dbID);
+		updater.setIdentifier(identifier);
+		updater.setValid(valid);
+		updater.setCosvIdentifier(cosvIdentifier);
+		updaters.computeIfAbsent(identifier, k -> new ArrayList<>()).add(updater);
+	}
+
+	@Test
+	public void testDiff() throws IOException
+	{
+		Path directory = Files.createTempDirectory("cosmicDiff");
+		COSMICIdentifierStore store = new COSMICIdentifierStore();
+		Map<String, List<COSMICIdentifierUpdater>> previousUpdaters = new HashMap<>();
+		addUpdater(previousUpdaters, store, 30, "COSM30", true, "COSV1");
+		addUpdater(previousUpdaters, store, 10, "COSM10", true, null);
+		addUpdater(previousUpdaters, store, 20, "COSM20", false, null);
+		addUpdater(previousUpdaters, store, 40, "COSM40", true, "COSV4");
+		addUpdater(previousUpdaters, store, 50, "COSM50", true, "COSV5");
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "previous", EnumSet.of(COSMICReportSink.Format.CSV), true,
+			COSMICIdentifierReportWriter.COLUMNS))
+		{
+			COSMICIdentifierReportWriter.write(sink, previousUpdaters);
+		}
+
+		Map<String, List<COSMICIdentifierUpdater>> updaters = new HashMap<>();
+		// 10 is removed, 20 becomes valid and gets a COSV identifier, 30 is unchanged, 40 becomes invalid, 50 is remapped and 60 is added.
+		addUpdater(updaters, store, 60, "COSM60", false, null);
+		addUpdater(updaters, store, 50, "COSM50", true, "COSV55");
+		addUpdater(updaters, store, 40, "COSM40", false, "COSV4");
+		addUpdater(updaters, store, 30, "COSM30", true, "COSV1");
+		addUpdater(updaters, store, 20, "COSM20", true, "COSV2");
+		Map<COSMICIdentifierReportDiff.Change, Long> changeCounts;
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "diff", EnumSet.of(COSMICReportSink.Format.CSV), false,
+			COSMICIdentifierReportDiff.COLUMNS))
+		{
+			// Sort the previous report in runs of two lines, so that the runs are merged.
+			changeCounts = COSMICIdentifierReportDiff.diff(directory.resolve("previous.csv" + COSMICUpdateUtil.GZIP_EXTENSION), updaters, sink,
+				directory, 2);
+		}
+
+		assertEquals(Arrays.asList(
+			"Change,DB_ID,Identifier,Previously valid?,Valid?,Previous COSV identifier,COSV identifier",
+			"REMOVED,10,COSM10,true,,,",
+			"NEWLY_VALID,20,COSM20,false,true,,COSV2",
+			"COSV_REMAPPED,20,COSM20,false,true,,COSV2",
+			"NEWLY_INVALID,40,COSM40,true,false,COSV4,COSV4",
+			"COSV_REMAPPED,50,COSM50,true,true,COSV5,COSV55",
+			"ADDED,60,COSM60,,false,,"),
+			Files.readAllLines(directory.resolve("diff.csv"), StandardCharsets.UTF_8));
+		assertEquals(Long.valueOf(2), changeCounts.get(COSMICIdentifierReportDiff.Change.COSV_REMAPPED));
+		assertEquals(Long.valueOf(1), changeCounts.get(COSMICIdentifierReportDiff.Change.ADDED));
+	}
+}
@@ -0,0 +1,138 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class COSMICIdentifierReportWriterTest
+{
+	private static Map<String, List<COSMICIdentifierUpdater>> createUpdaters()
+	{
+		COSMICIdentifierStore store = new COSMICIdentifierStore(4);
+		Map<String, List<COSMICIdentifierUpdater>> updaters = new HashMap<>();
+		String[] identifiers = { "5678", "COSM1234", "44444", "COSF99", "5678", "1111" };
+		for (int i = 0; i < identifiers.length; i++)
+		{
+			COSMICIdentifierUpdater updater = store.add();
+			updater.setDbID(100L + i);
+			updater.setIdentifier(identifiers[i]);
+			updater.setValid(i % 2 == 0);
+			if (!identifiers[i].startsWith("C"))
+			{
+				updater.setSuggestedPrefix(i == 2 ? COSMICUpdateUtil.COSMIC_FUSION_PREFIX : COSMICUpdateUtil.COSMIC_LEGACY_PREFIX);
+			}
+			if (i == 0)
+			{
+				updater.setCosvIdentifier("COSV55");
+				updater.getMutationIDs().addAll(Arrays.asList("COSM2", "COSM1"));
+			}
+			// Like determinePrefixes, numeric identifiers are keyed with their suggested prefix.
+			String key = updater.getSuggestedPrefix() != null ? updater.getSuggestedPrefix() + identifiers[i] : identifiers[i];
+			updaters.computeIfAbsent(key, k -> new ArrayList<>()).add(updater);
+		}
+		return updaters;
+	}
+
+	/**
+	 * Tests that the report is in the order of COSMICIdentifierUpdater.compareTo: invalid identifiers first, then by identifier.
+	 */
+	@Test
+	public void testWrite() throws IOException
+	{
+		Path directory = Files.createTempDirectory("cosmicReport");
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "report", EnumSet.of(COSMICReportSink.Format.CSV), false,
+			COSMICIdentifierReportWriter.COLUMNS))
+		{
+			assertEquals(6, COSMICIdentifierReportWriter.write(sink, createUpdaters()));
+		}
+		List<String> lines = Files.readAllLines(directory.resolve("report.csv"), StandardCharsets.UTF_8);
+		assertEquals(7, lines.size());
+		assertEquals(String.join(",", COSMICReportSink.getHeaders(COSMICIdentifierReportWriter.COLUMNS)), lines.get(0));
+		assertEquals("105,1111,COSM,false,,[],https://cancer.sanger.ac.uk/cosmic/search?q=COSM1111", lines.get(1));
+		assertEquals("103,COSF99,,false,,[],https://cancer.sanger.ac.uk/cosmic/search?q=COSF99", lines.get(2));
+		assertEquals("101,COSM1234,,false,,[],https://cancer.sanger.ac.uk/cosmic/search?q=COSM1234", lines.get(3));
+		assertEquals("102,44444,COSF,true,,[],https://cancer.sanger.ac.uk/cosmic/search?q=COSF44444", lines.get(4));
+		assertEquals("100,5678,COSM,true,COSV55,\"[COSM2, COSM1]\",https://cancer.sanger.ac.uk/cosmic/search?q=COSM5678", lines.get(5));
+		assertEquals("104,5678,COSM,true,,[],https://cancer.sanger.ac.uk/cosmic/search?q=COSM5678", lines.get(6));
+	}
+
+	/**
+	 * Tests writing the report gzipped, in both formats at once.
+	 */
+	@Test
+	public void testWriteGzipped() throws IOException
+	{
+		Path directory = Files.createTempDirectory("cosmicReport");
+		Set<COSMICReportSink.Format> formats = EnumSet.allOf(COSMICReportSink.Format.class);
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "report", formats, false, COSMICIdentifierReportWriter.COLUMNS);
+			COSMICReportSink gzippedSink = COSMICReportSink.open(directory, "gzippedReport", formats, true, COSMICIdentifierReportWriter.COLUMNS))
+		{
+			COSMICIdentifierReportWriter.write(sink, createUpdaters());
+			COSMICIdentifierReportWriter.write(gzippedSink, createUpdaters());
+		}
+		for (COSMICReportSink.Format format : formats)
+		{
+			Path gzippedReportFile = directory.resolve("gzippedReport" + format.getExtension() + COSMICUpdateUtil.GZIP_EXTENSION);
+			try(InputStream input = new GZIPInputStream(Files.newInputStream(gzippedReportFile)))
+			{
+				assertEquals(new String(Files.readAllBytes(directory.resolve("report" + format.getExtension())), StandardCharsets.UTF_8),
+					new String(input.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		}
+		List<String> lines = Files.readAllLines(directory.resolve("report.jsonl"), StandardCharsets.UTF_8);
+		assertEquals(6, lines.size());
+		assertEquals("{\"dbID\":100,\"identifier\":\"5678\",\"suggestedPrefix\":\"COSM\",\"valid\":true,\"cosvIdentifier\":\"COSV55\","
+			+ "\"mutationIDs\":[\"COSM2\",\"COSM1\"],\"cosmicSearchURL\":\"https://cancer.sanger.ac.uk/cosmic/search?q=COSM5678\"}", lines.get(4));
+	}
+
+	/**
+	 * Tests that rows from several stores are written in the order that sorting the updaters gives, including the order of equal updaters.
+	 */
+	@Test
+	public void testWriteSortsLikeUpdaters() throws IOException
+	{
+		Random random = new Random(18);
+		COSMICIdentifierStore store = new COSMICIdentifierStore();
+		COSMICIdentifierStore otherStore = new COSMICIdentifierStore();
+		Map<String, List<COSMICIdentifierUpdater>> updaters = new HashMap<>();
+		List<COSMICIdentifierUpdater> allUpdaters = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			COSMICIdentifierUpdater updater = i % 100 == 0 ? new COSMICIdentifierUpdater() : (i % 3 == 0 ? otherStore : store).add();
+			updater.setDbID(i);
+			updater.setIdentifier("COSM" + random.nextInt(300));
+			updater.setValid(random.nextBoolean());
+			updaters.computeIfAbsent(updater.getIdentifier(), k -> new ArrayList<>()).add(updater);
+		}
+		updaters.values().forEach(allUpdaters::addAll);
+		allUpdaters.sort(null);
+
+		Path directory = Files.createTempDirectory("cosmicReport");
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "report", EnumSet.of(COSMICReportSink.Format.CSV), false,
+			COSMICIdentifierReportWriter.COLUMNS))
+		{
+			assertEquals(allUpdaters.size(), COSMICIdentifierReportWriter.write(sink, updaters));
+		}
+		List<String> lines = Files.readAllLines(directory.resolve("report.csv"), StandardCharsets.UTF_8);
+		for (int i = 0; i < allUpdaters.size(); i++)
+		{
+			assertEquals(allUpdaters.get(i).getDbID() + "," + allUpdaters.get(i).getIdentifier(), lines.get(i + 1).substring(0,
+				lines.get(i + 1).indexOf(',', lines.get(i + 1).indexOf(',') + 1)));
+		}
+	}
+}
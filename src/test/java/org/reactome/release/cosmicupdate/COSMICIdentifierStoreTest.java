@@ -0,0 +1,133 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class COSMICIdentifierStoreTest
+{
+	/**
+	 * Tests that the values of updaters in different pages are kept apart.
+	 */
+	@Test
+	public void testValuesAcrossPages()
+	{
+		COSMICIdentifierStore store = new COSMICIdentifierStore(4);
+		List<COSMICIdentifierUpdater> updaters = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+		{
+			COSMICIdentifierUpdater updater = store.add();
+			updater.setDbID(1000L + i);
+			updater.setIdentifier(String.valueOf(i));
+			updater.setSuggestedPrefix(i % 2 == 0 ? COSMICUpdateUtil.COSMIC_LEGACY_PREFIX : COSMICUpdateUtil.COSMIC_FUSION_PREFIX);
+			updater.setValid(i % 3 == 0);
+			updater.setWritten(i % 4 == 0);
+			updater.setCosvIdentifier("COSV" + (i * 11));
+			updaters.add(updater);
+		}
+		assertEquals(10, store.size());
+		for (int i = 0; i < 10; i++)
+		{
+			COSMICIdentifierUpdater updater = updaters.get(i);
+			assertEquals(1000L + i, updater.getDbID());
+			assertEquals(String.valueOf(i), updater.getIdentifier());
+			assertEquals(i % 2 == 0 ? COSMICUpdateUtil.COSMIC_LEGACY_PREFIX : COSMICUpdateUtil.COSMIC_FUSION_PREFIX, updater.getSuggestedPrefix());
+			assertEquals(i % 3 == 0, updater.isValid());
+			assertEquals(i % 4 == 0, updater.isWritten());
+			assertEquals("COSV" + (i * 11), updater.getCosvIdentifier());
+		}
+	}
+
+	@Test
+	public void testUnsetValues()
+	{
+		COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+		assertNull(updater.getIdentifier());
+		assertNull(updater.getSuggestedPrefix());
+		assertNull(updater.getCosvIdentifier());
+		assertFalse(updater.isValid());
+		assertTrue(updater.getMutationIDs().isEmpty());
+
+		updater.setSuggestedPrefix(COSMICUpdateUtil.COSMIC_LEGACY_PREFIX);
+		updater.setSuggestedPrefix(null);
+		assertNull(updater.getSuggestedPrefix());
+	}
+
+	/**
+	 * Tests COSV identifiers that can't be stored as a long.
+	 */
+	@Test
+	public void testCosvIdentifiersThatCannotBeEncoded()
+	{
+		COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+		for (String cosvIdentifier : Arrays.asList("", "COSV0123", "cosv5", "COSV12345678901234567890", "COSV", "COSV99", "0"))
+		{
+			updater.setCosvIdentifier(cosvIdentifier);
+			assertEquals(cosvIdentifier, updater.getCosvIdentifier());
+		}
+		updater.setCosvIdentifier(null);
+		assertNull(updater.getCosvIdentifier());
+	}
+
+	/**
+	 * Tests that the mutation IDs behave like a Set, as more of them are added than can be kept inline.
+	 */
+	@Test
+	public void testMutationIDs()
+	{
+		COSMICIdentifierStore store = new COSMICIdentifierStore(2);
+		COSMICIdentifierUpdater updater = store.add();
+		COSMICIdentifierUpdater otherUpdater = store.add();
+		Set<String> expectedMutationIDs = new HashSet<>();
+		for (int i = 0; i < 20; i++)
+		{
+			String mutationID = "COSM" + (i * 7);
+			assertTrue(updater.getMutationIDs().add(mutationID));
+			assertFalse(updater.getMutationIDs().add(mutationID));
+			expectedMutationIDs.add(mutationID);
+			assertEquals(expectedMutationIDs, updater.getMutationIDs());
+		}
+		assertTrue(updater.getMutationIDs().contains("COSM7"));
+		assertFalse(updater.getMutationIDs().contains("COSM8"));
+		assertFalse(updater.getMutationIDs().contains("COSM07"));
+		assertTrue(otherUpdater.getMutationIDs().isEmpty());
+
+		// The mutation IDs are in the order in which they were added.
+		otherUpdater.getMutationIDs().addAll(Arrays.asList("COSM3", "COSM1", "COSM2"));
+		assertEquals("[COSM3, COSM1, COSM2]", otherUpdater.getMutationIDs().toString());
+
+		updater.setMutationIDs(new HashSet<>(Arrays.asList("COSM5")));
+		assertEquals(new HashSet<>(Arrays.asList("COSM5")), updater.getMutationIDs());
+	}
+
+	/**
+	 * Tests mutation IDs that can't be stored as a long, mixed with some that can.
+	 */
+	@Test
+	public void testMutationIDsThatCannotBeEncoded()
+	{
+		COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+		updater.getMutationIDs().addAll(Arrays.asList("COSM1", "COSM2", "COSM3"));
+		assertTrue(updater.getMutationIDs().add("COSM01"));
+		assertFalse(updater.getMutationIDs().add("COSM2"));
+		assertTrue(updater.getMutationIDs().add("cosm4"));
+		assertEquals(5, updater.getMutationIDs().size());
+		assertTrue(updater.getMutationIDs().contains("COSM01"));
+		assertTrue(updater.getMutationIDs().contains("COSM3"));
+		assertEquals("[COSM1, COSM2, COSM3, COSM01, cosm4]", updater.getMutationIDs().toString());
+
+		updater.getMutationIDs().clear();
+		assertTrue(updater.getMutationIDs().isEmpty());
+		assertTrue(updater.getMutationIDs().add("COSM6"));
+		assertEquals(new HashSet<>(Arrays.asList("COSM6")), updater.getMutationIDs());
+	}
+}
@@ -0,0 +1,48 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import org.junit.Test;
+
+public class COSMICReportSinkTest
+{
+	private static final COSMICReportSink.Column[] COLUMNS = {
+		new COSMICReportSink.Column("DB_ID", "dbID"),
+		new COSMICReportSink.Column("Name", "name"),
+		new COSMICReportSink.Column("Valid?", "valid"),
+		new COSMICReportSink.Column("IDs", "ids")
+	};
+
+	@Test
+	public void testFormats() throws IOException
+	{
+		Path directory = Files.createTempDirectory("cosmicReportSink");
+		try(COSMICReportSink sink = COSMICReportSink.open(directory, "report", COSMICReportSink.Format.parse("CSV, jsonl"), false, COLUMNS))
+		{
+			sink.writeRow(1L, "EWAS \"A\", with a\ttab", true, Arrays.asList("COSM1", "COSM2"));
+			sink.writeRow(2L, null, false, Collections.emptySet());
+		}
+
+		assertEquals(Arrays.asList("DB_ID,Name,Valid?,IDs", "1,\"EWAS \"\"A\"\", with a\ttab\",true,\"[COSM1, COSM2]\"", "2,,false,[]"),
+			Files.readAllLines(directory.resolve("report.csv"), StandardCharsets.UTF_8));
+		assertEquals(Arrays.asList("{\"dbID\":1,\"name\":\"EWAS \\\"A\\\", with a\\u0009tab\",\"valid\":true,\"ids\":[\"COSM1\",\"COSM2\"]}",
+			"{\"dbID\":2,\"name\":null,\"valid\":false,\"ids\":[]}"),
+			Files.readAllLines(directory.resolve("report.jsonl"), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testParseFormats()
+	{
+		assertEquals(EnumSet.of(COSMICReportSink.Format.CSV), COSMICReportSink.Format.parse(null));
+		assertEquals(EnumSet.of(COSMICReportSink.Format.CSV), COSMICReportSink.Format.parse(" "));
+		assertEquals(EnumSet.of(COSMICReportSink.Format.JSONL), COSMICReportSink.Format.parse("jsonl"));
+	}
+}
@@ -0,0 +1,74 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class COSMICScanProgressTest
+{
+	private static final Duration INTERVAL = Duration.ofMinutes(1);
+
+	@Test
+	public void testTrackCountsBytes() throws IOException
+	{
+		try(COSMICScanProgress progress = new COSMICScanProgress("test.tsv", 100, INTERVAL);
+			InputStream input = progress.track(new ByteArrayInputStream(new byte[100])))
+		{
+			input.read();
+			input.read(new byte[40], 0, 40);
+			input.skip(9);
+			assertEquals(50, progress.getBytesRead());
+			input.read(new byte[100], 0, 100);
+			// Reading past the end of the stream doesn't count.
+			assertEquals(-1, input.read());
+			assertEquals(100, progress.getBytesRead());
+		}
+	}
+
+	/**
+	 * Tests that the rows that the scanner adds in strides add up to the number of rows scanned.
+	 */
+	@Test
+	public void testScannerAddsRows() throws IOException
+	{
+		int rowCount = (int) (COSMICScanProgress.ROW_STRIDE * 2 + 123);
+		StringBuilder contents = new StringBuilder("GENE_NAME\tLEGACY_MUTATION_ID\n");
+		for (int i = 0; i < rowCount; i++)
+		{
+			contents.append("GENE").append(i).append("\tCOSM").append(i).append('\n');
+		}
+		byte[] bytes = contents.toString().getBytes(StandardCharsets.UTF_8);
+		try(COSMICScanProgress progress = new COSMICScanProgress("test.tsv", bytes.length, INTERVAL);
+			COSMICFileScanner scanner = new COSMICFileScanner(progress.track(new ByteArrayInputStream(bytes)), "LEGACY_MUTATION_ID"))
+		{
+			scanner.setProgress(progress);
+			assertEquals(rowCount, scanner.scan(row -> { }));
+			assertEquals(rowCount, progress.getRows());
+			assertEquals(bytes.length, progress.getBytesRead());
+		}
+	}
+
+	@Test
+	public void testDescribe() throws IOException, InterruptedException
+	{
+		try(COSMICScanProgress progress = new COSMICScanProgress("CosmicMutantExport.tsv", 4 * 1024 * 1024, INTERVAL);
+			InputStream input = progress.track(new ByteArrayInputStream(new byte[1024 * 1024])))
+		{
+			Thread.sleep(10);
+			input.read(new byte[1024 * 1024], 0, 1024 * 1024);
+			progress.addRows(5000);
+			progress.addMatches(7);
+			String description = progress.describe();
+			assertTrue(description, description.startsWith("CosmicMutantExport.tsv: 25.0% (1.0 of 4.0 MB)"));
+			assertTrue(description, description.contains(", 7 matches"));
+			assertTrue(description, description.matches(".*, ETA \\d+:\\d\\d:\\d\\d$"));
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class COSMICSortedMutationFileTest
+{
+	private static final String HEADER = "GENE_NAME\tMUTATION_ID\tLEGACY_MUTATION_ID\tGENOMIC_MUTATION_ID";
+
+	private static Path writeMutationFile(Path directory, List<String> rows) throws IOException
+	{
+		Path file = directory.resolve("CosmicMutantExport.tsv");
+		List<String> lines = new ArrayList<>();
+		lines.add(HEADER);
+		lines.addAll(rows);
+		Files.write(file, lines, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static List<String> readLines(Path file) throws IOException
+	{
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(COSMICUpdateUtil.getInputStream(file.toString()),
+			StandardCharsets.UTF_8)))
+		{
+			return reader.lines().collect(Collectors.toList());
+		}
+	}
+
+	private static COSMICMutationMatches merge(COSMICSortedIdentifiers identifiers, Path file) throws IOException
+	{
+		try(COSMICFileScanner scanner = new COSMICFileScanner(COSMICUpdateUtil.getInputStream(file.toString()), COSMICUpdateUtil.MUTATION_COLUMNS))
+		{
+			return identifiers.merge(scanner);
+		}
+	}
+
+	/**
+	 * Tests that a file is sorted into a copy once, keeping the order of rows with the same legacy ID.
+	 */
+	@Test
+	public void testSortedCopy() throws IOException
+	{
+		Path directory = Files.createTempDirectory("sortedMutationFile");
+		Path sourceFile = writeMutationFile(directory, Arrays.asList("A\t1\tCOSM3\tCOSV1", "B\t2\tCOSM10\tCOSV2", "C\t3\tCOSM3\tCOSV3",
+			"D\t4\tCOSM1\tCOSV4"));
+		Path sortedDirectory = directory.resolve("sorted");
+
+		Path sortedFile = COSMICSortedMutationFile.getSortedFile(sourceFile, sortedDirectory, "v96");
+		assertEquals(sortedDirectory.resolve("CosmicMutantExport" + COSMICSortedMutationFile.SORTED_EXTENSION), sortedFile);
+		// Only the mutation columns are kept, legacy ID first.
+		assertEquals(Arrays.asList("LEGACY_MUTATION_ID\tMUTATION_ID\tGENOMIC_MUTATION_ID", "COSM1\t4\tCOSV4", "COSM10\t2\tCOSV2",
+			"COSM3\t1\tCOSV1", "COSM3\t3\tCOSV3"), readLines(sortedFile));
+
+		// The copy is reused, rather than the file being sorted again.
+		Files.write(sortedFile, new byte[0]);
+		assertEquals(sortedFile, COSMICSortedMutationFile.getSortedFile(sourceFile, sortedDirectory, "v96"));
+		assertEquals(0, Files.size(sortedFile));
+		// ...but not for another COSMIC version.
+		COSMICSortedMutationFile.getSortedFile(sourceFile, sortedDirectory, "v97");
+		assertEquals(5, readLines(sortedFile).size());
+	}
+
+	/**
+	 * Tests that the sorted copy of an unzipped file is reused by a run that unzips the file again.
+	 */
+	@Test
+	public void testSortedCopyOfUnzippedFileIsReused() throws IOException
+	{
+		Path directory = Files.createTempDirectory("sortedMutationFile");
+		Path unzippedFile = writeMutationFile(directory, Arrays.asList("A\t1\tCOSM3\tCOSV1", "B\t2\tCOSM1\tCOSV2"));
+		try(OutputStream output = new GZIPOutputStream(Files.newOutputStream(directory.resolve("CosmicMutantExport.tsv.gz"))))
+		{
+			output.write(Files.readAllBytes(unzippedFile));
+		}
+		Path sortedDirectory = directory.resolve("sorted");
+		Path sortedFile = COSMICSortedMutationFile.getSortedFile(unzippedFile, sortedDirectory, "v96");
+		Files.write(sortedFile, new byte[0]);
+
+		// The next run unzips the file again, so it has a new modification time.
+		Files.setLastModifiedTime(unzippedFile, FileTime.fromMillis(Files.getLastModifiedTime(unzippedFile).toMillis() + 60_000L));
+		assertEquals(sortedFile, COSMICSortedMutationFile.getSortedFile(unzippedFile, sortedDirectory, "v96"));
+		assertEquals(0, Files.size(sortedFile));
+	}
+
+	@Test
+	public void testAlreadySorted() throws IOException
+	{
+		Path directory = Files.createTempDirectory("sortedMutationFile");
+		Path sourceFile = writeMutationFile(directory, Arrays.asList("A\t1\tCOSM1\tCOSV1", "B\t2\tCOSM1\tCOSV2", "C\t3\tCOSM2\tCOSV3"));
+		Path sortedDirectory = directory.resolve("sorted");
+
+		assertEquals(sourceFile, COSMICSortedMutationFile.getSortedFile(sourceFile, sortedDirectory, "v96"));
+		assertFalse(Files.exists(sortedDirectory.resolve("CosmicMutantExport" + COSMICSortedMutationFile.SORTED_EXTENSION)));
+		// The file was only checked, not sorted, so nothing but the record was written (not even the runs of a sort).
+		try(Stream<Path> files = Files.list(sortedDirectory))
+		{
+			assertEquals(1, files.count());
+		}
+		assertEquals(sourceFile, COSMICSortedMutationFile.getSortedFile(sourceFile, sortedDirectory, "v96"));
+	}
+
+	/**
+	 * Tests that merging the identifiers with the sorted copy finds the same rows as looking up each row of the file.
+	 */
+	@Test
+	public void testMergeFindsSameMatches() throws IOException
+	{
+		Random random = new Random(96);
+		List<String> rows = new ArrayList<>();
+		for (int i = 0; i < 2000; i++)
+		{
+			rows.add("GENE" + i + "\tCOSM" + (5000 + i) + "\tCOSM" + random.nextInt(500) + "\tCOSV" + i);
+		}
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 600; i += 3)
+		{
+			keys.add("COSM" + i);
+		}
+		keys.add("COSF12");
+		keys.add("COSM0012");
+		Path directory = Files.createTempDirectory("sortedMutationFile");
+		Path sourceFile = writeMutationFile(directory, rows);
+		Path sortedFile = COSMICSortedMutationFile.getSortedFile(sourceFile, directory.resolve("sorted"), "v96");
+
+		COSMICIdentifierIndex identifierIndex = new COSMICIdentifierIndex(keys);
+		COSMICMutationMatches expectedMatches = new COSMICMutationMatches();
+		try(COSMICFileScanner scanner = new COSMICFileScanner(COSMICUpdateUtil.getInputStream(sourceFile.toString()),
+			COSMICUpdateUtil.MUTATION_COLUMNS))
+		{
+			scanner.scan(row -> {
+				String legacyID = identifierIndex.find(row.getBuffer(), row.getStart(COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD),
+					row.getEnd(COSMICUpdateUtil.LEGACY_MUTATION_ID_FIELD));
+				if (legacyID != null)
+				{
+					expectedMatches.add(legacyID, row.getString(COSMICUpdateUtil.MUTATION_ID_FIELD),
+						row.getString(COSMICUpdateUtil.GENOMIC_MUTATION_ID_FIELD));
+				}
+			});
+		}
+		COSMICMutationMatches matches = merge(new COSMICSortedIdentifiers(keys), sortedFile);
+
+		assertTrue(expectedMatches.size() > 0);
+		assertEquals(expectedMatches.size(), matches.size());
+		for (String key : keys)
+		{
+			COSMICMutationMatches.Match expectedMatch = expectedMatches.get(key);
+			if (expectedMatch == null)
+			{
+				assertNull(matches.get(key));
+				continue;
+			}
+			assertEquals(expectedMatch.getMutationIDs(), matches.get(key).getMutationIDs());
+			assertEquals(expectedMatch.getGenomicID(), matches.get(key).getGenomicID());
+		}
+	}
+
+	@Test
+	public void testMergeRejectsUnsortedFile() throws IOException
+	{
+		Path sourceFile = writeMutationFile(Files.createTempDirectory("sortedMutationFile"), Arrays.asList("A\t1\tCOSM1\tCOSV1",
+			"B\t2\tCOSM3\tCOSV2", "C\t3\tCOSM2\tCOSV3"));
+		assertNull(merge(new COSMICSortedIdentifiers(Arrays.asList("COSM2", "COSM3", "COSM4")), sourceFile));
+	}
+}
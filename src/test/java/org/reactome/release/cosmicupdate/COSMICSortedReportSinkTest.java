@@ -0,0 +1,71 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class COSMICSortedReportSinkTest
+{
+	private static final COSMICReportSink.Column[] COLUMNS = {
+		new COSMICReportSink.Column("COSMIC identifier", "identifier"),
+		new COSMICReportSink.Column("non-EWAS entity", "nonEWASEntity")
+	};
+
+	private static List<String> writeReport(Path directory, String name, int threadCount) throws Exception
+	{
+		ExecutorService execService = Executors.newFixedThreadPool(threadCount);
+		try(COSMICReportSink sink = new COSMICSortedReportSink(COSMICReportSink.open(directory, name,
+			COSMICReportSink.Format.parse("csv"), false, COLUMNS), "testReportWriter"))
+		{
+			List<Future<?>> results = new ArrayList<>();
+			for (int thread = 0; thread < threadCount; thread++)
+			{
+				int firstRow = thread;
+				results.add(execService.submit(() -> {
+					for (int row = firstRow; row < 1000; row += threadCount)
+					{
+						sink.writeRow("COSM" + (row % 100), row % 3 == 0 ? null : "Complex " + row);
+					}
+					return null;
+				}));
+			}
+			for (Future<?> result : results)
+			{
+				result.get();
+			}
+		}
+		finally
+		{
+			execService.shutdown();
+		}
+		return Files.readAllLines(directory.resolve(name + ".csv"), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Tests that the report is the same when it is written by several threads as when it is written by one, and that it is sorted.
+	 */
+	@Test
+	public void testRowsAreSorted() throws Exception
+	{
+		Path directory = Files.createTempDirectory("sortedReportSink");
+		List<String> lines = writeReport(directory, "oneThread", 1);
+		assertEquals(lines, writeReport(directory, "fourThreads", 4));
+
+		assertEquals(1001, lines.size());
+		assertEquals("COSMIC identifier,non-EWAS entity", lines.get(0));
+		// The rows without an entity (0, 300, 600 and 900) come before the others.
+		assertEquals("COSM0,", lines.get(4));
+		assertEquals("COSM0,Complex 100", lines.get(5));
+		assertEquals("COSM99,Complex 899", lines.get(1000));
+	}
+}
@@ -0,0 +1,95 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class COSMICUpdateMetricsTest
+{
+	@Test
+	public void testPhases() throws InterruptedException
+	{
+		COSMICUpdateMetrics metrics = new COSMICUpdateMetrics();
+		try(COSMICUpdateMetrics.Phase phase = metrics.startPhase(COSMICUpdateMetrics.DETERMINE_PREFIXES_PHASE))
+		{
+			phase.addRows(10);
+			phase.addDbRoundTrips(2);
+			Thread.sleep(20);
+		}
+		// Counters can be added before a phase is started, and a phase that is started again keeps its first start time.
+		metrics.getPhase(COSMICUpdateMetrics.WRITE_BACK_PHASE).addDbRoundTrips(3);
+		try(COSMICUpdateMetrics.Phase phase = metrics.startPhase(COSMICUpdateMetrics.DETERMINE_PREFIXES_PHASE))
+		{
+			phase.addRows(5);
+		}
+		metrics.finish(true);
+
+		assertEquals(2, metrics.getPhases().size());
+		COSMICUpdateMetrics.Phase determinePrefixes = metrics.getPhases().get(0);
+		assertEquals(COSMICUpdateMetrics.DETERMINE_PREFIXES_PHASE, determinePrefixes.getName());
+		assertEquals(15, determinePrefixes.getRows());
+		assertEquals(2, determinePrefixes.getDbRoundTrips());
+		assertTrue(determinePrefixes.getDurationNanos() >= 20_000_000L);
+		assertTrue(determinePrefixes.getHeapHighWaterBytes() > 0);
+		COSMICUpdateMetrics.Phase writeBack = metrics.getPhases().get(1);
+		assertEquals(3, writeBack.getDbRoundTrips());
+		assertEquals(0, writeBack.getDurationNanos());
+		assertTrue(metrics.getHeapHighWaterBytes() >= determinePrefixes.getHeapHighWaterBytes());
+	}
+
+	@Test
+	public void testJson()
+	{
+		COSMICUpdateMetrics metrics = new COSMICUpdateMetrics();
+		try(COSMICUpdateMetrics.Phase phase = metrics.startPhase(COSMICUpdateMetrics.VALIDATION_PHASE_PREFIX + "CosmicFusionExport.tsv.gz"))
+		{
+			phase.addRows(1000);
+			phase.addBytes(4096);
+			phase.addMatches(7);
+		}
+		metrics.finish(false);
+
+		String json = metrics.toJson();
+		assertTrue(json, json.contains("\"succeeded\": false"));
+		assertTrue(json, json.contains("\"name\": \"validate:CosmicFusionExport.tsv.gz\""));
+		assertTrue(json, json.contains("\"rows\": 1000,"));
+		assertTrue(json, json.contains("\"bytes\": 4096,"));
+		assertTrue(json, json.contains("\"matches\": 7,"));
+		Matcher rate = Pattern.compile("\"rowsPerSecond\": (\\d+\\.\\d)").matcher(json);
+		assertTrue(json, rate.find());
+		assertTrue(Double.parseDouble(rate.group(1)) > 0);
+		// Every object and array that is opened is closed.
+		assertEquals(json.chars().filter(c -> c == '{').count(), json.chars().filter(c -> c == '}').count());
+		assertEquals(json.chars().filter(c -> c == '[').count(), json.chars().filter(c -> c == ']').count());
+	}
+
+	@Test
+	public void testPrometheusTextfile() throws IOException
+	{
+		COSMICUpdateMetrics metrics = new COSMICUpdateMetrics();
+		try(COSMICUpdateMetrics.Phase phase = metrics.startPhase(COSMICUpdateMetrics.REPORT_PHASE))
+		{
+			phase.addRows(12);
+		}
+		metrics.finish(true);
+
+		Path directory = Files.createTempDirectory("cosmicMetrics");
+		Path textfile = directory.resolve("textfiles").resolve("cosmic_update.prom");
+		metrics.writePrometheusTextfile(textfile);
+		String text = new String(Files.readAllBytes(textfile), StandardCharsets.UTF_8);
+		assertTrue(text, text.contains("# TYPE cosmic_update_phase_rows gauge\n"));
+		assertTrue(text, text.contains("cosmic_update_phase_rows{phase=\"report\"} 12\n"));
+		assertTrue(text, text.contains("cosmic_update_succeeded 1\n"));
+		// The temporary file was moved into place.
+		assertFalse(Files.exists(directory.resolve("textfiles").resolve("cosmic_update.prom.tmp")));
+	}
+}
@@ -0,0 +1,198 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class COSMICUpdateStateTest
+{
+	private static final String SOURCE_FILES = "CosmicMutantExport.tsv.gz:100:1000";
+	private Path stateFile;
+
+	@Before
+	public void setup() throws IOException
+	{
+		this.stateFile = Files.createTempDirectory("cosmicState").resolve("state.csv");
+	}
+
+	private static COSMICIdentifierUpdater createUpdater(long dbID, String identifier, String cosvIdentifier, String... mutationIDs)
+	{
+		COSMICIdentifierUpdater updater = new COSMICIdentifierUpdater();
+		updater.setDbID(dbID);
+		updater.setIdentifier(identifier);
+		updater.setSuggestedPrefix(COSMICUpdateUtil.COSMIC_LEGACY_PREFIX);
+		updater.setCosvIdentifier(cosvIdentifier);
+		updater.setValid(cosvIdentifier != null);
+		updater.getMutationIDs().addAll(Arrays.asList(mutationIDs));
+		return updater;
+	}
+
+	@Test
+	public void testSaveAndLoad() throws IOException
+	{
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		lastInstanceEdits.put(1L, 100L);
+		lastInstanceEdits.put(2L, 200L);
+		lastInstanceEdits.put(3L, 300L);
+		Map<Long, Set<Long>> referrers = new HashMap<>();
+		referrers.put(1L, new HashSet<>(Arrays.asList(10L, 11L)));
+		referrers.put(3L, Collections.singleton(30L));
+		COSMICUpdateState state = new COSMICUpdateState("v96", SOURCE_FILES);
+		COSMICIdentifierUpdater written = createUpdater(1L, "1234", "COSV1", "11", "12");
+		written.setWritten(true);
+		state.recordResults(Arrays.asList(written, createUpdater(2L, "COSM5678", null)), lastInstanceEdits, referrers);
+		state.recordUnprocessed(3L, "COSV999", 300L, Collections.singleton(30L));
+		state.addOwnInstanceEdits(Arrays.asList(500L, 501L));
+		state.save(this.stateFile);
+
+		COSMICUpdateState loadedState = COSMICUpdateState.load(this.stateFile, "v96", SOURCE_FILES);
+		assertEquals(3, loadedState.size());
+		assertEquals(new HashSet<>(Arrays.asList(500L, 501L)), loadedState.getOwnInstanceEdits());
+		assertEquals(100L, loadedState.getEntry(1L).getLastModified());
+		// The referrers are loaded too, so nothing has changed.
+		assertEquals(Collections.emptySet(), loadedState.getChangedIdentifiers(lastInstanceEdits, referrers));
+
+		// COSV identifiers are not recreated as updaters.
+		List<COSMICIdentifierUpdater> updaters = loadedState.getUpdaters(Collections.emptySet());
+		assertEquals(2, updaters.size());
+		COSMICIdentifierUpdater loadedUpdater = updaters.get(0);
+		assertEquals(1L, loadedUpdater.getDbID());
+		assertEquals("1234", loadedUpdater.getIdentifier());
+		assertEquals("COSV1", loadedUpdater.getCosvIdentifier());
+		assertEquals(new HashSet<>(Arrays.asList("11", "12")), loadedUpdater.getMutationIDs());
+		assertTrue(loadedUpdater.isValid());
+		assertTrue(loadedUpdater.isWritten());
+		assertEquals(null, updaters.get(1).getCosvIdentifier());
+		assertFalse(updaters.get(1).isWritten());
+	}
+
+	@Test
+	public void testStateForOtherVersionIsNotUsed() throws IOException
+	{
+		COSMICUpdateState state = new COSMICUpdateState("v96", SOURCE_FILES);
+		state.recordUnprocessed(3L, "COSV999", 300L, Collections.singleton(30L));
+		state.save(this.stateFile);
+		assertEquals(0, COSMICUpdateState.load(this.stateFile, "v97", SOURCE_FILES).size());
+	}
+
+	/**
+	 * Tests that a state is not used for other COSMIC files of the same version, or when the COSMIC version is not known.
+	 */
+	@Test
+	public void testStateForOtherFilesIsNotUsed() throws IOException
+	{
+		Path file = Files.createTempFile("CosmicMutantExport", ".tsv");
+		Files.write(file, "LEGACY_MUTATION_ID\n".getBytes());
+		String sourceFiles = COSMICUpdateState.describeSourceFiles(Arrays.asList(file));
+		COSMICUpdateState state = new COSMICUpdateState("v96", sourceFiles);
+		state.recordUnprocessed(3L, "COSV999", 300L, Collections.singleton(30L));
+		state.save(this.stateFile);
+		assertEquals(1, COSMICUpdateState.load(this.stateFile, "v96", sourceFiles).size());
+
+		Files.write(file, "LEGACY_MUTATION_ID\nCOSM1\n".getBytes());
+		assertEquals(0, COSMICUpdateState.load(this.stateFile, "v96", COSMICUpdateState.describeSourceFiles(Arrays.asList(file))).size());
+
+		state = new COSMICUpdateState("", sourceFiles);
+		state.recordUnprocessed(3L, "COSV999", 300L, Collections.singleton(30L));
+		state.save(this.stateFile);
+		assertEquals(0, COSMICUpdateState.load(this.stateFile, "", sourceFiles).size());
+	}
+
+	/**
+	 * Tests that a state is reused by a second run that unzips the COSMIC files again, even though the unzipped files are new.
+	 */
+	@Test
+	public void testStateForUnzippedFilesIsUsed() throws IOException
+	{
+		Path directory = this.stateFile.getParent();
+		Path archive = directory.resolve("CosmicMutantExport.tsv.gz");
+		try(OutputStream output = new GZIPOutputStream(Files.newOutputStream(archive)))
+		{
+			output.write("LEGACY_MUTATION_ID\nCOSM1\n".getBytes(StandardCharsets.UTF_8));
+		}
+		Path unzippedFile = directory.resolve("CosmicMutantExport.tsv");
+
+		// The first run unzips the file, saves its state and deletes the unzipped file.
+		Files.write(unzippedFile, "LEGACY_MUTATION_ID\nCOSM1\n".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(unzippedFile, FileTime.fromMillis(1000L));
+		COSMICUpdateState state = new COSMICUpdateState("v96", COSMICUpdateState.describeSourceFiles(Arrays.asList(unzippedFile)));
+		state.recordUnprocessed(1L, "COSV1", 100L, Collections.emptySet());
+		state.save(this.stateFile);
+		Files.delete(unzippedFile);
+
+		// The second run unzips it again.
+		Files.write(unzippedFile, "LEGACY_MUTATION_ID\nCOSM1\n".getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(unzippedFile, FileTime.fromMillis(2000L));
+		assertEquals(1, COSMICUpdateState.load(this.stateFile, "v96", COSMICUpdateState.describeSourceFiles(Arrays.asList(unzippedFile))).size());
+
+		// A new archive is another file.
+		Files.setLastModifiedTime(archive, FileTime.fromMillis(3000L));
+		assertEquals(0, COSMICUpdateState.load(this.stateFile, "v96", COSMICUpdateState.describeSourceFiles(Arrays.asList(unzippedFile))).size());
+	}
+
+	@Test
+	public void testGetChangedIdentifiers()
+	{
+		COSMICUpdateState state = new COSMICUpdateState("v96", SOURCE_FILES);
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		lastInstanceEdits.put(1L, 100L);
+		lastInstanceEdits.put(2L, 200L);
+		lastInstanceEdits.put(3L, 300L);
+		state.recordResults(Arrays.asList(createUpdater(1L, "1", null), createUpdater(2L, "2", null), createUpdater(3L, "3", null)), lastInstanceEdits,
+			Collections.singletonMap(1L, Collections.singleton(10L)));
+
+		Map<Long, Long> currentInstanceEdits = new HashMap<>();
+		// 1 is unchanged, 2 was modified, 3 was deleted and 4 is new.
+		currentInstanceEdits.put(1L, 100L);
+		currentInstanceEdits.put(2L, 250L);
+		currentInstanceEdits.put(4L, 400L);
+		Set<Long> changedIdentifiers = state.getChangedIdentifiers(currentInstanceEdits, Collections.singletonMap(1L, Collections.singleton(10L)));
+
+		assertEquals(new HashSet<>(Arrays.asList(2L, 4L)), changedIdentifiers);
+		assertEquals(2, state.size());
+		assertEquals(1, state.getUpdaters(changedIdentifiers).size());
+	}
+
+	/**
+	 * Tests that an identifier has changed when an EWAS no longer refers to it, or a new EWAS does, even though its last InstanceEdit is the same.
+	 */
+	@Test
+	public void testChangedReferrersChangeIdentifier()
+	{
+		COSMICUpdateState state = new COSMICUpdateState("v96", SOURCE_FILES);
+		Map<Long, Long> lastInstanceEdits = new HashMap<>();
+		lastInstanceEdits.put(1L, 100L);
+		lastInstanceEdits.put(2L, 200L);
+		lastInstanceEdits.put(3L, 300L);
+		Map<Long, Set<Long>> referrers = new HashMap<>();
+		referrers.put(1L, new HashSet<>(Arrays.asList(10L, 11L)));
+		referrers.put(2L, Collections.singleton(20L));
+		state.recordResults(Arrays.asList(createUpdater(1L, "1", null), createUpdater(2L, "2", null), createUpdater(3L, "3", null)), lastInstanceEdits,
+			referrers);
+
+		// 1 lost a referrer, 2 is unchanged and 3 gained one.
+		Map<Long, Set<Long>> currentReferrers = new HashMap<>();
+		currentReferrers.put(1L, Collections.singleton(10L));
+		currentReferrers.put(2L, Collections.singleton(20L));
+		currentReferrers.put(3L, Collections.singleton(30L));
+		assertEquals(new HashSet<>(Arrays.asList(1L, 3L)), state.getChangedIdentifiers(lastInstanceEdits, currentReferrers));
+	}
+}
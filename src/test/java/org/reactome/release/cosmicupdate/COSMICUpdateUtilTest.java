@@ -1,23 +1,32 @@
 package org.reactome.release.cosmicupdate;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.gk.model.GKInstance;
 import org.gk.model.ReactomeJavaConstants;
+import org.gk.persistence.MySQLAdaptor;
 import org.gk.schema.InvalidAttributeException;
 import org.gk.schema.SchemaClass;
 import org.junit.Before;
@@ -111,6 +120,94 @@ public class COSMICUpdateUtilTest
 		}		
 	}
 	
+	@Test
+	public void testValidateAgainstGzippedFiles() throws IOException
+	{
+		Map<String, List<COSMICIdentifierUpdater>> updates = new HashMap<>();
+		
+		COSMICIdentifierUpdater updater1 = new COSMICIdentifierUpdater();
+		COSMICIdentifierUpdater updater2 = new COSMICIdentifierUpdater();
+		updates.put(IDENTIFIER_1234, Arrays.asList(updater1));
+		updates.put(IDENTIFIER_5678, Arrays.asList(updater2));
+		
+		COSMICUpdateUtil.validateIdentifiersAgainstFiles(updates, gzip(COSMICFusionExportFile), gzip(COSMICMutationTrackingFile), gzip(COSMICMutantExportFile));
+		
+		assertTrue(updater1.isValid());
+		assertEquals("COSV2323232", updater1.getCosvIdentifier());
+		assertTrue(updater1.getMutationIDs().contains(IDENTIFIER_1234));
+		assertFalse(updater2.isValid());
+	}
+	
+	@Test
+	public void testMergeValidationResultsPrecedence()
+	{
+		Map<String, List<COSMICIdentifierUpdater>> updates = new HashMap<>();
+		COSMICIdentifierUpdater inBothFiles = new COSMICIdentifierUpdater();
+		COSMICIdentifierUpdater onlyInMutationTracking = new COSMICIdentifierUpdater();
+		COSMICIdentifierUpdater fusion = new COSMICIdentifierUpdater();
+		updates.put(IDENTIFIER_COSM1111, Arrays.asList(inBothFiles));
+		updates.put(IDENTIFIER_5678, Arrays.asList(onlyInMutationTracking));
+		updates.put(IDENTIFIER_COSF1234, Arrays.asList(fusion));
+
+		COSMICMutationMatches mutationTrackingMatches = new COSMICMutationMatches();
+		mutationTrackingMatches.add(IDENTIFIER_COSM1111, "1", "COSV1");
+		mutationTrackingMatches.add(IDENTIFIER_5678, "2", "COSV2");
+		COSMICMutationMatches mutantExportMatches = new COSMICMutationMatches();
+		mutantExportMatches.add(IDENTIFIER_COSM1111, "3", "COSV3");
+
+		COSMICUpdateUtil.mergeValidationResults(updates, new HashSet<>(Arrays.asList(IDENTIFIER_COSF1234)), mutationTrackingMatches, mutantExportMatches);
+
+		// Mutant Export wins over Mutation Tracking.
+		assertTrue(inBothFiles.isValid());
+		assertEquals("COSV3", inBothFiles.getCosvIdentifier());
+		assertEquals(new HashSet<>(Arrays.asList("1", "3")), inBothFiles.getMutationIDs());
+		// Mutation Tracking alone does not make an identifier valid.
+		assertFalse(onlyInMutationTracking.isValid());
+		assertEquals("COSV2", onlyInMutationTracking.getCosvIdentifier());
+		assertTrue(fusion.isValid());
+	}
+
+	/**
+	 * Writes a gzipped copy of a file next to it.
+	 * @param pathToFile The file to compress.
+	 * @return The path to the gzipped copy.
+	 */
+	private String gzip(String pathToFile) throws IOException
+	{
+		Path pathToGzippedFile = Path.of(pathToFile + ".gz");
+		try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(pathToGzippedFile)))
+		{
+			Files.copy(Path.of(pathToFile), out);
+		}
+		return pathToGzippedFile.toString();
+	}
+	
+	@Test
+	public void testLoadPrefixAttributes() throws Exception
+	{
+		MySQLAdaptor mockAdaptor = Mockito.mock(MySQLAdaptor.class);
+		GKInstance mockCosmicObject = Mockito.mock(GKInstance.class);
+		GKInstance mockEWAS = Mockito.mock(GKInstance.class);
+		GKInstance mockModResidue = Mockito.mock(GKInstance.class);
+		SchemaClass mockEWASSchemaClass = Mockito.mock(SchemaClass.class);
+		SchemaClass mockFragReplaceSchemaClass = Mockito.mock(SchemaClass.class);
+
+		Mockito.when(mockEWASSchemaClass.getName()).thenReturn(ReactomeJavaConstants.EntityWithAccessionedSequence);
+		Mockito.when(mockEWAS.getSchemClass()).thenReturn(mockEWASSchemaClass);
+		Mockito.when(mockFragReplaceSchemaClass.getName()).thenReturn(ReactomeJavaConstants.FragmentReplacedModification);
+		Mockito.when(mockModResidue.getSchemClass()).thenReturn(mockFragReplaceSchemaClass);
+		Mockito.when(mockEWAS.getAttributeValuesList(ReactomeJavaConstants.hasModifiedResidue)).thenReturn(Arrays.asList(mockModResidue));
+		Mockito.when(mockCosmicObject.getReferers(ReactomeJavaConstants.crossReference)).thenReturn(Arrays.asList(mockEWAS));
+
+		COSMICUpdateUtil.loadPrefixAttributes(mockAdaptor, Arrays.asList(mockCosmicObject));
+
+		// One bulk query for each level: referrers, EWAS attributes, residue attributes.
+		Mockito.verify(mockAdaptor).loadInstanceReverseAttributeValues(Arrays.asList(mockCosmicObject), new String[] { ReactomeJavaConstants.crossReference });
+		Mockito.verify(mockAdaptor).loadInstanceAttributeValues(Arrays.asList(mockEWAS),
+			new String[] { ReactomeJavaConstants.referenceEntity, ReactomeJavaConstants.hasModifiedResidue });
+		Mockito.verify(mockAdaptor).loadInstanceAttributeValues(Arrays.asList(mockModResidue), new String[] { ReactomeJavaConstants.referenceSequence });
+	}
+
 	@Test
 	public void testDeterminePrefixes() throws InvalidAttributeException, IOException, Exception
 	{
@@ -232,5 +329,104 @@ public class COSMICUpdateUtilTest
 		assertTrue(noReferrersReportExists);
 		assertTrue(nonEWASReportExists);
 	}
-}
 
+	@Test
+	public void testGetUpdaterKey()
+	{
+		COSMICIdentifierUpdater numericUpdater = new COSMICIdentifierUpdater();
+		numericUpdater.setIdentifier(IDENTIFIER_1234);
+		numericUpdater.setSuggestedPrefix(COSMICUpdateUtil.COSMIC_FUSION_PREFIX);
+		assertEquals(IDENTIFIER_COSF1234, COSMICUpdateUtil.getUpdaterKey(numericUpdater));
+
+		// An identifier with a prefix is its own key, whatever prefix is suggested for it.
+		COSMICIdentifierUpdater prefixedUpdater = new COSMICIdentifierUpdater();
+		prefixedUpdater.setIdentifier(IDENTIFIER_COSM1111);
+		prefixedUpdater.setSuggestedPrefix(COSMICUpdateUtil.COSMIC_FUSION_PREFIX);
+		assertEquals(IDENTIFIER_COSM1111, COSMICUpdateUtil.getUpdaterKey(prefixedUpdater));
+	}
+
+	@Test
+	public void testGetNonCOSVIdentifiers() throws Exception
+	{
+		GKInstance mockCosmicObject = Mockito.mock(GKInstance.class);
+		GKInstance mockCosvObject = Mockito.mock(GKInstance.class);
+		Mockito.when(mockCosmicObject.getDBID()).thenReturn(DBID_1234);
+		Mockito.when(mockCosmicObject.getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn(IDENTIFIER_1234);
+		Mockito.when(mockCosvObject.getDBID()).thenReturn(DBID_1235);
+		Mockito.when(mockCosvObject.getAttributeValue(ReactomeJavaConstants.identifier)).thenReturn("cosv1235");
+
+		Map<Long, String> identifiers = COSMICUpdateUtil.getNonCOSVIdentifiers(Arrays.asList(mockCosmicObject, mockCosvObject));
+		assertEquals(1, identifiers.size());
+		assertEquals(IDENTIFIER_1234, identifiers.get(DBID_1234));
+	}
+
+	/**
+	 * Tests that the COSV identifiers are left out by the query, and that only the DatabaseIdentifiers it returns are fetched.
+	 */
+	@Test
+	public void testGetNonCOSVIdentifiersWithQuery() throws Exception
+	{
+		MySQLAdaptor mockAdaptor = Mockito.mock(MySQLAdaptor.class);
+		GKInstance mockRefDB = Mockito.mock(GKInstance.class);
+		Mockito.when(mockRefDB.getDBID()).thenReturn(DBID_1235);
+		Mockito.when(mockAdaptor.fetchInstanceByAttribute(ReactomeJavaConstants.ReferenceDatabase, ReactomeJavaConstants.name, " = ", "COSMIC"))
+			.thenReturn(Arrays.asList(mockRefDB));
+		Connection mockConnection = Mockito.mock(Connection.class);
+		PreparedStatement mockStatement = Mockito.mock(PreparedStatement.class);
+		ResultSet mockResults = Mockito.mock(ResultSet.class);
+		Mockito.when(mockAdaptor.getConnection()).thenReturn(mockConnection);
+		Mockito.when(mockConnection.prepareStatement(Mockito.anyString())).thenReturn(mockStatement);
+		Mockito.when(mockStatement.executeQuery()).thenReturn(mockResults);
+		Mockito.when(mockResults.next()).thenReturn(true, true, false);
+		Mockito.when(mockResults.getLong(1)).thenReturn(DBID_1234, 1236L);
+		Mockito.when(mockResults.getString(2)).thenReturn(IDENTIFIER_1234, IDENTIFIER_COSM1111);
+
+		Map<Long, String> identifiers = COSMICUpdateUtil.getNonCOSVIdentifiers(mockAdaptor);
+		assertEquals(2, identifiers.size());
+		assertEquals(IDENTIFIER_1234, identifiers.get(DBID_1234));
+		assertEquals(IDENTIFIER_COSM1111, identifiers.get(1236L));
+		Mockito.verify(mockStatement).setLong(1, DBID_1235);
+		Mockito.verify(mockStatement).setString(2, "COSV%");
+
+		GKInstance mockCosmicObject = Mockito.mock(GKInstance.class);
+		Mockito.when(mockAdaptor.fetchInstanceByAttribute(Mockito.eq(ReactomeJavaConstants.DatabaseIdentifier),
+			Mockito.eq(ReactomeJavaConstants.DB_ID), Mockito.eq("="), Mockito.any())).thenReturn(Arrays.asList(mockCosmicObject));
+		assertEquals(Arrays.asList(mockCosmicObject), new ArrayList<>(COSMICUpdateUtil.getCOSMICIdentifiers(mockAdaptor, identifiers.keySet())));
+		// The COSMIC identifiers are not fetched by their ReferenceDatabase, which would create every one of them.
+		Mockito.verify(mockAdaptor, Mockito.never()).fetchInstanceByAttribute(Mockito.eq(ReactomeJavaConstants.DatabaseIdentifier),
+			Mockito.eq(ReactomeJavaConstants.referenceDatabase), Mockito.anyString(), Mockito.any());
+	}
+
+	/**
+	 * Tests that the last InstanceEdit of an EWAS is also the last one of any of its modified residues, so that editing a residue's
+	 * referenceSequence makes the EWAS's fusion verdict out of date.
+	 */
+	@Test
+	public void testGetLastEWASInstanceEditsIncludesResidues() throws Exception
+	{
+		MySQLAdaptor mockAdaptor = Mockito.mock(MySQLAdaptor.class);
+		Connection mockConnection = Mockito.mock(Connection.class);
+		PreparedStatement mockStatement = Mockito.mock(PreparedStatement.class);
+		ResultSet mockResults = Mockito.mock(ResultSet.class);
+		Mockito.when(mockAdaptor.getConnection()).thenReturn(mockConnection);
+		Mockito.when(mockConnection.prepareStatement(Mockito.anyString())).thenReturn(mockStatement);
+		Mockito.when(mockStatement.executeQuery()).thenReturn(mockResults);
+		// The rows of EWAS 1 (created by 10), EWAS 2 (modified by 20), and EWAS 1's residue (modified by 30).
+		Mockito.when(mockResults.next()).thenReturn(true, true, true, false);
+		Mockito.when(mockResults.getLong(1)).thenReturn(1L, 2L, 1L);
+		Mockito.when(mockResults.getLong(2)).thenReturn(10L, 15L, 12L);
+		Mockito.when(mockResults.getLong(3)).thenReturn(0L, 20L, 30L);
+		GKInstance ewas1 = Mockito.mock(GKInstance.class);
+		Mockito.when(ewas1.getDBID()).thenReturn(1L);
+		GKInstance ewas2 = Mockito.mock(GKInstance.class);
+		Mockito.when(ewas2.getDBID()).thenReturn(2L);
+
+		Map<Long, Long> lastInstanceEdits = COSMICUpdateUtil.getLastEWASInstanceEdits(mockAdaptor, Arrays.asList(ewas1, ewas2));
+		assertEquals(Long.valueOf(30L), lastInstanceEdits.get(1L));
+		assertEquals(Long.valueOf(20L), lastInstanceEdits.get(2L));
+		// The DB_IDs are passed once for the EWASes and once for their residues.
+		Mockito.verify(mockStatement).setLong(1, 1L);
+		Mockito.verify(mockStatement).setLong(3, 1L);
+		Mockito.verify(mockStatement).setLong(4, 2L);
+	}
+}
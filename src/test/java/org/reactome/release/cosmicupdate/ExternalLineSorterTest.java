@@ -0,0 +1,95 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class ExternalLineSorterTest
+{
+	private static List<String> sort(List<String> lines, Comparator<String> comparator, int maxLinesInMemory, Path directory) throws IOException
+	{
+		List<String> sortedLines = new ArrayList<>();
+		ExternalLineSorter sorter = new ExternalLineSorter(comparator, maxLinesInMemory, directory);
+		try(ExternalLineSorter.SortedLines sorted = sorter.sort(new BufferedReader(new StringReader(String.join("\n", lines)))))
+		{
+			sorted.forEachRemaining(sortedLines::add);
+		}
+		return sortedLines;
+	}
+
+	/**
+	 * Tests that the lines are sorted the same way when they are merged from several runs as when they all fit in memory,
+	 * and that equal lines keep their order.
+	 */
+	@Test
+	public void testSortAcrossRuns() throws IOException
+	{
+		Random random = new Random(17);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+		{
+			lines.add(random.nextInt(100) + "," + i);
+		}
+		Comparator<String> byKey = Comparator.comparingInt(line -> Integer.parseInt(line.substring(0, line.indexOf(','))));
+		List<String> expectedLines = new ArrayList<>(lines);
+		expectedLines.sort(byKey);
+
+		Path directory = Files.createTempDirectory("externalSort");
+		assertEquals(expectedLines, sort(lines, byKey, 10_000, directory));
+		assertEquals(expectedLines, sort(lines, byKey, 64, directory));
+		assertEquals(expectedLines, sort(lines, byKey, 1, directory));
+		// The runs were deleted.
+		try(Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(0, files.count());
+		}
+	}
+
+	/**
+	 * Tests that the lines are projected before they are sorted, both in memory and when they are merged from the (gzipped) runs.
+	 */
+	@Test
+	public void testSortProjectedLines() throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+		{
+			lines.add("row" + i + "," + ((i * 37) % 100));
+		}
+		Comparator<String> byKey = Comparator.comparingInt(Integer::parseInt);
+		List<String> expectedLines = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+		{
+			expectedLines.add(Integer.toString(i));
+		}
+		Path directory = Files.createTempDirectory("externalSort");
+		for (int maxLinesInMemory : new int[] { 1000, 7 })
+		{
+			List<String> sortedLines = new ArrayList<>();
+			ExternalLineSorter sorter = new ExternalLineSorter(byKey, maxLinesInMemory, directory);
+			try(ExternalLineSorter.SortedLines sorted = sorter.sort(new BufferedReader(new StringReader(String.join("\n", lines))),
+				line -> line.substring(line.indexOf(',') + 1)))
+			{
+				sorted.forEachRemaining(sortedLines::add);
+			}
+			assertEquals(expectedLines, sortedLines);
+		}
+	}
+
+	@Test
+	public void testSortEmpty() throws IOException
+	{
+		assertEquals(new ArrayList<>(), sort(new ArrayList<>(), Comparator.naturalOrder(), 2, Files.createTempDirectory("externalSort")));
+	}
+}
@@ -0,0 +1,63 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gk.persistence.MySQLAdaptor;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MySQLAdaptorPoolTest
+{
+	@Test
+	public void testBorrowReusesReleasedAdaptors() throws Exception
+	{
+		List<MySQLAdaptor> createdAdaptors = new ArrayList<>();
+		MySQLAdaptorPool pool = new MySQLAdaptorPool(() -> {
+			MySQLAdaptor adaptor = Mockito.mock(MySQLAdaptor.class);
+			createdAdaptors.add(adaptor);
+			return adaptor;
+		}, 2);
+
+		MySQLAdaptor first = pool.borrow();
+		MySQLAdaptor second = pool.borrow();
+		assertTrue(first != second);
+		pool.release(first);
+		// A released adaptor is handed out again, rather than opening a new connection.
+		assertTrue(pool.borrow() == first);
+		assertEquals(2, createdAdaptors.size());
+
+		pool.close();
+		for (MySQLAdaptor adaptor : createdAdaptors)
+		{
+			Mockito.verify(adaptor).cleanUp();
+		}
+	}
+
+	@Test
+	public void testBorrowWaitsWhenPoolIsFull() throws Exception
+	{
+		MySQLAdaptorPool pool = new MySQLAdaptorPool(() -> Mockito.mock(MySQLAdaptor.class), 1);
+		MySQLAdaptor adaptor = pool.borrow();
+
+		Thread releaser = new Thread(() -> {
+			try
+			{
+				Thread.sleep(100);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			pool.release(adaptor);
+		});
+		releaser.start();
+		// The pool is full, so this waits for the adaptor to be released instead of creating a second one.
+		assertTrue(pool.borrow() == adaptor);
+		releaser.join();
+		pool.close();
+	}
+}
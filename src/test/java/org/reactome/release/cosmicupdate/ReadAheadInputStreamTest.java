@@ -0,0 +1,123 @@
+package org.reactome.release.cosmicupdate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReadAheadInputStreamTest
+{
+	/**
+	 * Tests that all of the bytes are read, in order, whatever the sizes of the chunks and of the reads.
+	 */
+	@Test
+	public void testReadsAllBytes() throws IOException
+	{
+		byte[] data = new byte[100_000];
+		new Random(1L).nextBytes(data);
+		for (int chunkSize : new int[] { 1, 7, 4096, 200_000 })
+		{
+			try(InputStream stream = new ReadAheadInputStream(new ByteArrayInputStream(data), "test", chunkSize, 2))
+			{
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1000];
+				// Mix single-byte reads and reads into a buffer.
+				int value;
+				while ((value = stream.read()) != -1)
+				{
+					output.write(value);
+					int count = stream.read(buffer, 0, 1 + output.size() % buffer.length);
+					if (count == -1)
+					{
+						break;
+					}
+					output.write(buffer, 0, count);
+				}
+				assertArrayEquals("Chunk size " + chunkSize, data, output.toByteArray());
+				assertEquals(-1, stream.read());
+			}
+		}
+	}
+
+	@Test
+	public void testEmptySource() throws IOException
+	{
+		try(InputStream stream = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), "test"))
+		{
+			assertEquals(-1, stream.read());
+		}
+	}
+
+	/**
+	 * Tests that an exception from the source is thrown to the reader, after the bytes that were read before it.
+	 */
+	@Test
+	public void testSourceException() throws IOException
+	{
+		InputStream failingStream = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				throw new IOException("Corrupt archive");
+			}
+		};
+		byte[] data = "COSM1\tCOSV1\n".getBytes();
+		try(InputStream stream = new ReadAheadInputStream(new SequenceInputStream(new ByteArrayInputStream(data), failingStream), "test", 4, 2))
+		{
+			byte[] buffer = new byte[100];
+			int length = 0;
+			try
+			{
+				int count;
+				while ((count = stream.read(buffer, length, buffer.length - length)) > 0)
+				{
+					length += count;
+				}
+				fail("Expected an IOException");
+			}
+			catch (IOException e)
+			{
+				assertEquals("Corrupt archive", e.getMessage());
+			}
+			// The data fills exactly three chunks, which are all handed over before the exception.
+			assertEquals(data.length, length);
+		}
+	}
+
+	/**
+	 * Tests that closing the stream before the source has been read stops the background thread.
+	 */
+	@Test(timeout = 10000)
+	public void testCloseBeforeEnd() throws IOException
+	{
+		InputStream endlessStream = new InputStream()
+		{
+			@Override
+			public int read()
+			{
+				return 'C';
+			}
+		};
+		InputStream stream = new ReadAheadInputStream(endlessStream, "test", 16, 2);
+		assertEquals('C', stream.read());
+		stream.close();
+		try
+		{
+			stream.read();
+			fail("Expected an IOException");
+		}
+		catch (IOException e)
+		{
+			// expected: the stream is closed.
+		}
+	}
+}